@@ -9,6 +9,13 @@ public class Main {
     private static final int DEF_PORT_DIR = 4000;
     private static final int TIMEOUT_RECONEXAO_MS = 20000;
 
+    /** Ligação para as leituras (a um backup, dado pela diretoria); null se não houver. */
+    private static Socket socketLeitura;
+    private static BufferedReader inLeitura;
+    private static PrintWriter outLeitura;
+    /** Versão indicada pelo servidor na última resposta de leitura (VERSAO_LIDA). */
+    private static String versaoLida;
+
     private static class Credenciais {
         String tipo;
         String email;
@@ -94,6 +101,7 @@ public class Main {
                             System.out.print("Password: ");
                             String pass  = sc.nextLine().trim();
                             wire = "LOGIN_DOCENTE;" + email + ";" + pass;
+                            fecharLeitura();
 
                             credenciais = new Credenciais("DOCENTE", email, pass);
                             break;
@@ -104,6 +112,7 @@ public class Main {
                             System.out.print("Password: ");
                             String pass  = sc.nextLine().trim();
                             wire = "LOGIN_ESTUDANTE;" + email + ";" + pass;
+                            fecharLeitura();
 
                             credenciais = new Credenciais("ESTUDANTE", email, pass);
                             break;
@@ -229,6 +238,7 @@ public class Main {
                         }
                         case "14": {
                             wire = "LOGOUT";
+                            fecharLeitura();
                             if (credenciais != null) {
                                 credenciais.autenticado = false;
                             }
@@ -248,14 +258,64 @@ public class Main {
                             wire = "LISTAR_RESPOSTAS_ESTUDANTE";
                             break;
                         }
+                        case "17": {
+                            System.out.print("Ficheiro CSV (numero;nome;email;password): ");
+                            String caminho = sc.nextLine().trim();
+                            try {
+                                byte[] csv = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(caminho));
+                                wire = "REGISTAR_ESTUDANTES_LOTE;" + java.util.Base64.getEncoder().encodeToString(csv);
+                            } catch (IOException ioe) {
+                                System.err.println("[Cliente] ✗ Não foi possível ler o ficheiro: " + ioe.getMessage());
+                                continue;
+                            }
+                            break;
+                        }
+                        case "18": {
+                            System.out.print("Enunciado: ");
+                            String enun  = sc.nextLine().trim();
+                            System.out.print("Início (AAAA-MM-DD HH:mm): ");
+                            String ini   = sc.nextLine().trim();
+                            System.out.print("Fim    (AAAA-MM-DD HH:mm): ");
+                            String fim   = sc.nextLine().trim();
+                            StringBuilder sbOp = new StringBuilder("CRIAR_PERGUNTA_COMPLETA;" + enun + ";" + ini + ";" + fim);
+                            char letra = 'a';
+                            while (letra <= 'z') {
+                                System.out.print("Texto da opção " + letra + " (vazio para terminar): ");
+                                String txt = sc.nextLine().trim();
+                                if (txt.isEmpty()) break;
+                                System.out.print("É correta? (1/0): ");
+                                String ok = "1".equals(sc.nextLine().trim()) ? "1" : "0";
+                                sbOp.append("|").append(letra).append(";").append(txt).append(";").append(ok);
+                                letra++;
+                            }
+                            if (letra - 'a' < 2) {
+                                System.out.println("[Cliente] São necessárias pelo menos 2 opções.");
+                                continue;
+                            }
+                            wire = sbOp.toString();
+                            break;
+                        }
+                        case "19": {
+                            System.out.print("Termos a pesquisar: ");
+                            String termos = sc.nextLine().trim();
+                            System.out.print("Página (Enter = 1): ");
+                            String pagina = sc.nextLine().trim();
+                            wire = "SEARCH_PERGUNTAS;" + termos + ";" + (pagina.isEmpty() ? "1" : pagina);
+                            break;
+                        }
                         default:
                             System.out.println("[Cliente] Opção inválida.");
                             continue;
                     }
 
                     if (wire != null && !wire.isEmpty()) {
-                        out.println(wire);
-                        String resp = lerResposta(in);
+                        String resp = ehLeitura(wire)
+                                ? pedirLeitura(wire, credenciais, ipDiretoria, portoDiretoria, ipServidor, portoServidor)
+                                : null;
+                        if (resp == null) {
+                            out.println(wire);
+                            resp = lerResposta(in);
+                        }
 
                         if (resp == null) {
                             System.out.println("[Cliente] ✗ Ligação fechada pelo servidor.");
@@ -276,6 +336,8 @@ public class Main {
 
                         if (wire.startsWith("LISTAR_PERGUNTAS") && resp.startsWith("PERGUNTAS_LISTA:")) {
                             imprimirListaPerguntas(resp);
+                        } else if (wire.startsWith("SEARCH_PERGUNTAS") && resp.startsWith("PESQUISA_RESULTADOS:")) {
+                            imprimirPesquisa(resp);
                         } else if (wire.startsWith("VER_RESULTADOS") && resp.startsWith("RESULTADOS:")) {
                             imprimirResultados(resp);
                         } else if (wire.startsWith("LISTAR_RESPOSTAS_ESTUDANTE") &&
@@ -283,6 +345,8 @@ public class Main {
                             imprimirRespostasEstudante(resp);
                         } else if (wire.startsWith("EXPORTAR_CSV") && resp.startsWith("CSV_EXPORTADO:")) {
                             exportarCSV(resp, wire);
+                        } else if (resp.startsWith("IMPORTACAO_CONCLUIDA:")) {
+                            imprimirRelatorioImportacao(resp);
                         } else if (resp.startsWith("INFO:")) {
                             String code = resp.substring("INFO:".length());
                             switch (code) {
@@ -296,6 +360,9 @@ public class Main {
                         } else {
                             System.out.println("[Cliente] " + resp);
                         }
+                        if (versaoLida != null && ehLeitura(wire)) {
+                            System.out.println("[Cliente] (dados lidos na versão " + versaoLida + ")");
+                        }
                     }
                 }
 
@@ -355,17 +422,78 @@ public class Main {
     }
 
     private static String lerResposta(BufferedReader in) throws IOException {
+        versaoLida = null;
         String linha;
         while ((linha = in.readLine()) != null) {
             if (linha.startsWith("NOTIF:")) {
                 System.out.println("[NOTIFICAÇÃO] " + linha.substring(6));
                 continue;
             }
+            if (linha.startsWith("VERSAO_LIDA:")) {
+                versaoLida = linha.substring("VERSAO_LIDA:".length());
+                continue;
+            }
             return linha;
         }
         return null;
     }
 
+    private static boolean ehLeitura(String wire) {
+        return wire.startsWith("LISTAR_PERGUNTAS") || wire.startsWith("VER_RESULTADOS")
+                || wire.startsWith("EXPORTAR_CSV") || wire.startsWith("LISTAR_RESPOSTAS_ESTUDANTE");
+    }
+
+    /**
+     * Envia a leitura pela ligação de leitura, abrindo-a (com o mesmo login) se for preciso.
+     * Devolve null se a diretoria indicar o próprio principal, se a ligação falhar ou se o
+     * backup recusar (atrasado): o pedido segue então pela ligação ao principal.
+     */
+    private static String pedirLeitura(String wire, Credenciais credenciais, String ipDir, int portoDir,
+                                       String ipPrincipal, int portoPrincipal) {
+        if (credenciais == null || !credenciais.autenticado) return null;
+        try {
+            if (socketLeitura == null) {
+                String[] hp = pedirServidor("PEDIDO_CLIENTE_LEITURA", ipDir, portoDir, 1000, 1);
+                int porto = Integer.parseInt(hp[1]);
+                if (hp[0].equals(ipPrincipal) && porto == portoPrincipal) return null;
+
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(hp[0], porto), 2000);
+                s.setSoTimeout(10000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                out.println(credenciais.getComandoLogin());
+                if (!"LOGIN_OK".equals(lerResposta(in))) {
+                    s.close();
+                    return null;
+                }
+                socketLeitura = s;
+                inLeitura = in;
+                outLeitura = out;
+                System.out.println("[Cliente] Leituras servidas por " + hp[0] + ":" + porto);
+            }
+            outLeitura.println(wire);
+            String resp = lerResposta(inLeitura);
+            if (resp == null || resp.startsWith("ERRO:REPLICA_ATRASADA") || resp.startsWith("ERRO:SO_LEITURA")) {
+                fecharLeitura();
+                return null;
+            }
+            return resp;
+        } catch (Exception e) {
+            fecharLeitura();
+            return null;
+        }
+    }
+
+    private static void fecharLeitura() {
+        fecharQuietamente(inLeitura);
+        fecharQuietamente(outLeitura);
+        fecharQuietamente(socketLeitura);
+        socketLeitura = null;
+        inLeitura = null;
+        outLeitura = null;
+    }
+
     private static void processarPerguntaParaResponder(String resp, Scanner sc,
                                                        PrintWriter out, BufferedReader in) throws IOException {
         String dados = resp.substring("PERGUNTA_PARA_RESPONDER:".length());
@@ -430,6 +558,23 @@ public class Main {
         }
     }
 
+    private static void imprimirPesquisa(String resp) {
+        String[] partes = resp.substring("PESQUISA_RESULTADOS:".length()).split("\\|");
+        String[] cab = partes[0].split(":");
+
+        System.out.println("\n=== Resultados da pesquisa (página " + cab[1] + ", " + cab[0] + " pergunta(s)) ===");
+        for (int i = 1; i < partes.length; i++) {
+            String[] campos = partes[i].split(";");
+            if (campos.length >= 6) {
+                System.out.printf("┌─ Pergunta #%s ─────────────────────────────────────\n", campos[0]);
+                System.out.printf("│ Enunciado: %s\n", campos[1]);
+                System.out.printf("│ Período: %s até %s\n", campos[2], campos[3]);
+                System.out.printf("│ Código: %s | Estado: %s\n", campos[4], campos[5]);
+                System.out.println("└─────────────────────────────────────────────────────\n");
+            }
+        }
+    }
+
     private static void imprimirResultados(String resp) {
         String payload = resp.substring("RESULTADOS:".length());
         String[] blocos = payload.split("\\|");
@@ -522,6 +667,18 @@ public class Main {
         }
     }
 
+    private static void imprimirRelatorioImportacao(String resp) {
+        String[] blocos = resp.substring("IMPORTACAO_CONCLUIDA:".length()).split("\\|");
+        String[] totais = blocos[0].split(":");
+        System.out.println("[Cliente] ✓ Estudantes importados: " + totais[0] + " | Linhas rejeitadas: " + totais[1]);
+        for (int i = 1; i < blocos.length; i++) {
+            String[] e = blocos[i].split(";", 2);
+            if (e.length == 2) {
+                System.out.println("    Linha " + e[0] + ": " + e[1]);
+            }
+        }
+    }
+
     private static void exportarCSV(String resp, String wire) {
         String csvBase64 = resp.substring(14);
         byte[] csvBytes = java.util.Base64.getDecoder().decode(csvBase64);
@@ -541,10 +698,14 @@ public class Main {
     }
 
     private static String[] pedirServidorPrincipal(String ipDir, int portoDir, int timeoutMs, int tentativas) throws Exception {
+        return pedirServidor("PEDIDO_CLIENTE_SERVIDOR", ipDir, portoDir, timeoutMs, tentativas);
+    }
+
+    private static String[] pedirServidor(String pedido, String ipDir, int portoDir, int timeoutMs, int tentativas) throws Exception {
         DatagramSocket udp = new DatagramSocket();
         udp.setSoTimeout(timeoutMs);
         InetAddress ip = InetAddress.getByName(ipDir);
-        byte[] req = "PEDIDO_CLIENTE_SERVIDOR".getBytes();
+        byte[] req = pedido.getBytes();
 
         for (int i = 1; i <= tentativas; i++) {
             try {
@@ -595,6 +756,9 @@ public class Main {
         System.out.println(" 14) Logout");
         System.out.println(" 15) Editar dados pessoais estudante");
         System.out.println(" 16) Ver perguntas respondidas (estudante)");
+        System.out.println(" 17) Importar estudantes de CSV (docente)");
+        System.out.println(" 18) Criar pergunta com opções");
+        System.out.println(" 19) Pesquisar perguntas (docente)");
         System.out.println("\n  0) Sair");
     }
 }
\ No newline at end of file
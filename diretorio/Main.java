@@ -16,6 +16,10 @@ public class Main {
             DateTimeFormatter.ofPattern("HH:mm:ss");
 
     private static volatile long hbCount = 0;
+    /** Próximo servidor a dar a um PEDIDO_CLIENTE_LEITURA (rotativo entre todos os ativos). */
+    private static int proximoLeitura = 0;
+    /** Atraso (em versões) de um backup em relação ao principal a partir do qual se avisa. */
+    private static final int ALERTA_ATRASO_VERSOES = Integer.getInteger("pd.diretoria.alerta.atraso", 100);
 
     public static void main(String[] args) {
         try (DatagramSocket socket = new DatagramSocket(PORTO_DIRETORIA)) {
@@ -43,6 +47,7 @@ public class Main {
     private static void processarMensagem(DatagramSocket socket, String mensagem, InetAddress ip, int porto) {
         int portoTCP = -1;       
         int portoTCPSync = -1;   
+        int versao = -1;
 
          try {
             if (mensagem.startsWith("REGISTO:")) {
@@ -51,6 +56,7 @@ public class Main {
                 if (p.length >= 3) portoTCPSync = Integer.parseInt(p[2]);
             } else if (mensagem.startsWith("HEARTBEAT:")) {
                 String[] p = mensagem.split(":");
+                if (p.length >= 2) versao = Integer.parseInt(p[1]);
                 if (p.length >= 3) portoTCP = Integer.parseInt(p[2]);  
                 if (p.length >= 4) portoTCPSync = Integer.parseInt(p[3]); 
             } else if (mensagem.startsWith("UNREGISTO:")) {
@@ -104,15 +110,18 @@ public class Main {
 
             else if (mensagem.equals("HEARTBEAT") || mensagem.startsWith("HEARTBEAT:")) {
                 final boolean[] ehPrincipalAgora = { false };
+                final int versaoHb = versao;
 
                 existente.ifPresentOrElse(s -> {
                     s.atualizarHeartbeat();
+                    if (versaoHb > -1) s.setVersao(versaoHb);
                     hbCount++;
 
                     if (VERBOSE_HB) {
                         System.out.println("[Diretoria] HEARTBEAT recebido de "
                                 + ip.getHostAddress() + ":" + portoChave
-                                + " (lastSeen=" + s.getUltimaAtualizacao().format(FMT_HHMMSS) + ")");
+                                + " (versão=" + versaoHb
+                                + ", lastSeen=" + s.getUltimaAtualizacao().format(FMT_HHMMSS) + ")");
                     }
 
                     synchronized (servidoresAtivos) {
@@ -179,6 +188,40 @@ public class Main {
                 }
             }
 
+            // Servidor para as leituras: principal e backups à vez, para repartir a carga.
+            else if (mensagem.equals("PEDIDO_CLIENTE_LEITURA")) {
+                ServidorInfo escolhido = null;
+                synchronized (servidoresAtivos) {
+                    if (!servidoresAtivos.isEmpty()) {
+                        escolhido = servidoresAtivos.get(Math.floorMod(proximoLeitura++, servidoresAtivos.size()));
+                    }
+                }
+                if (escolhido == null) {
+                    enviar(socket, ip, porto, "ERRO: Nenhum servidor ativo!");
+                } else {
+                    String respostaCliente = escolhido.getIp().getHostAddress() + ":" + escolhido.getPorto();
+                    enviar(socket, ip, porto, respostaCliente);
+                    System.out.println("[Diretoria] Enviou ao CLIENTE o servidor de leitura: "
+                            + respostaCliente + " para " + ip.getHostAddress() + ":" + porto);
+                }
+            }
+
+            // Estado da replicação: uma linha ip:porto:versão:atraso por servidor, o principal
+            // primeiro (atraso 0), e FIM.
+            else if (mensagem.equals("PEDIDO_ESTADO")) {
+                StringBuilder sb = new StringBuilder();
+                synchronized (servidoresAtivos) {
+                    for (int i = 0; i < servidoresAtivos.size(); i++) {
+                        ServidorInfo s = servidoresAtivos.get(i);
+                        sb.append(s.getIp().getHostAddress()).append(':').append(s.getPorto())
+                                .append(':').append(s.getVersao())
+                                .append(':').append(atraso(i)).append('\n');
+                    }
+                }
+                sb.append("FIM");
+                enviar(socket, ip, porto, sb.toString());
+            }
+
         } catch (Exception e) {
             System.err.println("[Diretoria] Erro ao processar mensagem: " + e.getMessage());
         }
@@ -196,17 +239,28 @@ public class Main {
         synchronized (servidoresAtivos) {
             for (int i = 0; i < servidoresAtivos.size(); i++) {
                 ServidorInfo s = servidoresAtivos.get(i);
-                String papel = (i == 0 ? " (PRINCIPAL)" : "");
+                String papel = (i == 0 ? " (PRINCIPAL)" : " (atraso: " + atraso(i) + " versões)");
                 String hora = s.getUltimaAtualizacao().format(FMT_HHMMSS);
                 System.out.println("   - " + s.getIp().getHostAddress()
                         + ":" + s.getPorto()
-                        + " (sync=" + s.getPortoSync() + ")"
+                        + " (sync=" + s.getPortoSync() + ", versão=" + s.getVersao() + ")"
                         + papel + " (último heartbeat: " + hora + ")");
             }
         }
         System.out.println("---------------------------------------");
     }
 
+    /**
+     * Versões que o servidor na posição i tem a menos do que o principal, pelos últimos
+     * heartbeats; -1 se algum dos dois ainda não anunciou a versão. Chamar com a lista trancada.
+     */
+    private static int atraso(int i) {
+        int vPrincipal = servidoresAtivos.get(0).getVersao();
+        int v = servidoresAtivos.get(i).getVersao();
+        if (vPrincipal < 0 || v < 0) return -1;
+        return Math.max(0, vPrincipal - v);
+    }
+
     private static void verificarInatividade() {
         while (true) {
             try {
@@ -226,6 +280,17 @@ public class Main {
                             mudou = true;
                         }
                     }
+
+                    // Um backup muito atrás perderia essas versões se assumisse agora o principal.
+                    for (int i = 1; i < servidoresAtivos.size(); i++) {
+                        int atraso = atraso(i);
+                        if (atraso > ALERTA_ATRASO_VERSOES) {
+                            ServidorInfo s = servidoresAtivos.get(i);
+                            System.out.println("[Diretoria] ALERTA: backup " + s.getIp().getHostAddress()
+                                    + ":" + s.getPorto() + " está " + atraso + " versões atrás do principal"
+                                    + " (versão " + s.getVersao() + ")");
+                        }
+                    }
                 }
 
                 if (mudou) {
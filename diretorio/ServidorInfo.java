@@ -8,6 +8,8 @@ public class ServidorInfo {
     private final int porto;
     private final int portoSync;
     private LocalDateTime ultimaAtualizacao;
+    /** Última versão anunciada no heartbeat: a aplicada, num backup. -1 antes do primeiro. */
+    private volatile int versao = -1;
 
     public ServidorInfo(InetAddress ip, int porto) { this(ip, porto, -1); }
 
@@ -23,11 +25,13 @@ public class ServidorInfo {
     public int getPortoSync() { return portoSync; }
     public LocalDateTime getUltimaAtualizacao() { return ultimaAtualizacao; }
     public void atualizarHeartbeat() { this.ultimaAtualizacao = LocalDateTime.now(); }
+    public int getVersao() { return versao; }
+    public void setVersao(int versao) { this.versao = versao; }
 
     @Override
     public String toString() {
         return ip.getHostAddress()
                 + ":" + porto
-                + " (sync=" + portoSync + ", último heartbeat: " + ultimaAtualizacao + ")";
+                + " (sync=" + portoSync + ", versão=" + versao + ", último heartbeat: " + ultimaAtualizacao + ")";
     }
 }
\ No newline at end of file
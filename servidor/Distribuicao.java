@@ -0,0 +1,64 @@
+package servidor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribuição de valores não negativos (tamanhos, latências) em baldes de potências de 2:
+ * o balde i conta os valores em [2^(i-1), 2^i). Os percentis são aproximados pelo limite
+ * superior do balde. Sem locks; pode ser atualizada por várias threads.
+ */
+public class Distribuicao {
+    private final AtomicLongArray baldes = new AtomicLongArray(64);
+    private final AtomicLong contagem = new AtomicLong();
+    private final AtomicLong soma = new AtomicLong();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public void registar(long valor) {
+        if (valor < 0) valor = 0;
+        baldes.incrementAndGet(64 - Long.numberOfLeadingZeros(valor));
+        contagem.incrementAndGet();
+        soma.addAndGet(valor);
+        maximo.accumulateAndGet(valor, Math::max);
+    }
+
+    public long getContagem() {
+        return contagem.get();
+    }
+
+    public double getMedia() {
+        long n = contagem.get();
+        return n == 0 ? 0 : (double) soma.get() / n;
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Limite superior do balde onde cai o percentil p (0-100), nunca acima do máximo.
+     */
+    public long percentil(double p) {
+        long n = contagem.get();
+        if (n == 0) return 0;
+        long alvo = (long) Math.ceil(n * p / 100.0);
+        long acumulado = 0;
+        for (int i = 0; i < 64; i++) {
+            acumulado += baldes.get(i);
+            if (acumulado >= alvo) {
+                long limite = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(limite, maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    /**
+     * "n=.. media=.. p50=.. p90=.. p99=.. max=.." seguido da unidade.
+     */
+    public String resumo(String unidade) {
+        return String.format("n=%d media=%.1f%s p50=%d%s p90=%d%s p99=%d%s max=%d%s",
+                getContagem(), getMedia(), unidade, percentil(50), unidade, percentil(90), unidade,
+                percentil(99), unidade, getMaximo(), unidade);
+    }
+}
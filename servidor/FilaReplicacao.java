@@ -0,0 +1,154 @@
+package servidor;
+
+import servidor.db.DatabaseManager;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Receção e aplicação da replicação num backup, em duas threads ligadas por uma fila
+ * limitada. A thread do multicast só interpreta o datagrama (RecetorReplicacao.ler) e o põe
+ * na fila, sem nunca esperar pela BD. A thread de aplicação tira da fila tudo o que lá
+ * estiver (até MAX_LOTE mensagens), pede as versões em falta ao principal sem o monitor do
+ * DatabaseManager (RecetorReplicacao.buscarEmFalta) e só depois entrega o lote ao
+ * RecetorReplicacao com o monitor: as versões seguidas do lote vão numa só transação.
+ *
+ * Com a fila cheia a mensagem é descartada e contada; a falha é reparada por NACK, como a
+ * de um datagrama perdido.
+ */
+public class FilaReplicacao {
+    private static final int MAX_LOTE = 512;
+    private static final int RESUMO_A_CADA = 500;
+
+    private final DatabaseManager db;
+    private final RecetorReplicacao recetor;
+    private final ArrayBlockingQueue<RecetorReplicacao.Mensagem> fila;
+    private final int capacidade;
+    /** false enquanto o servidor for o principal: o que estiver na fila é deitado fora. */
+    private final BooleanSupplier aplicar;
+
+    private final AtomicLong recebidas = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+    private volatile int profundidadeMaxima;
+    private long lotes;
+    private final Distribuicao tamanhosLote = new Distribuicao();
+    private final Distribuicao latenciasUs = new Distribuicao();
+    private final Distribuicao duracoesLoteUs = new Distribuicao();
+
+    public FilaReplicacao(DatabaseManager db, RecetorReplicacao recetor, int capacidade, BooleanSupplier aplicar) {
+        this.db = db;
+        this.recetor = recetor;
+        this.capacidade = capacidade;
+        this.fila = new ArrayBlockingQueue<>(capacidade);
+        this.aplicar = aplicar;
+    }
+
+    public void iniciar() {
+        Thread t = new Thread(this::aplicarLotes, "Replicacao-Aplicar");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Chamado pela thread que recebe o multicast.
+     */
+    public void receber(String mensagem, InetAddress remetente) {
+        recebidas.incrementAndGet();
+        RecetorReplicacao.Mensagem m = RecetorReplicacao.ler(mensagem, remetente);
+        if (m == null) return;
+        if (!fila.offer(m)) {
+            long n = descartadas.incrementAndGet();
+            if (n == 1 || n % 100 == 0) {
+                System.err.println("[Multicast] Fila de replicação cheia: " + n
+                        + " mensagem(ns) descartada(s), a recuperar por NACK.");
+            }
+            return;
+        }
+        int profundidade = fila.size();
+        if (profundidade > profundidadeMaxima) profundidadeMaxima = profundidade;
+    }
+
+    private void aplicarLotes() {
+        List<RecetorReplicacao.Mensagem> lote = new ArrayList<>(MAX_LOTE);
+        try {
+            while (true) {
+                lote.add(fila.take());
+                fila.drainTo(lote, MAX_LOTE - 1);
+                if (aplicar.getAsBoolean()) {
+                    // Os NACK (rede) antes de tomar o monitor: as leituras do backup não esperam por eles.
+                    recetor.buscarEmFalta(lote);
+                    long t0 = System.nanoTime();
+                    synchronized (db) {
+                        recetor.processar(lote);
+                    }
+                    long agora = System.nanoTime();
+                    duracoesLoteUs.registar((agora - t0) / 1000);
+                    tamanhosLote.registar(lote.size());
+                    for (RecetorReplicacao.Mensagem m : lote) {
+                        latenciasUs.registar((agora - m.recebidaNs()) / 1000);
+                    }
+                    if (++lotes % RESUMO_A_CADA == 0) {
+                        System.out.println("[Multicast] " + resumo());
+                    }
+                }
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mensagens recebidas à espera de serem aplicadas.
+     */
+    public int getProfundidade() {
+        return fila.size();
+    }
+
+    public int getProfundidadeMaxima() {
+        return profundidadeMaxima;
+    }
+
+    /**
+     * Datagramas recebidos do multicast enquanto backup, incluindo heartbeats.
+     */
+    public long getRecebidas() {
+        return recebidas.get();
+    }
+
+    public long getDescartadas() {
+        return descartadas.get();
+    }
+
+    /**
+     * Versões já anunciadas pelo principal e ainda não aplicadas.
+     */
+    public int getAtrasoVersoes() {
+        return recetor.getAtraso();
+    }
+
+    /**
+     * Tempo de cada mensagem desde a receção até ao fim da aplicação do seu lote.
+     */
+    public Distribuicao getLatencias() {
+        return latenciasUs;
+    }
+
+    /**
+     * Tempo de cada lote com o monitor da BD (a aplicação propriamente dita).
+     */
+    public Distribuicao getDuracoesLote() {
+        return duracoesLoteUs;
+    }
+
+    public String resumo() {
+        return "fila " + fila.size() + "/" + capacidade + " (max " + profundidadeMaxima
+                + ", descartadas " + descartadas.get() + ") | atraso " + recetor.getAtraso() + " versões"
+                + " | mensagens/lote " + tamanhosLote.resumo("")
+                + " | rececao->aplicacao " + latenciasUs.resumo("us");
+    }
+}
@@ -1,20 +1,36 @@
 package servidor;
 
+import servidor.db.BaseDadosAssincrona;
 import servidor.db.DatabaseManager;
+import servidor.db.SnapshotBD;
 import java.net.*;
 import java.sql.*;
 import servidor.handlers.ClienteHandler;
+import servidor.handlers.PapelServidor;
 import java.io.*;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
 
 public class Main {
     private static final String MULTICAST_ADDRESS = "230.30.30.30";
     private static final int MULTICAST_PORT = 3030;
+    private static final String NOME_BD = "sistema.db";
+    private static final long INTERVALO_ARQUIVO_MS = 60 * 60 * 1000L;
 
     private static volatile boolean ehPrincipal = false;
     private static volatile int portoTCPClientes = 0;
     private static volatile int portoTCPSync = 0;
     private static InetAddress meuIP;
+    private static boolean servidorSyncIniciado = false;
+    /** Cópias da BD para os backups (ver snapshotParaSync), da mais antiga para a mais recente. */
+    private static final List<SnapshotBD> snapshots = new ArrayList<>();
 
     public static void main(String[] args) {
       
@@ -44,7 +60,7 @@ public class Main {
             } catch (IOException e) {
                 System.err.println("[Servidor] Não foi possível criar diretoria da BD: " + e.getMessage());
             }
-            String dbPath = pastaBDPath.resolve("sistema.db").toString();
+            String dbPath = pastaBDPath.resolve(NOME_BD).toString();
 
             System.out.println("[Servidor] Config:");
             System.out.println("  Diretoria IP     = " + ipDiretoria);
@@ -62,19 +78,25 @@ public class Main {
             ServerSocket servidorClientes = new ServerSocket(0);
             portoTCPClientes = servidorClientes.getLocalPort();
 
-            ServerSocket servidorSync = new ServerSocket(0);
+            // Criado a partir de um canal para os sockets aceites terem SocketChannel (transferTo).
+            ServerSocket servidorSync = ServerSocketChannel.open().bind(new InetSocketAddress(0)).socket();
             portoTCPSync = servidorSync.getLocalPort();
 
             System.out.println("[Servidor] Portos TCP atribuídos -> Clientes: " + portoTCPClientes + " | Sync: " + portoTCPSync);
 
             InetAddress grupoMulticast = InetAddress.getByName(MULTICAST_ADDRESS);
 
+            RegistoReplicacao registo = new RegistoReplicacao(pastaBDPath,
+                    Integer.getInteger("pd.replicacao.registo", 10000));
                 ReplicationSender replicator = new ReplicationSender(
                         socket,
                         grupoMulticast,
                         MULTICAST_PORT,
                         portoTCPClientes,
-                        portoTCPSync
+                        portoTCPSync,
+                        registo,
+                        Long.getLong("pd.replicacao.grupo.ms", 5),
+                        Integer.getInteger("pd.replicacao.grupo.bytes", ReplicationSender.MAX_BYTES_DATAGRAMA)
                 );
 
             String mensagem = "REGISTO:" + portoTCPClientes + ":" + portoTCPSync;
@@ -123,21 +145,76 @@ public class Main {
             System.out.printf("[Servidor] Identificação: principal=%s | principalDir=%s | meu=%s:%d%n",
                     ehPrincipal ? "SIM" : "NAO", principalStr, meuIP.getHostAddress(), portoTCPClientes);
 
-            if (!ehPrincipal && portoPrincipalSync != 0) {
+            // Um backup com BD local pede só as versões em falta; copia a BD inteira se não a
+            // tiver (ou se uma cópia ficou a meio) ou se o registo do principal já não cobrir a
+            // sua versão.
+            boolean backup = !ehPrincipal && portoPrincipalSync != 0;
+            boolean bdCopiada = backup && (!Files.exists(Paths.get(dbPath))
+                    || Files.exists(Paths.get(dbPath).resolveSibling(TransferenciaSnapshot.NOME_MANIFESTO)));
+            if (bdCopiada) {
                 sincronizarBaseDeDadosComPrincipal(hostP, portoPrincipalSync, dbPath);
             }
 
-            db = new DatabaseManager(dbPath);
-            db.connect();
-            db.createTables();
-            if (ehPrincipal) {
-                iniciarServidorSync(servidorSync, dbPath, db);
+            DatabaseManager aberta = abrirBaseDeDados(dbPath);
+            if (bdCopiada) {
+                // O registo local é de uma vida anterior; as versões a partir de agora vêm do principal.
+                registo.limpar();
+            } else {
+                registo.carregar(aberta.getVersao());
             }
+            if (backup && !bdCopiada
+                    && !novoRecetor(aberta, registo).recuperar(InetAddress.getByName(hostP), portoPrincipalSync)) {
+                aberta.close();
+                sincronizarBaseDeDadosComPrincipal(hostP, portoPrincipalSync, dbPath);
+                registo.limpar();
+                aberta = abrirBaseDeDados(dbPath);
+            }
+            db = aberta;
+            db.iniciarCheckpointsWAL();
+            SequenciadorVersoes sequenciador = new SequenciadorVersoes(db::definirVersao, db.getVersao());
+            RecetorReplicacao recetor = novoRecetor(db, registo);
+            BaseDadosAssincrona bd = new BaseDadosAssincrona(db,
+                    Integer.getInteger("pd.bd.leitores", 4), Long.getLong("pd.bd.timeout.ms", 5000));
+
+            // Os backups servem leituras enquanto estiverem a menos de pd.leitura.atraso.versoes
+            // do principal e tiverem notícias dele há menos de pd.leitura.atraso.ms (3 heartbeats).
+            int maxAtrasoVersoes = Integer.getInteger("pd.leitura.atraso.versoes", 100);
+            long maxAtrasoMs = Long.getLong("pd.leitura.atraso.ms", 15000);
+            PapelServidor papelServidor = new PapelServidor() {
+                @Override
+                public boolean ehPrincipal() {
+                    return ehPrincipal;
+                }
+
+                @Override
+                public int versaoLida() {
+                    return ehPrincipal ? sequenciador.getUltimaPublicada() : recetor.getVersaoAplicada();
+                }
+
+                @Override
+                public boolean podeLer() {
+                    return ehPrincipal
+                            || (recetor.getAtraso() <= maxAtrasoVersoes && recetor.getMsSemPrincipal() <= maxAtrasoMs);
+                }
+            };
+
+            // A thread do multicast só recebe e põe na fila; a aplicação corre noutra thread.
+            FilaReplicacao filaReplicacao = new FilaReplicacao(db, recetor,
+                    Integer.getInteger("pd.replicacao.fila", 4096), () -> !ehPrincipal);
+            filaReplicacao.iniciar();
+
+            // O porto de sync abre logo em todos os servidores por causa do STATS; os restantes
+            // pedidos só são atendidos enquanto este for o principal.
+            Telemetria telemetria = new Telemetria(() -> ehPrincipal, db, sequenciador, replicator,
+                    recetor, filaReplicacao, registo);
+            iniciarServidorSync(servidorSync, dbPath, db, registo, sequenciador::getUltimaReservada,
+                    () -> ehPrincipal, telemetria);
 
             new Thread(() -> {
                 MulticastSocket multicastSocket = null;
                 try {
                     multicastSocket = new MulticastSocket(MULTICAST_PORT);
+                    multicastSocket.setReceiveBufferSize(1 << 20);
                     InetAddress grupo = InetAddress.getByName(MULTICAST_ADDRESS);
 
                      SocketAddress grupoAddr = new InetSocketAddress(grupo, MULTICAST_PORT);
@@ -146,23 +223,21 @@ public class Main {
 
                     System.out.println("[Servidor] À escuta de heartbeats multicast em " + MULTICAST_ADDRESS + ":" + MULTICAST_PORT);
 
-                    byte[] bufferMcast = new byte[4096];
+                    // Maior datagrama UDP: um grupo nunca é cortado.
+                    byte[] bufferMcast = new byte[65507];
 
                     while (true) {
                         DatagramPacket packetMcast = new DatagramPacket(bufferMcast, bufferMcast.length);
                         multicastSocket.receive(packetMcast);
 
-                        String mensagemRecebida = new String(packetMcast.getData(), 0, packetMcast.getLength());
+                        String mensagemRecebida = new String(packetMcast.getData(), 0, packetMcast.getLength(),
+                                java.nio.charset.StandardCharsets.UTF_8);
                         InetAddress remetenteIP = packetMcast.getAddress();
 
-                     System.out.println("[Multicast] Recebido de " + remetenteIP.getHostAddress() + ": " + mensagemRecebida);
-
-                     if (!ehPrincipal) {
-                        synchronized (db) {
-                            processarHeartbeatMulticast(mensagemRecebida, db);
+                        if (!ehPrincipal) {
+                            filaReplicacao.receber(mensagemRecebida, remetenteIP);
                         }
                     }
-                    }
 
                 } catch (Exception e) {
                     System.err.println("[Servidor] Erro ao receber multicast: " + e.getMessage());
@@ -182,7 +257,10 @@ public class Main {
                 while (true) {
                     Thread.sleep(5000);
 
-                    int versaoAtual = db.getVersao();
+                    // No principal vai a última versão já enviada; as reservadas ainda em voo
+                    // fariam os backups julgar que perderam updates.
+                    // No backup vai a última versão aplicada, que a diretoria compara com a do principal.
+                    int versaoAtual = ehPrincipal ? sequenciador.getUltimaPublicada() : recetor.getVersaoAplicada();
 
                     String hbMsg = "HEARTBEAT:" + versaoAtual + ":" + portoTCPClientes + ":" + portoTCPSync;
                     byte[] hbBytes = hbMsg.getBytes();
@@ -206,6 +284,14 @@ public class Main {
                             String papel = ackStr.substring("ACK_HEARTBEAT:".length()).trim();
                             boolean novoEhPrincipal = papel.equalsIgnoreCase("PRINCIPAL");
                             if (novoEhPrincipal != ehPrincipal) {
+                                if (novoEhPrincipal) {
+                                    sequenciador.reiniciar(db.getVersao());
+                                    try {
+                                        db.reconstruirIndiceRespostas();
+                                    } catch (SQLException e) {
+                                        System.err.println("[Servidor] Erro ao reconstruir índice de respostas: " + e.getMessage());
+                                    }
+                                }
                                 ehPrincipal = novoEhPrincipal;
                                 System.out.println("[Servidor] Atualização de papel: agora sou "
                                         + (ehPrincipal ? "PRINCIPAL" : "SECUNDARIO"));
@@ -237,37 +323,48 @@ public class Main {
             }
         }, "HB-Thread").start();
 
+            int diasArquivo = Integer.getInteger("pd.arquivo.dias", 180);
+            Thread arquivoThread = new Thread(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(INTERVALO_ARQUIVO_MS);
+                        if (!ehPrincipal) continue;
+
+                        String limite = LocalDateTime.now(ZoneOffset.UTC).minusDays(diasArquivo)
+                                .format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+                        // Toca em todos os fragmentos: a versão é reservada com todos os monitores.
+                        int versao = db.comTodosOsMonitores(() ->
+                                db.arquivarPerguntas(limite) > 0 ? sequenciador.reservar() : 0);
+                        if (versao > 0) {
+                            sequenciador.publicar(versao, () -> replicator.sendArquivo(versao, limite));
+                        }
+                    } catch (InterruptedException ie) {
+                        return;
+                    } catch (Exception e) {
+                        System.err.println("[Arquivo] Erro ao arquivar perguntas: " + e.getMessage());
+                    }
+                }
+            }, "Arquivo-Thread");
+            arquivoThread.setDaemon(true);
+            arquivoThread.start();
+
             new Thread(() -> {
                 try {
                     System.out.println("[Servidor] À escuta de clientes em TCP no porto " + portoTCPClientes);
                     while (true) {
                         Socket cliente = servidorClientes.accept();
 
-                        if (!ehPrincipal) {
-                            System.out.println("[Servidor] Não sou principal, rejeitando cliente.");
-                            cliente.close();
-                            continue;
-                        }
-
-                        new Thread(new ClienteHandler(cliente, db, replicator), "Cliente-Handler").start();
+                        // Num backup a sessão só aceita leituras (ver ClienteHandler).
+                        new Thread(new ClienteHandler(cliente, db, bd, replicator, sequenciador, papelServidor), "Cliente-Handler").start();
                     }
                 } catch (Exception e) {
                     System.err.println("[Servidor] Erro TCP: " + e.getMessage());
                 }
             }, "TCP-Clientes").start();
 
-            try (Connection conn = db.getConnection()) {
-                PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM Docente WHERE email = ?");
-                ps.setString(1, "docente@isec.pt");
-                ResultSet rs = ps.executeQuery();
-                if (rs.next() && rs.getInt(1) == 0) {
-                    String hash = DatabaseManager.hashPassword("1234");
-                    PreparedStatement insert = conn.prepareStatement(
-                            "INSERT INTO Docente(nome, email, password_hash) VALUES (?, ?, ?)");
-                    insert.setString(1, "Docente Exemplo");
-                    insert.setString(2, "docente@isec.pt");
-                    insert.setString(3, hash);
-                    insert.executeUpdate();
+            try {
+                if (db.getDocenteId("docente@isec.pt") < 0) {
+                    db.criarDocente("Docente Exemplo", "docente@isec.pt", "1234");
                     System.out.println("[DB] Docente exemplo criado (email: docente@isec.pt | pass: 1234)");
                 }
             } catch (SQLException e) {
@@ -281,69 +378,6 @@ public class Main {
         }
     }
 
-    private static void processarHeartbeatMulticast(String mensagem, DatabaseManager db) {
-        try {
-            if (mensagem.startsWith("HEARTBEAT_UPDATE:")) {
-                String[] partes = mensagem.split(":", 6);
-
-                if (partes.length < 6) {
-                    System.err.println("[Multicast] Formato inválido: " + mensagem);
-                    return;
-                }
-
-                int versaoRecebida = Integer.parseInt(partes[1]);
-                String query = partes[5];
-
-                int versaoLocal = db.getVersao();
-                System.out.println("[Multicast] Update recebido - Versão recebida: "
-                        + versaoRecebida + " | Versão local: " + versaoLocal);
-                if (versaoRecebida <= versaoLocal) {
-                    System.out.println("[Multicast] Update antigo/duplicado, a ignorar.");
-                    return;
-                }
-                if (versaoRecebida > versaoLocal + 1) {
-                    System.err.println("[Multicast] PERDA DE SINCRONIZAÇÃO! Esperava versão "
-                            + (versaoLocal + 1) + ", recebi " + versaoRecebida);
-                    System.err.println("[Multicast] Servidor vai terminar!");
-                    System.exit(1);
-                }
-                try {
-                    db.executarQuery(query);
-                    db.incrementarVersao();
-
-                    System.out.println("[Multicast] Query executada com sucesso! Nova versão: " + db.getVersao());
-                    System.out.println("           Query: " + query);
-
-                } catch (SQLException e) {
-                    System.err.println("[Multicast] Erro ao executar query: " + e.getMessage());
-                    System.err.println("[Multicast] Servidor vai terminar!");
-                    System.exit(1);
-                }
-
-            } else if (mensagem.startsWith("HEARTBEAT:")) {
-                String[] partes = mensagem.split(":");
-
-                if (partes.length < 4) {
-                    return;
-                }
-
-                int versaoRecebida = Integer.parseInt(partes[1]);
-                int versaoLocal = db.getVersao();
-
-                if (versaoRecebida != versaoLocal) {
-                    System.err.println("[Multicast] Versões diferentes! Local: " + versaoLocal
-                            + ", Principal: " + versaoRecebida);
-                    System.err.println("[Multicast] PERDA DE SINCRONIZAÇÃO! Servidor vai terminar!");
-                    System.exit(1);
-                }
-            }
-
-        } catch (Exception e) {
-            System.err.println("[Multicast] Erro ao processar heartbeat: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
     private static boolean isLocalAddress(String host) {
         try {
             InetAddress addr = InetAddress.getByName(host);
@@ -360,34 +394,59 @@ public class Main {
         return false;
     }
 
+    private static DatabaseManager abrirBaseDeDados(String dbPath) {
+        DatabaseManager db = DatabaseManager.criar(System.getProperty("pd.armazenamento", "sqlite"), dbPath);
+        db.connect();
+        db.createTables();
+        return db;
+    }
+
+    private static RecetorReplicacao novoRecetor(DatabaseManager db, RegistoReplicacao registo) {
+        return new RecetorReplicacao(db, registo,
+                Integer.getInteger("pd.replicacao.nack.tentativas", 5),
+                Integer.getInteger("pd.replicacao.nack.timeout.ms", 2000));
+    }
+
+    /**
+     * Protocolo do porto de sync: o backup envia uma linha de pedido.
+     *   LISTA[:<versao>] -> manifesto da cópia da BD (ver TransferenciaSnapshot), até FIM
+     *   FICHEIRO:<versao>:<nome>:<bloco>:<DEFLATE|NENHUMA>
+     *                    -> blocos desse ficheiro da cópia, a partir de <bloco>, com CRC32C
+     *   NACK:<de>:<ate>  -> essas versões do RegistoReplicacao, uma por linha, até FIM
+     *                       (ou INDISPONIVEL se já não estiverem todas no registo)
+     *   RECUPERAR:<versao>:<assinatura>
+     *                    -> as versões seguintes a essa, até à última do registo, até FIM
+     *                       (ou INDISPONIVEL: o backup copia então a BD com LISTA/FICHEIRO)
+     *   STATS            -> telemetria da replicação (ver Telemetria), uma métrica por linha,
+     *                       até FIM; só para ligações da própria máquina
+     * Num backup só o STATS é atendido; aos outros pedidos responde INDISPONIVEL.
+     */
     private static void sincronizarBaseDeDadosComPrincipal(
             String hostPrincipal,
             int portoTcpsync,
             String caminhoDbLocal
     ) throws IOException {
-
         Path pathDb = Paths.get(caminhoDbLocal);
         Files.createDirectories(pathDb.getParent());
-
-        try (Socket s = new Socket(hostPrincipal, portoTcpsync);
-             InputStream in = s.getInputStream();
-             OutputStream out = Files.newOutputStream(
-                     pathDb,
-                     StandardOpenOption.CREATE,
-                     StandardOpenOption.TRUNCATE_EXISTING
-             )) {
-
-            byte[] buffer = new byte[8192];
-            int lido;
-            while ((lido = in.read(buffer)) != -1) {
-                out.write(buffer, 0, lido);
-            }
-        }
-
-        System.out.println("[Sync] Download da BD do principal concluído.");
+        TransferenciaSnapshot.descarregar(hostPrincipal, portoTcpsync, pathDb,
+                Boolean.parseBoolean(System.getProperty("pd.sync.comprimir", "true")));
     }
 
-    private static void iniciarServidorSync(ServerSocket servidorSync, String caminhoDb, DatabaseManager db) {
+    /**
+     * Só arranca uma vez, no arranque (também nos backups, pelo STATS). Cada ligação é
+     * atendida na sua thread, para os NACK não esperarem pelas cópias nem por clientes lentos.
+     * pd.sync.pedido.timeout.ms: tempo máximo para a linha do pedido chegar (5000 por omissão).
+     */
+    private static void iniciarServidorSync(ServerSocket servidorSync, String caminhoDb, DatabaseManager db,
+                                            RegistoReplicacao registo, IntSupplier versaoReservada,
+                                            BooleanSupplier principal, Telemetria telemetria) {
+        synchronized (Main.class) {
+            if (servidorSyncIniciado) return;
+            servidorSyncIniciado = true;
+        }
+        Path pathDb = Paths.get(caminhoDb);
+        SnapshotBD.apagarAntigos(pathDb);
+        int timeoutPedido = Integer.getInteger("pd.sync.pedido.timeout.ms", 5000);
         Thread t = new Thread(() -> {
             try (ServerSocket ss = servidorSync) {
                 System.out.println("[Sync] Servidor de sync a escutar em " + ss.getLocalPort());
@@ -395,23 +454,10 @@ public class Main {
                 while (true) {
                     Socket cli = ss.accept();
                     System.out.println("[Sync] Pedido de sync de " + cli.getInetAddress());
-
-                    synchronized (db) {
-                        try (OutputStream out = cli.getOutputStream();
-                            InputStream in = new FileInputStream(caminhoDb)) {
-
-                            byte[] buffer = new byte[8192];
-                            int lido;
-                            while ((lido = in.read(buffer)) != -1) {
-                                out.write(buffer, 0, lido);
-                            }
-                            out.flush();
-                        } catch (IOException e) {
-                            System.err.println("[Sync] Erro a enviar BD: " + e.getMessage());
-                        } finally {
-                            try { cli.close(); } catch (IOException ignore) {}
-                        }
-                    }
+                    Thread atendimento = new Thread(() -> atenderSync(cli, timeoutPedido, db, pathDb, registo,
+                            versaoReservada, principal, telemetria), "Sync-Pedido");
+                    atendimento.setDaemon(true);
+                    atendimento.start();
                 }
             } catch (IOException e) {
                 System.err.println("[Sync] Erro no servidor de sync: " + e.getMessage());
@@ -420,4 +466,126 @@ public class Main {
         t.setDaemon(true);
         t.start();
     }
-}
\ No newline at end of file
+
+    private static void atenderSync(Socket cli, int timeoutPedido, DatabaseManager db, Path pathDb,
+                                    RegistoReplicacao registo, IntSupplier versaoReservada,
+                                    BooleanSupplier principal, Telemetria telemetria) {
+        String pedido;
+        try {
+            cli.setSoTimeout(timeoutPedido);
+            pedido = new BufferedReader(new InputStreamReader(cli.getInputStream())).readLine();
+        } catch (IOException e) {
+            System.err.println("[Sync] Erro a ler pedido: " + e.getMessage());
+            try { cli.close(); } catch (IOException ignore) {}
+            return;
+        }
+
+        if ("STATS".equals(pedido)) {
+            try (PrintWriter pw = new PrintWriter(
+                    new OutputStreamWriter(cli.getOutputStream(), java.nio.charset.StandardCharsets.UTF_8), true)) {
+                if (isLocalAddress(cli.getInetAddress().getHostAddress())) {
+                    for (String linha : telemetria.linhas()) pw.println(linha);
+                    pw.println("FIM");
+                } else {
+                    pw.println("INDISPONIVEL");
+                }
+            } catch (IOException e) {
+                System.err.println("[Sync] Erro a responder a STATS: " + e.getMessage());
+            } finally {
+                try { cli.close(); } catch (IOException ignore) {}
+            }
+            return;
+        }
+
+        if (!principal.getAsBoolean()) {
+            try (PrintWriter pw = new PrintWriter(
+                    new OutputStreamWriter(cli.getOutputStream(), java.nio.charset.StandardCharsets.UTF_8), true)) {
+                pw.println("INDISPONIVEL");
+            } catch (IOException ignore) {
+            } finally {
+                try { cli.close(); } catch (IOException ignore) {}
+            }
+            return;
+        }
+
+        // Os NACK e RECUPERAR só leem o registo: não precisam dos monitores da BD.
+        if (pedido != null && (pedido.startsWith("NACK:") || pedido.startsWith("RECUPERAR:"))) {
+            try (PrintWriter pw = new PrintWriter(
+                    new OutputStreamWriter(cli.getOutputStream(), java.nio.charset.StandardCharsets.UTF_8), true)) {
+                if (pedido.startsWith("NACK:")) {
+                    RecetorReplicacao.responderNack(pedido, registo, pw);
+                } else {
+                    RecetorReplicacao.responderRecuperacao(pedido, registo, db.getVersao(), pw);
+                }
+            } catch (IOException e) {
+                System.err.println("[Sync] Erro a responder a " + pedido + ": " + e.getMessage());
+            } finally {
+                try { cli.close(); } catch (IOException ignore) {}
+            }
+            return;
+        }
+
+        if (pedido != null && (pedido.equals("LISTA") || pedido.startsWith("LISTA:"))) {
+            try (PrintWriter pw = new PrintWriter(
+                    new OutputStreamWriter(cli.getOutputStream(), java.nio.charset.StandardCharsets.UTF_8), true)) {
+                SnapshotBD snap = pedido.startsWith("LISTA:")
+                        ? snapshotGuardado(Integer.parseInt(pedido.substring("LISTA:".length()))) : null;
+                if (snap == null) snap = snapshotParaSync(db, pathDb, versaoReservada, telemetria);
+                TransferenciaSnapshot.enviarManifesto(snap, pw);
+            } catch (IOException | SQLException | NumberFormatException e) {
+                System.err.println("[Sync] Erro a preparar a cópia da BD: " + e.getMessage());
+            } finally {
+                try { cli.close(); } catch (IOException ignore) {}
+            }
+        } else if (pedido != null && pedido.startsWith("FICHEIRO:")) {
+            enviarFicheiro(cli, pedido);
+        } else {
+            System.err.println("[Sync] Pedido inválido: " + pedido);
+            try { cli.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    /**
+     * Cópia a enviar com LISTA. Uma cópia só é refeita se houver versões novas; a anterior
+     * fica guardada para quem ainda a esteja a descarregar, as mais antigas são apagadas.
+     */
+    private static synchronized SnapshotBD snapshotParaSync(DatabaseManager db, Path pathDb,
+                                                            IntSupplier versaoReservada,
+                                                            Telemetria telemetria) throws IOException, SQLException {
+        if (snapshots.isEmpty() || snapshots.get(snapshots.size() - 1).getVersao() != versaoReservada.getAsInt()) {
+            SnapshotBD snap = SnapshotBD.criar(db, pathDb, versaoReservada);
+            telemetria.registarSnapshot(snap);
+            snapshots.add(snap);
+            while (snapshots.size() > 2) {
+                snapshots.remove(0).apagar();
+            }
+        }
+        return snapshots.get(snapshots.size() - 1);
+    }
+
+    private static synchronized SnapshotBD snapshotGuardado(int versao) {
+        for (SnapshotBD s : snapshots) {
+            if (s.getVersao() == versao) return s;
+        }
+        return null;
+    }
+
+    /**
+     * FICHEIRO:versao:nome:bloco:compressao. Se a cópia já tiver sido apagada, a ligação é
+     * fechada sem blocos e o backup volta a pedir o manifesto.
+     */
+    private static void enviarFicheiro(Socket cli, String pedido) {
+        try (Socket s = cli) {
+            String[] p = pedido.split(":");
+            SnapshotBD snap = p.length == 5 ? snapshotGuardado(Integer.parseInt(p[1])) : null;
+            if (snap == null || snap.ficheiro(p[2]) == null) {
+                System.err.println("[Sync] Pedido sem cópia disponível: " + pedido);
+                return;
+            }
+            TransferenciaSnapshot.enviarBlocos(snap, p[2], Integer.parseInt(p[3]), "DEFLATE".equals(p[4]),
+                    s.getChannel());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Sync] Erro a enviar " + pedido + ": " + e.getMessage());
+        }
+    }
+}
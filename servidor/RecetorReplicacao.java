@@ -0,0 +1,616 @@
+package servidor;
+
+import servidor.db.DatabaseManager;
+import servidor.db.OperacaoReplicada;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Lado do backup da replicação: aplica os updates recebidos por multicast estritamente
+ * por ordem de versão.
+ *
+ * Um update que chegue adiantado (perdeu-se um datagrama) fica guardado e a faixa em falta
+ * é pedida ao principal pelo porto de sync (NACK:de:ate), que a responde a partir do seu
+ * RegistoReplicacao. O pedido é feito antes de aplicar o lote (buscarEmFalta), sem o
+ * monitor do DatabaseManager, para as leituras servidas pelo backup não esperarem pela
+ * rede. O backup só termina se a faixa já não estiver no registo do principal ou se os
+ * pedidos falharem pd.replicacao.nack.tentativas vezes seguidas; no arranque seguinte
+ * volta a copiar a BD inteira.
+ *
+ * Um backup que arranca com BD local recupera só as versões que lhe faltam (recuperar);
+ * só copia a BD inteira se o registo do principal já não as cobrir.
+ *
+ * Os updates seguidos (HEARTBEAT_GRUPO, faixas recuperadas por NACK) são aplicados numa
+ * só transação, com a nova versão gravada na mesma transação. As operações (OP) são
+ * aplicadas pelo DatabaseManager com statements preparados; QUERY e LOTE, em SQL, ainda
+ * são aceites (registos de principais antigos). Com o motor fragmentado, as operações sem
+ * conflito que caem em fragmentos diferentes são aplicadas em paralelo, com um só commit
+ * no fim (ver ArmazenamentoFragmentado.aplicarOperacoes).
+ */
+public class RecetorReplicacao {
+    /** Entradas aplicadas de cada vez durante a recuperação no arranque. */
+    private static final int BLOCO_RECUPERACAO = 500;
+
+    private final DatabaseManager db;
+    private final RegistoReplicacao registo;
+    private final TreeMap<Integer, RegistoReplicacao.Entrada> adiantadas = new TreeMap<>();
+    /** Versões já pedidas por NACK, à espera de processar() chegar à lacuna que preenchem. */
+    private final TreeMap<Integer, RegistoReplicacao.Entrada> reparadas = new TreeMap<>();
+    private final int maxTentativas;
+    private final int timeoutMs;
+    private int falhasSeguidas;
+    /** Durante recuperar() um erro não termina o servidor: a BD é copiada de novo. */
+    private boolean recuperando;
+    /** Para as leituras servidas pelo backup: lidos sem o monitor do DatabaseManager. */
+    private volatile int versaoAplicada;
+    private volatile int versaoPrincipal;
+    private volatile long ultimoContactoMs;
+    private final AtomicLong lacunas = new AtomicLong();
+    private final AtomicLong versoesReparadas = new AtomicLong();
+    private final AtomicLong reparacoesFalhadas = new AtomicLong();
+
+    public RecetorReplicacao(DatabaseManager db, RegistoReplicacao registo, int maxTentativas, int timeoutMs) {
+        this.db = db;
+        this.registo = registo;
+        this.maxTentativas = maxTentativas;
+        this.timeoutMs = timeoutMs;
+        this.versaoAplicada = db.getVersao();
+        this.versaoPrincipal = versaoAplicada;
+        this.ultimoContactoMs = System.currentTimeMillis();
+    }
+
+    public int getVersaoAplicada() {
+        return versaoAplicada;
+    }
+
+    /**
+     * Versões que o principal já anunciou (updates ou heartbeats) e ainda não foram aplicadas.
+     */
+    public int getAtraso() {
+        return Math.max(0, versaoPrincipal - versaoAplicada);
+    }
+
+    public long getMsSemPrincipal() {
+        return System.currentTimeMillis() - ultimoContactoMs;
+    }
+
+    public int getVersaoPrincipal() {
+        return versaoPrincipal;
+    }
+
+    /**
+     * Faixas de versões em falta detetadas (cada uma pedida por NACK).
+     */
+    public long getLacunas() {
+        return lacunas.get();
+    }
+
+    public long getVersoesReparadas() {
+        return versoesReparadas.get();
+    }
+
+    public long getReparacoesFalhadas() {
+        return reparacoesFalhadas.get();
+    }
+
+    private void notarPrincipal(int versao) {
+        if (versao > versaoPrincipal) versaoPrincipal = versao;
+        ultimoContactoMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Datagrama de replicação já interpretado, sem tocar na BD: as entradas de um
+     * HEARTBEAT_UPDATE ou HEARTBEAT_GRUPO, ou só a versão anunciada por um HEARTBEAT.
+     */
+    public record Mensagem(List<RegistoReplicacao.Entrada> entradas, int versaoAnunciada, int portoSync,
+                           InetAddress remetente, long recebidaNs) {
+        public boolean ehHeartbeat() {
+            return entradas.isEmpty();
+        }
+    }
+
+    /**
+     * Devolve null se a mensagem não for de replicação ou estiver mal formada.
+     */
+    public static Mensagem ler(String mensagem, InetAddress remetente) {
+        try {
+            if (mensagem.startsWith("HEARTBEAT_UPDATE:")) {
+                String[] partes = mensagem.split(":", 6);
+                if (partes.length < 6) {
+                    System.err.println("[Multicast] Formato inválido: " + mensagem);
+                    return null;
+                }
+                int versao = Integer.parseInt(partes[1]);
+                return new Mensagem(List.of(new RegistoReplicacao.Entrada(versao, partes[4], partes[5])),
+                        versao, Integer.parseInt(partes[3]), remetente, System.nanoTime());
+
+            } else if (mensagem.startsWith("HEARTBEAT_GRUPO:")) {
+                String[] partes = mensagem.split(":", 6);
+                if (partes.length < 6) {
+                    System.err.println("[Multicast] Formato inválido: " + mensagem);
+                    return null;
+                }
+                List<RegistoReplicacao.Entrada> entradas = lerGrupo(
+                        Integer.parseInt(partes[1]), Integer.parseInt(partes[2]), partes[5]);
+                return new Mensagem(entradas, entradas.get(entradas.size() - 1).versao(),
+                        Integer.parseInt(partes[4]), remetente, System.nanoTime());
+
+            } else if (mensagem.startsWith("HEARTBEAT:")) {
+                String[] partes = mensagem.split(":");
+                if (partes.length < 4) {
+                    return null;
+                }
+                return new Mensagem(List.of(), Integer.parseInt(partes[1]), Integer.parseInt(partes[3]),
+                        remetente, System.nanoTime());
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[Multicast] Mensagem inválida (" + e.getMessage() + "): " + mensagem);
+        }
+        return null;
+    }
+
+    /**
+     * Chamado sem o monitor do DatabaseManager: só o toma para aplicar.
+     */
+    public void processar(String mensagem, InetAddress remetente) {
+        Mensagem m = ler(mensagem, remetente);
+        if (m == null) return;
+        buscarEmFalta(List.of(m));
+        synchronized (db) {
+            processar(List.of(m));
+        }
+    }
+
+    /**
+     * Antes de processar o lote, sem o monitor do DatabaseManager: pede ao principal (NACK),
+     * de uma vez, as versões até à última anunciada no lote que não estejam nem no lote nem
+     * guardadas. Se o pedido falhar, o lote é aplicado até à lacuna e o resto fica à espera
+     * do lote seguinte. Tal como processar(), só é chamado pela thread de aplicação.
+     */
+    public void buscarEmFalta(List<Mensagem> lote) {
+        int versaoLocal = versaoAplicada;
+        Mensagem origem = null;
+        Set<Integer> conhecidas = new HashSet<>();
+        for (Mensagem m : lote) {
+            if (origem == null || m.versaoAnunciada() >= origem.versaoAnunciada()) origem = m;
+            for (RegistoReplicacao.Entrada e : m.entradas()) {
+                conhecidas.add(e.versao());
+            }
+        }
+        if (origem == null) return;
+        int de = -1;
+        int ate = -1;
+        for (int v = versaoLocal + 1; v <= origem.versaoAnunciada(); v++) {
+            if (!conhecidas.contains(v) && !adiantadas.containsKey(v) && !reparadas.containsKey(v)) {
+                if (de < 0) de = v;
+                ate = v;
+            }
+        }
+        if (de < 0) return;
+
+        System.err.println("[Multicast] Faltam as versões " + de + "-" + ate + ", a pedir ao principal (NACK).");
+        lacunas.incrementAndGet();
+        List<RegistoReplicacao.Entrada> faixa;
+        try {
+            faixa = pedirFaixa(origem.remetente(), origem.portoSync(), de, ate);
+        } catch (IOException | RuntimeException e) {
+            reparacoesFalhadas.incrementAndGet();
+            falhasSeguidas++;
+            System.err.println("[Multicast] NACK falhou (" + falhasSeguidas + "/" + maxTentativas + "): " + e.getMessage());
+            if (falhasSeguidas >= maxTentativas) {
+                System.err.println("[Multicast] PERDA DE SINCRONIZAÇÃO! Não foi possível recuperar as versões em falta.");
+                terminar();
+            }
+            return;
+        }
+        if (faixa == null) {
+            reparacoesFalhadas.incrementAndGet();
+            System.err.println("[Multicast] PERDA DE SINCRONIZAÇÃO! O principal já não tem as versões "
+                    + de + "-" + ate + " no registo.");
+            terminar();
+            return;
+        }
+        falhasSeguidas = 0;
+        versoesReparadas.addAndGet(faixa.size());
+        for (RegistoReplicacao.Entrada e : faixa) {
+            reparadas.put(e.versao(), e);
+        }
+        System.out.println("[Multicast] Recuperadas " + faixa.size() + " versões por NACK.");
+    }
+
+    /**
+     * Aplica um lote de mensagens pela ordem de chegada: as entradas seguidas vão numa só
+     * transação e um HEARTBEAT só é comparado com a versão local depois de aplicadas as
+     * entradas que chegaram antes dele. Chamado com o monitor do DatabaseManager.
+     */
+    public void processar(List<Mensagem> lote) {
+        try {
+            boolean porAplicar = false;
+            for (Mensagem m : lote) {
+                notarPrincipal(m.versaoAnunciada());
+                if (m.ehHeartbeat()) {
+                    if (porAplicar) {
+                        aplicarRecebidas();
+                        porAplicar = false;
+                    }
+                    verificarHeartbeat(m);
+                } else {
+                    for (RegistoReplicacao.Entrada e : m.entradas()) {
+                        adiantadas.put(e.versao(), e);
+                    }
+                    porAplicar = true;
+                }
+            }
+            if (porAplicar) aplicarRecebidas();
+
+        } catch (Exception e) {
+            System.err.println("[Multicast] Erro ao processar heartbeat: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            versaoAplicada = db.getVersao();
+            reparadas.headMap(versaoAplicada, true).clear();
+        }
+    }
+
+    /**
+     * Entradas recebidas (em adiantadas): se faltar uma faixa antes da primeira, junta-lhes
+     * as versões já pedidas por buscarEmFalta; depois aplica as que ficaram seguidas.
+     */
+    private void aplicarRecebidas() {
+        int versaoLocal = db.getVersao();
+        adiantadas.headMap(versaoLocal, true).clear();
+        if (adiantadas.isEmpty()) {
+            System.out.println("[Multicast] Updates antigos/duplicados, a ignorar.");
+            return;
+        }
+        int primeira = adiantadas.firstKey();
+        System.out.println("[Multicast] Updates recebidos - Versões " + primeira + "-" + adiantadas.lastKey()
+                + " | Versão local: " + versaoLocal);
+        if (primeira > versaoLocal + 1) {
+            reparar(versaoLocal + 1, primeira - 1);
+        }
+        aplicarAdiantadas();
+    }
+
+    private void verificarHeartbeat(Mensagem m) {
+        int versaoRecebida = m.versaoAnunciada();
+        int versaoLocal = db.getVersao();
+
+        if (versaoRecebida > versaoLocal) {
+            System.err.println("[Multicast] Atrasado em relação ao principal! Local: " + versaoLocal
+                    + ", Principal: " + versaoRecebida);
+            reparar(versaoLocal + 1, versaoRecebida);
+            aplicarAdiantadas();
+        } else if (versaoRecebida < versaoLocal) {
+            System.err.println("[Multicast] Versões diferentes! Local: " + versaoLocal
+                    + ", Principal: " + versaoRecebida);
+            terminar();
+        }
+    }
+
+    /**
+     * Passa para as adiantadas as versões de..ate já trazidas por buscarEmFalta. As que
+     * ainda faltarem ficam à espera: são pedidas de novo antes do lote seguinte.
+     */
+    private void reparar(int de, int ate) {
+        Map<Integer, RegistoReplicacao.Entrada> faixa = reparadas.subMap(de, true, ate, true);
+        for (RegistoReplicacao.Entrada e : faixa.values()) {
+            adiantadas.putIfAbsent(e.versao(), e);
+        }
+        faixa.clear();
+    }
+
+    private void aplicarAdiantadas() {
+        int versaoLocal = db.getVersao();
+        adiantadas.headMap(versaoLocal, true).clear();
+        List<RegistoReplicacao.Entrada> seguidas = new ArrayList<>();
+        while (!adiantadas.isEmpty() && adiantadas.firstKey() == versaoLocal + 1 + seguidas.size()) {
+            seguidas.add(adiantadas.pollFirstEntry().getValue());
+        }
+        if (!seguidas.isEmpty()) aplicarSeguidas(seguidas);
+    }
+
+    /**
+     * Entradas por ordem de versão; as que a BD já tem são saltadas. Cada sequência de OP
+     * (ou de QUERY/LOTE) vai numa transação; os ARQUIVO são aplicados à parte.
+     */
+    private void aplicarSeguidas(List<RegistoReplicacao.Entrada> entradas) {
+        List<RegistoReplicacao.Entrada> transacao = new ArrayList<>();
+        for (RegistoReplicacao.Entrada e : entradas) {
+            int esperada = db.getVersao() + 1 + transacao.size();
+            if (e.versao() < esperada) continue;
+            if (e.versao() > esperada) break;
+            if ("ARQUIVO".equals(e.tipo())) {
+                aplicarTransacao(transacao);
+                aplicar(e);
+            } else {
+                if (!transacao.isEmpty() && "OP".equals(e.tipo()) != "OP".equals(transacao.get(0).tipo())) {
+                    aplicarTransacao(transacao);
+                }
+                transacao.add(e);
+            }
+        }
+        aplicarTransacao(transacao);
+    }
+
+    private void aplicarTransacao(List<RegistoReplicacao.Entrada> transacao) {
+        if (transacao.isEmpty()) return;
+        if (transacao.size() == 1) {
+            aplicar(transacao.get(0));
+            transacao.clear();
+            return;
+        }
+        int versaoFim = transacao.get(transacao.size() - 1).versao();
+        if ("OP".equals(transacao.get(0).tipo())) {
+            aplicarOperacoes(transacao, versaoFim);
+            transacao.clear();
+            return;
+        }
+        List<String> sqls = new ArrayList<>();
+        for (RegistoReplicacao.Entrada e : transacao) {
+            if ("LOTE".equals(e.tipo())) {
+                sqls.addAll(Arrays.asList(e.payload().split("\n")));
+            } else {
+                sqls.add(e.payload());
+            }
+        }
+        sqls.add("UPDATE Configuracao SET versao=" + versaoFim + " WHERE id=1");
+        try {
+            db.executarLote(sqls);
+            for (RegistoReplicacao.Entrada e : transacao) {
+                registo.registar(e.versao(), e.tipo(), e.payload());
+            }
+            System.out.println("[Multicast] " + transacao.size() + " updates aplicados numa transação. Nova versão: "
+                    + db.getVersao());
+        } catch (SQLException ex) {
+            System.err.println("[Multicast] Erro ao executar grupo v" + transacao.get(0).versao()
+                    + "-v" + versaoFim + ": " + ex.getMessage());
+            terminar();
+        }
+        transacao.clear();
+    }
+
+    private void aplicarOperacoes(List<RegistoReplicacao.Entrada> transacao, int versaoFim) {
+        try {
+            List<OperacaoReplicada> ops = new ArrayList<>(transacao.size());
+            for (RegistoReplicacao.Entrada e : transacao) {
+                ops.add(operacao(e));
+            }
+            db.aplicarOperacoes(ops, versaoFim);
+            for (RegistoReplicacao.Entrada e : transacao) {
+                registo.registar(e.versao(), e.tipo(), e.payload());
+            }
+            System.out.println("[Multicast] " + ops.size() + " operações aplicadas numa transação. Nova versão: "
+                    + db.getVersao());
+        } catch (SQLException | IllegalArgumentException ex) {
+            System.err.println("[Multicast] Erro ao aplicar operações v" + transacao.get(0).versao()
+                    + "-v" + versaoFim + ": " + ex.getMessage());
+            terminar();
+        }
+    }
+
+    private static OperacaoReplicada operacao(RegistoReplicacao.Entrada e) {
+        return OperacaoReplicada.descodificar(Base64.getDecoder().decode(e.payload()));
+    }
+
+    /**
+     * Entradas de um HEARTBEAT_GRUPO: TIPO:comprimento:payload seguidas, versões de vIni a vFim.
+     */
+    static List<RegistoReplicacao.Entrada> lerGrupo(int versaoIni, int versaoFim, String corpo) {
+        List<RegistoReplicacao.Entrada> entradas = new ArrayList<>();
+        int pos = 0;
+        for (int v = versaoIni; v <= versaoFim; v++) {
+            int fimTipo = corpo.indexOf(':', pos);
+            int fimComprimento = corpo.indexOf(':', fimTipo + 1);
+            if (fimTipo < 0 || fimComprimento < 0) {
+                throw new IllegalArgumentException("Grupo truncado na versão " + v);
+            }
+            int comprimento = Integer.parseInt(corpo.substring(fimTipo + 1, fimComprimento));
+            int inicio = fimComprimento + 1;
+            entradas.add(new RegistoReplicacao.Entrada(v, corpo.substring(pos, fimTipo),
+                    corpo.substring(inicio, inicio + comprimento)));
+            pos = inicio + comprimento;
+        }
+        return entradas;
+    }
+
+    private void aplicar(RegistoReplicacao.Entrada e) {
+        String tipo = e.tipo();
+        String query = e.payload();
+        if ("OP".equals(tipo)) {
+            aplicarOperacoes(List.of(e), e.versao());
+            return;
+        }
+        try {
+            if ("LOTE".equals(tipo)) {
+                db.executarLote(Arrays.asList(query.split("\n")));
+            } else if ("ARQUIVO".equals(tipo)) {
+                db.arquivarPerguntas(query);
+            } else {
+                db.executarQuery(query);
+            }
+            db.incrementarVersao();
+            registo.registar(e.versao(), tipo, query);
+
+            System.out.println("[Multicast] Query executada com sucesso! Nova versão: " + db.getVersao());
+            System.out.println("           Query: " + query);
+
+        } catch (SQLException ex) {
+            System.err.println("[Multicast] Erro ao executar query: " + ex.getMessage());
+            terminar();
+        }
+    }
+
+    /**
+     * Arranque de um backup com BD local: pede ao principal as versões seguintes à local
+     * (RECUPERAR:versao:assinatura) e aplica-as à medida que chegam, em blocos. Devolve false
+     * se o principal não as puder dar (INDISPONIVEL) ou se a aplicação falhar; nesse caso
+     * quem chama copia a BD inteira.
+     */
+    public boolean recuperar(InetAddress principal, int portoSync) throws IOException {
+        int versaoLocal = db.getVersao();
+        List<RegistoReplicacao.Entrada> ultima = registo.obter(versaoLocal, versaoLocal);
+        String assinatura = ultima == null ? "-" : assinatura(ultima.get(0));
+        System.out.println("[Sync] A recuperar a partir da versão " + versaoLocal + "...");
+
+        recuperando = true;
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(principal, portoSync), timeoutMs);
+            s.setSoTimeout(timeoutMs);
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true, StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            out.println("RECUPERAR:" + versaoLocal + ":" + assinatura);
+
+            List<RegistoReplicacao.Entrada> bloco = new ArrayList<>();
+            int recebidas = 0;
+            String linha;
+            while ((linha = in.readLine()) != null) {
+                if ("INDISPONIVEL".equals(linha)) {
+                    System.out.println("[Sync] O principal não tem as versões seguintes à " + versaoLocal + " no registo.");
+                    return false;
+                }
+                if ("FIM".equals(linha)) {
+                    aplicarSeguidas(bloco);
+                    System.out.println("[Sync] Recuperadas " + recebidas + " versões. Versão local: " + db.getVersao());
+                    return true;
+                }
+                RegistoReplicacao.Entrada e = RegistoReplicacao.Entrada.deLinha(linha);
+                if (e.versao() != versaoLocal + 1 + recebidas) {
+                    System.err.println("[Sync] Recuperação fora de ordem na versão " + e.versao());
+                    return false;
+                }
+                bloco.add(e);
+                recebidas++;
+                if (bloco.size() >= BLOCO_RECUPERACAO) {
+                    aplicarSeguidas(bloco);
+                    bloco.clear();
+                }
+            }
+            throw new IOException("ligação fechada antes do FIM");
+        } catch (IllegalStateException e) {
+            System.err.println("[Sync] Recuperação falhou: " + e.getMessage());
+            return false;
+        } finally {
+            recuperando = false;
+        }
+    }
+
+    /**
+     * Resposta do principal a RECUPERAR:versao:assinatura: as versões seguintes até à última
+     * do registo, uma por linha, até FIM. INDISPONIVEL se o registo já não as tiver todas, se
+     * o backup estiver à frente ou se a sua última versão (quando o registo a tem) não for
+     * a mesma que a do principal.
+     */
+    public static void responderRecuperacao(String pedido, RegistoReplicacao registo, int versaoPrincipal,
+                                            PrintWriter out) {
+        String[] p = pedido.split(":");
+        List<RegistoReplicacao.Entrada> faixa = null;
+        try {
+            int versao = Integer.parseInt(p[1]);
+            String assinatura = p.length > 2 ? p[2] : "-";
+            int ate = registo.getTamanho() > 0 ? registo.getUltima() : versaoPrincipal;
+            List<RegistoReplicacao.Entrada> local = registo.obter(versao, versao);
+            boolean diverge = !"-".equals(assinatura) && local != null
+                    && !assinatura.equals(assinatura(local.get(0)));
+            if (diverge || versao > ate) {
+                faixa = null;
+            } else if (versao == ate) {
+                faixa = List.of();
+            } else {
+                faixa = registo.obter(versao + 1, ate);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[Sync] Pedido RECUPERAR inválido: " + pedido);
+        }
+        if (faixa == null) {
+            out.println("INDISPONIVEL");
+        } else {
+            for (RegistoReplicacao.Entrada e : faixa) {
+                out.println(e.paraLinha());
+            }
+            out.println("FIM");
+            System.out.println("[Sync] Recuperação: enviadas " + faixa.size() + " versões.");
+        }
+        out.flush();
+    }
+
+    /**
+     * CRC32 da entrada, para confirmar que a última versão do backup é a mesma do principal.
+     */
+    private static String assinatura(RegistoReplicacao.Entrada e) {
+        CRC32 crc = new CRC32();
+        crc.update(e.paraLinha().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * null se o principal responder INDISPONIVEL (faixa fora do registo).
+     */
+    private List<RegistoReplicacao.Entrada> pedirFaixa(InetAddress principal, int portoSync, int de, int ate)
+            throws IOException {
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(principal, portoSync), timeoutMs);
+            s.setSoTimeout(timeoutMs);
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true, StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            out.println("NACK:" + de + ":" + ate);
+
+            List<RegistoReplicacao.Entrada> faixa = new ArrayList<>();
+            String linha;
+            while ((linha = in.readLine()) != null) {
+                if ("INDISPONIVEL".equals(linha)) return null;
+                if ("FIM".equals(linha)) return faixa;
+                faixa.add(RegistoReplicacao.Entrada.deLinha(linha));
+            }
+            throw new IOException("ligação fechada antes do FIM");
+        }
+    }
+
+    /**
+     * Resposta do principal a um pedido NACK:de:ate recebido no porto de sync.
+     */
+    public static void responderNack(String pedido, RegistoReplicacao registo, PrintWriter out) {
+        String[] p = pedido.split(":");
+        List<RegistoReplicacao.Entrada> faixa = null;
+        try {
+            faixa = registo.obter(Integer.parseInt(p[1]), Integer.parseInt(p[2]));
+        } catch (RuntimeException e) {
+            System.err.println("[Sync] Pedido NACK inválido: " + pedido);
+        }
+        if (faixa == null) {
+            out.println("INDISPONIVEL");
+        } else {
+            for (RegistoReplicacao.Entrada e : faixa) {
+                out.println(e.paraLinha());
+            }
+            out.println("FIM");
+        }
+        out.flush();
+    }
+
+    private void terminar() {
+        if (recuperando) {
+            throw new IllegalStateException("erro ao aplicar as versões recuperadas");
+        }
+        System.err.println("[Multicast] Servidor vai terminar!");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,196 @@
+package servidor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Registo das últimas mensagens de replicação, indexado pela versão. O principal regista
+ * cada update ao enviá-lo e os backups ao aplicá-lo (para o poderem servir se passarem a
+ * principal). Um backup que perca datagramas pede a faixa em falta (NACK) pelo porto de
+ * sync em vez de terminar.
+ *
+ * Em memória ficam no máximo "capacidade" versões seguidas. Em disco o registo é escrito
+ * em dois segmentos (replicacao.log e replicacao.log.1, o anterior), rodados a cada
+ * "capacidade" entradas, e serve para o reconstruir depois de um reinício.
+ *
+ * Formato de cada linha (disco e resposta ao NACK): versao:TIPO:payload em Base64.
+ */
+public class RegistoReplicacao {
+    public static final String NOME_FICHEIRO = "replicacao.log";
+
+    public record Entrada(int versao, String tipo, String payload) {
+
+        public String paraLinha() {
+            return versao + ":" + tipo + ":"
+                    + Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public static Entrada deLinha(String linha) {
+            String[] p = linha.split(":", 3);
+            if (p.length < 3) throw new IllegalArgumentException("Entrada inválida: " + linha);
+            return new Entrada(Integer.parseInt(p[0]), p[1],
+                    new String(Base64.getDecoder().decode(p[2]), StandardCharsets.UTF_8));
+        }
+    }
+
+    private final TreeMap<Integer, Entrada> memoria = new TreeMap<>();
+    private final int capacidade;
+    private final Path ficheiro;
+    private final Path anterior;
+    private BufferedWriter escritor;
+    private int noSegmento;
+
+    public RegistoReplicacao(Path pasta, int capacidade) {
+        this.capacidade = capacidade;
+        this.ficheiro = pasta.resolve(NOME_FICHEIRO);
+        this.anterior = pasta.resolve(NOME_FICHEIRO + ".1");
+    }
+
+    /**
+     * Lê os segmentos do disco. Só fica a última sequência contínua de versões até
+     * versaoBD; entradas acima (a BD não as tem) são descartadas.
+     */
+    public synchronized void carregar(int versaoBD) {
+        memoria.clear();
+        List<Entrada> lidas = new ArrayList<>();
+        ler(anterior, lidas);
+        noSegmento = ler(ficheiro, lidas);
+        for (Entrada e : lidas) {
+            if (e.versao() > versaoBD) break;
+            if (!memoria.isEmpty() && e.versao() != memoria.lastKey() + 1) memoria.clear();
+            memoria.put(e.versao(), e);
+        }
+        aparar();
+        if (!memoria.isEmpty()) {
+            System.out.println("[Registo] " + memoria.size() + " entradas carregadas (v"
+                    + memoria.firstKey() + "-v" + memoria.lastKey() + ")");
+        }
+        if (lidas.size() != memoria.size()) {
+            // O disco tinha entradas que já não servem: recomeça os segmentos a partir da memória.
+            reescrever();
+        }
+    }
+
+    private int ler(Path p, List<Entrada> destino) {
+        if (!Files.exists(p)) return 0;
+        int n = 0;
+        try (BufferedReader in = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+            String linha;
+            while ((linha = in.readLine()) != null) {
+                try {
+                    destino.add(Entrada.deLinha(linha));
+                    n++;
+                } catch (IllegalArgumentException e) {
+                    // Última linha cortada por um fim abrupto: o resto do segmento não conta.
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[Registo] Erro ao ler " + p + ": " + e.getMessage());
+        }
+        return n;
+    }
+
+    /**
+     * Uma versão fora de sequência (ex. depois de uma sincronização completa) invalida as
+     * anteriores: o registo só guarda versões seguidas.
+     */
+    public synchronized void registar(int versao, String tipo, String payload) {
+        if (!memoria.isEmpty() && versao <= memoria.lastKey()) return;
+        if (!memoria.isEmpty() && versao != memoria.lastKey() + 1) {
+            memoria.clear();
+            reescrever();
+        }
+        Entrada e = new Entrada(versao, tipo, payload);
+        memoria.put(versao, e);
+        aparar();
+        escrever(e);
+    }
+
+    /**
+     * Entradas de "de" a "ate" (inclusive), ou null se alguma já não estiver no registo.
+     */
+    public synchronized List<Entrada> obter(int de, int ate) {
+        if (memoria.isEmpty() || de < memoria.firstKey() || ate > memoria.lastKey() || de > ate) {
+            return null;
+        }
+        return new ArrayList<>(memoria.subMap(de, true, ate, true).values());
+    }
+
+    public synchronized int getPrimeira() {
+        return memoria.isEmpty() ? 0 : memoria.firstKey();
+    }
+
+    public synchronized int getUltima() {
+        return memoria.isEmpty() ? 0 : memoria.lastKey();
+    }
+
+    public synchronized int getTamanho() {
+        return memoria.size();
+    }
+
+    /**
+     * Esquece tudo (a BD local foi substituída por uma cópia do principal).
+     */
+    public synchronized void limpar() {
+        memoria.clear();
+        reescrever();
+    }
+
+    private void aparar() {
+        while (memoria.size() > capacidade) {
+            memoria.pollFirstEntry();
+        }
+    }
+
+    private void escrever(Entrada e) {
+        try {
+            if (noSegmento >= capacidade) {
+                fecharEscritor();
+                Files.move(ficheiro, anterior, StandardCopyOption.REPLACE_EXISTING);
+                noSegmento = 0;
+            }
+            if (escritor == null) {
+                escritor = Files.newBufferedWriter(ficheiro, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            escritor.write(e.paraLinha());
+            escritor.newLine();
+            escritor.flush();
+            noSegmento++;
+        } catch (IOException ex) {
+            System.err.println("[Registo] Erro ao escrever v" + e.versao() + ": " + ex.getMessage());
+        }
+    }
+
+    private void reescrever() {
+        try {
+            fecharEscritor();
+            Files.deleteIfExists(anterior);
+            Files.deleteIfExists(ficheiro);
+            noSegmento = 0;
+            for (Entrada e : memoria.values()) {
+                escrever(e);
+            }
+        } catch (IOException e) {
+            System.err.println("[Registo] Erro ao recomeçar o registo: " + e.getMessage());
+        }
+    }
+
+    private void fecharEscritor() throws IOException {
+        if (escritor != null) {
+            escritor.close();
+            escritor = null;
+        }
+    }
+}
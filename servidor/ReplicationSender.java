@@ -1,41 +1,234 @@
 package servidor;
 
+import servidor.db.OperacaoReplicada;
+
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Envia os updates para os backups por multicast: operações (OP, ver OperacaoReplicada) e
+ * pedidos de arquivo (ARQUIVO).
+ *
+ * Com janelaMs > 0 os updates não saem logo: são agrupados durante até janelaMs, ou até
+ * encherem maxBytesGrupo, e vão num só datagrama com a faixa de versões:
+ *   HEARTBEAT_GRUPO:vIni:vFim:portoC:portoS:TIPO:comprimento:payload TIPO:comprimento:payload ...
+ * (as entradas seguem-se sem separador; o comprimento, em caracteres, diz onde acaba cada
+ * payload). Um grupo com um só update vai no formato HEARTBEAT_UPDATE de sempre.
+ */
 public class ReplicationSender {
+    /**
+     * Tamanho máximo de um datagrama de grupo, em bytes UTF-8. O recetor aceita até 65507
+     * (o máximo de um datagrama UDP); o limite é mais baixo para um datagrama perdido custar
+     * poucas versões a reparar por NACK. Cabe sempre uma operação de OperacaoReplicada.MAX_BYTES
+     * em Base64 com o cabeçalho.
+     */
+    public static final int MAX_BYTES_DATAGRAMA = 4000;
+    private static final int BYTES_CABECALHO_GRUPO = 64;
+    private static final int RESUMO_A_CADA = 500;
+
     private final DatagramSocket socket;
     private final InetAddress grupoMulticast;
     private final int multicastPort;
     private final int portoTCPClientes;
     private final int portoTCPSync;
+    private final RegistoReplicacao registo;
+    private final long janelaNs;
+    private final int maxBytesGrupo;
+
+    private record Pendente(int versao, String tipo, String payload, int bytes, long t0) {}
 
+    /** Updates à espera de sair; é também o monitor do agrupamento. */
+    private final List<Pendente> grupo = new ArrayList<>();
+    private int bytesGrupo;
+    private long datagramas;
+    private final Distribuicao tamanhosGrupo = new Distribuicao();
+    private final Distribuicao latenciasUs = new Distribuicao();
+    private final AtomicLong datagramasEnviados = new AtomicLong();
+    private final AtomicLong falhasEnvio = new AtomicLong();
+
+    /**
+     * @param janelaMs tempo máximo que um update espera pelo grupo (0: cada update sai logo)
+     * @param maxBytesGrupo tamanho a partir do qual o grupo sai sem esperar
+     */
     public ReplicationSender(DatagramSocket socket,
                              InetAddress grupoMulticast,
                              int multicastPort,
                              int portoTCPClientes,
-                             int portoTCPSync) {
+                             int portoTCPSync,
+                             RegistoReplicacao registo,
+                             long janelaMs,
+                             int maxBytesGrupo) {
         this.socket = socket;
         this.grupoMulticast = grupoMulticast;
         this.multicastPort = multicastPort;
         this.portoTCPClientes = portoTCPClientes;
         this.portoTCPSync = portoTCPSync;
+        this.registo = registo;
+        this.janelaNs = TimeUnit.MILLISECONDS.toNanos(janelaMs);
+        this.maxBytesGrupo = Math.min(maxBytesGrupo, MAX_BYTES_DATAGRAMA);
+        if (janelaMs > 0) {
+            Thread t = new Thread(this::enviarGruposExpirados, "Replicacao-Grupos");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Envia uma operação (tipo OP): o payload é a OperacaoReplicada codificada, em Base64.
+     */
+    public void sendOperacao(int versao, OperacaoReplicada op) {
+        if (enviar(versao, "OP", Base64.getEncoder().encodeToString(OperacaoReplicada.codificar(op)))) {
+            System.out.println("[Replicator] OP enviada (v" + versao + ", " + op.getClass().getSimpleName() + ")");
+        }
+    }
+
+    /**
+     * Pede aos backups que arquivem as perguntas com data_fim anterior a limite.
+     */
+    public void sendArquivo(int versao, String limite) {
+        if (enviar(versao, "ARQUIVO", limite)) {
+            System.out.println("[Replicator] ARQUIVO enviado (v" + versao + ", limite " + limite + ")");
+        }
+    }
+
+    /**
+     * Fica no registo mesmo que o envio falhe: os backups recuperam-no por NACK.
+     * Chamado por ordem de versão (pelo SequenciadorVersoes), que é a ordem do grupo.
+     */
+    private boolean enviar(int versao, String tipo, String payload) {
+        registo.registar(versao, tipo, payload);
+        if (janelaNs <= 0) {
+            return enviarDatagrama(mensagemUnica(versao, tipo, payload), tipo);
+        }
+        synchronized (grupo) {
+            int bytes = entradaGrupo(tipo, payload).getBytes(StandardCharsets.UTF_8).length;
+            if (!grupo.isEmpty() && BYTES_CABECALHO_GRUPO + bytesGrupo + bytes > maxBytesGrupo) {
+                enviarGrupo();
+            }
+            grupo.add(new Pendente(versao, tipo, payload, bytes, System.nanoTime()));
+            bytesGrupo += bytes;
+            if (BYTES_CABECALHO_GRUPO + bytesGrupo >= maxBytesGrupo) {
+                enviarGrupo();
+            } else if (grupo.size() == 1) {
+                grupo.notifyAll();
+            }
+        }
+        return true;
     }
 
-    public void sendUpdate(int versao, String querySql) {
+    /**
+     * Thread Replicacao-Grupos: envia o grupo quando o update mais antigo faz janelaMs.
+     */
+    private void enviarGruposExpirados() {
+        synchronized (grupo) {
+            try {
+                while (true) {
+                    if (grupo.isEmpty()) {
+                        grupo.wait();
+                        continue;
+                    }
+                    long espera = grupo.get(0).t0() + janelaNs - System.nanoTime();
+                    if (espera > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(grupo, espera);
+                    } else {
+                        enviarGrupo();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Chamado com o monitor do grupo.
+     */
+    private void enviarGrupo() {
+        if (grupo.isEmpty()) return;
+        Pendente primeiro = grupo.get(0);
+        Pendente ultimo = grupo.get(grupo.size() - 1);
+        String msg;
+        if (grupo.size() == 1) {
+            msg = mensagemUnica(primeiro.versao(), primeiro.tipo(), primeiro.payload());
+        } else {
+            StringBuilder sb = new StringBuilder("HEARTBEAT_GRUPO:")
+                    .append(primeiro.versao()).append(':').append(ultimo.versao()).append(':')
+                    .append(portoTCPClientes).append(':').append(portoTCPSync).append(':');
+            for (Pendente p : grupo) {
+                sb.append(entradaGrupo(p.tipo(), p.payload()));
+            }
+            msg = sb.toString();
+        }
+        if (enviarDatagrama(msg, grupo.size() == 1 ? primeiro.tipo() : "GRUPO") && grupo.size() > 1) {
+            System.out.println("[Replicator] GRUPO enviado (v" + primeiro.versao() + "-v" + ultimo.versao()
+                    + ", " + grupo.size() + " updates, " + (BYTES_CABECALHO_GRUPO + bytesGrupo) + " bytes)");
+        }
+
+        long agora = System.nanoTime();
+        tamanhosGrupo.registar(grupo.size());
+        for (Pendente p : grupo) {
+            latenciasUs.registar((agora - p.t0()) / 1000);
+        }
+        grupo.clear();
+        bytesGrupo = 0;
+        if (++datagramas % RESUMO_A_CADA == 0) {
+            System.out.println("[Replicator] " + resumo());
+        }
+    }
+
+    private String mensagemUnica(int versao, String tipo, String payload) {
+        return "HEARTBEAT_UPDATE:" + versao + ":"
+                + portoTCPClientes + ":" + portoTCPSync
+                + ":" + tipo + ":" + payload;
+    }
+
+    private static String entradaGrupo(String tipo, String payload) {
+        return tipo + ":" + payload.length() + ":" + payload;
+    }
+
+    private boolean enviarDatagrama(String msg, String tipo) {
         try {
-            String msg = "HEARTBEAT_UPDATE:" + versao + ":"
-                       + portoTCPClientes + ":" + portoTCPSync
-                       + ":QUERY:" + querySql;
-            byte[] bytes = msg.getBytes();
+            byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
             DatagramPacket pkt =
                 new DatagramPacket(bytes, bytes.length, grupoMulticast, multicastPort);
             socket.send(pkt);
-            System.out.println("[Replicator] UPDATE enviado (v" + versao + ")");
-            System.out.println("            SQL: " + querySql);
+            datagramasEnviados.incrementAndGet();
+            return true;
         } catch (Exception e) {
-            System.err.println("[Replicator] Falha ao enviar UPDATE: " + e.getMessage());
+            falhasEnvio.incrementAndGet();
+            System.err.println("[Replicator] Falha ao enviar " + tipo + ": " + e.getMessage());
+            return false;
         }
     }
+
+    /**
+     * Updates por datagrama e tempo (µs) entre o update chegar e sair no datagrama.
+     */
+    public Distribuicao getTamanhosGrupo() {
+        return tamanhosGrupo;
+    }
+
+    public Distribuicao getLatenciasUs() {
+        return latenciasUs;
+    }
+
+    public long getDatagramasEnviados() {
+        return datagramasEnviados.get();
+    }
+
+    public long getFalhasEnvio() {
+        return falhasEnvio.get();
+    }
+
+    public String resumo() {
+        return "grupos: updates/datagrama " + tamanhosGrupo.resumo("")
+                + " | latencia " + latenciasUs.resumo("us");
+    }
 }
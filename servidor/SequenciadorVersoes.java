@@ -0,0 +1,118 @@
+package servidor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Atribui as versões de replicação do principal sem passar pela BD: reservar() é um
+ * incremento atómico (CAS). Quem reserva uma versão entrega depois o envio correspondente
+ * com publicar(); os envios ficam num buffer de reordenação e saem para os backups
+ * estritamente por ordem de versão, mesmo que os commits terminem fora de ordem.
+ *
+ * A reserva tem de ser feita na mesma secção crítica que a escrita no SQLite, para a
+ * ordem das versões coincidir com a dos autoincrement. Antes de cada grupo de envios a
+ * versão é gravada na Configuracao (uma escrita por grupo, não por operação).
+ */
+public class SequenciadorVersoes {
+
+    public interface Persistencia {
+        void gravar(int versao) throws SQLException;
+    }
+
+    private final Persistencia persistencia;
+    private final AtomicInteger ultimaReservada = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Runnable> pendentes = new ConcurrentHashMap<>();
+    private final ReentrantLock publicacao = new ReentrantLock();
+    private volatile int ultimaPublicada;
+
+    public SequenciadorVersoes(Persistencia persistencia, int versaoInicial) {
+        this.persistencia = persistencia;
+        reiniciar(versaoInicial);
+    }
+
+    /**
+     * Recomeça a partir da versão da BD (arranque ou promoção a principal).
+     */
+    public void reiniciar(int versao) {
+        publicacao.lock();
+        try {
+            pendentes.clear();
+            ultimaReservada.set(versao);
+            ultimaPublicada = versao;
+        } finally {
+            publicacao.unlock();
+        }
+    }
+
+    public int reservar() {
+        return ultimaReservada.incrementAndGet();
+    }
+
+    /**
+     * Reserva n versões seguidas e devolve a primeira.
+     */
+    public int reservar(int n) {
+        return ultimaReservada.getAndAdd(n) + 1;
+    }
+
+    /**
+     * Entrega o envio da versão reservada. Corre já os envios que ficarem consecutivos;
+     * os restantes esperam pela versão em falta.
+     */
+    public void publicar(int versao, Runnable envio) {
+        pendentes.put(versao, envio);
+        do {
+            if (!publicacao.tryLock()) return;
+            try {
+                drenar();
+            } finally {
+                publicacao.unlock();
+            }
+            // Outra thread pode ter deixado a versão seguinte enquanto tínhamos o lock.
+        } while (pendentes.containsKey(ultimaPublicada + 1));
+    }
+
+    private void drenar() {
+        List<Runnable> grupo = new ArrayList<>();
+        int v = ultimaPublicada;
+        Runnable r;
+        while ((r = pendentes.remove(v + 1)) != null) {
+            grupo.add(r);
+            v++;
+        }
+        if (grupo.isEmpty()) return;
+
+        try {
+            persistencia.gravar(v);
+        } catch (SQLException e) {
+            System.err.println("[Sequenciador] Erro ao gravar versão " + v + ": " + e.getMessage());
+        }
+        for (Runnable envio : grupo) {
+            try {
+                envio.run();
+            } catch (Exception e) {
+                System.err.println("[Sequenciador] Erro no envio: " + e.getMessage());
+            }
+        }
+        ultimaPublicada = v;
+    }
+
+    public int getUltimaReservada() {
+        return ultimaReservada.get();
+    }
+
+    /**
+     * Última versão já enviada para os backups (a que vai no HEARTBEAT).
+     */
+    public int getUltimaPublicada() {
+        return ultimaPublicada;
+    }
+
+    public int getPendentes() {
+        return pendentes.size();
+    }
+}
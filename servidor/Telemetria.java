@@ -0,0 +1,92 @@
+package servidor;
+
+import servidor.db.CheckpointWAL;
+import servidor.db.DatabaseManager;
+import servidor.db.SnapshotBD;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Estado da replicação deste servidor, para o pedido STATS do porto de sync (ver Main):
+ * uma linha chave=valor por métrica. Nada aqui espera pelo monitor da BD; as versões vêm
+ * do SequenciadorVersoes (principal) e do RecetorReplicacao (backup).
+ */
+public class Telemetria {
+    private final BooleanSupplier principal;
+    private final DatabaseManager db;
+    private final SequenciadorVersoes sequenciador;
+    private final ReplicationSender replicator;
+    private final RecetorReplicacao recetor;
+    private final FilaReplicacao fila;
+    private final RegistoReplicacao registo;
+
+    private final AtomicLong snapshots = new AtomicLong();
+    private final Distribuicao snapshotMonitoresMs = new Distribuicao();
+    private final Distribuicao snapshotCopiaMs = new Distribuicao();
+
+    public Telemetria(BooleanSupplier principal, DatabaseManager db, SequenciadorVersoes sequenciador,
+                      ReplicationSender replicator, RecetorReplicacao recetor, FilaReplicacao fila,
+                      RegistoReplicacao registo) {
+        this.principal = principal;
+        this.db = db;
+        this.sequenciador = sequenciador;
+        this.replicator = replicator;
+        this.recetor = recetor;
+        this.fila = fila;
+        this.registo = registo;
+    }
+
+    public void registarSnapshot(SnapshotBD snapshot) {
+        snapshots.incrementAndGet();
+        snapshotMonitoresMs.registar(snapshot.getMsMonitores());
+        snapshotCopiaMs.registar(snapshot.getMsCopia());
+    }
+
+    public List<String> linhas() {
+        List<String> l = new ArrayList<>();
+        boolean ehPrincipal = principal.getAsBoolean();
+        l.add("papel=" + (ehPrincipal ? "PRINCIPAL" : "BACKUP"));
+
+        // Principal: versões confirmadas e o que já saiu para os backups.
+        l.add("principal.versao.reservada=" + sequenciador.getUltimaReservada());
+        l.add("principal.versao.publicada=" + sequenciador.getUltimaPublicada());
+        l.add("principal.publicacoes.pendentes=" + sequenciador.getPendentes());
+        l.add("principal.datagramas.enviados=" + replicator.getDatagramasEnviados());
+        l.add("principal.datagramas.falhados=" + replicator.getFalhasEnvio());
+        l.add("principal.updates.por.datagrama=" + replicator.getTamanhosGrupo().resumo(""));
+        l.add("principal.latencia.envio=" + replicator.getLatenciasUs().resumo("us"));
+
+        // Backup: o que já foi aplicado e quanto falta.
+        l.add("backup.versao.aplicada=" + recetor.getVersaoAplicada());
+        l.add("backup.versao.principal=" + recetor.getVersaoPrincipal());
+        l.add("backup.atraso.versoes=" + recetor.getAtraso());
+        l.add("backup.ms.sem.principal=" + (ehPrincipal ? 0 : recetor.getMsSemPrincipal()));
+        l.add("backup.datagramas.recebidos=" + fila.getRecebidas());
+        l.add("backup.fila.profundidade=" + fila.getProfundidade());
+        l.add("backup.fila.maxima=" + fila.getProfundidadeMaxima());
+        l.add("backup.fila.descartadas=" + fila.getDescartadas());
+        l.add("backup.lacunas=" + recetor.getLacunas());
+        l.add("backup.versoes.reparadas=" + recetor.getVersoesReparadas());
+        l.add("backup.reparacoes.falhadas=" + recetor.getReparacoesFalhadas());
+        l.add("backup.latencia.aplicacao=" + fila.getLatencias().resumo("us"));
+        l.add("backup.duracao.lote=" + fila.getDuracoesLote().resumo("us"));
+
+        l.add("registo.primeira=" + registo.getPrimeira());
+        l.add("registo.ultima=" + registo.getUltima());
+        l.add("registo.tamanho=" + registo.getTamanho());
+
+        l.add("snapshot.total=" + snapshots.get());
+        l.add("snapshot.monitores=" + snapshotMonitoresMs.resumo("ms"));
+        l.add("snapshot.copia=" + snapshotCopiaMs.resumo("ms"));
+
+        List<CheckpointWAL> checkpoints = db.getCheckpointsWAL();
+        for (int i = 0; i < checkpoints.size(); i++) {
+            l.add("wal." + i + "=" + checkpoints.get(i).resumo());
+        }
+        l.add("locks=" + db.getLocks().resumo(5));
+        return l;
+    }
+}
@@ -0,0 +1,316 @@
+package servidor;
+
+import servidor.db.SnapshotBD;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transferência por blocos de uma cópia da BD (SnapshotBD) do principal para um backup.
+ *
+ * LISTA[:versao] devolve o manifesto: SNAPSHOT:versao:tamanhoBloco e uma linha nome:tamanho
+ * por ficheiro, até FIM. Com versao, o principal devolve essa cópia se ainda a tiver.
+ * FICHEIRO:versao:nome:blocoInicial:DEFLATE|NENHUMA devolve os blocos a partir de
+ * blocoInicial, cada um com o cabeçalho
+ *   int indice | int tamanho | int crc32c | byte formato | int tamanhoDados
+ * seguido dos dados (crus ou comprimidos com Deflater), e um indice -1 no fim.
+ *
+ * O backup escreve em nome.parcial só blocos verificados, pela ordem, e guarda o manifesto
+ * em sync.manifesto: se a ligação cair (ou o processo reiniciar), continua no bloco
+ * seguinte ao último completo enquanto o principal tiver a mesma cópia. Os ficheiros só
+ * substituem a BD local quando estão todos completos.
+ */
+public class TransferenciaSnapshot {
+    public static final String NOME_MANIFESTO = "sync.manifesto";
+    private static final String SUFIXO_PARCIAL = ".parcial";
+    private static final int FIM_BLOCOS = -1;
+    private static final byte FORMATO_CRU = 0;
+    private static final byte FORMATO_DEFLATE = 1;
+    private static final int TAMANHO_CABECALHO = 17;
+    private static final int TENTATIVAS = 5;
+    /**
+     * Timeout da ligação e de cada leitura (pd.sync.timeout.ms, 30000 por omissão): um LISTA
+     * pode ter de esperar que o principal faça a cópia.
+     */
+    private static final int TIMEOUT_MS = Integer.getInteger("pd.sync.timeout.ms", 30000);
+
+    private TransferenciaSnapshot() {
+    }
+
+    // ==================== Principal ====================
+
+    public static void enviarManifesto(SnapshotBD snapshot, PrintWriter out) {
+        out.println("SNAPSHOT:" + snapshot.getVersao() + ":" + SnapshotBD.TAMANHO_BLOCO);
+        for (String nome : snapshot.getFicheiros()) {
+            out.println(nome + ":" + snapshot.getTamanho(nome));
+        }
+        out.println("FIM");
+    }
+
+    /**
+     * Sem compressão, os dados vão do ficheiro para o socket com transferTo; com compressão,
+     * um bloco que não fique mais pequeno vai cru.
+     */
+    public static void enviarBlocos(SnapshotBD snapshot, String nome, int blocoInicial, boolean comprimir,
+                                    SocketChannel destino) throws IOException {
+        long tamanho = snapshot.getTamanho(nome);
+        int blocos = (int) ((tamanho + SnapshotBD.TAMANHO_BLOCO - 1) / SnapshotBD.TAMANHO_BLOCO);
+        ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+        Deflater deflater = comprimir ? new Deflater(Deflater.BEST_SPEED) : null;
+        byte[] cru = comprimir ? new byte[SnapshotBD.TAMANHO_BLOCO] : null;
+        byte[] comprimido = comprimir ? new byte[SnapshotBD.TAMANHO_BLOCO + 64] : null;
+        long enviados = 0;
+        try (FileChannel origem = FileChannel.open(snapshot.ficheiro(nome), StandardOpenOption.READ)) {
+            for (int i = blocoInicial; i < blocos; i++) {
+                long posicao = (long) i * SnapshotBD.TAMANHO_BLOCO;
+                int n = (int) Math.min(SnapshotBD.TAMANHO_BLOCO, tamanho - posicao);
+                int crc = snapshot.getCrcBloco(nome, i);
+
+                if (!comprimir) {
+                    escreverCabecalho(destino, cabecalho, i, n, crc, FORMATO_CRU, n);
+                    long feito = 0;
+                    while (feito < n) {
+                        feito += origem.transferTo(posicao + feito, n - feito, destino);
+                    }
+                    enviados += n;
+                    continue;
+                }
+
+                ByteBuffer b = ByteBuffer.wrap(cru, 0, n);
+                while (b.hasRemaining()) {
+                    if (origem.read(b, posicao + b.position()) < 0) throw new EOFException(nome + " encurtou");
+                }
+                deflater.reset();
+                deflater.setInput(cru, 0, n);
+                deflater.finish();
+                int c = deflater.deflate(comprimido);
+                boolean compensa = deflater.finished() && c < n;
+                byte[] dados = compensa ? comprimido : cru;
+                int tamanhoDados = compensa ? c : n;
+                escreverCabecalho(destino, cabecalho, i, n, crc, compensa ? FORMATO_DEFLATE : FORMATO_CRU, tamanhoDados);
+                ByteBuffer d = ByteBuffer.wrap(dados, 0, tamanhoDados);
+                while (d.hasRemaining()) destino.write(d);
+                enviados += tamanhoDados;
+            }
+            escreverCabecalho(destino, cabecalho, FIM_BLOCOS, 0, 0, FORMATO_CRU, 0);
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+        System.out.printf("[Sync] Enviado %s (v%d): blocos %d-%d, %d bytes%s%n", nome, snapshot.getVersao(),
+                blocoInicial, blocos - 1, enviados, comprimir ? " comprimidos" : "");
+    }
+
+    private static void escreverCabecalho(SocketChannel destino, ByteBuffer cabecalho, int indice, int tamanho,
+                                          int crc, byte formato, int tamanhoDados) throws IOException {
+        cabecalho.clear();
+        cabecalho.putInt(indice).putInt(tamanho).putInt(crc).put(formato).putInt(tamanhoDados);
+        cabecalho.flip();
+        while (cabecalho.hasRemaining()) destino.write(cabecalho);
+    }
+
+    // ==================== Backup ====================
+
+    private record Manifesto(int versao, int tamanhoBloco, List<String> nomes, List<Long> tamanhos) {
+        List<String> linhas() {
+            List<String> linhas = new ArrayList<>();
+            linhas.add("SNAPSHOT:" + versao + ":" + tamanhoBloco);
+            for (int i = 0; i < nomes.size(); i++) linhas.add(nomes.get(i) + ":" + tamanhos.get(i));
+            return linhas;
+        }
+
+        static Manifesto ler(List<String> linhas) throws IOException {
+            if (linhas.isEmpty() || !linhas.get(0).startsWith("SNAPSHOT:")) {
+                throw new IOException("manifesto inválido");
+            }
+            String[] p = linhas.get(0).split(":");
+            List<String> nomes = new ArrayList<>();
+            List<Long> tamanhos = new ArrayList<>();
+            for (String l : linhas.subList(1, linhas.size())) {
+                int sep = l.lastIndexOf(':');
+                nomes.add(l.substring(0, sep));
+                tamanhos.add(Long.parseLong(l.substring(sep + 1)));
+            }
+            return new Manifesto(Integer.parseInt(p[1]), Integer.parseInt(p[2]), nomes, tamanhos);
+        }
+    }
+
+    /**
+     * Copia a BD do principal para a pasta de pathDb, com até TENTATIVAS ligações, cada uma
+     * a continuar do último bloco verificado.
+     */
+    public static void descarregar(String host, int porto, Path pathDb, boolean comprimir) throws IOException {
+        IOException ultima = null;
+        for (int tentativa = 1; tentativa <= TENTATIVAS; tentativa++) {
+            try {
+                descarregarUmaVez(host, porto, pathDb, comprimir);
+                return;
+            } catch (IOException e) {
+                ultima = e;
+                System.err.println("[Sync] Transferência interrompida (tentativa " + tentativa + "/"
+                        + TENTATIVAS + "): " + e.getMessage());
+                try {
+                    Thread.sleep(1000L * tentativa);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        throw ultima;
+    }
+
+    private static void descarregarUmaVez(String host, int porto, Path pathDb, boolean comprimir) throws IOException {
+        Path pathManifesto = pathDb.resolveSibling(NOME_MANIFESTO);
+        Manifesto local = Files.exists(pathManifesto)
+                ? Manifesto.ler(Files.readAllLines(pathManifesto, StandardCharsets.UTF_8)) : null;
+
+        Manifesto remoto;
+        try (Socket s = ligar(host, porto);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            out.println(local != null ? "LISTA:" + local.versao() : "LISTA");
+            List<String> linhas = new ArrayList<>();
+            String linha;
+            while ((linha = in.readLine()) != null && !"FIM".equals(linha)) {
+                linhas.add(linha);
+            }
+            if (linha == null) throw new EOFException("manifesto incompleto");
+            remoto = Manifesto.ler(linhas);
+        }
+
+        if (!remoto.equals(local)) {
+            // Outra cópia: os blocos já recebidos não servem.
+            if (local != null) {
+                for (String nome : local.nomes()) Files.deleteIfExists(parcial(pathDb, nome));
+                System.out.println("[Sync] O principal já não tem a cópia v" + local.versao() + "; a recomeçar.");
+            }
+            Files.write(pathManifesto, remoto.linhas(), StandardCharsets.UTF_8);
+        } else {
+            System.out.println("[Sync] A retomar a transferência da cópia v" + remoto.versao() + ".");
+        }
+
+        for (int i = 0; i < remoto.nomes().size(); i++) {
+            descarregarFicheiro(host, porto, pathDb, remoto, remoto.nomes().get(i), remoto.tamanhos().get(i), comprimir);
+        }
+
+        for (String nome : remoto.nomes()) {
+            Path destino = destino(pathDb, nome);
+            Files.move(parcial(pathDb, nome), destino, StandardCopyOption.REPLACE_EXISTING);
+            // O WAL de uma vida anterior não pode ser aplicado por cima da cópia.
+            Files.deleteIfExists(destino.resolveSibling(destino.getFileName() + "-wal"));
+            Files.deleteIfExists(destino.resolveSibling(destino.getFileName() + "-shm"));
+        }
+        Files.delete(pathManifesto);
+        System.out.println("[Sync] Download da BD do principal concluído (v" + remoto.versao() + ").");
+    }
+
+    private static void descarregarFicheiro(String host, int porto, Path pathDb, Manifesto m, String nome,
+                                            long tamanho, boolean comprimir) throws IOException {
+        Path parcial = parcial(pathDb, nome);
+        try (FileChannel fc = FileChannel.open(parcial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Só contam os blocos inteiros: um bloco a meio de ser escrito volta a ser pedido.
+            if (fc.size() == tamanho) return;
+            int blocoInicial = (int) (Math.min(fc.size(), tamanho) / m.tamanhoBloco());
+            fc.truncate((long) blocoInicial * m.tamanhoBloco());
+
+            long t0 = System.nanoTime();
+            try (Socket s = ligar(host, porto);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16))) {
+                s.getOutputStream().write(("FICHEIRO:" + m.versao() + ":" + nome + ":" + blocoInicial + ":"
+                        + (comprimir ? "DEFLATE" : "NENHUMA") + "\n").getBytes(StandardCharsets.UTF_8));
+                s.getOutputStream().flush();
+                receberBlocos(in, fc, m.tamanhoBloco(), tamanho, blocoInicial, nome);
+            }
+            fc.force(false);
+            System.out.printf("[Sync] Download de %s concluído (%d bytes, a partir do bloco %d, %d ms).%n",
+                    nome, tamanho, blocoInicial, (System.nanoTime() - t0) / 1_000_000);
+        }
+    }
+
+    private static Socket ligar(String host, int porto) throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(host, porto), TIMEOUT_MS);
+            s.setSoTimeout(TIMEOUT_MS);
+            return s;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    private static void receberBlocos(DataInputStream in, FileChannel fc, int tamanhoBloco, long tamanho,
+                                      int esperado, String nome) throws IOException {
+        byte[] dados = new byte[tamanhoBloco + 64];
+        byte[] bloco = new byte[tamanhoBloco];
+        CRC32C crc = new CRC32C();
+        Inflater inflater = new Inflater();
+        try {
+            while (true) {
+                int indice = in.readInt();
+                int n = in.readInt();
+                int crcEsperado = in.readInt();
+                byte formato = in.readByte();
+                int tamanhoDados = in.readInt();
+                if (indice == FIM_BLOCOS) break;
+
+                long posicao = (long) indice * tamanhoBloco;
+                if (indice != esperado || n != Math.min(tamanhoBloco, tamanho - posicao)
+                        || tamanhoDados < 0 || tamanhoDados > dados.length) {
+                    throw new IOException(nome + ": bloco " + indice + " inesperado (esperado " + esperado + ")");
+                }
+                in.readFully(dados, 0, tamanhoDados);
+
+                byte[] conteudo = dados;
+                if (formato == FORMATO_DEFLATE) {
+                    inflater.reset();
+                    inflater.setInput(dados, 0, tamanhoDados);
+                    try {
+                        if (inflater.inflate(bloco, 0, n) != n || !inflater.finished()) {
+                            throw new IOException(nome + ": bloco " + indice + " mal comprimido");
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException(nome + ": bloco " + indice + " mal comprimido", e);
+                    }
+                    conteudo = bloco;
+                } else if (tamanhoDados != n) {
+                    throw new IOException(nome + ": bloco " + indice + " com tamanho errado");
+                }
+
+                crc.reset();
+                crc.update(conteudo, 0, n);
+                if ((int) crc.getValue() != crcEsperado) {
+                    throw new IOException(nome + ": CRC32C errado no bloco " + indice);
+                }
+                ByteBuffer b = ByteBuffer.wrap(conteudo, 0, n);
+                while (b.hasRemaining()) fc.write(b, posicao + b.position());
+                esperado++;
+            }
+        } finally {
+            inflater.end();
+        }
+        if (fc.size() != tamanho) {
+            throw new EOFException(nome + ": " + fc.size() + " de " + tamanho + " bytes");
+        }
+    }
+
+    private static Path destino(Path pathDb, String nome) {
+        return nome.equals(pathDb.getFileName().toString()) ? pathDb : pathDb.resolveSibling(nome);
+    }
+
+    private static Path parcial(Path pathDb, String nome) {
+        return pathDb.resolveSibling(nome + SUFIXO_PARCIAL);
+    }
+}
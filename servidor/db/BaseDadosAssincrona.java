@@ -0,0 +1,105 @@
+package servidor.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fachada assíncrona sobre o DatabaseManager: cada chamada devolve um CompletableFuture e
+ * corre num executor próprio da BD, e não na thread da ligação do cliente.
+ *
+ * - escrever(): uma só thread de escrita por ficheiro SQLite (o SQLite só tem um escritor
+ *   de cada vez); com fragmentação, uma para a BD partilhada e uma por fragmento;
+ * - ler(): um conjunto fixo de threads de leitura, com timeout por chamada.
+ *
+ * O número de threads a falar com o SQLite fica assim limitado pelos executores e não
+ * pelo número de clientes ligados. As escritas não têm timeout: uma escrita já na fila
+ * acaba sempre por ser feita, e responder ERRO ao cliente deixá-lo-ia na dúvida.
+ */
+public class BaseDadosAssincrona {
+
+    public interface Operacao<T> {
+        T executar(DatabaseManager db) throws SQLException;
+    }
+
+    private final DatabaseManager db;
+    private final ExecutorService escritor;
+    private final ExecutorService[] escritoresFragmento;
+    private final ExecutorService leitores;
+    private final long timeoutLeituraMs;
+
+    public BaseDadosAssincrona(DatabaseManager db, int numLeitores, long timeoutLeituraMs) {
+        this.db = db;
+        this.escritor = Executors.newSingleThreadExecutor(fabrica("BD-Escrita"));
+        int n = db.getNumFragmentos();
+        this.escritoresFragmento = new ExecutorService[n > 1 ? n : 0];
+        for (int i = 0; i < escritoresFragmento.length; i++) {
+            escritoresFragmento[i] = Executors.newSingleThreadExecutor(fabrica("BD-Escrita-F" + i));
+        }
+        this.leitores = Executors.newFixedThreadPool(numLeitores, fabrica("BD-Leitura"));
+        this.timeoutLeituraMs = timeoutLeituraMs;
+    }
+
+    public <T> CompletableFuture<T> ler(Operacao<T> op) {
+        return ler(op, timeoutLeituraMs);
+    }
+
+    public <T> CompletableFuture<T> ler(Operacao<T> op, long timeoutMs) {
+        return submeter(leitores, op).orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public <T> CompletableFuture<T> escrever(Operacao<T> op) {
+        return submeter(escritor, op);
+    }
+
+    /**
+     * Escrita no escritor do fragmento (DatabaseManager.PARTILHADO, ou sem fragmentação:
+     * o escritor único).
+     */
+    public <T> CompletableFuture<T> escrever(int fragmento, Operacao<T> op) {
+        if (fragmento < 0 || escritoresFragmento.length == 0) return escrever(op);
+        return submeter(escritoresFragmento[fragmento], op);
+    }
+
+    private <T> CompletableFuture<T> submeter(ExecutorService executor, Operacao<T> op) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return op.executar(db);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Tira os CompletionException que envolvem o erro original.
+     */
+    public static Throwable causa(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    public void fechar() {
+        escritor.shutdown();
+        for (ExecutorService e : escritoresFragmento) {
+            e.shutdown();
+        }
+        leitores.shutdown();
+    }
+
+    private static ThreadFactory fabrica(String nome) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, nome + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package servidor.db;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simula o pico de LOGIN_ESTUDANTE no início de uma pergunta:
+ * 2000 logins concorrentes, primeiro a frio (cache vazia) e depois a quente.
+ */
+public class BenchmarkLogin {
+
+    private static final int NUM_ESTUDANTES = 2000;
+    private static final int NUM_THREADS = 200;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Benchmark de logins concorrentes ===\n");
+
+        File ficheiro = File.createTempFile("benchmark_login", ".db");
+        ficheiro.deleteOnExit();
+
+        DatabaseManager db = new DatabaseManager(ficheiro.getAbsolutePath());
+        db.connect();
+        db.createTables();
+
+        for (int i = 0; i < NUM_ESTUDANTES; i++) {
+            db.criarEstudante(100000 + i, "Estudante " + i, email(i), "pass" + i);
+        }
+        System.out.println("[BENCH] " + NUM_ESTUDANTES + " estudantes criados.");
+
+        executarRonda(db, "frio");
+        executarRonda(db, "quente");
+
+        db.close();
+        System.out.println("\n=== Benchmark concluído ===");
+    }
+
+    private static void executarRonda(DatabaseManager db, String nome) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        CountDownLatch partida = new CountDownLatch(1);
+        List<Future<Long>> tarefas = new ArrayList<>();
+
+        for (int i = 0; i < NUM_ESTUDANTES; i++) {
+            final int n = i;
+            tarefas.add(pool.submit(() -> {
+                partida.await();
+                long t0 = System.nanoTime();
+                int id = db.autenticarEstudanteId(email(n), "pass" + n);
+                long dt = System.nanoTime() - t0;
+                if (id <= 0) throw new SQLException("Login falhou para " + email(n));
+                return dt;
+            }));
+        }
+
+        long inicio = System.nanoTime();
+        partida.countDown();
+
+        long[] latencias = new long[NUM_ESTUDANTES];
+        int falhas = 0;
+        for (int i = 0; i < tarefas.size(); i++) {
+            try {
+                latencias[i] = tarefas.get(i).get();
+            } catch (Exception e) {
+                falhas++;
+            }
+        }
+        long total = System.nanoTime() - inicio;
+        pool.shutdown();
+
+        Arrays.sort(latencias);
+        System.out.printf("%n--- Ronda a %s ---%n", nome);
+        System.out.printf("  Tempo total : %.1f ms%n", total / 1e6);
+        System.out.printf("  Débito      : %.0f logins/s%n", NUM_ESTUDANTES / (total / 1e9));
+        System.out.printf("  p50 / p99   : %.3f ms / %.3f ms%n",
+                latencias[latencias.length / 2] / 1e6,
+                latencias[(int) (latencias.length * 0.99)] / 1e6);
+        System.out.printf("  Falhas      : %d%n", falhas);
+    }
+
+    private static String email(int i) {
+        return "est" + i + "@isec.pt";
+    }
+}
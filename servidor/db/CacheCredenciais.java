@@ -0,0 +1,67 @@
+package servidor.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache LRU limitada de credenciais (id + hash SHA-256 em bytes) indexada por email.
+ * Evita ir à BD em cada login durante picos (ex.: início de uma pergunta).
+ */
+public class CacheCredenciais {
+
+    public static class Credencial {
+        public final int id;
+        public final byte[] hash;
+
+        public Credencial(int id, byte[] hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+    }
+
+    private final int capacidade;
+    private final LinkedHashMap<String, Credencial> porEmail;
+    private final Map<Integer, String> emailPorId = new HashMap<>();
+
+    public CacheCredenciais(int capacidade) {
+        this.capacidade = capacidade;
+        this.porEmail = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized Credencial obter(String email) {
+        return porEmail.get(email);
+    }
+
+    public synchronized void guardar(String email, Credencial c) {
+        String antigo = emailPorId.put(c.id, email);
+        if (antigo != null && !antigo.equals(email)) {
+            porEmail.remove(antigo);
+        }
+        porEmail.put(email, c);
+
+        if (porEmail.size() > capacidade) {
+            Iterator<Map.Entry<String, Credencial>> it = porEmail.entrySet().iterator();
+            Map.Entry<String, Credencial> maisAntigo = it.next();
+            emailPorId.remove(maisAntigo.getValue().id);
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidar(int id) {
+        String email = emailPorId.remove(id);
+        if (email != null) {
+            porEmail.remove(email);
+        }
+    }
+
+    public synchronized void invalidarTudo() {
+        porEmail.clear();
+        emailPorId.clear();
+    }
+
+    public synchronized int tamanho() {
+        return porEmail.size();
+    }
+}
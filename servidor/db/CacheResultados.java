@@ -0,0 +1,42 @@
+package servidor.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache LRU dos resultados de perguntas expiradas (VER_RESULTADOS e EXPORTAR_CSV).
+ * Uma pergunta expirada já não recebe respostas, por isso só muda se for editada ou
+ * eliminada. Os objetos guardados são partilhados e não devem ser alterados.
+ */
+public class CacheResultados {
+
+    private final int capacidade;
+    private final LinkedHashMap<Integer, PerguntaDetalhes> entradas;
+
+    public CacheResultados(int capacidade) {
+        this.capacidade = capacidade;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized PerguntaDetalhes obter(int perguntaId) {
+        return entradas.get(perguntaId);
+    }
+
+    public synchronized void guardar(PerguntaDetalhes pd) {
+        entradas.put(pd.id, pd);
+        if (entradas.size() > capacidade) {
+            Iterator<Map.Entry<Integer, PerguntaDetalhes>> it = entradas.entrySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidar(int perguntaId) {
+        entradas.remove(perguntaId);
+    }
+
+    public synchronized void invalidarTudo() {
+        entradas.clear();
+    }
+}
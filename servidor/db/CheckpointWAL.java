@@ -0,0 +1,198 @@
+package servidor.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * Checkpoints do WAL feitos por uma thread própria em vez do auto-checkpoint do SQLite
+ * (que pode disparar a meio de uma transação de RESPONDER num pico).
+ *
+ * - PASSIVE quando não houve escritas durante um intervalo completo e há páginas por copiar;
+ * - PASSIVE quando há mais de limitePaginas por copiar, mesmo com escritas contínuas: num
+ *   pico o WAL é copiado aos poucos, em checkpoints curtos;
+ * - TRUNCATE só quando o -wal passa o teto (se os PASSIVE não conseguirem acompanhar).
+ *
+ * Cada checkpoint corre no monitor que protege a ligação do ficheiro (o do DatabaseManager
+ * para sistema.db; com fragmentação, o do fragmento). As páginas por copiar são lidas do
+ * cabeçalho do wal-index (-shm), sem a ligação nem o monitor.
+ */
+public class CheckpointWAL {
+    private static final long CHECKPOINT_LENTO_MS = 100;
+    /** Período da verificação das páginas por copiar. */
+    private static final long VERIFICACAO_PAGINAS_MS = 100;
+
+    private final Object monitor;
+    private final Supplier<Connection> ligacao;
+    private final File wal;
+    private final File shm;
+    private final long intervaloMs;
+    private final long tetoBytes;
+    private final int limitePaginas;
+
+    private long mudancasAnteriores = -1;
+    private long mudancasNoUltimoCheckpoint = -1;
+
+    private volatile long ultimaDuracaoMs;
+    private volatile long maxDuracaoMs;
+    private volatile long totalPassivos;
+    private volatile long totalTruncates;
+    private volatile long totalTeto;
+    private volatile long totalPorPaginas;
+    private volatile int paginasUltimo;
+
+    public CheckpointWAL(Object monitor, Supplier<Connection> ligacao, String dbPath, long intervaloMs, long tetoBytes,
+                         int limitePaginas) {
+        this.monitor = monitor;
+        this.ligacao = ligacao;
+        this.wal = new File(dbPath + "-wal");
+        this.shm = new File(dbPath + "-shm");
+        this.intervaloMs = intervaloMs;
+        this.tetoBytes = tetoBytes;
+        this.limitePaginas = limitePaginas;
+    }
+
+    public void iniciar() {
+        synchronized (monitor) {
+            try (Statement st = ligacao.get().createStatement()) {
+                st.execute("PRAGMA wal_autocheckpoint=0;");
+            } catch (SQLException e) {
+                System.err.println("[WAL] Não foi possível desligar o auto-checkpoint: " + e.getMessage());
+                return;
+            }
+        }
+
+        Thread t = new Thread(() -> {
+            long proximaVerificacao = System.currentTimeMillis() + intervaloMs;
+            while (true) {
+                try {
+                    Thread.sleep(Math.min(VERIFICACAO_PAGINAS_MS, intervaloMs));
+                    if (paginasPorCopiar() >= limitePaginas) {
+                        totalPorPaginas++;
+                        executar("PASSIVE");
+                    }
+                    if (System.currentTimeMillis() >= proximaVerificacao) {
+                        proximaVerificacao = System.currentTimeMillis() + intervaloMs;
+                        verificar();
+                    }
+                } catch (InterruptedException ie) {
+                    return;
+                } catch (Exception e) {
+                    System.err.println("[WAL] Erro no checkpoint: " + e.getMessage());
+                }
+            }
+        }, "WAL-Checkpoint");
+        t.setDaemon(true);
+        t.start();
+        System.out.printf("[WAL] Checkpoints em segundo plano (intervalo %d ms, %d páginas, teto %d MB)%n",
+                intervaloMs, limitePaginas, tetoBytes / (1024 * 1024));
+    }
+
+    /**
+     * Frames do WAL ainda não copiados para o ficheiro principal: mxFrame - nBackfill do
+     * wal-index, em ordem de bytes nativa (offsets 16 e 96). 0 se o -shm não puder ser lido.
+     */
+    private int paginasPorCopiar() {
+        try (RandomAccessFile f = new RandomAccessFile(shm, "r")) {
+            if (f.length() < 100) return 0;
+            byte[] cabecalho = new byte[100];
+            f.readFully(cabecalho);
+            ByteBuffer b = ByteBuffer.wrap(cabecalho).order(ByteOrder.nativeOrder());
+            return Math.max(0, b.getInt(16) - b.getInt(96));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void verificar() throws SQLException {
+        long mudancas = totalMudancas();
+
+        if (wal.length() >= tetoBytes) {
+            totalTeto++;
+            System.out.println("[WAL] Teto de " + (tetoBytes / (1024 * 1024)) + " MB atingido; checkpoint TRUNCATE");
+            executar("TRUNCATE");
+        } else if (mudancas == mudancasAnteriores && mudancas != mudancasNoUltimoCheckpoint) {
+            executar("PASSIVE");
+        }
+        mudancasAnteriores = mudancas;
+    }
+
+    private void executar(String modo) throws SQLException {
+        synchronized (monitor) {
+            long t0 = System.nanoTime();
+            try (Statement st = ligacao.get().createStatement();
+                 ResultSet rs = st.executeQuery("PRAGMA wal_checkpoint(" + modo + ");")) {
+                if (rs.next()) {
+                    paginasUltimo = rs.getInt(3);
+                    if (rs.getInt(1) != 0) {
+                        System.out.println("[WAL] Checkpoint " + modo + " incompleto (leitores ativos)");
+                    }
+                }
+            }
+            long dur = (System.nanoTime() - t0) / 1_000_000;
+            ultimaDuracaoMs = dur;
+            if (dur > maxDuracaoMs) maxDuracaoMs = dur;
+            if ("PASSIVE".equals(modo)) totalPassivos++;
+            else totalTruncates++;
+            mudancasNoUltimoCheckpoint = totalMudancas();
+
+            if (dur >= CHECKPOINT_LENTO_MS) {
+                System.out.println("[WAL] Checkpoint " + modo + " lento: " + dur + " ms, " + paginasUltimo + " páginas");
+            }
+        }
+    }
+
+    private long totalMudancas() throws SQLException {
+        synchronized (monitor) {
+            try (Statement st = ligacao.get().createStatement();
+                 ResultSet rs = st.executeQuery("SELECT total_changes()")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    public long getTamanhoWalBytes() {
+        return wal.length();
+    }
+
+    public long getUltimaDuracaoMs() {
+        return ultimaDuracaoMs;
+    }
+
+    public long getMaxDuracaoMs() {
+        return maxDuracaoMs;
+    }
+
+    public long getTotalPassivos() {
+        return totalPassivos;
+    }
+
+    public long getTotalTruncates() {
+        return totalTruncates;
+    }
+
+    public long getTotalTeto() {
+        return totalTeto;
+    }
+
+    public long getTotalPorPaginas() {
+        return totalPorPaginas;
+    }
+
+    public int getPaginasUltimo() {
+        return paginasUltimo;
+    }
+
+    public String resumo() {
+        return String.format("wal=%dKB passivos=%d porPaginas=%d truncates=%d teto=%d ultimo=%dms max=%dms paginas=%d",
+                getTamanhoWalBytes() / 1024, totalPassivos, totalPorPaginas, totalTruncates, totalTeto,
+                ultimaDuracaoMs, maxDuracaoMs, paginasUltimo);
+    }
+}
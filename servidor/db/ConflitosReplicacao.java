@@ -0,0 +1,114 @@
+package servidor.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Conflitos entre operações replicadas, pelas chaves em que tocam: a pergunta (com as suas
+ * opções e respostas), o estudante, o docente e os valores únicos (email, número) de cada
+ * tipo de utilizador. Duas operações estão em conflito se uma escrever uma chave que a
+ * outra lê ou escreve; mantendo a ordem das versões entre as que estão em conflito, o
+ * estado final é o mesmo da aplicação em série.
+ */
+public final class ConflitosReplicacao {
+    private static final long PERGUNTA = 1L << 32;
+    private static final long ESTUDANTE = 2L << 32;
+    private static final long DOCENTE = 3L << 32;
+    /** Emails e números de estudante (UNIQUE): uma mudança de perfil pode libertar o de outro. */
+    private static final long ESTUDANTES_UNICOS = 4L << 32;
+    private static final long DOCENTES_UNICOS = 5L << 32;
+
+    private ConflitosReplicacao() {}
+
+    /**
+     * Reparte a janela em faixas que podem ser aplicadas em paralelo, dado o ficheiro onde
+     * cada operação é escrita: ficam na mesma faixa as operações em conflito, direta ou
+     * indiretamente, e as do mesmo ficheiro (a sua ligação só aplica uma de cada vez). Faixas pela ordem da primeira
+     * operação; em cada faixa, os índices pela ordem das versões.
+     */
+    public static List<List<Integer>> faixas(List<OperacaoReplicada> ops, IntUnaryOperator ficheiroDe) {
+        int[] pai = ligarConflitos(ops);
+        Map<Integer, Integer> primeiraDoFicheiro = new HashMap<>();
+        for (int i = 0; i < ops.size(); i++) {
+            Integer j = primeiraDoFicheiro.putIfAbsent(ficheiroDe.applyAsInt(i), i);
+            if (j != null) unir(pai, i, j);
+        }
+        Map<Integer, List<Integer>> faixas = new LinkedHashMap<>();
+        for (int i = 0; i < ops.size(); i++) {
+            faixas.computeIfAbsent(raiz(pai, i), k -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(faixas.values());
+    }
+
+    private static int[] ligarConflitos(List<OperacaoReplicada> ops) {
+        int[] pai = new int[ops.size()];
+        for (int i = 0; i < pai.length; i++) pai[i] = i;
+        Map<Long, Integer> escritor = new HashMap<>();
+        Map<Long, List<Integer>> leitores = new HashMap<>();
+
+        for (int i = 0; i < ops.size(); i++) {
+            OperacaoReplicada op = ops.get(i);
+            for (long k : leituras(op)) {
+                Integer w = escritor.get(k);
+                if (w != null) unir(pai, i, w);
+                leitores.computeIfAbsent(k, x -> new ArrayList<>()).add(i);
+            }
+            for (long k : escritas(op)) {
+                Integer w = escritor.put(k, i);
+                if (w != null) unir(pai, i, w);
+                List<Integer> l = leitores.remove(k);
+                if (l != null) {
+                    for (int r : l) unir(pai, i, r);
+                }
+            }
+        }
+        return pai;
+    }
+
+    /**
+     * Chaves lidas (sem as escritas): as chaves estrangeiras da linha inserida.
+     */
+    static long[] leituras(OperacaoReplicada op) {
+        if (op instanceof OperacaoReplicada.CriarPergunta o) return new long[] { chave(DOCENTE, o.docenteId()) };
+        if (op instanceof OperacaoReplicada.GuardarResposta o) return new long[] { chave(ESTUDANTE, o.estudanteId()) };
+        return new long[0];
+    }
+
+    static long[] escritas(OperacaoReplicada op) {
+        int perguntaId = OperacaoReplicada.perguntaDe(op);
+        if (perguntaId >= 0) return new long[] { chave(PERGUNTA, perguntaId) };
+        if (op instanceof OperacaoReplicada.CriarDocente o) return new long[] { chave(DOCENTE, o.id()), DOCENTES_UNICOS };
+        if (op instanceof OperacaoReplicada.AtualizarDocente o) return new long[] { chave(DOCENTE, o.id()), DOCENTES_UNICOS };
+        if (op instanceof OperacaoReplicada.CriarEstudante o) return new long[] { chave(ESTUDANTE, o.id()), ESTUDANTES_UNICOS };
+        if (op instanceof OperacaoReplicada.AtualizarEstudante o) return new long[] { chave(ESTUDANTE, o.id()), ESTUDANTES_UNICOS };
+        if (op instanceof OperacaoReplicada.ImportarEstudantes o) {
+            long[] k = new long[o.estudantes().size() + 1];
+            for (int i = 0; i < o.estudantes().size(); i++) k[i] = chave(ESTUDANTE, o.estudantes().get(i).id());
+            k[k.length - 1] = ESTUDANTES_UNICOS;
+            return k;
+        }
+        return new long[0];
+    }
+
+    private static long chave(long tipo, int id) {
+        return tipo | (id & 0xFFFFFFFFL);
+    }
+
+    private static int raiz(int[] pai, int i) {
+        while (pai[i] != i) {
+            pai[i] = pai[pai[i]];
+            i = pai[i];
+        }
+        return i;
+    }
+
+    private static void unir(int[] pai, int a, int b) {
+        int ra = raiz(pai, a);
+        int rb = raiz(pai, b);
+        if (ra != rb) pai[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+}
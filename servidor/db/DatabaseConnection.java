@@ -1,14 +1,38 @@
 package servidor.db;
 
+import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class DatabaseConnection {
+    public static final String PREFIXO_ARQUIVO = "arquivo_";
+
     private final String dbPath;
+    private final String prefixoArquivo;
     private Connection connection;
     private final Object lock = new Object();
+    /** alias do esquema -> ficheiro de arquivo anexado (ATTACH) */
+    private final Map<String, String> arquivos = new LinkedHashMap<>();
+    /** alias -> outras BDs anexadas em todas as ligações (ex. a partilhada de um fragmento) */
+    private final Map<String, String> anexosFixos = new LinkedHashMap<>();
 
     public DatabaseConnection(String dbPath) {
+        this(dbPath, PREFIXO_ARQUIVO);
+    }
+
+    /**
+     * @param prefixoArquivo prefixo dos ficheiros de arquivo desta BD, na mesma pasta
+     */
+    public DatabaseConnection(String dbPath, String prefixoArquivo) {
         this.dbPath = dbPath;
+        this.prefixoArquivo = prefixoArquivo;
+    }
+
+    public String getDbPath() {
+        return dbPath;
     }
 
     public void connect() {
@@ -24,6 +48,14 @@ public class DatabaseConnection {
                 stmt.execute("PRAGMA busy_timeout=5000;");
                 stmt.close();
 
+                for (Map.Entry<String, String> a : anexosFixos.entrySet()) {
+                    anexar(a.getKey(), a.getValue());
+                }
+                procurarArquivos();
+                for (Map.Entry<String, String> a : arquivos.entrySet()) {
+                    anexar(a.getKey(), a.getValue());
+                }
+
             } catch (ClassNotFoundException e) {
                 System.err.println("[DB] Driver SQLite não encontrado: " + e.getMessage());
             } catch (SQLException e) {
@@ -50,6 +82,68 @@ public class DatabaseConnection {
         }
     }
 
+    /**
+     * Anexa outra BD com o alias dado, já e em cada nova ligação. Chamar antes de connect().
+     */
+    public void anexarFixo(String alias, String caminho) {
+        synchronized (lock) {
+            anexosFixos.put(alias, caminho);
+        }
+    }
+
+    /**
+     * Pasta onde vivem sistema.db e os ficheiros de arquivo.
+     */
+    public File getPasta() {
+        File pasta = new File(dbPath).getAbsoluteFile().getParentFile();
+        return pasta != null ? pasta : new File(".");
+    }
+
+    /**
+     * Aliases dos esquemas de arquivo anexados, do mais antigo para o mais recente.
+     */
+    public List<String> getEsquemasArquivo() {
+        synchronized (lock) {
+            return new ArrayList<>(arquivos.keySet());
+        }
+    }
+
+    /**
+     * Anexa (criando se preciso) o ficheiro de arquivo do semestre, ex. "2024S1".
+     * Tem de ser chamado fora de transações (limitação do ATTACH).
+     * O SQLite permite por omissão 10 BDs anexadas.
+     */
+    public String anexarArquivo(String semestre) throws SQLException {
+        synchronized (lock) {
+            getConnection();
+            String alias = "arq_" + semestre;
+            if (arquivos.containsKey(alias)) return alias;
+
+            String caminho = new File(getPasta(), prefixoArquivo + semestre + ".db").getPath();
+            anexar(alias, caminho);
+            arquivos.put(alias, caminho);
+            return alias;
+        }
+    }
+
+    private void procurarArquivos() {
+        File[] ficheiros = getPasta().listFiles((d, nome) ->
+                nome.startsWith(prefixoArquivo) && nome.endsWith(".db"));
+        if (ficheiros == null) return;
+        java.util.Arrays.sort(ficheiros);
+        for (File f : ficheiros) {
+            String semestre = f.getName().substring(prefixoArquivo.length(), f.getName().length() - 3);
+            arquivos.putIfAbsent("arq_" + semestre, f.getPath());
+        }
+    }
+
+    private void anexar(String alias, String caminho) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("ATTACH DATABASE ? AS " + alias)) {
+            ps.setString(1, caminho);
+            ps.execute();
+        }
+    }
+
     public void close() {
         synchronized (lock) {
             try {
@@ -61,4 +155,4 @@ public class DatabaseConnection {
             }
         }
     }
-}
\ No newline at end of file
+}
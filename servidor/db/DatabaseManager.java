@@ -1,86 +1,272 @@
 package servidor.db;
 
-import servidor.db.dao.*;
-import servidor.db.util.SchemaManager;
+import servidor.db.armazenamento.Armazenamento;
+import servidor.db.armazenamento.ArmazenamentoFragmentado;
+import servidor.db.armazenamento.ArmazenamentoMemoria;
+import servidor.db.armazenamento.ArmazenamentoSQLite;
+import servidor.db.dao.PerguntaDAO;
 import servidor.db.util.SecurityUtil;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Facade para acesso à base de dados.
+ * O motor concreto (SQLite, SQLite fragmentado ou memória) é escolhido na construção.
+ *
+ * Com o motor fragmentado, as operações sobre perguntas, opções e respostas usam o monitor
+ * do fragmento (monitorFragmento) em vez do monitor do DatabaseManager, que fica para os
+ * utilizadores, a versão e as operações globais. Quem tem o monitor de um fragmento não
+ * pode pedir o do DatabaseManager nem o de outro fragmento.
  */
 public class DatabaseManager {
-    private final DatabaseConnection dbConnection;
+    /** Fragmento da BD partilhada (utilizadores, configuração). */
+    public static final int PARTILHADO = -1;
+
+    private static final int CAPACIDADE_CACHE_CREDENCIAIS = 4096;
+    private static final int CAPACIDADE_HISTORICO = 2048;
+    private static final int CAPACIDADE_RESULTADOS = 256;
+    private static final Pattern INSERT_RESPOSTA = Pattern.compile(
+            "INSERT INTO RESPOSTA \\(ESTUDANTE_ID,\\s*PERGUNTA_ID\\b[^)]*\\)\\s*VALUES\\s*\\((\\d+),\\s*(\\d+)\\s*,");
+
+    /** Perfil de estudante replicado em SQL (principais antigos): nome, email e id. */
+    private static final Pattern UPDATE_PERFIL_ESTUDANTE = Pattern.compile(
+            "UPDATE\\s+Estudante\\s+SET\\s+nome\\s*=\\s*'((?:[^']|'')*)'\\s*,\\s*email\\s*=\\s*'((?:[^']|'')*)'"
+                    + "(?:\\s*,\\s*password_hash\\s*=\\s*'[^']*')?\\s+WHERE\\s+id\\s*=\\s*(\\d+)\\s*;?",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Armazenamento armazenamento;
+    private final ArmazenamentoFragmentado fragmentado;
+    private final CacheCredenciais credenciaisDocentes = new CacheCredenciais(CAPACIDADE_CACHE_CREDENCIAIS);
+    private final CacheCredenciais credenciaisEstudantes = new CacheCredenciais(CAPACIDADE_CACHE_CREDENCIAIS);
+    private final HistoricoEstudantes historico = new HistoricoEstudantes(CAPACIDADE_HISTORICO);
+    private final CacheResultados resultados = new CacheResultados(CAPACIDADE_RESULTADOS);
+    private final DicionarioEstudantes dicionarioEstudantes = new DicionarioEstudantes();
+    private volatile List<CheckpointWAL> checkpointsWAL = List.of();
+    private final IndiceRespostas indiceRespostas = new IndiceRespostas();
+    private final GestorLocks locks = new GestorLocks(Integer.getInteger("pd.locks.faixas", 64));
 
     public DatabaseManager(String dbPath) {
-        this.dbConnection = new DatabaseConnection(dbPath);
+        this(new ArmazenamentoSQLite(dbPath));
+    }
+
+    public DatabaseManager(Armazenamento armazenamento) {
+        this.armazenamento = armazenamento;
+        this.fragmentado = armazenamento instanceof ArmazenamentoFragmentado f ? f : null;
+    }
+
+    /**
+     * "memoria" escolhe o motor em memória; qualquer outro valor usa SQLite em dbPath.
+     * Com pd.fragmentos > 1, as perguntas e respostas ficam repartidas por esse número de
+     * ficheiros SQLite (ArmazenamentoFragmentado).
+     */
+    public static DatabaseManager criar(String motor, String dbPath) {
+        if ("memoria".equalsIgnoreCase(motor)) {
+            System.out.println("[DB] A usar armazenamento em memória (dados não persistem).");
+            return new DatabaseManager(new ArmazenamentoMemoria());
+        }
+        int numFragmentos = Integer.getInteger("pd.fragmentos", 1);
+        if (numFragmentos > 1) {
+            return new DatabaseManager(new ArmazenamentoFragmentado(dbPath, numFragmentos));
+        }
+        return new DatabaseManager(dbPath);
+    }
+
+    public int getNumFragmentos() {
+        return fragmentado != null ? fragmentado.getNumFragmentos() : 1;
+    }
+
+    public int fragmentoDeDocente(int docenteId) {
+        return fragmentado != null ? fragmentado.fragmentoDeDocente(docenteId) : 0;
+    }
+
+    public int fragmentoDePergunta(int perguntaId) {
+        return fragmentado != null ? fragmentado.fragmentoDePergunta(perguntaId) : 0;
+    }
+
+    /**
+     * Monitor que protege o fragmento (PARTILHADO ou sem fragmentação: o próprio DatabaseManager).
+     */
+    public Object monitorFragmento(int fragmento) {
+        if (fragmentado == null || fragmento < 0) return this;
+        return fragmentado.getFragmento(fragmento);
+    }
+
+    /**
+     * Corre a ação com o monitor do DatabaseManager e os de todos os fragmentos (arquivo,
+     * snapshots), pela ordem que evita deadlocks.
+     */
+    public <T> T comTodosOsMonitores(GestorLocks.Acao<T> acao) throws SQLException {
+        synchronized (this) {
+            return comFragmentosDesde(0, acao);
+        }
+    }
+
+    private <T> T comFragmentosDesde(int i, GestorLocks.Acao<T> acao) throws SQLException {
+        if (i >= getNumFragmentos() || fragmentado == null) return acao.executar();
+        synchronized (fragmentado.getFragmento(i)) {
+            return comFragmentosDesde(i + 1, acao);
+        }
+    }
+
+    public Armazenamento getArmazenamento() {
+        return armazenamento;
     }
 
     public void connect() {
-        dbConnection.connect();
+        armazenamento.connect();
     }
 
     public void createTables() {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            SchemaManager.createTables(conn);
-        } catch (Exception e) {
-            System.err.println("[DB] Erro ao criar tabelas: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            closeQuietly(conn);
+        armazenamento.createTables();
+        synchronized (this) {
+            indiceRespostas.marcarDesatualizado();
+            try {
+                garantirIndiceRespostas();
+            } catch (SQLException e) {
+                System.err.println("[DB] Erro ao construir índice de respostas: " + e.getMessage());
+            }
         }
     }
 
+    /**
+     * Chamado com o monitor: reconstrói o índice de respostas se estiver desatualizado.
+     */
+    private void garantirIndiceRespostas() throws SQLException {
+        if (indiceRespostas.isAtualizado()) return;
+        long t0 = System.currentTimeMillis();
+        indiceRespostas.limpar();
+        int[] total = {0};
+        armazenamento.percorrerRespostas((perguntaId, estudanteId) -> {
+            indiceRespostas.registar(perguntaId, estudanteId);
+            total[0]++;
+        });
+        indiceRespostas.marcarAtualizado();
+        System.out.println("[DB] Índice de respostas construído: " + total[0] + " respostas em "
+                + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * Reconstrói o índice se ficou desatualizado (ex. ao passar a principal).
+     */
+    public synchronized void reconstruirIndiceRespostas() throws SQLException {
+        garantirIndiceRespostas();
+    }
+
+    /**
+     * Com o índice desatualizado pergunta à BD, sem o reconstruir: quem chama pode ter o
+     * monitor de um fragmento.
+     */
+    private boolean temRespostas(int perguntaId) throws SQLException {
+        if (indiceRespostas.isAtualizado()) return indiceRespostas.temRespostas(perguntaId);
+        return armazenamento.perguntaTemRespostas(perguntaId);
+    }
+
+    /**
+     * Sem lock nem BD. true só se houver a certeza de que o estudante já respondeu.
+     */
+    public boolean jaRespondeu(int estudanteId, int perguntaId) {
+        return indiceRespostas.respondeu(perguntaId, estudanteId);
+    }
+
     public synchronized int getVersao() {
-        Connection conn = null;
         try {
-            conn = dbConnection.getConnection();
-            return SchemaManager.getVersao(conn);
+            return armazenamento.getVersao();
         } catch (Exception e) {
             System.err.println("[DB] Erro ao obter versão: " + e.getMessage());
             e.printStackTrace();
             return 0;
-        } finally {
-            closeQuietly(conn);
         }
     }
 
     public synchronized int incrementarVersao() {
-        Connection conn = null;
         try {
-            conn = dbConnection.getConnection();
-            SchemaManager.incrementarVersao(conn);
-
-            int novaVersao = SchemaManager.getVersao(conn);
+            int novaVersao = armazenamento.incrementarVersao();
             System.out.println("[DB] Versão incrementada para: " + novaVersao);
             return novaVersao;
         } catch (Exception e) {
             System.err.println("[DB] Erro ao incrementar versão: " + e.getMessage());
             e.printStackTrace();
             return 0;
-        } finally {
-            closeQuietly(conn);
         }
     }
 
+    /**
+     * Usado pelo SequenciadorVersoes no principal, em vez de incrementarVersao().
+     */
+    public synchronized void definirVersao(int versao) throws SQLException {
+        armazenamento.definirVersao(versao);
+    }
+
+    /**
+     * Ligação JDBC direta; só existe com o motor SQLite.
+     */
     public Connection getConnection() {
-        return dbConnection.getConnection();
+        if (armazenamento instanceof ArmazenamentoSQLite sqlite) {
+            return sqlite.getConnection();
+        }
+        if (fragmentado != null) {
+            return fragmentado.getPartilhado().getConnection();
+        }
+        throw new IllegalStateException("Motor de armazenamento sem ligação JDBC");
+    }
+
+    /**
+     * Passa os checkpoints do WAL para uma thread própria (só com o motor SQLite).
+     * pd.wal.intervalo.ms: intervalo sem escritas antes de um PASSIVE (1000 por omissão);
+     * pd.wal.paginas: páginas por copiar que forçam um PASSIVE, mesmo sem pausa nas escritas
+     * (1000 por omissão, o limite do auto-checkpoint do SQLite);
+     * pd.wal.teto.mb: tamanho do -wal que força um TRUNCATE (64 por omissão).
+     */
+    public void iniciarCheckpointsWAL() {
+        long intervalo = Long.getLong("pd.wal.intervalo.ms", 1000);
+        int paginas = Integer.getInteger("pd.wal.paginas", 1000);
+        long teto = Long.getLong("pd.wal.teto.mb", 64) * 1024 * 1024;
+        List<CheckpointWAL> lista = new ArrayList<>();
+        if (armazenamento instanceof ArmazenamentoSQLite sqlite) {
+            lista.add(new CheckpointWAL(this, sqlite::getConnection, sqlite.getDbPath(), intervalo, teto, paginas));
+        } else if (fragmentado != null) {
+            // Um por ficheiro, cada um no monitor que protege a respetiva ligação.
+            ArmazenamentoSQLite p = fragmentado.getPartilhado();
+            lista.add(new CheckpointWAL(this, p::getConnection, p.getDbPath(), intervalo, teto, paginas));
+            for (int i = 0; i < fragmentado.getNumFragmentos(); i++) {
+                ArmazenamentoSQLite f = fragmentado.getFragmento(i);
+                lista.add(new CheckpointWAL(f, f::getConnection, f.getDbPath(), intervalo, teto, paginas));
+            }
+        }
+        for (CheckpointWAL c : lista) {
+            c.iniciar();
+        }
+        checkpointsWAL = List.copyOf(lista);
     }
 
-    public void close() {
-        dbConnection.close();
+    /**
+     * Locks por pergunta/utilizador para as escritas do ClienteHandler.
+     */
+    public GestorLocks getLocks() {
+        return locks;
     }
 
-    private void closeQuietly(Connection conn) {
-        if (conn != null) {
-            try {
-                conn.close();
-            } catch (SQLException e) {
-                System.err.println("[DB] Erro ao fechar conexão: " + e.getMessage());
-            }
-        }
+    /**
+     * O da BD principal (sistema.db), ou null se os checkpoints não estiverem ativos.
+     */
+    public CheckpointWAL getCheckpointWAL() {
+        List<CheckpointWAL> l = checkpointsWAL;
+        return l.isEmpty() ? null : l.get(0);
+    }
+
+    /**
+     * Um por ficheiro SQLite (sistema.db e, com fragmentação, cada fragmento).
+     */
+    public List<CheckpointWAL> getCheckpointsWAL() {
+        return checkpointsWAL;
+    }
+
+    public void close() {
+        armazenamento.close();
     }
 
     public static String hashPassword(String password) {
@@ -91,92 +277,146 @@ public class DatabaseManager {
         return SecurityUtil.gerarCodigoAcesso();
     }
 
-    public synchronized boolean autenticarDocente(String email, String password) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            DocenteDAO dao = new DocenteDAO(conn);
-            return dao.autenticar(email, password);
-        } finally {
-            closeQuietly(conn);
+    public boolean autenticarDocente(String email, String password) throws SQLException {
+        return autenticarDocenteId(email, password) > 0;
+    }
+
+    /**
+     * Autentica o docente e devolve o seu id (ou -1), numa única consulta.
+     * Em cache hit não toca na BD nem no monitor do DatabaseManager.
+     */
+    public int autenticarDocenteId(String email, String password) throws SQLException {
+        CacheCredenciais.Credencial c = credenciaisDocentes.obter(email);
+        if (c == null) {
+            c = carregarCredencialDocente(email);
+            if (c == null) return -1;
         }
+        return SecurityUtil.verificarPassword(password, c.hash) ? c.id : -1;
+    }
+
+    private synchronized CacheCredenciais.Credencial carregarCredencialDocente(String email) throws SQLException {
+        CacheCredenciais.Credencial c = armazenamento.obterCredencialDocente(email);
+        if (c != null) credenciaisDocentes.guardar(email, c);
+        return c;
     }
 
     public synchronized int getDocenteId(String email) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            DocenteDAO dao = new DocenteDAO(conn);
-            return dao.getId(email);
-        } finally {
-            closeQuietly(conn);
-        }
+        return armazenamento.getDocenteId(email);
     }
 
     public synchronized boolean validarCodigoDocente(String codigoClaro) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            DocenteDAO dao = new DocenteDAO(conn);
-            return dao.validarCodigoRegistro(codigoClaro);
-        } finally {
-            closeQuietly(conn);
-        }
+        return armazenamento.validarCodigoDocente(codigoClaro);
     }
 
-    public synchronized int criarDocente(String nome, String email, String passwordClaro) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            DocenteDAO dao = new DocenteDAO(conn);
-            return dao.criar(nome, email, passwordClaro);
-        } finally {
-            closeQuietly(conn);
-        }
+    public int criarDocente(String nome, String email, String passwordClaro) throws SQLException {
+        return criarDocente(nome, email, passwordClaro, null);
     }
 
-    public synchronized void atualizarDocentePerfil(int docenteId, String novoNome, String novoEmail, String novaPasswordClaro) throws SQLException {
-        Connection conn = null;
+    /**
+     * Os métodos de escrita com diario acrescentam-lhe a operação a replicar, com os valores
+     * gravados (ids, código de acesso, hash da password). diario pode ser null.
+     */
+    public synchronized int criarDocente(String nome, String email, String passwordClaro,
+                                         List<OperacaoReplicada> diario) throws SQLException {
+        int id = armazenamento.criarDocente(nome, email, passwordClaro);
+        registar(diario, new OperacaoReplicada.CriarDocente(id, nome, email, SecurityUtil.hashPassword(passwordClaro)));
+        return id;
+    }
+
+    public synchronized void atualizarDocentePerfil(int docenteId, String novoNome, String novoEmail, String novaPasswordClaro,
+                                                    List<OperacaoReplicada> diario) throws SQLException {
         try {
-            conn = dbConnection.getConnection();
-            DocenteDAO dao = new DocenteDAO(conn);
-            dao.atualizarPerfil(docenteId, novoNome, novoEmail, novaPasswordClaro);
+            armazenamento.atualizarDocentePerfil(docenteId, novoNome, novoEmail, novaPasswordClaro);
         } finally {
-            closeQuietly(conn);
+            credenciaisDocentes.invalidar(docenteId);
         }
+        registar(diario, new OperacaoReplicada.AtualizarDocente(docenteId, novoNome, novoEmail,
+                SecurityUtil.hashPassword(novaPasswordClaro)));
     }
 
-    public synchronized boolean autenticarEstudante(String email, String password) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            EstudanteDAO dao = new EstudanteDAO(conn);
-            return dao.autenticar(email, password);
-        } finally {
-            closeQuietly(conn);
+    public boolean autenticarEstudante(String email, String password) throws SQLException {
+        return autenticarEstudanteId(email, password) > 0;
+    }
+
+    /**
+     * Autentica o estudante e devolve o seu id (ou -1), numa única consulta.
+     * Em cache hit não toca na BD nem no monitor do DatabaseManager.
+     */
+    public int autenticarEstudanteId(String email, String password) throws SQLException {
+        CacheCredenciais.Credencial c = credenciaisEstudantes.obter(email);
+        if (c == null) {
+            c = carregarCredencialEstudante(email);
+            if (c == null) return -1;
         }
+        return SecurityUtil.verificarPassword(password, c.hash) ? c.id : -1;
     }
 
-    public synchronized int criarEstudante(int numero, String nome, String email, String passwordClaro) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            EstudanteDAO dao = new EstudanteDAO(conn);
-            return dao.criar(numero, nome, email, passwordClaro);
-        } finally {
-            closeQuietly(conn);
+    private synchronized CacheCredenciais.Credencial carregarCredencialEstudante(String email) throws SQLException {
+        CacheCredenciais.Credencial c = armazenamento.obterCredencialEstudante(email);
+        if (c != null) credenciaisEstudantes.guardar(email, c);
+        return c;
+    }
+
+    public int criarEstudante(int numero, String nome, String email, String passwordClaro) throws SQLException {
+        return criarEstudante(numero, nome, email, passwordClaro, null);
+    }
+
+    public synchronized int criarEstudante(int numero, String nome, String email, String passwordClaro,
+                                           List<OperacaoReplicada> diario) throws SQLException {
+        int id = armazenamento.criarEstudante(numero, nome, email, passwordClaro);
+        registar(diario, new OperacaoReplicada.CriarEstudante(id, numero, nome, email, SecurityUtil.hashPassword(passwordClaro)));
+        return id;
+    }
+
+    /**
+     * Recebe a importação já validada (ImportacaoEstudantes.validar, com um hash por linha,
+     * fica fora do monitor). As linhas inseridas vão para o diário em blocos de até
+     * OperacaoReplicada.MAX_BYTES, uma operação (e uma versão) por bloco.
+     */
+    public synchronized ImportacaoEstudantes importarEstudantes(ImportacaoEstudantes imp,
+                                                                List<OperacaoReplicada> diario) throws SQLException {
+        if (!imp.validas.isEmpty()) {
+            armazenamento.importarEstudantes(imp);
+        }
+        List<OperacaoReplicada.Estudante> bloco = new ArrayList<>();
+        int bytes = 0;
+        for (ImportacaoEstudantes.Linha l : imp.inseridas) {
+            OperacaoReplicada.Estudante e = new OperacaoReplicada.Estudante(l.id, l.numero, l.nome, l.email, l.passwordHash);
+            int tamanho = 14 + bytesUTF(l.nome) + bytesUTF(l.email) + bytesUTF(l.passwordHash);
+            if (!bloco.isEmpty() && bytes + tamanho > OperacaoReplicada.MAX_BYTES) {
+                registar(diario, new OperacaoReplicada.ImportarEstudantes(bloco));
+                bloco = new ArrayList<>();
+                bytes = 0;
+            }
+            bloco.add(e);
+            bytes += tamanho;
+        }
+        if (!bloco.isEmpty()) {
+            registar(diario, new OperacaoReplicada.ImportarEstudantes(bloco));
         }
+        return imp;
     }
 
-    public synchronized void atualizarEstudantePerfil(int estudanteId, String novoNome, String novoEmail, String novaPass) throws SQLException {
-        Connection conn = null;
+    public synchronized void atualizarEstudantePerfil(int estudanteId, String novoNome, String novoEmail, String novaPass,
+                                                      List<OperacaoReplicada> diario) throws SQLException {
         try {
-            conn = dbConnection.getConnection();
-            EstudanteDAO dao = new EstudanteDAO(conn);
-            dao.atualizarPerfil(estudanteId, novoNome, novoEmail, novaPass);
+            armazenamento.atualizarEstudantePerfil(estudanteId, novoNome, novoEmail, novaPass);
+            // Os resultados em cache só têm o id e o nome é lido do dicionário quando são
+            // escritos, já fora do monitor: a entrada é substituída, nunca removida.
+            dicionarioEstudantes.registar(estudanteId, novoNome, novoEmail);
         } finally {
-            closeQuietly(conn);
+            credenciaisEstudantes.invalidar(estudanteId);
         }
+        registar(diario, new OperacaoReplicada.AtualizarEstudante(estudanteId, novoNome, novoEmail,
+                SecurityUtil.hashPassword(novaPass)));
+    }
+
+    private static void registar(List<OperacaoReplicada> diario, OperacaoReplicada op) {
+        if (diario != null) diario.add(op);
+    }
+
+    private static int bytesUTF(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
     }
 
     public static class PerguntaResult {
@@ -189,136 +429,150 @@ public class DatabaseManager {
         }
     }
 
-    public synchronized PerguntaResult criarPerguntaCompleta(int docenteId, String enunciado, String dataInicio, String dataFim) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            PerguntaDAO.PerguntaResult result = dao.criarCompleta(docenteId, enunciado, dataInicio, dataFim);
-            return new PerguntaResult(result.id, result.codigoAcesso);
-        } finally {
-            closeQuietly(conn);
+    public PerguntaResult criarPerguntaCompleta(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                                List<OperacaoReplicada> diario) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDeDocente(docenteId))) {
+            PerguntaResult r = armazenamento.criarPerguntaCompleta(docenteId, enunciado, dataInicio, dataFim);
+            registar(diario, new OperacaoReplicada.CriarPergunta(r.id, docenteId, enunciado, dataInicio, dataFim,
+                    r.codigoAcesso, List.of()));
+            return r;
         }
     }
 
-    public synchronized boolean perguntaPertenceADocente(int perguntaId, int docenteId) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            return dao.pertenceADocente(perguntaId, docenteId);
-        } finally {
-            closeQuietly(conn);
+    public PerguntaResult criarPerguntaComOpcoes(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                                 List<PerguntaDetalhes.OpcaoDetalhes> opcoes,
+                                                 List<OperacaoReplicada> diario) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDeDocente(docenteId))) {
+            PerguntaResult r = armazenamento.criarPerguntaComOpcoes(docenteId, enunciado, dataInicio, dataFim, opcoes);
+            List<OperacaoReplicada.Opcao> ops = new ArrayList<>(opcoes.size());
+            for (PerguntaDetalhes.OpcaoDetalhes o : opcoes) {
+                ops.add(new OperacaoReplicada.Opcao(o.letra, o.texto, o.isCorreta));
+            }
+            registar(diario, new OperacaoReplicada.CriarPergunta(r.id, docenteId, enunciado, dataInicio, dataFim,
+                    r.codigoAcesso, ops));
+            return r;
         }
     }
 
-    public synchronized boolean perguntaTemRespostas(int perguntaId) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            return dao.temRespostas(perguntaId);
-        } finally {
-            closeQuietly(conn);
+    public boolean perguntaPertenceADocente(int perguntaId, int docenteId) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            return armazenamento.perguntaPertenceADocente(perguntaId, docenteId);
         }
     }
 
-    public synchronized void editarPergunta(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            dao.editar(perguntaId, novoEnunciado, novaDataInicio, novaDataFim);
-        } finally {
-            closeQuietly(conn);
+    public synchronized boolean perguntaTemRespostas(int perguntaId) throws SQLException {
+        garantirIndiceRespostas();
+        return indiceRespostas.temRespostas(perguntaId);
+    }
+
+    public void editarPergunta(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim,
+                               List<OperacaoReplicada> diario) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            if (temRespostas(perguntaId)) {
+                throw new SQLException("Não é possível editar: pergunta já tem respostas");
+            }
+            armazenamento.editarPergunta(perguntaId, novoEnunciado, novaDataInicio, novaDataFim);
+            historico.invalidarTudo();
+            resultados.invalidar(perguntaId);
+            registar(diario, new OperacaoReplicada.EditarPergunta(perguntaId, novoEnunciado, novaDataInicio, novaDataFim));
         }
     }
 
-    public synchronized void eliminarPergunta(int perguntaId) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            dao.eliminar(perguntaId);
-        } finally {
-            closeQuietly(conn);
+    public void eliminarPergunta(int perguntaId, List<OperacaoReplicada> diario) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            if (temRespostas(perguntaId)) {
+                throw new SQLException("Não é possível eliminar: pergunta já tem respostas");
+            }
+            armazenamento.eliminarPergunta(perguntaId);
+            indiceRespostas.removerPergunta(perguntaId);
+            historico.invalidarTudo();
+            resultados.invalidar(perguntaId);
+            registar(diario, new OperacaoReplicada.EliminarPergunta(perguntaId));
         }
     }
 
-    public synchronized List<PerguntaDetalhes> listarPerguntas(int docenteId, String filtroEstado) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            return dao.listar(docenteId, filtroEstado);
-        } finally {
-            closeQuietly(conn);
+    public List<PerguntaDetalhes> listarPerguntas(int docenteId, String filtroEstado) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDeDocente(docenteId))) {
+            return armazenamento.listarPerguntas(docenteId, filtroEstado);
         }
     }
 
-    public synchronized PerguntaDetalhes obterPerguntaAtivaPorCodigo(String codigo) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            return dao.obterPorCodigo(codigo);
-        } finally {
-            closeQuietly(conn);
+    public List<PerguntaDetalhes> pesquisarPerguntas(int docenteId, String termos, int offset, int limite) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDeDocente(docenteId))) {
+            return armazenamento.pesquisarPerguntas(docenteId, termos, offset, limite);
         }
     }
 
-    public synchronized PerguntaDetalhes obterDetalhesPerguntaExpirada(int perguntaId, int docenteId) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            return dao.obterDetalhesExpirada(perguntaId, docenteId);
-        } finally {
-            closeQuietly(conn);
+    /**
+     * Sem fragmentação usa o monitor do DatabaseManager; com fragmentação o motor percorre
+     * os fragmentos um a um.
+     */
+    public PerguntaDetalhes obterPerguntaAtivaPorCodigo(String codigo) throws SQLException {
+        if (fragmentado != null) {
+            return fragmentado.obterPerguntaAtivaPorCodigo(codigo);
+        }
+        synchronized (this) {
+            return armazenamento.obterPerguntaAtivaPorCodigo(codigo);
         }
     }
 
-    public synchronized String exportarParaCSV(int perguntaId, int docenteId) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            PerguntaDAO dao = new PerguntaDAO(conn);
-            return dao.exportarParaCSV(perguntaId, docenteId);
-        } finally {
-            closeQuietly(conn);
+    /**
+     * O resultado pode vir da cache e é partilhado: não alterar.
+     */
+    public PerguntaDetalhes obterDetalhesPerguntaExpirada(int perguntaId, int docenteId) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            PerguntaDetalhes pd = resultados.obter(perguntaId);
+            if (pd != null) {
+                if (pd.docenteId != docenteId) {
+                    throw new SQLException("Pergunta não pertence ao docente");
+                }
+                return pd;
+            }
+            pd = armazenamento.obterDetalhesPerguntaExpirada(perguntaId, docenteId, dicionarioEstudantes);
+            resultados.guardar(pd);
+            return pd;
         }
     }
 
-    public synchronized void adicionarOpcao(int perguntaId, String letra, String texto, boolean correta) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            OpcaoDAO dao = new OpcaoDAO(conn);
-            dao.adicionar(perguntaId, letra, texto, correta);
-        } finally {
-            closeQuietly(conn);
+    public DicionarioEstudantes getDicionarioEstudantes() {
+        return dicionarioEstudantes;
+    }
+
+    public String exportarParaCSV(int perguntaId, int docenteId) throws SQLException {
+        return PerguntaDAO.gerarCSV(obterDetalhesPerguntaExpirada(perguntaId, docenteId), dicionarioEstudantes);
+    }
+
+    public void adicionarOpcao(int perguntaId, String letra, String texto, boolean correta,
+                               List<OperacaoReplicada> diario) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            armazenamento.adicionarOpcao(perguntaId, letra, texto, correta);
+            historico.invalidarTudo();
+            resultados.invalidar(perguntaId);
+            registar(diario, new OperacaoReplicada.AdicionarOpcao(perguntaId, letra, texto, correta));
         }
     }
 
-    public synchronized void editarOpcao(int opcaoId, int perguntaId, String novoTexto, boolean novaCorreta) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            OpcaoDAO dao = new OpcaoDAO(conn);
-            dao.editar(opcaoId, perguntaId, novoTexto, novaCorreta);
-        } finally {
-            closeQuietly(conn);
+    public void editarOpcao(int opcaoId, int perguntaId, String novoTexto, boolean novaCorreta) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            armazenamento.editarOpcao(opcaoId, perguntaId, novoTexto, novaCorreta);
+            historico.invalidarTudo();
+            resultados.invalidar(perguntaId);
         }
     }
 
-    public synchronized void guardarResposta(int estudanteId, int perguntaId, String letra) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = dbConnection.getConnection();
-            RespostaDAO dao = new RespostaDAO(conn);
-            dao.guardar(estudanteId, perguntaId, letra);
-        } finally {
-            closeQuietly(conn);
+    /**
+     * Com o índice desatualizado, as repetições são recusadas pelo UNIQUE da BD.
+     */
+    public void guardarResposta(int estudanteId, int perguntaId, String letra,
+                                List<OperacaoReplicada> diario) throws SQLException {
+        synchronized (monitorFragmento(fragmentoDePergunta(perguntaId))) {
+            if (indiceRespostas.respondeu(perguntaId, estudanteId)) {
+                throw new SQLException("UNIQUE constraint failed: Resposta.estudante_id, Resposta.pergunta_id");
+            }
+            armazenamento.guardarResposta(estudanteId, perguntaId, letra);
+            indiceRespostas.registar(perguntaId, estudanteId);
+            historico.invalidarEstudante(estudanteId);
+            registar(diario, new OperacaoReplicada.GuardarResposta(estudanteId, perguntaId, letra));
         }
     }
 
@@ -326,32 +580,117 @@ public class DatabaseManager {
         public int perguntaId;
         public String enunciado;
         public String dataFim;
+        public long fimMs;
         public String dataResposta;
         public String letra;
         public boolean correta;
     }
 
     public synchronized List<RespostaEstudanteInfo> listarRespostasEstudanteExpiradas(int estudanteId) throws SQLException {
-        Connection conn = null;
+        return historico.obter(estudanteId, armazenamento::listarRespostasEstudante);
+    }
+
+    public int arquivarPerguntas(String limite) throws SQLException {
+        return comTodosOsMonitores(() -> armazenamento.arquivarPerguntas(limite));
+    }
+
+    /**
+     * Aplica operações replicadas (com a versão final na mesma transação) e atualiza as
+     * caches só no que as operações tocam.
+     */
+    public synchronized void aplicarOperacoes(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        boolean aplicado = false;
         try {
-            conn = dbConnection.getConnection();
-            RespostaDAO dao = new RespostaDAO(conn);
-            return dao.listarRespostasEstudanteExpiradas(estudanteId);
+            armazenamento.aplicarOperacoes(ops, versaoFinal);
+            aplicado = true;
         } finally {
-            closeQuietly(conn);
+            for (OperacaoReplicada op : ops) {
+                invalidarCachesOperacao(op, aplicado);
+            }
+        }
+    }
+
+    private void invalidarCachesOperacao(OperacaoReplicada op, boolean aplicado) {
+        if (op instanceof OperacaoReplicada.GuardarResposta o) {
+            if (aplicado) indiceRespostas.registar(o.perguntaId(), o.estudanteId());
+            else indiceRespostas.marcarDesatualizado();
+            historico.invalidarEstudante(o.estudanteId());
+            resultados.invalidar(o.perguntaId());
+        } else if (op instanceof OperacaoReplicada.EliminarPergunta o) {
+            if (aplicado) indiceRespostas.removerPergunta(o.perguntaId());
+            historico.invalidarTudo();
+            resultados.invalidar(o.perguntaId());
+        } else if (OperacaoReplicada.perguntaDe(op) >= 0) {
+            historico.invalidarTudo();
+            resultados.invalidar(OperacaoReplicada.perguntaDe(op));
+        } else if (op instanceof OperacaoReplicada.AtualizarDocente o) {
+            credenciaisDocentes.invalidar(o.id());
+        } else if (op instanceof OperacaoReplicada.AtualizarEstudante o) {
+            credenciaisEstudantes.invalidar(o.id());
+            if (aplicado) dicionarioEstudantes.registar(o.id(), o.nome(), o.email());
         }
     }
 
     public synchronized void executarQuery(String sql) throws SQLException {
-        Connection conn = null;
+        boolean aplicado = false;
         try {
-            conn = dbConnection.getConnection();
-            try (Statement stmt = conn.createStatement()) {
-                stmt.executeUpdate(sql);
-            }
+            armazenamento.executarQuery(sql);
+            aplicado = true;
+        } finally {
+            invalidarCachesReplicacao(sql, aplicado);
+        }
+    }
+
+    public synchronized void executarLote(List<String> sqls) throws SQLException {
+        boolean aplicado = false;
+        try {
+            armazenamento.executarLote(sqls);
+            aplicado = true;
         } finally {
-            closeQuietly(conn);
+            for (String sql : sqls) {
+                invalidarCachesReplicacao(sql, aplicado);
+            }
+        }
+    }
+
+    /**
+     * Updates replicados chegam como SQL: se tocarem em utilizadores, a cache de
+     * credenciais deixa de ser fiável e é limpa. Uma mudança de perfil de estudante
+     * reconhecida atualiza o dicionário de nomes; outro SQL sobre estudantes descarta os
+     * resultados em cache, que ao serem lidos de novo voltam a registar os nomes. Se tocarem em
+     * perguntas, opções ou respostas, o histórico e os resultados em cache são descartados.
+     * Um INSERT de resposta aplicado entra no índice de respostas; outro SQL sobre
+     * respostas que não se reconheça obriga a reconstruí-lo.
+     */
+    private void invalidarCachesReplicacao(String sql, boolean aplicado) {
+        String s = sql.trim().toUpperCase();
+        if (s.contains("RESPOSTA")) {
+            Matcher m = INSERT_RESPOSTA.matcher(s);
+            if (aplicado && m.lookingAt()) {
+                indiceRespostas.registar(Integer.parseInt(m.group(2)), Integer.parseInt(m.group(1)));
+            } else if (!s.startsWith("SELECT")) {
+                indiceRespostas.marcarDesatualizado();
+            }
+        }
+        if (s.contains("PERGUNTA") || s.contains("OPCAO") || s.contains("RESPOSTA")) {
+            historico.invalidarTudo();
+            resultados.invalidarTudo();
+        }
+        if (s.startsWith("UPDATE DOCENTE") || s.startsWith("DELETE FROM DOCENTE")) {
+            credenciaisDocentes.invalidarTudo();
+        }
+        if (s.startsWith("UPDATE ESTUDANTE") || s.startsWith("DELETE FROM ESTUDANTE")) {
+            credenciaisEstudantes.invalidarTudo();
+            Matcher m = UPDATE_PERFIL_ESTUDANTE.matcher(sql.trim());
+            if (m.matches()) {
+                if (aplicado) {
+                    dicionarioEstudantes.registar(Integer.parseInt(m.group(3)),
+                            m.group(1).replace("''", "'"), m.group(2).replace("''", "'"));
+                }
+            } else {
+                resultados.invalidarTudo();
+            }
         }
     }
 
-}
\ No newline at end of file
+}
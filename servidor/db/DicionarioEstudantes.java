@@ -0,0 +1,45 @@
+package servidor.db;
+
+import servidor.db.util.MapaInt;
+
+/**
+ * Nome e email de cada estudante guardados uma única vez e partilhados por todos os
+ * resultados (ResultadosCompactos só guarda o id). Cresce com o número de estudantes
+ * que já responderam a perguntas consultadas. Quando o perfil muda a entrada é
+ * substituída e nunca removida: resultados lidos antes continuam a ter nome e email.
+ */
+public class DicionarioEstudantes {
+
+    private static final class Entrada {
+        final String nome;
+        final String email;
+
+        Entrada(String nome, String email) {
+            this.nome = nome;
+            this.email = email;
+        }
+    }
+
+    private final MapaInt<Entrada> entradas = new MapaInt<>();
+
+    public synchronized boolean contem(int estudanteId) {
+        return entradas.contem(estudanteId);
+    }
+
+    public synchronized void registar(int estudanteId, String nome, String email) {
+        Entrada e = entradas.obter(estudanteId);
+        if (e == null || !e.nome.equals(nome) || !e.email.equals(email)) {
+            entradas.guardar(estudanteId, new Entrada(nome, email));
+        }
+    }
+
+    public synchronized String nome(int estudanteId) {
+        Entrada e = entradas.obter(estudanteId);
+        return e != null ? e.nome : "";
+    }
+
+    public synchronized String email(int estudanteId) {
+        Entrada e = entradas.obter(estudanteId);
+        return e != null ? e.email : "";
+    }
+}
@@ -0,0 +1,127 @@
+package servidor.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks por faixa (striping) para as escritas do ClienteHandler: cada pergunta e cada
+ * utilizador caem numa de N faixas, por isso operações sobre perguntas/utilizadores
+ * diferentes não esperam umas pelas outras nas verificações "check-then-act" (por exemplo,
+ * o dono da pergunta antes de a editar).
+ *
+ * A faixa é tomada na thread de escrita do fragmento, antes do monitor desse fragmento
+ * (DatabaseManager.monitorFragmento; o do DatabaseManager para a BD partilhada). No
+ * monitor ficam só a escrita no SQLite e a reserva da versão no SequenciadorVersoes; o
+ * envio para os backups sai depois, fora do monitor, por ordem de versão (publicar).
+ *
+ * Métricas por faixa: aquisições, aquisições com contenção e tempo total de espera.
+ */
+public class GestorLocks {
+
+    public interface Acao<T> {
+        T executar() throws SQLException;
+    }
+
+    private static final int PERGUNTA = 1;
+    private static final int DOCENTE = 2;
+    private static final int ESTUDANTE = 3;
+
+    private final ReentrantLock[] faixas;
+    private final AtomicLongArray aquisicoes;
+    private final AtomicLongArray contencoes;
+    private final AtomicLongArray esperaNs;
+
+    /**
+     * @param numFaixas potência de 2
+     */
+    public GestorLocks(int numFaixas) {
+        if (Integer.bitCount(numFaixas) != 1) {
+            throw new IllegalArgumentException("numFaixas tem de ser potência de 2: " + numFaixas);
+        }
+        faixas = new ReentrantLock[numFaixas];
+        for (int i = 0; i < numFaixas; i++) {
+            faixas[i] = new ReentrantLock();
+        }
+        aquisicoes = new AtomicLongArray(numFaixas);
+        contencoes = new AtomicLongArray(numFaixas);
+        esperaNs = new AtomicLongArray(numFaixas);
+    }
+
+    public <T> T comPergunta(int perguntaId, Acao<T> acao) throws SQLException {
+        return comFaixa(faixa(PERGUNTA, perguntaId), acao);
+    }
+
+    public <T> T comDocente(int docenteId, Acao<T> acao) throws SQLException {
+        return comFaixa(faixa(DOCENTE, docenteId), acao);
+    }
+
+    public <T> T comEstudante(int estudanteId, Acao<T> acao) throws SQLException {
+        return comFaixa(faixa(ESTUDANTE, estudanteId), acao);
+    }
+
+    private <T> T comFaixa(int f, Acao<T> acao) throws SQLException {
+        ReentrantLock lock = faixas[f];
+        aquisicoes.incrementAndGet(f);
+        if (!lock.tryLock()) {
+            contencoes.incrementAndGet(f);
+            long t0 = System.nanoTime();
+            lock.lock();
+            esperaNs.addAndGet(f, System.nanoTime() - t0);
+        }
+        try {
+            return acao.executar();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int faixa(int tipo, int id) {
+        int h = id * 0x9E3779B9 + tipo;
+        h ^= h >>> 16;
+        return h & (faixas.length - 1);
+    }
+
+    public int getNumFaixas() {
+        return faixas.length;
+    }
+
+    public long getAquisicoes(int faixa) {
+        return aquisicoes.get(faixa);
+    }
+
+    public long getContencoes(int faixa) {
+        return contencoes.get(faixa);
+    }
+
+    public long getEsperaNs(int faixa) {
+        return esperaNs.get(faixa);
+    }
+
+    /**
+     * As n faixas com mais tempo de espera, no formato "faixa:aquisicoes/contencoes/esperaMs".
+     */
+    public String resumo(int n) {
+        List<Integer> ordem = new ArrayList<>();
+        for (int i = 0; i < faixas.length; i++) {
+            if (contencoes.get(i) > 0) ordem.add(i);
+        }
+        ordem.sort((a, b) -> Long.compare(esperaNs.get(b), esperaNs.get(a)));
+
+        long total = 0, contidas = 0;
+        for (int i = 0; i < faixas.length; i++) {
+            total += aquisicoes.get(i);
+            contidas += contencoes.get(i);
+        }
+        StringBuilder sb = new StringBuilder("aquisicoes=" + total + " contencoes=" + contidas);
+        for (int k = 0; k < Math.min(n, ordem.size()); k++) {
+            int i = ordem.get(k);
+            sb.append(' ').append(i).append(':').append(aquisicoes.get(i))
+                    .append('/').append(contencoes.get(i))
+                    .append('/').append(esperaNs.get(i) / 1_000_000).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package servidor.db;
+
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Vista materializada do histórico de cada estudante (LISTAR_RESPOSTAS_ESTUDANTE).
+ *
+ * Cada entrada guarda as respostas já expiradas, prontas a devolver, e as pendentes
+ * ordenadas por data_fim; numa leitura as pendentes cuja pergunta expirou passam para
+ * o fim da lista, sem voltar à BD. A cache é limitada (LRU) e cada entrada fica
+ * associada à geração em que foi construída: alterações a perguntas/opções sobem a
+ * geração global e as respostas novas invalidam só a entrada do estudante.
+ */
+public class HistoricoEstudantes {
+
+    public interface Carregador {
+        List<DatabaseManager.RespostaEstudanteInfo> carregar(int estudanteId) throws SQLException;
+    }
+
+    private static class Entrada {
+        final long geracao;
+        final List<DatabaseManager.RespostaEstudanteInfo> expiradas = new ArrayList<>();
+        final ArrayDeque<DatabaseManager.RespostaEstudanteInfo> pendentes = new ArrayDeque<>();
+
+        Entrada(long geracao) {
+            this.geracao = geracao;
+        }
+    }
+
+    private final int capacidade;
+    private final AtomicLong geracao = new AtomicLong();
+    private final LinkedHashMap<Integer, Entrada> entradas;
+    private final Map<Integer, Object> aCarregar = new HashMap<>();
+
+    public HistoricoEstudantes(int capacidade) {
+        this.capacidade = capacidade;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Respostas a perguntas expiradas, por data_fim e data_hora descendentes.
+     */
+    public List<DatabaseManager.RespostaEstudanteInfo> obter(int estudanteId, Carregador carregador) throws SQLException {
+        long agora = System.currentTimeMillis();
+        Object token = new Object();
+
+        synchronized (this) {
+            Entrada e = entradas.get(estudanteId);
+            if (e != null && e.geracao == geracao.get()) {
+                return ler(e, agora);
+            }
+            aCarregar.put(estudanteId, token);
+        }
+
+        long g = geracao.get();
+        List<DatabaseManager.RespostaEstudanteInfo> todas = carregador.carregar(estudanteId);
+        Entrada nova = new Entrada(g);
+        nova.pendentes.addAll(todas);
+
+        synchronized (this) {
+            // Se o estudante foi invalidado durante a carga, o resultado serve este
+            // pedido mas não fica em cache.
+            if (aCarregar.get(estudanteId) != token) {
+                return ler(nova, agora);
+            }
+            aCarregar.remove(estudanteId);
+            entradas.put(estudanteId, nova);
+            if (entradas.size() > capacidade) {
+                Iterator<Map.Entry<Integer, Entrada>> it = entradas.entrySet().iterator();
+                it.next();
+                it.remove();
+            }
+            return ler(nova, agora);
+        }
+    }
+
+    private static List<DatabaseManager.RespostaEstudanteInfo> ler(Entrada e, long agora) {
+        while (!e.pendentes.isEmpty() && e.pendentes.peekFirst().fimMs < agora) {
+            e.expiradas.add(e.pendentes.pollFirst());
+        }
+        List<DatabaseManager.RespostaEstudanteInfo> lista = new ArrayList<>(e.expiradas.size());
+        for (int i = e.expiradas.size() - 1; i >= 0; i--) {
+            lista.add(e.expiradas.get(i));
+        }
+        return lista;
+    }
+
+    public synchronized void invalidarEstudante(int estudanteId) {
+        entradas.remove(estudanteId);
+        aCarregar.remove(estudanteId);
+    }
+
+    public void invalidarTudo() {
+        geracao.incrementAndGet();
+    }
+}
@@ -0,0 +1,109 @@
+package servidor.db;
+
+import servidor.db.util.SecurityUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Importação em lote de estudantes (REGISTAR_ESTUDANTES_LOTE).
+ * Cada linha tem o formato numero;nome;email;password; uma primeira linha
+ * começada por "numero" é tratada como cabeçalho.
+ */
+public class ImportacaoEstudantes {
+
+    public static class Linha {
+        public final int numeroLinha;
+        /** Id atribuído pelo motor ao inserir (só nas inseridas). */
+        public int id;
+        public int numero;
+        public String nome;
+        public String email;
+        public String passwordHash;
+
+        public Linha(int numeroLinha) {
+            this.numeroLinha = numeroLinha;
+        }
+    }
+
+    public static class Erro {
+        public final int numeroLinha;
+        public final String codigo;
+
+        public Erro(int numeroLinha, String codigo) {
+            this.numeroLinha = numeroLinha;
+            this.codigo = codigo;
+        }
+    }
+
+    public final List<Linha> validas = new ArrayList<>();
+    public final List<Linha> inseridas = new ArrayList<>();
+    public final List<Erro> erros = new ArrayList<>();
+
+    /**
+     * Valida as linhas e descarta duplicados dentro do próprio ficheiro.
+     * Conflitos com a BD são detetados pelo motor de armazenamento.
+     */
+    public static ImportacaoEstudantes validar(List<String> linhas) {
+        ImportacaoEstudantes imp = new ImportacaoEstudantes();
+        Set<Integer> numeros = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+
+        for (int i = 0; i < linhas.size(); i++) {
+            String texto = linhas.get(i).trim();
+            int n = i + 1;
+            if (texto.isEmpty()) continue;
+            if (i == 0 && texto.toLowerCase().startsWith("numero")) continue;
+
+            String[] p = texto.split(";", 4);
+            if (p.length < 4 || p[1].isBlank() || p[3].isEmpty()) {
+                imp.erros.add(new Erro(n, "ARGS"));
+                continue;
+            }
+
+            Linha l = new Linha(n);
+            try {
+                l.numero = Integer.parseInt(p[0].trim());
+            } catch (NumberFormatException e) {
+                imp.erros.add(new Erro(n, "NUMERO_INVALIDO"));
+                continue;
+            }
+            l.nome = p[1].trim();
+            l.email = p[2].trim();
+            if (l.numero <= 0) {
+                imp.erros.add(new Erro(n, "NUMERO_INVALIDO"));
+                continue;
+            }
+            if (l.email.indexOf('@') <= 0) {
+                imp.erros.add(new Erro(n, "EMAIL_INVALIDO"));
+                continue;
+            }
+            if (!numeros.add(l.numero) || !emails.add(l.email)) {
+                imp.erros.add(new Erro(n, "DUPLICADO_NO_FICHEIRO"));
+                continue;
+            }
+            l.passwordHash = SecurityUtil.hashPassword(p[3]);
+            imp.validas.add(l);
+        }
+        return imp;
+    }
+
+    public void rejeitar(Linha l, String codigo) {
+        erros.add(new Erro(l.numeroLinha, codigo));
+    }
+
+    /**
+     * IMPORTACAO_CONCLUIDA:inseridos:erros|linha;codigo|...
+     */
+    public String relatorio() {
+        erros.sort((a, b) -> Integer.compare(a.numeroLinha, b.numeroLinha));
+        StringBuilder sb = new StringBuilder("IMPORTACAO_CONCLUIDA:")
+                .append(inseridas.size()).append(":").append(erros.size());
+        for (Erro e : erros) {
+            sb.append("|").append(e.numeroLinha).append(";").append(e.codigo);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package servidor.db;
+
+import servidor.db.util.BitmapRoaring;
+import servidor.db.util.MapaInt;
+
+/**
+ * Para cada pergunta, o conjunto (BitmapRoaring) dos ids de estudantes que já responderam.
+ * Reconstruído a partir da BD no arranque e atualizado nas respostas locais e replicadas.
+ * Permite recusar um RESPONDER repetido e saber se uma pergunta tem respostas sem ir ao SQLite.
+ *
+ * Se chegar SQL replicado sobre respostas que não se consiga interpretar, o índice fica
+ * marcado como desatualizado: as consultas sem lock devolvem "não sei" e o DatabaseManager
+ * reconstrói-o na próxima operação que o use.
+ */
+public class IndiceRespostas {
+
+    private final MapaInt<BitmapRoaring> porPergunta = new MapaInt<>();
+    private boolean atualizado = false;
+
+    public synchronized boolean isAtualizado() {
+        return atualizado;
+    }
+
+    public synchronized void marcarDesatualizado() {
+        atualizado = false;
+    }
+
+    public synchronized void limpar() {
+        porPergunta.limpar();
+    }
+
+    public synchronized void marcarAtualizado() {
+        atualizado = true;
+    }
+
+    public synchronized void registar(int perguntaId, int estudanteId) {
+        BitmapRoaring b = porPergunta.obter(perguntaId);
+        if (b == null) {
+            b = new BitmapRoaring();
+            porPergunta.guardar(perguntaId, b);
+        }
+        b.adicionar(estudanteId);
+    }
+
+    /**
+     * Resposta exata só com o índice atualizado; caso contrário devolve false e quem chama
+     * segue pelo caminho normal (INSERT com UNIQUE).
+     */
+    public synchronized boolean respondeu(int perguntaId, int estudanteId) {
+        if (!atualizado) return false;
+        BitmapRoaring b = porPergunta.obter(perguntaId);
+        return b != null && b.contem(estudanteId);
+    }
+
+    public synchronized boolean temRespostas(int perguntaId) {
+        BitmapRoaring b = porPergunta.obter(perguntaId);
+        return b != null && !b.vazio();
+    }
+
+    public synchronized int numRespostas(int perguntaId) {
+        BitmapRoaring b = porPergunta.obter(perguntaId);
+        return b != null ? b.cardinalidade() : 0;
+    }
+
+    public synchronized void removerPergunta(int perguntaId) {
+        porPergunta.remover(perguntaId);
+    }
+}
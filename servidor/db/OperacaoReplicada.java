@@ -0,0 +1,218 @@
+package servidor.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operação lógica de escrita, tal como é replicada para os backups: um código e os valores
+ * efetivamente gravados no principal (ids, código de acesso, hash da password). É gerada
+ * pelo DatabaseManager ao fazer a escrita e aplicada nos backups pelo Armazenamento, com
+ * statements preparados, sem SQL em texto. Cada operação é uma versão e é aplicada numa
+ * só transação, mesmo quando são várias linhas (pergunta e opções, eliminação).
+ *
+ * Formato binário: 1 byte com o código, seguido dos campos pela ordem dos componentes do
+ * record (int, UTF, boolean; as listas levam antes o número de elementos).
+ */
+public sealed interface OperacaoReplicada {
+
+    /** Tamanho máximo de uma operação codificada, para caber num datagrama depois de Base64. */
+    int MAX_BYTES = 2600;
+
+    byte CRIAR_PERGUNTA = 1;
+    byte ADICIONAR_OPCAO = 2;
+    byte EDITAR_PERGUNTA = 3;
+    byte ELIMINAR_PERGUNTA = 4;
+    byte GUARDAR_RESPOSTA = 5;
+    byte CRIAR_DOCENTE = 6;
+    byte ATUALIZAR_DOCENTE = 7;
+    byte CRIAR_ESTUDANTE = 8;
+    byte ATUALIZAR_ESTUDANTE = 9;
+    byte IMPORTAR_ESTUDANTES = 10;
+
+    byte codigo();
+
+    record Opcao(String letra, String texto, boolean correta) {}
+
+    record CriarPergunta(int id, int docenteId, String enunciado, String dataInicio, String dataFim,
+                         String codigoAcesso, List<Opcao> opcoes) implements OperacaoReplicada {
+        public byte codigo() { return CRIAR_PERGUNTA; }
+    }
+
+    record AdicionarOpcao(int perguntaId, String letra, String texto, boolean correta) implements OperacaoReplicada {
+        public byte codigo() { return ADICIONAR_OPCAO; }
+    }
+
+    record EditarPergunta(int perguntaId, String enunciado, String dataInicio, String dataFim) implements OperacaoReplicada {
+        public byte codigo() { return EDITAR_PERGUNTA; }
+    }
+
+    record EliminarPergunta(int perguntaId) implements OperacaoReplicada {
+        public byte codigo() { return ELIMINAR_PERGUNTA; }
+    }
+
+    record GuardarResposta(int estudanteId, int perguntaId, String letra) implements OperacaoReplicada {
+        public byte codigo() { return GUARDAR_RESPOSTA; }
+    }
+
+    record CriarDocente(int id, String nome, String email, String passwordHash) implements OperacaoReplicada {
+        public byte codigo() { return CRIAR_DOCENTE; }
+    }
+
+    record AtualizarDocente(int id, String nome, String email, String passwordHash) implements OperacaoReplicada {
+        public byte codigo() { return ATUALIZAR_DOCENTE; }
+    }
+
+    record CriarEstudante(int id, int numero, String nome, String email, String passwordHash) implements OperacaoReplicada {
+        public byte codigo() { return CRIAR_ESTUDANTE; }
+    }
+
+    record AtualizarEstudante(int id, String nome, String email, String passwordHash) implements OperacaoReplicada {
+        public byte codigo() { return ATUALIZAR_ESTUDANTE; }
+    }
+
+    record Estudante(int id, int numero, String nome, String email, String passwordHash) {}
+
+    /**
+     * Cada estudante leva o id com que foi inserido no principal, como em CriarEstudante.
+     */
+    record ImportarEstudantes(List<Estudante> estudantes) implements OperacaoReplicada {
+        public byte codigo() { return IMPORTAR_ESTUDANTES; }
+    }
+
+    /**
+     * Pergunta a que a operação diz respeito, ou -1 se for sobre utilizadores.
+     */
+    static int perguntaDe(OperacaoReplicada op) {
+        if (op instanceof CriarPergunta o) return o.id();
+        if (op instanceof AdicionarOpcao o) return o.perguntaId();
+        if (op instanceof EditarPergunta o) return o.perguntaId();
+        if (op instanceof EliminarPergunta o) return o.perguntaId();
+        if (op instanceof GuardarResposta o) return o.perguntaId();
+        return -1;
+    }
+
+    static byte[] codificar(OperacaoReplicada op) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(op.codigo());
+            if (op instanceof CriarPergunta o) {
+                out.writeInt(o.id());
+                out.writeInt(o.docenteId());
+                out.writeUTF(o.enunciado());
+                out.writeUTF(o.dataInicio());
+                out.writeUTF(o.dataFim());
+                out.writeUTF(o.codigoAcesso());
+                out.writeShort(o.opcoes().size());
+                for (Opcao x : o.opcoes()) {
+                    out.writeUTF(x.letra());
+                    out.writeUTF(x.texto());
+                    out.writeBoolean(x.correta());
+                }
+            } else if (op instanceof AdicionarOpcao o) {
+                out.writeInt(o.perguntaId());
+                out.writeUTF(o.letra());
+                out.writeUTF(o.texto());
+                out.writeBoolean(o.correta());
+            } else if (op instanceof EditarPergunta o) {
+                out.writeInt(o.perguntaId());
+                out.writeUTF(o.enunciado());
+                out.writeUTF(o.dataInicio());
+                out.writeUTF(o.dataFim());
+            } else if (op instanceof EliminarPergunta o) {
+                out.writeInt(o.perguntaId());
+            } else if (op instanceof GuardarResposta o) {
+                out.writeInt(o.estudanteId());
+                out.writeInt(o.perguntaId());
+                out.writeUTF(o.letra());
+            } else if (op instanceof CriarDocente o) {
+                out.writeInt(o.id());
+                out.writeUTF(o.nome());
+                out.writeUTF(o.email());
+                out.writeUTF(o.passwordHash());
+            } else if (op instanceof AtualizarDocente o) {
+                out.writeInt(o.id());
+                out.writeUTF(o.nome());
+                out.writeUTF(o.email());
+                out.writeUTF(o.passwordHash());
+            } else if (op instanceof CriarEstudante o) {
+                out.writeInt(o.id());
+                out.writeInt(o.numero());
+                out.writeUTF(o.nome());
+                out.writeUTF(o.email());
+                out.writeUTF(o.passwordHash());
+            } else if (op instanceof AtualizarEstudante o) {
+                out.writeInt(o.id());
+                out.writeUTF(o.nome());
+                out.writeUTF(o.email());
+                out.writeUTF(o.passwordHash());
+            } else if (op instanceof ImportarEstudantes o) {
+                out.writeInt(o.estudantes().size());
+                for (Estudante e : o.estudantes()) {
+                    out.writeInt(e.id());
+                    out.writeInt(e.numero());
+                    out.writeUTF(e.nome());
+                    out.writeUTF(e.email());
+                    out.writeUTF(e.passwordHash());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static OperacaoReplicada descodificar(byte[] dados) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(dados))) {
+            byte codigo = in.readByte();
+            switch (codigo) {
+                case CRIAR_PERGUNTA: {
+                    int id = in.readInt();
+                    int docenteId = in.readInt();
+                    String enunciado = in.readUTF();
+                    String inicio = in.readUTF();
+                    String fim = in.readUTF();
+                    String codigoAcesso = in.readUTF();
+                    int n = in.readUnsignedShort();
+                    List<Opcao> opcoes = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        opcoes.add(new Opcao(in.readUTF(), in.readUTF(), in.readBoolean()));
+                    }
+                    return new CriarPergunta(id, docenteId, enunciado, inicio, fim, codigoAcesso, opcoes);
+                }
+                case ADICIONAR_OPCAO:
+                    return new AdicionarOpcao(in.readInt(), in.readUTF(), in.readUTF(), in.readBoolean());
+                case EDITAR_PERGUNTA:
+                    return new EditarPergunta(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+                case ELIMINAR_PERGUNTA:
+                    return new EliminarPergunta(in.readInt());
+                case GUARDAR_RESPOSTA:
+                    return new GuardarResposta(in.readInt(), in.readInt(), in.readUTF());
+                case CRIAR_DOCENTE:
+                    return new CriarDocente(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+                case ATUALIZAR_DOCENTE:
+                    return new AtualizarDocente(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+                case CRIAR_ESTUDANTE:
+                    return new CriarEstudante(in.readInt(), in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+                case ATUALIZAR_ESTUDANTE:
+                    return new AtualizarEstudante(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+                case IMPORTAR_ESTUDANTES: {
+                    int n = in.readInt();
+                    List<Estudante> estudantes = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        estudantes.add(new Estudante(in.readInt(), in.readInt(), in.readUTF(), in.readUTF(), in.readUTF()));
+                    }
+                    return new ImportarEstudantes(estudantes);
+                }
+                default:
+                    throw new IllegalArgumentException("Código de operação desconhecido: " + codigo);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Operação replicada truncada", e);
+        }
+    }
+}
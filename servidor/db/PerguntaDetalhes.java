@@ -11,11 +11,13 @@ public class PerguntaDetalhes {
     public String codigoAcesso;
     public int docenteId;
     public String dataCriacao;
+    public long inicioMs;
+    public long fimMs;
     public String estado; 
     public int numRespostas;
 
     public List<OpcaoDetalhes> opcoes = new ArrayList<>();
-    public List<RespostaDetalhes> respostas = new ArrayList<>();
+    public ResultadosCompactos respostas = new ResultadosCompactos();
 
     public static class OpcaoDetalhes {
         public int id;
@@ -33,27 +35,6 @@ public class PerguntaDetalhes {
         }
     }
 
-    public static class RespostaDetalhes {
-        public int estudanteId;
-        public int estudanteNumero;
-        public String estudanteNome;
-        public String estudanteEmail;
-        public String opcaoLetra;
-        public String dataHora;
-        public boolean estaCorreta;
-
-        public RespostaDetalhes(int estudanteId, int estudanteNumero, String estudanteNome,
-                                String estudanteEmail, String opcaoLetra, String dataHora, boolean estaCorreta) {
-            this.estudanteId = estudanteId;
-            this.estudanteNumero = estudanteNumero;
-            this.estudanteNome = estudanteNome;
-            this.estudanteEmail = estudanteEmail;
-            this.opcaoLetra = opcaoLetra;
-            this.dataHora = dataHora;
-            this.estaCorreta = estaCorreta;
-        }
-    }
-
     public PerguntaDetalhes() {
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package servidor.db;
+
+import servidor.db.util.Datas;
+
+import java.util.Arrays;
+
+/**
+ * Respostas de uma pergunta em colunas de tipos primitivos, por número de estudante.
+ * Por resposta: id e número do estudante, instante (epoch em segundos, sem sinal) e um byte com a
+ * letra nos 7 bits de baixo e o bit 0x80 ligado se estiver correta. Nome e email vêm do
+ * DicionarioEstudantes partilhado, só na altura de codificar.
+ */
+public class ResultadosCompactos {
+    private static final int CORRETA = 0x80;
+
+    private int tamanho;
+    private int[] estudanteIds;
+    private int[] numeros;
+    private int[] instantes;
+    private byte[] letras;
+
+    public ResultadosCompactos() {
+        this(16);
+    }
+
+    public ResultadosCompactos(int capacidade) {
+        capacidade = Math.max(capacidade, 1);
+        estudanteIds = new int[capacidade];
+        numeros = new int[capacidade];
+        instantes = new int[capacidade];
+        letras = new byte[capacidade];
+    }
+
+    public void adicionar(int estudanteId, int numero, char letra, boolean correta, long dataHoraMs) {
+        if (tamanho == estudanteIds.length) {
+            int nova = tamanho * 2;
+            estudanteIds = Arrays.copyOf(estudanteIds, nova);
+            numeros = Arrays.copyOf(numeros, nova);
+            instantes = Arrays.copyOf(instantes, nova);
+            letras = Arrays.copyOf(letras, nova);
+        }
+        estudanteIds[tamanho] = estudanteId;
+        numeros[tamanho] = numero;
+        instantes[tamanho] = (int) (dataHoraMs / 1000);
+        letras[tamanho] = (byte) ((letra & 0x7F) | (correta ? CORRETA : 0));
+        tamanho++;
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    public int estudanteId(int i) {
+        return estudanteIds[i];
+    }
+
+    public int numero(int i) {
+        return numeros[i];
+    }
+
+    public char letra(int i) {
+        return (char) (letras[i] & 0x7F);
+    }
+
+    public boolean correta(int i) {
+        return (letras[i] & CORRETA) != 0;
+    }
+
+    public int contarLetra(char letra) {
+        int n = 0;
+        for (int i = 0; i < tamanho; i++) {
+            if ((letras[i] & 0x7F) == letra) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Ordena por número de estudante (os dados do SQLite já chegam ordenados).
+     */
+    public void ordenarPorNumero() {
+        long[] chaves = new long[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            chaves[i] = ((long) numeros[i] << 32) | i;
+        }
+        Arrays.sort(chaves);
+
+        int[] ids = new int[tamanho], nums = new int[tamanho], inst = new int[tamanho];
+        byte[] lts = new byte[tamanho];
+        for (int k = 0; k < tamanho; k++) {
+            int i = (int) chaves[k];
+            ids[k] = estudanteIds[i];
+            nums[k] = numeros[i];
+            inst[k] = instantes[i];
+            lts[k] = letras[i];
+        }
+        estudanteIds = ids;
+        numeros = nums;
+        instantes = inst;
+        letras = lts;
+    }
+
+    /**
+     * Blocos "|numero;nome;email;letra;CERTA|ERRADA;data_hora" do comando VER_RESULTADOS.
+     */
+    public void escreverProtocolo(StringBuilder sb, DicionarioEstudantes dic) {
+        for (int i = 0; i < tamanho; i++) {
+            int id = estudanteIds[i];
+            sb.append('|').append(numeros[i])
+                    .append(';').append(dic.nome(id))
+                    .append(';').append(dic.email(id))
+                    .append(';').append(letra(i))
+                    .append(';').append(correta(i) ? "CERTA" : "ERRADA")
+                    .append(';');
+            Datas.escrever(sb, instantes[i] & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Linhas "numero";"nome";"email";"resposta" da exportação CSV.
+     */
+    public void escreverCSV(StringBuilder csv, DicionarioEstudantes dic) {
+        for (int i = 0; i < tamanho; i++) {
+            int id = estudanteIds[i];
+            csv.append('"').append(numeros[i]).append("\";\"")
+                    .append(dic.nome(id).replace("\"", "\"\"")).append("\";\"")
+                    .append(dic.email(id)).append("\";\"")
+                    .append(letra(i)).append("\"\n");
+        }
+    }
+}
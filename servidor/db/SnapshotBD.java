@@ -0,0 +1,233 @@
+package servidor.db;
+
+import servidor.db.armazenamento.ArmazenamentoFragmentado;
+import servidor.db.util.SchemaManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Cópia consistente dos ficheiros da BD para um backup, feita sem parar as escritas.
+ *
+ * Com todos os monitores (poucos ms) abre uma ligação de leitura por ficheiro, inicia em
+ * todas uma transação de leitura e lê a última versão reservada: em WAL essas transações
+ * veem exatamente os commits até essa versão (a reserva é feita no mesmo monitor que a
+ * escrita). Já fora dos monitores, cada ficheiro é copiado com a API de backup online do
+ * SQLite, que usa a transação aberta, para pasta/snapshot-v{versao}/. A versão fica gravada
+ * na Configuracao da cópia: é dela que o backup continua.
+ *
+ * Depois da cópia calcula-se o manifesto: o tamanho de cada ficheiro e o CRC32C de cada
+ * bloco de TAMANHO_BLOCO bytes, enviados com os blocos (ver TransferenciaSnapshot).
+ */
+public class SnapshotBD {
+    public static final String PREFIXO_PASTA = "snapshot-v";
+    public static final int TAMANHO_BLOCO = 1 << 20;
+
+    private final int versao;
+    private final Path pasta;
+    private final List<String> ficheiros;
+    private final Map<String, Long> tamanhos = new HashMap<>();
+    private final Map<String, int[]> crcBlocos = new HashMap<>();
+    private long msMonitores;
+    private long msCopia;
+
+    private SnapshotBD(int versao, Path pasta, List<String> ficheiros) {
+        this.versao = versao;
+        this.pasta = pasta;
+        this.ficheiros = ficheiros;
+    }
+
+    public int getVersao() {
+        return versao;
+    }
+
+    /**
+     * Nomes dos ficheiros da cópia; o primeiro é a BD principal (sistema.db).
+     */
+    public List<String> getFicheiros() {
+        return ficheiros;
+    }
+
+    /**
+     * Caminho do ficheiro na cópia, ou null se não fizer parte dela.
+     */
+    public Path ficheiro(String nome) {
+        return ficheiros.contains(nome) ? pasta.resolve(nome) : null;
+    }
+
+    /**
+     * Tempo com todos os monitores (as escritas ficam paradas durante este tempo).
+     */
+    public long getMsMonitores() {
+        return msMonitores;
+    }
+
+    /**
+     * Tempo da cópia e do manifesto, já fora dos monitores.
+     */
+    public long getMsCopia() {
+        return msCopia;
+    }
+
+    public long getTamanho(String nome) {
+        return tamanhos.get(nome);
+    }
+
+    /**
+     * CRC32C do bloco indice do ficheiro (o último bloco pode ser mais curto).
+     */
+    public int getCrcBloco(String nome, int indice) {
+        return crcBlocos.get(nome)[indice];
+    }
+
+    /**
+     * @param versaoReservada última versão reservada pelo SequenciadorVersoes
+     */
+    public static SnapshotBD criar(DatabaseManager db, Path pathDb, IntSupplier versaoReservada)
+            throws SQLException, IOException {
+        List<String> nomes = new ArrayList<>();
+        List<Connection> ligacoes = new ArrayList<>();
+        try {
+            long t0 = System.nanoTime();
+            int versao = db.comTodosOsMonitores(() -> {
+                // Um arquivo novo só aparece com os monitores: a lista é feita aqui.
+                nomes.addAll(ficheirosDaBD(pathDb));
+                for (String nome : nomes) {
+                    Connection c = DriverManager.getConnection("jdbc:sqlite:" + pathDb.resolveSibling(nome));
+                    ligacoes.add(c);
+                    try (Statement st = c.createStatement()) {
+                        st.execute("PRAGMA busy_timeout=5000;");
+                        c.setAutoCommit(false);
+                        st.executeQuery("SELECT COUNT(*) FROM sqlite_master").close();
+                    }
+                }
+                return versaoReservada.getAsInt();
+            });
+            long nsMonitores = System.nanoTime() - t0;
+            System.out.printf("[Snapshot] v%d: %d ficheiro(s), monitores retidos %.1f ms%n",
+                    versao, nomes.size(), nsMonitores / 1e6);
+
+            Path pasta = pathDb.resolveSibling(PREFIXO_PASTA + versao);
+            apagarPasta(pasta);
+            Files.createDirectories(pasta);
+            long t1 = System.nanoTime();
+            for (int i = 0; i < nomes.size(); i++) {
+                try (Statement st = ligacoes.get(i).createStatement()) {
+                    st.executeUpdate("backup to \"" + pasta.resolve(nomes.get(i)).toAbsolutePath() + "\"");
+                }
+            }
+
+            try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + pasta.resolve(nomes.get(0)));
+                 Statement st = c.createStatement()) {
+                st.execute("PRAGMA journal_mode=DELETE;");
+                SchemaManager.definirVersao(c, versao);
+            }
+            SnapshotBD snapshot = new SnapshotBD(versao, pasta, List.copyOf(nomes));
+            for (String nome : nomes) {
+                snapshot.calcularManifesto(nome);
+            }
+            snapshot.msMonitores = nsMonitores / 1_000_000;
+            snapshot.msCopia = (System.nanoTime() - t1) / 1_000_000;
+            System.out.printf("[Snapshot] v%d copiado em %d ms para %s%n", versao, snapshot.msCopia, pasta);
+            return snapshot;
+        } finally {
+            for (Connection c : ligacoes) {
+                try {
+                    c.rollback();
+                    c.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+
+    private void calcularManifesto(String nome) throws IOException {
+        try (FileChannel fc = FileChannel.open(pasta.resolve(nome), StandardOpenOption.READ)) {
+            long tamanho = fc.size();
+            int[] crcs = new int[(int) ((tamanho + TAMANHO_BLOCO - 1) / TAMANHO_BLOCO)];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BLOCO);
+            CRC32C crc = new CRC32C();
+            for (int i = 0; i < crcs.length; i++) {
+                buffer.clear();
+                long posicao = (long) i * TAMANHO_BLOCO;
+                while (buffer.hasRemaining() && posicao + buffer.position() < tamanho) {
+                    if (fc.read(buffer, posicao + buffer.position()) < 0) break;
+                }
+                buffer.flip();
+                crc.reset();
+                crc.update(buffer);
+                crcs[i] = (int) crc.getValue();
+            }
+            tamanhos.put(nome, tamanho);
+            crcBlocos.put(nome, crcs);
+        }
+    }
+
+    public void apagar() {
+        try {
+            apagarPasta(pasta);
+        } catch (IOException e) {
+            System.err.println("[Snapshot] Não foi possível apagar " + pasta + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apaga cópias deixadas por uma execução anterior.
+     */
+    public static void apagarAntigos(Path pathDb) {
+        File[] antigos = pathDb.toAbsolutePath().getParent().toFile().listFiles((d, nome) ->
+                nome.startsWith(PREFIXO_PASTA));
+        if (antigos == null) return;
+        for (File f : antigos) {
+            try {
+                apagarPasta(f.toPath());
+            } catch (IOException e) {
+                System.err.println("[Snapshot] Não foi possível apagar " + f + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A BD principal seguida dos ficheiros de arquivo e dos fragmentos (e respetivos
+     * arquivos) existentes na mesma pasta.
+     */
+    public static List<String> ficheirosDaBD(Path pathDb) {
+        List<String> nomes = new ArrayList<>();
+        nomes.add(pathDb.getFileName().toString());
+        File[] arquivos = pathDb.toAbsolutePath().getParent().toFile().listFiles((d, nome) ->
+                (nome.startsWith(DatabaseConnection.PREFIXO_ARQUIVO)
+                        || nome.startsWith(ArmazenamentoFragmentado.PREFIXO_FRAGMENTO)) && nome.endsWith(".db"));
+        if (arquivos != null) {
+            Arrays.sort(arquivos);
+            for (File f : arquivos) nomes.add(f.getName());
+        }
+        return nomes;
+    }
+
+    private static void apagarPasta(Path pasta) throws IOException {
+        if (!Files.exists(pasta)) return;
+        try (Stream<Path> s = Files.walk(pasta)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
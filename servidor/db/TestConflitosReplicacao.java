@@ -0,0 +1,50 @@
+package servidor.db;
+
+import java.util.List;
+
+/**
+ * Faixas da replicação: perguntas de ficheiros diferentes separam-se, mas uma resposta fica
+ * com o estudante que a janela cria e um estudante com outro que lhe troca o email.
+ */
+public class TestConflitosReplicacao {
+
+    public static void main(String[] args) {
+        System.out.println("=== Teste das faixas da replicação ===\n");
+
+        // Ficheiro: 9 para a partilhada, id da pergunta % 2 para as perguntas.
+        List<OperacaoReplicada> ops = List.of(
+                new OperacaoReplicada.EditarPergunta(1, "A", "2020-01-01 10:00", "2020-01-01 11:00"),
+                new OperacaoReplicada.EditarPergunta(2, "B", "2020-01-01 10:00", "2020-01-01 11:00"),
+                new OperacaoReplicada.GuardarResposta(7, 4, "a"),
+                new OperacaoReplicada.EliminarPergunta(3));
+        boolean ok = verificar("perguntas de dois fragmentos", ops, "[[0, 3], [1, 2]]");
+
+        ops = List.of(
+                new OperacaoReplicada.CriarEstudante(7, 2024001, "Ana", "ana@isec.pt", "h"),
+                new OperacaoReplicada.EditarPergunta(1, "A", "2020-01-01 10:00", "2020-01-01 11:00"),
+                new OperacaoReplicada.GuardarResposta(7, 2, "a"));
+        ok &= verificar("resposta do estudante criado", ops, "[[0, 2], [1]]");
+
+        ops = List.of(
+                new OperacaoReplicada.GuardarResposta(7, 2, "a"),
+                new OperacaoReplicada.GuardarResposta(8, 1, "b"),
+                new OperacaoReplicada.AtualizarEstudante(7, "Ana", "ana2@isec.pt", "h"),
+                new OperacaoReplicada.CriarEstudante(9, 2024002, "Rui", "ana@isec.pt", "h"),
+                new OperacaoReplicada.CriarDocente(3, "Prof", "prof@isec.pt", "h"));
+        ok &= verificar("email libertado e respostas", ops, "[[0, 2, 3, 4], [1]]");
+
+        System.out.println("\n=== Teste " + (ok ? "concluído" : "FALHOU") + " ===");
+        if (!ok) System.exit(1);
+    }
+
+    private static boolean verificar(String nome, List<OperacaoReplicada> ops, String esperado) {
+        String faixas = ConflitosReplicacao.faixas(ops, i -> {
+            int perguntaId = OperacaoReplicada.perguntaDe(ops.get(i));
+            return perguntaId < 0 ? 9 : perguntaId % 2;
+        }).toString();
+        boolean certo = faixas.equals(esperado);
+        System.out.println("  " + (certo ? "OK   " : "ERRO ") + nome + ": " + faixas
+                + (certo ? "" : " (esperado " + esperado + ")"));
+        return certo;
+    }
+}
@@ -0,0 +1,93 @@
+package servidor.db;
+
+import servidor.db.armazenamento.ArmazenamentoMemoria;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Motor em memória como backup: as operações registadas no principal são aplicadas com os
+ * mesmos ids, e uma janela com uma operação inválida não deixa nada aplicado.
+ */
+public class TestReplicacaoMemoria {
+
+    public static void main(String[] args) throws SQLException {
+        System.out.println("=== Teste da replicação para o motor em memória ===\n");
+
+        DatabaseManager principal = novo();
+        DatabaseManager backup = novo();
+        List<OperacaoReplicada> diario = new ArrayList<>();
+
+        // Um id por gastar no principal: o backup tem de usar o mesmo, não o seguinte.
+        principal.criarEstudante(1, "Removido", "x@isec.pt", "p");
+        int docenteId = principal.criarDocente("Prof. João Silva", "joao.silva@isec.pt", "senha123", diario);
+        int estudanteId = principal.criarEstudante(202412345, "Ana Costa", "ana.costa@isec.pt", "senha456", diario);
+        principal.importarEstudantes(ImportacaoEstudantes.validar(List.of(
+                "202412346;Rui Sousa;rui@isec.pt;senha789")), diario);
+        int perguntaId = principal.criarPerguntaComOpcoes(docenteId, "Qual é a capital de Portugal?",
+                "2020-01-01 10:00", "2020-01-01 11:00",
+                List.of(new PerguntaDetalhes.OpcaoDetalhes(0, "a", "Lisboa", true),
+                        new PerguntaDetalhes.OpcaoDetalhes(0, "b", "Porto", false)), diario).id;
+        principal.adicionarOpcao(perguntaId, "c", "Coimbra", false, diario);
+        principal.guardarResposta(estudanteId, perguntaId, "a", diario);
+        principal.atualizarEstudantePerfil(estudanteId, "Ana C. Costa", "ana.c@isec.pt", "senha456", diario);
+        int temporaria = principal.criarPerguntaCompleta(docenteId, "Apagar", "2020-01-01 10:00",
+                "2020-01-01 11:00", diario).id;
+        principal.eliminarPergunta(temporaria, diario);
+
+        backup.aplicarOperacoes(diario, diario.size());
+
+        boolean ok = verificar("versão", backup.getVersao() == diario.size());
+        ok &= verificar("login do docente com o id do principal",
+                backup.autenticarDocenteId("joao.silva@isec.pt", "senha123") == docenteId);
+        ok &= verificar("login com o perfil novo",
+                backup.autenticarEstudanteId("ana.c@isec.pt", "senha456") == estudanteId);
+        ok &= verificar("estudante importado",
+                backup.autenticarEstudanteId("rui@isec.pt", "senha789")
+                        == principal.autenticarEstudanteId("rui@isec.pt", "senha789"));
+        ok &= verificar("resultados iguais", resultados(backup, docenteId, perguntaId)
+                .equals(resultados(principal, docenteId, perguntaId)));
+        ok &= verificar("pergunta eliminada", backup.listarPerguntas(docenteId, null).size() == 1);
+
+        // Promovido, o backup continua a numeração depois dos ids do principal.
+        int novo = backup.criarEstudante(202412399, "Novo", "novo@isec.pt", "p");
+        ok &= verificar("ids depois dos do principal", novo > estudanteId);
+
+        int versao = backup.getVersao();
+        try {
+            backup.aplicarOperacoes(List.of(
+                    new OperacaoReplicada.CriarDocente(50, "Outro", "outro@isec.pt", "h"),
+                    new OperacaoReplicada.GuardarResposta(estudanteId, perguntaId, "b")), versao + 2);
+            ok &= verificar("janela inválida recusada", false);
+        } catch (SQLException e) {
+            ok &= verificar("janela inválida recusada (" + e.getMessage() + ")", true);
+        }
+        ok &= verificar("nada da janela inválida aplicado", backup.getDocenteId("outro@isec.pt") < 0
+                && backup.getVersao() == versao);
+
+        principal.close();
+        backup.close();
+        System.out.println("\n=== Teste " + (ok ? "concluído" : "FALHOU") + " ===");
+        if (!ok) System.exit(1);
+    }
+
+    private static DatabaseManager novo() {
+        DatabaseManager db = new DatabaseManager(new ArmazenamentoMemoria());
+        db.connect();
+        db.createTables();
+        return db;
+    }
+
+    private static String resultados(DatabaseManager db, int docenteId, int perguntaId) throws SQLException {
+        PerguntaDetalhes pd = db.obterDetalhesPerguntaExpirada(perguntaId, docenteId);
+        StringBuilder sb = new StringBuilder(pd.enunciado).append("|").append(pd.opcoes.size());
+        pd.respostas.escreverProtocolo(sb, db.getDicionarioEstudantes());
+        return sb.toString().replaceAll(";\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d", "");
+    }
+
+    private static boolean verificar(String nome, boolean certo) {
+        System.out.println("  " + (certo ? "OK   " : "ERRO ") + nome);
+        return certo;
+    }
+}
@@ -0,0 +1,70 @@
+package servidor.db;
+
+import servidor.db.armazenamento.ArmazenamentoMemoria;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Resultados de uma pergunta expirada já em cache, lidos depois de o estudante mudar de
+ * perfil (no principal e por uma operação replicada), ou lidos antes e escritos depois: o
+ * nome e o email têm de ser os novos, nunca vazios.
+ */
+public class TestResultadosPerfil {
+
+    public static void main(String[] args) throws SQLException {
+        System.out.println("=== Teste dos resultados depois de editar o perfil ===\n");
+
+        DatabaseManager db = new DatabaseManager(new ArmazenamentoMemoria());
+        db.connect();
+        db.createTables();
+
+        int docenteId = db.criarDocente("Prof. João Silva", "joao.silva@isec.pt", "senha123");
+        int estudanteId = db.criarEstudante(202412345, "Ana Costa", "ana.costa@isec.pt", "senha456");
+        int perguntaId = db.criarPerguntaComOpcoes(docenteId, "Qual é a capital de Portugal?",
+                "2020-01-01 10:00", "2020-01-01 11:00",
+                List.of(new PerguntaDetalhes.OpcaoDetalhes(0, "a", "Lisboa", true),
+                        new PerguntaDetalhes.OpcaoDetalhes(0, "b", "Porto", false)), null).id;
+        db.guardarResposta(estudanteId, perguntaId, "a", null);
+
+        boolean ok = verificar(db, docenteId, perguntaId, "Ana Costa", "ana.costa@isec.pt");
+
+        // Resultados lidos antes da edição e escritos depois (como em responderQuando).
+        PerguntaDetalhes lidos = db.obterDetalhesPerguntaExpirada(perguntaId, docenteId);
+        db.atualizarEstudantePerfil(estudanteId, "Ana C. Costa", "ana.c@isec.pt", "senha456", null);
+        StringBuilder sb = new StringBuilder();
+        lidos.respostas.escreverProtocolo(sb, db.getDicionarioEstudantes());
+        boolean certo = sb.indexOf(";Ana C. Costa;ana.c@isec.pt;") >= 0;
+        System.out.println("  " + (certo ? "OK   " : "ERRO ") + "lidos antes da edição: " + sb);
+        ok &= certo;
+        ok &= verificar(db, docenteId, perguntaId, "Ana C. Costa", "ana.c@isec.pt");
+
+        db.aplicarOperacoes(List.of(new OperacaoReplicada.AtualizarEstudante(estudanteId, "Ana Maria Costa",
+                "ana.maria@isec.pt", DatabaseManager.hashPassword("senha456"))), db.getVersao() + 1);
+        ok &= verificar(db, docenteId, perguntaId, "Ana Maria Costa", "ana.maria@isec.pt");
+
+        db.close();
+        System.out.println("\n=== Teste " + (ok ? "concluído" : "FALHOU") + " ===");
+        if (!ok) System.exit(1);
+    }
+
+    /**
+     * Lê os resultados duas vezes (a segunda vem da cache) e procura o nome e o email no
+     * VER_RESULTADOS e no CSV.
+     */
+    private static boolean verificar(DatabaseManager db, int docenteId, int perguntaId,
+                                     String nome, String email) throws SQLException {
+        boolean ok = true;
+        for (int i = 0; i < 2; i++) {
+            StringBuilder sb = new StringBuilder();
+            db.obterDetalhesPerguntaExpirada(perguntaId, docenteId).respostas
+                    .escreverProtocolo(sb, db.getDicionarioEstudantes());
+            String csv = db.exportarParaCSV(perguntaId, docenteId);
+            boolean certo = sb.indexOf(";" + nome + ";" + email + ";") >= 0
+                    && csv.contains("\"" + nome + "\";\"" + email + "\"");
+            System.out.println("  " + (certo ? "OK   " : "ERRO ") + nome + " / " + email + ": " + sb);
+            ok &= certo;
+        }
+        return ok;
+    }
+}
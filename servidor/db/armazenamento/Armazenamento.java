@@ -0,0 +1,130 @@
+package servidor.db.armazenamento;
+
+import servidor.db.CacheCredenciais;
+import servidor.db.DatabaseManager;
+import servidor.db.DicionarioEstudantes;
+import servidor.db.ImportacaoEstudantes;
+import servidor.db.OperacaoReplicada;
+import servidor.db.PerguntaDetalhes;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Motor de armazenamento por detrás do DatabaseManager.
+ * Os erros seguem as mensagens do SQLite ("UNIQUE", "já tem respostas", ...)
+ * porque o ClienteHandler depende delas para escolher a resposta ao cliente.
+ */
+public interface Armazenamento {
+
+    void connect();
+
+    void createTables();
+
+    void close();
+
+    int getVersao() throws SQLException;
+
+    int incrementarVersao() throws SQLException;
+
+    /**
+     * Grava a versão atribuída pelo SequenciadorVersoes (nunca a faz recuar).
+     */
+    void definirVersao(int versao) throws SQLException;
+
+    CacheCredenciais.Credencial obterCredencialDocente(String email) throws SQLException;
+
+    CacheCredenciais.Credencial obterCredencialEstudante(String email) throws SQLException;
+
+    int getDocenteId(String email) throws SQLException;
+
+    boolean validarCodigoDocente(String codigoClaro) throws SQLException;
+
+    int criarDocente(String nome, String email, String passwordClaro) throws SQLException;
+
+    void atualizarDocentePerfil(int docenteId, String novoNome, String novoEmail, String novaPasswordClaro) throws SQLException;
+
+    int criarEstudante(int numero, String nome, String email, String passwordClaro) throws SQLException;
+
+    void atualizarEstudantePerfil(int estudanteId, String novoNome, String novoEmail, String novaPass) throws SQLException;
+
+    /**
+     * Insere as linhas válidas de uma importação numa só transação; as que
+     * colidem com estudantes existentes ficam registadas como erro.
+     */
+    void importarEstudantes(ImportacaoEstudantes importacao) throws SQLException;
+
+    DatabaseManager.PerguntaResult criarPerguntaCompleta(int docenteId, String enunciado, String dataInicio, String dataFim) throws SQLException;
+
+    /**
+     * Cria a pergunta com todas as opções de forma atómica.
+     */
+    DatabaseManager.PerguntaResult criarPerguntaComOpcoes(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                                          List<PerguntaDetalhes.OpcaoDetalhes> opcoes) throws SQLException;
+
+    boolean perguntaPertenceADocente(int perguntaId, int docenteId) throws SQLException;
+
+    boolean perguntaTemRespostas(int perguntaId) throws SQLException;
+
+    void editarPergunta(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim) throws SQLException;
+
+    void eliminarPergunta(int perguntaId) throws SQLException;
+
+    List<PerguntaDetalhes> listarPerguntas(int docenteId, String filtroEstado) throws SQLException;
+
+    /**
+     * Perguntas do docente que contêm todos os termos (no enunciado ou nas opções), por relevância.
+     */
+    List<PerguntaDetalhes> pesquisarPerguntas(int docenteId, String termos, int offset, int limite) throws SQLException;
+
+    PerguntaDetalhes obterPerguntaAtivaPorCodigo(String codigo) throws SQLException;
+
+    /**
+     * Nome e email dos estudantes que responderam ficam em dic, não no resultado.
+     */
+    PerguntaDetalhes obterDetalhesPerguntaExpirada(int perguntaId, int docenteId, DicionarioEstudantes dic) throws SQLException;
+
+    void adicionarOpcao(int perguntaId, String letra, String texto, boolean correta) throws SQLException;
+
+    void editarOpcao(int opcaoId, int perguntaId, String novoTexto, boolean novaCorreta) throws SQLException;
+
+    void guardarResposta(int estudanteId, int perguntaId, String letra) throws SQLException;
+
+    /**
+     * Todas as respostas do estudante, expiradas ou não, por data_fim e data_hora ascendentes.
+     */
+    List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudante(int estudanteId) throws SQLException;
+
+    /**
+     * Move as perguntas com data_fim anterior a limite para o armazenamento de arquivo.
+     * Tem de ser determinístico: os backups repetem-no com o mesmo limite.
+     * Devolve o número de perguntas movidas.
+     */
+    int arquivarPerguntas(String limite) throws SQLException;
+
+    interface ConsumidorResposta {
+        void aceitar(int perguntaId, int estudanteId);
+    }
+
+    /**
+     * Todos os pares (pergunta, estudante) com resposta na BD principal. Usado para
+     * reconstruir o IndiceRespostas.
+     */
+    void percorrerRespostas(ConsumidorResposta consumidor) throws SQLException;
+
+    /**
+     * Aplica operações replicadas numa só transação e, com versaoFinal > 0, grava essa versão
+     * na mesma transação.
+     */
+    void aplicarOperacoes(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException;
+
+    /**
+     * Aplica um update replicado em SQL. Só faz sentido em motores SQL.
+     */
+    void executarQuery(String sql) throws SQLException;
+
+    /**
+     * Aplica um lote de updates replicados numa única transação.
+     */
+    void executarLote(List<String> sqls) throws SQLException;
+}
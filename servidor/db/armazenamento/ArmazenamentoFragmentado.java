@@ -0,0 +1,584 @@
+package servidor.db.armazenamento;
+
+import servidor.db.CacheCredenciais;
+import servidor.db.DatabaseConnection;
+import servidor.db.DatabaseManager;
+import servidor.db.DicionarioEstudantes;
+import servidor.db.ConflitosReplicacao;
+import servidor.db.GestorLocks;
+import servidor.db.ImportacaoEstudantes;
+import servidor.db.OperacaoReplicada;
+import servidor.db.PerguntaDetalhes;
+import servidor.db.util.SchemaManager;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Motor SQLite repartido por K ficheiros (fragmento0.db ... fragmentoK-1.db), cada um com
+ * a sua ligação, o seu WAL e o seu escritor. Pergunta, Opcao e Resposta vivem no fragmento
+ * do docente (docente_id mod K); Docente, Estudante e Configuracao ficam em sistema.db,
+ * anexada em cada fragmento como "partilhada".
+ *
+ * Cada fragmento atribui ids de Pergunta numa faixa própria ([i*BLOCO+1, (i+1)*BLOCO]),
+ * por isso o fragmento de uma pergunta sai do id e os ids nunca colidem entre fragmentos.
+ *
+ * Cada fragmento é usado dentro do seu próprio monitor (o objeto ArmazenamentoSQLite do
+ * fragmento); as operações que percorrem vários fragmentos tomam-nos um de cada vez.
+ * Ordem dos locks: monitor do DatabaseManager, depois fragmentos; nunca o contrário.
+ */
+public class ArmazenamentoFragmentado implements Armazenamento {
+    public static final String PREFIXO_FRAGMENTO = "fragmento";
+    public static final String ALIAS_PARTILHADA = "partilhada";
+
+    private static final int F = Pattern.CASE_INSENSITIVE | Pattern.DOTALL;
+    private static final Pattern SQL_PARTILHADA = Pattern.compile(
+            "^\\s*(INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+(Docente|Estudante|Configuracao)\\b", F);
+    private static final Pattern SQL_PERGUNTA_COM_ID = Pattern.compile(
+            "^\\s*INSERT\\s+INTO\\s+Pergunta\\s*\\(\\s*id\\s*,.*?VALUES\\s*\\(\\s*(\\d+)", F);
+    private static final Pattern SQL_PERGUNTA_DOCENTE = Pattern.compile(
+            "^\\s*INSERT\\s+INTO\\s+Pergunta\\b.*,\\s*(\\d+)\\s*\\)\\s*;?\\s*$", F);
+    private static final Pattern SQL_OPCAO = Pattern.compile(
+            "^\\s*INSERT\\s+INTO\\s+Opcao\\s*\\(\\s*pergunta_id\\b.*?VALUES\\s*\\(\\s*(\\d+)", F);
+    private static final Pattern SQL_RESPOSTA = Pattern.compile(
+            "^\\s*INSERT\\s+INTO\\s+Resposta\\s*\\(\\s*estudante_id\\s*,\\s*pergunta_id\\b.*?VALUES\\s*\\(\\s*\\d+\\s*,\\s*(\\d+)", F);
+    private static final Pattern SQL_WHERE_PERGUNTA = Pattern.compile(
+            "^\\s*(UPDATE|DELETE\\s+FROM)\\s+(Pergunta\\b.*\\bWHERE\\s+id|(Opcao|Resposta)\\b.*\\bWHERE\\s+pergunta_id)" +
+                    "\\s*=\\s*(\\d+)\\s*;?\\s*$", F);
+
+    private final ArmazenamentoSQLite partilhado;
+    private final ArmazenamentoSQLite[] fragmentos;
+    private final int bloco;
+    /** Faixas de operações replicadas aplicadas ao mesmo tempo (ver aplicarOperacoes). */
+    private final int paralelismo;
+    private ExecutorService aplicadores;
+
+    /**
+     * @param dbPath caminho de sistema.db; os fragmentos ficam na mesma pasta
+     */
+    public ArmazenamentoFragmentado(String dbPath, int numFragmentos) {
+        if (numFragmentos < 2) {
+            throw new IllegalArgumentException("São precisos pelo menos 2 fragmentos: " + numFragmentos);
+        }
+        this.partilhado = new ArmazenamentoSQLite(dbPath);
+        this.fragmentos = new ArmazenamentoSQLite[numFragmentos];
+        this.bloco = Integer.MAX_VALUE / numFragmentos;
+        this.paralelismo = Math.max(1, Integer.getInteger("pd.replicacao.paralelismo",
+                Math.min(numFragmentos + 1, Runtime.getRuntime().availableProcessors())));
+
+        File pasta = new File(dbPath).getAbsoluteFile().getParentFile();
+        for (int i = 0; i < numFragmentos; i++) {
+            String nome = PREFIXO_FRAGMENTO + i;
+            DatabaseConnection c = new DatabaseConnection(new File(pasta, nome + ".db").getPath(), nome + "_arquivo_");
+            c.anexarFixo(ALIAS_PARTILHADA, dbPath);
+            fragmentos[i] = new ArmazenamentoSQLite(c);
+        }
+    }
+
+    public int getNumFragmentos() {
+        return fragmentos.length;
+    }
+
+    public ArmazenamentoSQLite getPartilhado() {
+        return partilhado;
+    }
+
+    /**
+     * O objeto devolvido é também o monitor do fragmento.
+     */
+    public ArmazenamentoSQLite getFragmento(int i) {
+        return fragmentos[i];
+    }
+
+    public int fragmentoDeDocente(int docenteId) {
+        return Math.floorMod(docenteId, fragmentos.length);
+    }
+
+    public int fragmentoDePergunta(int perguntaId) {
+        if (perguntaId <= 0) return 0;
+        return Math.min((perguntaId - 1) / bloco, fragmentos.length - 1);
+    }
+
+    /**
+     * Fragmento a que se aplica um update replicado, ou -1 se for da BD partilhada.
+     */
+    public int fragmentoDeSQL(String sql) throws SQLException {
+        if (SQL_PARTILHADA.matcher(sql).lookingAt()) return -1;
+
+        Matcher m = SQL_PERGUNTA_COM_ID.matcher(sql);
+        if (m.lookingAt()) return fragmentoDePergunta(Integer.parseInt(m.group(1)));
+        m = SQL_PERGUNTA_DOCENTE.matcher(sql);
+        if (m.matches()) return fragmentoDeDocente(Integer.parseInt(m.group(1)));
+        m = SQL_OPCAO.matcher(sql);
+        if (m.lookingAt()) return fragmentoDePergunta(Integer.parseInt(m.group(1)));
+        m = SQL_RESPOSTA.matcher(sql);
+        if (m.lookingAt()) return fragmentoDePergunta(Integer.parseInt(m.group(1)));
+        m = SQL_WHERE_PERGUNTA.matcher(sql);
+        if (m.matches()) return fragmentoDePergunta(Integer.parseInt(m.group(4)));
+
+        throw new SQLException("Query replicada sem fragmento conhecido: " + sql);
+    }
+
+    private ArmazenamentoSQLite doDocente(int docenteId) {
+        return fragmentos[fragmentoDeDocente(docenteId)];
+    }
+
+    private ArmazenamentoSQLite daPergunta(int perguntaId) {
+        return fragmentos[fragmentoDePergunta(perguntaId)];
+    }
+
+    @Override
+    public void connect() {
+        partilhado.connect();
+        for (ArmazenamentoSQLite f : fragmentos) {
+            f.connect();
+        }
+    }
+
+    @Override
+    public void createTables() {
+        partilhado.createTables();
+        avisarPerguntasNaPartilhada();
+        for (int i = 0; i < fragmentos.length; i++) {
+            try {
+                SchemaManager.createTablesFragmento(fragmentos[i].getConnection(), i * bloco);
+            } catch (Exception e) {
+                System.err.println("[DB] Erro ao criar tabelas do fragmento " + i + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        System.out.println("[DB] Armazenamento fragmentado: " + fragmentos.length + " fragmentos");
+    }
+
+    /**
+     * Perguntas criadas antes da fragmentação ficam em sistema.db e não são migradas.
+     */
+    private void avisarPerguntasNaPartilhada() {
+        try (Statement st = partilhado.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM Pergunta")) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                System.err.println("[DB] AVISO: " + rs.getInt(1) + " pergunta(s) em sistema.db ficam fora dos fragmentos");
+            }
+        } catch (SQLException e) {
+            System.err.println("[DB] Erro ao verificar perguntas em sistema.db: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (aplicadores != null) aplicadores.shutdown();
+        }
+        for (ArmazenamentoSQLite f : fragmentos) {
+            f.close();
+        }
+        partilhado.close();
+    }
+
+    @Override
+    public int getVersao() throws SQLException {
+        return partilhado.getVersao();
+    }
+
+    @Override
+    public int incrementarVersao() throws SQLException {
+        return partilhado.incrementarVersao();
+    }
+
+    @Override
+    public void definirVersao(int versao) throws SQLException {
+        partilhado.definirVersao(versao);
+    }
+
+    @Override
+    public CacheCredenciais.Credencial obterCredencialDocente(String email) throws SQLException {
+        return partilhado.obterCredencialDocente(email);
+    }
+
+    @Override
+    public CacheCredenciais.Credencial obterCredencialEstudante(String email) throws SQLException {
+        return partilhado.obterCredencialEstudante(email);
+    }
+
+    @Override
+    public int getDocenteId(String email) throws SQLException {
+        return partilhado.getDocenteId(email);
+    }
+
+    @Override
+    public boolean validarCodigoDocente(String codigoClaro) throws SQLException {
+        return partilhado.validarCodigoDocente(codigoClaro);
+    }
+
+    @Override
+    public int criarDocente(String nome, String email, String passwordClaro) throws SQLException {
+        return partilhado.criarDocente(nome, email, passwordClaro);
+    }
+
+    @Override
+    public void atualizarDocentePerfil(int docenteId, String novoNome, String novoEmail, String novaPasswordClaro) throws SQLException {
+        partilhado.atualizarDocentePerfil(docenteId, novoNome, novoEmail, novaPasswordClaro);
+    }
+
+    @Override
+    public int criarEstudante(int numero, String nome, String email, String passwordClaro) throws SQLException {
+        return partilhado.criarEstudante(numero, nome, email, passwordClaro);
+    }
+
+    @Override
+    public void atualizarEstudantePerfil(int estudanteId, String novoNome, String novoEmail, String novaPass) throws SQLException {
+        partilhado.atualizarEstudantePerfil(estudanteId, novoNome, novoEmail, novaPass);
+    }
+
+    @Override
+    public void importarEstudantes(ImportacaoEstudantes importacao) throws SQLException {
+        partilhado.importarEstudantes(importacao);
+    }
+
+    @Override
+    public DatabaseManager.PerguntaResult criarPerguntaCompleta(int docenteId, String enunciado, String dataInicio, String dataFim) throws SQLException {
+        ArmazenamentoSQLite f = doDocente(docenteId);
+        synchronized (f) {
+            return f.criarPerguntaCompleta(docenteId, enunciado, dataInicio, dataFim);
+        }
+    }
+
+    @Override
+    public DatabaseManager.PerguntaResult criarPerguntaComOpcoes(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                                                 List<PerguntaDetalhes.OpcaoDetalhes> opcoes) throws SQLException {
+        ArmazenamentoSQLite f = doDocente(docenteId);
+        synchronized (f) {
+            return f.criarPerguntaComOpcoes(docenteId, enunciado, dataInicio, dataFim, opcoes);
+        }
+    }
+
+    @Override
+    public boolean perguntaPertenceADocente(int perguntaId, int docenteId) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            return f.perguntaPertenceADocente(perguntaId, docenteId);
+        }
+    }
+
+    @Override
+    public boolean perguntaTemRespostas(int perguntaId) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            return f.perguntaTemRespostas(perguntaId);
+        }
+    }
+
+    @Override
+    public void editarPergunta(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            f.editarPergunta(perguntaId, novoEnunciado, novaDataInicio, novaDataFim);
+        }
+    }
+
+    @Override
+    public void eliminarPergunta(int perguntaId) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            f.eliminarPergunta(perguntaId);
+        }
+    }
+
+    @Override
+    public List<PerguntaDetalhes> listarPerguntas(int docenteId, String filtroEstado) throws SQLException {
+        ArmazenamentoSQLite f = doDocente(docenteId);
+        synchronized (f) {
+            return f.listarPerguntas(docenteId, filtroEstado);
+        }
+    }
+
+    @Override
+    public List<PerguntaDetalhes> pesquisarPerguntas(int docenteId, String termos, int offset, int limite) throws SQLException {
+        ArmazenamentoSQLite f = doDocente(docenteId);
+        synchronized (f) {
+            return f.pesquisarPerguntas(docenteId, termos, offset, limite);
+        }
+    }
+
+    /**
+     * O código de acesso não diz o fragmento: procura em todos.
+     */
+    @Override
+    public PerguntaDetalhes obterPerguntaAtivaPorCodigo(String codigo) throws SQLException {
+        for (ArmazenamentoSQLite f : fragmentos) {
+            PerguntaDetalhes pd;
+            synchronized (f) {
+                pd = f.obterPerguntaAtivaPorCodigo(codigo);
+            }
+            if (pd != null) return pd;
+        }
+        return null;
+    }
+
+    @Override
+    public PerguntaDetalhes obterDetalhesPerguntaExpirada(int perguntaId, int docenteId, DicionarioEstudantes dic) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            return f.obterDetalhesPerguntaExpirada(perguntaId, docenteId, dic);
+        }
+    }
+
+    @Override
+    public void adicionarOpcao(int perguntaId, String letra, String texto, boolean correta) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            f.adicionarOpcao(perguntaId, letra, texto, correta);
+        }
+    }
+
+    @Override
+    public void editarOpcao(int opcaoId, int perguntaId, String novoTexto, boolean novaCorreta) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            f.editarOpcao(opcaoId, perguntaId, novoTexto, novaCorreta);
+        }
+    }
+
+    @Override
+    public void guardarResposta(int estudanteId, int perguntaId, String letra) throws SQLException {
+        ArmazenamentoSQLite f = daPergunta(perguntaId);
+        synchronized (f) {
+            f.guardarResposta(estudanteId, perguntaId, letra);
+        }
+    }
+
+    @Override
+    public List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudante(int estudanteId) throws SQLException {
+        List<DatabaseManager.RespostaEstudanteInfo> lista = new ArrayList<>();
+        for (ArmazenamentoSQLite f : fragmentos) {
+            synchronized (f) {
+                lista.addAll(f.listarRespostasEstudante(estudanteId));
+            }
+        }
+        lista.sort(Comparator.<DatabaseManager.RespostaEstudanteInfo>comparingLong(r -> r.fimMs)
+                .thenComparing(r -> r.dataResposta, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return lista;
+    }
+
+    /**
+     * Cada fragmento arquiva para os seus próprios ficheiros (fragmentoN_arquivo_*.db).
+     */
+    @Override
+    public int arquivarPerguntas(String limite) throws SQLException {
+        int movidas = 0;
+        for (ArmazenamentoSQLite f : fragmentos) {
+            synchronized (f) {
+                movidas += f.arquivarPerguntas(limite);
+            }
+        }
+        return movidas;
+    }
+
+    @Override
+    public void percorrerRespostas(ConsumidorResposta consumidor) throws SQLException {
+        for (ArmazenamentoSQLite f : fragmentos) {
+            synchronized (f) {
+                f.percorrerRespostas(consumidor);
+            }
+        }
+    }
+
+    /**
+     * Reparte a janela em faixas independentes (ConflitosReplicacao.faixas): cada ficheiro
+     * fica numa só faixa e as operações em conflito também, pela ordem das versões. Na
+     * prática as perguntas de fragmentos diferentes vão em faixas separadas; um fragmento só
+     * se junta a outro, ou à partilhada, se a janela tiver por exemplo o estudante e uma
+     * resposta sua. As faixas correm em paralelo, até paralelismo de cada vez.
+     *
+     * Nenhum ficheiro faz commit antes de todas as faixas terminarem sem erro; se uma falhar
+     * são todas desfeitas. Depois fazem commit os fragmentos e por fim a partilhada, com a
+     * versão: quem lê a versão V vê tudo até V. Só uma falha no próprio commit pode deixar
+     * fragmentos à frente da versão. Os monitores dos fragmentos usados ficam com a thread
+     * que chama até ao fim (as faixas correm sob eles).
+     */
+    @Override
+    public void aplicarOperacoes(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        if (ops.isEmpty()) {
+            partilhado.aplicarOperacoes(ops, versaoFinal);
+            return;
+        }
+        List<List<Integer>> faixas = ConflitosReplicacao.faixas(ops, i -> ficheiroDe(ops.get(i)));
+        int[] usados = ops.stream().mapToInt(this::ficheiroDe).filter(f -> f < fragmentos.length)
+                .distinct().sorted().toArray();
+        comMonitores(usados, 0, () -> {
+            aplicarFaixas(ops, faixas, versaoFinal);
+            return null;
+        });
+    }
+
+    /**
+     * Índice do ficheiro onde a operação é escrita: o fragmento, ou fragmentos.length para a
+     * partilhada.
+     */
+    private int ficheiroDe(OperacaoReplicada op) {
+        int perguntaId = OperacaoReplicada.perguntaDe(op);
+        return perguntaId < 0 ? fragmentos.length : fragmentoDePergunta(perguntaId);
+    }
+
+    private ArmazenamentoSQLite armazenamento(int ficheiro) {
+        return ficheiro < fragmentos.length ? fragmentos[ficheiro] : partilhado;
+    }
+
+    private <T> T comMonitores(int[] usados, int i, GestorLocks.Acao<T> acao) throws SQLException {
+        if (i >= usados.length) return acao.executar();
+        synchronized (fragmentos[usados[i]]) {
+            return comMonitores(usados, i + 1, acao);
+        }
+    }
+
+    /**
+     * A primeira faixa corre na thread que chama, as outras nos aplicadores. Espera sempre
+     * por todas antes de confirmar ou desfazer.
+     */
+    private void aplicarFaixas(List<OperacaoReplicada> ops, List<List<Integer>> faixas, int versaoFinal)
+            throws SQLException {
+        boolean paralelo = paralelismo > 1 && faixas.size() > 1;
+        List<Future<Void>> futuros = new ArrayList<>();
+        if (paralelo) {
+            for (List<Integer> faixa : faixas.subList(1, faixas.size())) {
+                futuros.add(aplicadores().submit(() -> {
+                    aplicarFaixa(ops, faixa);
+                    return null;
+                }));
+            }
+        }
+        Throwable erro = null;
+        try {
+            for (List<Integer> faixa : paralelo ? faixas.subList(0, 1) : faixas) {
+                aplicarFaixa(ops, faixa);
+            }
+        } catch (SQLException | RuntimeException e) {
+            erro = e;
+        }
+        boolean interrompida = false;
+        for (Future<Void> f : futuros) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (erro == null) erro = e.getCause();
+                    break;
+                } catch (InterruptedException e) {
+                    interrompida = true;
+                }
+            }
+        }
+        if (interrompida) Thread.currentThread().interrupt();
+
+        if (erro == null) {
+            try {
+                partilhado.aplicarSemConfirmar(List.of(), versaoFinal);
+                for (ArmazenamentoSQLite f : fragmentos) {
+                    f.confirmarOperacoes();
+                }
+                partilhado.confirmarOperacoes();
+                return;
+            } catch (SQLException e) {
+                erro = e;
+            }
+        }
+        for (ArmazenamentoSQLite f : fragmentos) {
+            f.desfazerOperacoes();
+        }
+        partilhado.desfazerOperacoes();
+        if (erro instanceof SQLException e) throw e;
+        if (erro instanceof RuntimeException e) throw e;
+        throw new SQLException(erro);
+    }
+
+    /**
+     * As operações seguidas do mesmo ficheiro vão numa só chamada, sem commit.
+     */
+    private void aplicarFaixa(List<OperacaoReplicada> ops, List<Integer> faixa) throws SQLException {
+        List<OperacaoReplicada> seguidas = new ArrayList<>();
+        int ficheiro = -1;
+        for (int i : faixa) {
+            int f = ficheiroDe(ops.get(i));
+            if (f != ficheiro && !seguidas.isEmpty()) {
+                armazenamento(ficheiro).aplicarSemConfirmar(seguidas, -1);
+                seguidas.clear();
+            }
+            ficheiro = f;
+            seguidas.add(ops.get(i));
+        }
+        armazenamento(ficheiro).aplicarSemConfirmar(seguidas, -1);
+    }
+
+    private synchronized ExecutorService aplicadores() {
+        if (aplicadores == null) {
+            AtomicInteger n = new AtomicInteger();
+            aplicadores = Executors.newFixedThreadPool(paralelismo - 1, r -> {
+                Thread t = new Thread(r, "Replicacao-Faixa-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return aplicadores;
+    }
+
+    @Override
+    public void executarQuery(String sql) throws SQLException {
+        int i = fragmentoDeSQL(sql);
+        if (i < 0) {
+            partilhado.executarQuery(sql);
+            return;
+        }
+        synchronized (fragmentos[i]) {
+            fragmentos[i].executarQuery(sql);
+        }
+    }
+
+    /**
+     * Agrupa o lote por fragmento; cada grupo corre numa transação. Os lotes enviados pelo
+     * principal tocam sempre num só fragmento (pergunta + opções) ou só na partilhada.
+     */
+    @Override
+    public void executarLote(List<String> sqls) throws SQLException {
+        Map<Integer, List<String>> grupos = new LinkedHashMap<>();
+        for (String sql : sqls) {
+            grupos.computeIfAbsent(fragmentoDeSQL(sql), k -> new ArrayList<>()).add(sql);
+        }
+        for (Map.Entry<Integer, List<String>> g : grupos.entrySet()) {
+            if (g.getKey() < 0) {
+                partilhado.executarLote(g.getValue());
+            } else {
+                synchronized (fragmentos[g.getKey()]) {
+                    fragmentos[g.getKey()].executarLote(g.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Ligações de todos os ficheiros (partilhada primeiro), para checkpoints e snapshots.
+     */
+    public List<Connection> getLigacoes() {
+        List<Connection> l = new ArrayList<>();
+        l.add(partilhado.getConnection());
+        for (ArmazenamentoSQLite f : fragmentos) {
+            l.add(f.getConnection());
+        }
+        return l;
+    }
+}
@@ -0,0 +1,896 @@
+package servidor.db.armazenamento;
+
+import servidor.db.CacheCredenciais;
+import servidor.db.DatabaseManager;
+import servidor.db.DicionarioEstudantes;
+import servidor.db.ImportacaoEstudantes;
+import servidor.db.OperacaoReplicada;
+import servidor.db.PerguntaDetalhes;
+import servidor.db.ResultadosCompactos;
+import servidor.db.dao.PerguntaDAO;
+import servidor.db.util.Datas;
+import servidor.db.util.MapaInt;
+import servidor.db.util.SecurityUtil;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Motor em memória, sem I/O de disco. Serve para testes de carga ao protocolo e
+ * à replicação e para sessões de treino efémeras; num backup aplica as operações
+ * replicadas (o SQL dos principais antigos não).
+ * Leituras concorrentes; escritas exclusivas (ReentrantReadWriteLock).
+ * As datas são comparadas em epoch (ms, UTC), convertidas com Datas.paraEpochMs tal como
+ * os triggers do SQLite preenchem inicio_ms e fim_ms.
+ */
+public class ArmazenamentoMemoria implements Armazenamento {
+
+    private static class Utilizador {
+        int id;
+        int numero;
+        String nome;
+        String email;
+        String passwordHash;
+    }
+
+    private static class Pergunta {
+        int id;
+        String enunciado;
+        String dataInicio;
+        String dataFim;
+        long inicioMs;
+        long fimMs;
+        String codigoAcesso;
+        int docenteId;
+        String dataCriacao;
+        final List<Opcao> opcoes = new ArrayList<>();
+        final List<Resposta> respostas = new ArrayList<>();
+    }
+
+    private static class Opcao {
+        int id;
+        String letra;
+        String texto;
+        boolean correta;
+    }
+
+    private static class Resposta {
+        int estudanteId;
+        int perguntaId;
+        String letra;
+        String dataHora;
+        long dataHoraMs;
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final MapaInt<Utilizador> docentes = new MapaInt<>();
+    private final Map<String, Utilizador> docentesPorEmail = new HashMap<>();
+    private final MapaInt<Utilizador> estudantes = new MapaInt<>();
+    private final Map<String, Utilizador> estudantesPorEmail = new HashMap<>();
+    private final MapaInt<Utilizador> estudantesPorNumero = new MapaInt<>();
+    private final MapaInt<Pergunta> perguntas = new MapaInt<>();
+    private final Map<String, Pergunta> perguntasPorCodigo = new HashMap<>();
+    private final MapaInt<List<Resposta>> respostasPorEstudante = new MapaInt<>();
+
+    private int versao = 0;
+    private String codigoRegistoHash;
+    private int proximoDocenteId = 1;
+    private int proximoEstudanteId = 1;
+    private int proximaPerguntaId = 1;
+    private int proximaOpcaoId = 1;
+
+    private static String agora() {
+        return Datas.agoraUTC();
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void createTables() {
+        lock.writeLock().lock();
+        try {
+            if (codigoRegistoHash == null) {
+                codigoRegistoHash = SecurityUtil.hashPassword("DOCENTE2025");
+                System.out.println("[Memoria] Configuração inicial criada (código: DOCENTE2025)");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int getVersao() {
+        lock.readLock().lock();
+        try {
+            return versao;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int incrementarVersao() {
+        lock.writeLock().lock();
+        try {
+            return ++versao;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void definirVersao(int versao) {
+        lock.writeLock().lock();
+        try {
+            this.versao = Math.max(this.versao, versao);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public CacheCredenciais.Credencial obterCredencialDocente(String email) {
+        lock.readLock().lock();
+        try {
+            return credencial(docentesPorEmail.get(email));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CacheCredenciais.Credencial obterCredencialEstudante(String email) {
+        lock.readLock().lock();
+        try {
+            return credencial(estudantesPorEmail.get(email));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static CacheCredenciais.Credencial credencial(Utilizador u) {
+        if (u == null) return null;
+        byte[] hash = SecurityUtil.deHex(u.passwordHash);
+        return hash != null ? new CacheCredenciais.Credencial(u.id, hash) : null;
+    }
+
+    @Override
+    public int getDocenteId(String email) {
+        lock.readLock().lock();
+        try {
+            Utilizador d = docentesPorEmail.get(email);
+            return d != null ? d.id : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean validarCodigoDocente(String codigoClaro) {
+        lock.readLock().lock();
+        try {
+            return codigoRegistoHash != null && codigoRegistoHash.equals(SecurityUtil.hashPassword(codigoClaro));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int criarDocente(String nome, String email, String passwordClaro) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (docentesPorEmail.containsKey(email)) {
+                throw new SQLException("UNIQUE constraint failed: Docente.email");
+            }
+            Utilizador d = new Utilizador();
+            d.id = proximoDocenteId++;
+            d.nome = nome;
+            d.email = email;
+            d.passwordHash = SecurityUtil.hashPassword(passwordClaro);
+            docentes.guardar(d.id, d);
+            docentesPorEmail.put(email, d);
+            return d.id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void atualizarDocentePerfil(int docenteId, String novoNome, String novoEmail, String novaPasswordClaro) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Utilizador d = docentes.obter(docenteId);
+            if (d == null) return;
+            Utilizador outro = docentesPorEmail.get(novoEmail);
+            if (outro != null && outro != d) {
+                throw new SQLException("UNIQUE constraint failed: Docente.email");
+            }
+            docentesPorEmail.remove(d.email);
+            d.nome = novoNome;
+            d.email = novoEmail;
+            d.passwordHash = SecurityUtil.hashPassword(novaPasswordClaro);
+            docentesPorEmail.put(novoEmail, d);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int criarEstudante(int numero, String nome, String email, String passwordClaro) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (estudantesPorEmail.containsKey(email)) {
+                throw new SQLException("UNIQUE constraint failed: Estudante.email");
+            }
+            if (estudantesPorNumero.contem(numero)) {
+                throw new SQLException("UNIQUE constraint failed: Estudante.numero");
+            }
+            Utilizador e = new Utilizador();
+            e.id = proximoEstudanteId++;
+            e.numero = numero;
+            e.nome = nome;
+            e.email = email;
+            e.passwordHash = SecurityUtil.hashPassword(passwordClaro);
+            estudantes.guardar(e.id, e);
+            estudantesPorEmail.put(email, e);
+            estudantesPorNumero.guardar(numero, e);
+            return e.id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void atualizarEstudantePerfil(int estudanteId, String novoNome, String novoEmail, String novaPass) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Utilizador e = estudantes.obter(estudanteId);
+            if (e == null) return;
+            Utilizador outro = estudantesPorEmail.get(novoEmail);
+            if (outro != null && outro != e) {
+                throw new SQLException("UNIQUE constraint failed: Estudante.email");
+            }
+            estudantesPorEmail.remove(e.email);
+            e.nome = novoNome;
+            e.email = novoEmail;
+            e.passwordHash = SecurityUtil.hashPassword(novaPass);
+            estudantesPorEmail.put(novoEmail, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void importarEstudantes(ImportacaoEstudantes importacao) {
+        lock.writeLock().lock();
+        try {
+            for (ImportacaoEstudantes.Linha l : importacao.validas) {
+                if (estudantesPorEmail.containsKey(l.email) || estudantesPorNumero.contem(l.numero)) {
+                    importacao.rejeitar(l, "EMAIL_OU_NUMERO_DUP");
+                    continue;
+                }
+                Utilizador e = new Utilizador();
+                e.id = proximoEstudanteId++;
+                e.numero = l.numero;
+                e.nome = l.nome;
+                e.email = l.email;
+                e.passwordHash = l.passwordHash;
+                estudantes.guardar(e.id, e);
+                estudantesPorEmail.put(e.email, e);
+                estudantesPorNumero.guardar(e.numero, e);
+                l.id = e.id;
+                importacao.inseridas.add(l);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DatabaseManager.PerguntaResult criarPerguntaCompleta(int docenteId, String enunciado, String dataInicio, String dataFim) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            String codigo = SecurityUtil.gerarCodigoAcesso();
+            while (perguntasPorCodigo.containsKey(codigo)) {
+                codigo = SecurityUtil.gerarCodigoAcesso();
+            }
+            Pergunta p = new Pergunta();
+            p.id = proximaPerguntaId++;
+            p.enunciado = enunciado;
+            p.dataInicio = dataInicio;
+            p.dataFim = dataFim;
+            p.inicioMs = Datas.paraEpochMs(dataInicio);
+            p.fimMs = Datas.paraEpochMs(dataFim);
+            p.codigoAcesso = codigo;
+            p.docenteId = docenteId;
+            p.dataCriacao = agora();
+            perguntas.guardar(p.id, p);
+            perguntasPorCodigo.put(codigo, p);
+            return new DatabaseManager.PerguntaResult(p.id, codigo);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DatabaseManager.PerguntaResult criarPerguntaComOpcoes(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                                                 List<PerguntaDetalhes.OpcaoDetalhes> opcoes) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Set<String> letras = new HashSet<>();
+            for (PerguntaDetalhes.OpcaoDetalhes op : opcoes) {
+                if (!letras.add(op.letra)) {
+                    throw new SQLException("UNIQUE constraint failed: Opcao.pergunta_id, Opcao.letra");
+                }
+            }
+            DatabaseManager.PerguntaResult r = criarPerguntaCompleta(docenteId, enunciado, dataInicio, dataFim);
+            Pergunta p = perguntas.obter(r.id);
+            for (PerguntaDetalhes.OpcaoDetalhes op : opcoes) {
+                Opcao o = new Opcao();
+                o.id = proximaOpcaoId++;
+                o.letra = op.letra;
+                o.texto = op.texto;
+                o.correta = op.isCorreta;
+                p.opcoes.add(o);
+            }
+            return r;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean perguntaPertenceADocente(int perguntaId, int docenteId) {
+        lock.readLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            return p != null && p.docenteId == docenteId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean perguntaTemRespostas(int perguntaId) {
+        lock.readLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            return p != null && !p.respostas.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void editarPergunta(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            if (p == null) return;
+            if (!p.respostas.isEmpty()) {
+                throw new SQLException("Não é possível editar: pergunta já tem respostas");
+            }
+            p.enunciado = novoEnunciado;
+            p.dataInicio = novaDataInicio;
+            p.dataFim = novaDataFim;
+            p.inicioMs = Datas.paraEpochMs(novaDataInicio);
+            p.fimMs = Datas.paraEpochMs(novaDataFim);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void eliminarPergunta(int perguntaId) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            if (p == null) return;
+            if (!p.respostas.isEmpty()) {
+                throw new SQLException("Não é possível eliminar: pergunta já tem respostas");
+            }
+            perguntas.remover(perguntaId);
+            perguntasPorCodigo.remove(p.codigoAcesso);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<PerguntaDetalhes> listarPerguntas(int docenteId, String filtroEstado) {
+        lock.readLock().lock();
+        try {
+            long agora = System.currentTimeMillis();
+            String filtro = filtroEstado != null ? filtroEstado.toUpperCase() : null;
+            List<PerguntaDetalhes> lista = new ArrayList<>();
+            for (Pergunta p : perguntas.valores()) {
+                if (p.docenteId != docenteId) continue;
+                String estado = calcularEstado(p, agora);
+                if (filtro != null) {
+                    boolean passa = switch (filtro) {
+                        case "ATIVA" -> "ATIVA".equals(estado);
+                        case "FUTURA" -> agora < p.inicioMs;
+                        case "EXPIRADA" -> agora > p.fimMs;
+                        default -> true;
+                    };
+                    if (!passa) continue;
+                }
+                PerguntaDetalhes pd = cabecalho(p);
+                pd.estado = estado;
+                pd.numRespostas = p.respostas.size();
+                lista.add(pd);
+            }
+            lista.sort((a, b) -> Long.compare(b.inicioMs, a.inicioMs));
+            return lista;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sem índice: percorre as perguntas do docente. A relevância é o número de termos que
+     * aparecem no enunciado (que conta a dobrar) e nas opções.
+     */
+    @Override
+    public List<PerguntaDetalhes> pesquisarPerguntas(int docenteId, String termos, int offset, int limite) {
+        String consulta = PerguntaDAO.consultaFTS(termos);
+        if (consulta == null) return new ArrayList<>();
+        List<String> prefixos = new ArrayList<>();
+        for (String t : consulta.split(" ")) {
+            prefixos.add(normalizar(t.substring(1, t.length() - 2)));
+        }
+
+        lock.readLock().lock();
+        try {
+            long agora = System.currentTimeMillis();
+            List<PerguntaDetalhes> encontradas = new ArrayList<>();
+            Map<Integer, Integer> relevancia = new HashMap<>();
+            for (Pergunta p : perguntas.valores()) {
+                if (p.docenteId != docenteId) continue;
+                List<String> palavrasEnunciado = palavras(p.enunciado);
+                List<String> palavrasOpcoes = new ArrayList<>();
+                for (Opcao o : p.opcoes) palavrasOpcoes.addAll(palavras(o.texto));
+
+                int pontos = 0;
+                boolean todos = true;
+                for (String pref : prefixos) {
+                    int emEnunciado = contarPrefixo(palavrasEnunciado, pref);
+                    int emOpcoes = contarPrefixo(palavrasOpcoes, pref);
+                    if (emEnunciado + emOpcoes == 0) { todos = false; break; }
+                    pontos += 2 * emEnunciado + emOpcoes;
+                }
+                if (!todos) continue;
+
+                PerguntaDetalhes pd = cabecalho(p);
+                pd.estado = calcularEstado(p, agora);
+                relevancia.put(p.id, pontos);
+                encontradas.add(pd);
+            }
+            encontradas.sort((a, b) -> {
+                int c = Integer.compare(relevancia.get(b.id), relevancia.get(a.id));
+                return c != 0 ? c : Long.compare(b.inicioMs, a.inicioMs);
+            });
+            int fim = Math.min(encontradas.size(), offset + limite);
+            return offset >= fim ? new ArrayList<>() : new ArrayList<>(encontradas.subList(offset, fim));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String normalizar(String s) {
+        return java.text.Normalizer.normalize(s, java.text.Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> palavras(String texto) {
+        List<String> lista = new ArrayList<>();
+        for (String t : normalizar(texto).split("[^\\p{L}\\p{N}]+")) {
+            if (!t.isEmpty()) lista.add(t);
+        }
+        return lista;
+    }
+
+    private static int contarPrefixo(List<String> palavras, String prefixo) {
+        int n = 0;
+        for (String w : palavras) if (w.startsWith(prefixo)) n++;
+        return n;
+    }
+
+    @Override
+    public PerguntaDetalhes obterPerguntaAtivaPorCodigo(String codigo) {
+        lock.readLock().lock();
+        try {
+            Pergunta p = perguntasPorCodigo.get(codigo);
+            if (p == null) return null;
+            PerguntaDetalhes pd = cabecalho(p);
+            for (Opcao o : opcoesOrdenadas(p)) {
+                pd.opcoes.add(new PerguntaDetalhes.OpcaoDetalhes(o.id, o.letra, o.texto, o.correta));
+            }
+            pd.estado = calcularEstado(p, System.currentTimeMillis());
+            return pd;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public PerguntaDetalhes obterDetalhesPerguntaExpirada(int perguntaId, int docenteId, DicionarioEstudantes dic) throws SQLException {
+        lock.readLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            if (p == null || p.docenteId != docenteId) {
+                throw new SQLException("Pergunta não pertence ao docente");
+            }
+            if (System.currentTimeMillis() <= p.fimMs) {
+                throw new SQLException("Pergunta ainda não expirou");
+            }
+
+            PerguntaDetalhes pd = cabecalho(p);
+            pd.estado = "EXPIRADA";
+
+            Map<String, Boolean> corretaPorLetra = new HashMap<>();
+            for (Opcao o : opcoesOrdenadas(p)) {
+                corretaPorLetra.put(o.letra, o.correta);
+            }
+
+            pd.respostas = new ResultadosCompactos(p.respostas.size());
+            for (Resposta r : p.respostas) {
+                Utilizador e = estudantes.obter(r.estudanteId);
+                if (e == null) continue;
+                dic.registar(e.id, e.nome, e.email);
+                pd.respostas.adicionar(e.id, e.numero, r.letra.charAt(0),
+                        corretaPorLetra.getOrDefault(r.letra, false), r.dataHoraMs);
+            }
+            pd.respostas.ordenarPorNumero();
+
+            for (Opcao o : opcoesOrdenadas(p)) {
+                PerguntaDetalhes.OpcaoDetalhes od = new PerguntaDetalhes.OpcaoDetalhes(o.id, o.letra, o.texto, o.correta);
+                od.numRespostas = pd.respostas.contarLetra(o.letra.charAt(0));
+                pd.opcoes.add(od);
+            }
+            pd.numRespostas = pd.respostas.tamanho();
+            return pd;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void adicionarOpcao(int perguntaId, String letra, String texto, boolean correta) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            if (p == null) {
+                throw new SQLException("FOREIGN KEY constraint failed");
+            }
+            for (Opcao o : p.opcoes) {
+                if (o.letra.equals(letra)) {
+                    throw new SQLException("UNIQUE constraint failed: Opcao.pergunta_id, Opcao.letra");
+                }
+            }
+            Opcao o = new Opcao();
+            o.id = proximaOpcaoId++;
+            o.letra = letra;
+            o.texto = texto;
+            o.correta = correta;
+            p.opcoes.add(o);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void editarOpcao(int opcaoId, int perguntaId, String novoTexto, boolean novaCorreta) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            if (p == null) return;
+            if (!p.respostas.isEmpty()) {
+                throw new SQLException("Não é possível editar opção: pergunta já tem respostas");
+            }
+            for (Opcao o : p.opcoes) {
+                if (o.id == opcaoId) {
+                    o.texto = novoTexto;
+                    o.correta = novaCorreta;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void guardarResposta(int estudanteId, int perguntaId, String letra) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Pergunta p = perguntas.obter(perguntaId);
+            if (p == null || !estudantes.contem(estudanteId)) {
+                throw new SQLException("FOREIGN KEY constraint failed");
+            }
+            List<Resposta> doEstudante = respostasPorEstudante.obter(estudanteId);
+            if (doEstudante == null) {
+                doEstudante = new ArrayList<>();
+                respostasPorEstudante.guardar(estudanteId, doEstudante);
+            }
+            for (Resposta r : doEstudante) {
+                if (r.perguntaId == perguntaId) {
+                    throw new SQLException("UNIQUE constraint failed: Resposta.estudante_id, Resposta.pergunta_id");
+                }
+            }
+            Resposta r = new Resposta();
+            r.estudanteId = estudanteId;
+            r.perguntaId = perguntaId;
+            r.letra = letra;
+            r.dataHoraMs = System.currentTimeMillis();
+            r.dataHora = agora();
+            p.respostas.add(r);
+            doEstudante.add(r);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudante(int estudanteId) {
+        lock.readLock().lock();
+        try {
+            List<DatabaseManager.RespostaEstudanteInfo> lista = new ArrayList<>();
+            List<Resposta> doEstudante = respostasPorEstudante.obter(estudanteId);
+            if (doEstudante == null) return lista;
+
+            for (Resposta r : doEstudante) {
+                Pergunta p = perguntas.obter(r.perguntaId);
+                if (p == null) continue;
+
+                DatabaseManager.RespostaEstudanteInfo info = new DatabaseManager.RespostaEstudanteInfo();
+                info.perguntaId = p.id;
+                info.enunciado = p.enunciado;
+                info.dataFim = p.dataFim;
+                info.fimMs = p.fimMs;
+                info.dataResposta = r.dataHora;
+                info.letra = r.letra;
+                for (Opcao o : p.opcoes) {
+                    if (o.letra.equals(r.letra)) info.correta = o.correta;
+                }
+                lista.add(info);
+            }
+            lista.sort((a, b) -> {
+                int c = Long.compare(a.fimMs, b.fimMs);
+                return c != 0 ? c : a.dataResposta.compareTo(b.dataResposta);
+            });
+            return lista;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int arquivarPerguntas(String limite) {
+        return 0;
+    }
+
+    @Override
+    public void percorrerRespostas(ConsumidorResposta consumidor) {
+        lock.readLock().lock();
+        try {
+            for (Pergunta p : perguntas.valores()) {
+                for (Resposta r : p.respostas) {
+                    consumidor.aceitar(p.id, r.estudanteId);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Como o AplicadorOperacoes: as linhas ficam com os ids do principal e os contadores
+     * passam à frente deles (como o AUTOINCREMENT), para um backup promovido continuar a
+     * numeração. Tudo ou nada: se uma operação falhar, as anteriores são desfeitas.
+     */
+    @Override
+    public void aplicarOperacoes(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        lock.writeLock().lock();
+        int[] contadores = { proximoDocenteId, proximoEstudanteId, proximaPerguntaId, proximaOpcaoId };
+        List<Runnable> desfazer = new ArrayList<>();
+        try {
+            for (OperacaoReplicada op : ops) {
+                aplicar(op, desfazer);
+            }
+            if (versaoFinal > 0) versao = versaoFinal;
+        } catch (SQLException | RuntimeException e) {
+            for (int i = desfazer.size() - 1; i >= 0; i--) {
+                desfazer.get(i).run();
+            }
+            proximoDocenteId = contadores[0];
+            proximoEstudanteId = contadores[1];
+            proximaPerguntaId = contadores[2];
+            proximaOpcaoId = contadores[3];
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void aplicar(OperacaoReplicada op, List<Runnable> desfazer) throws SQLException {
+        if (op instanceof OperacaoReplicada.CriarPergunta o) {
+            if (perguntas.contem(o.id())) throw new SQLException("UNIQUE constraint failed: Pergunta.id");
+            if (perguntasPorCodigo.containsKey(o.codigoAcesso())) {
+                throw new SQLException("UNIQUE constraint failed: Pergunta.codigo_acesso");
+            }
+            if (!docentes.contem(o.docenteId())) throw new SQLException("FOREIGN KEY constraint failed");
+            Pergunta p = new Pergunta();
+            p.id = o.id();
+            p.enunciado = o.enunciado();
+            p.dataInicio = o.dataInicio();
+            p.dataFim = o.dataFim();
+            p.inicioMs = Datas.paraEpochMs(o.dataInicio());
+            p.fimMs = Datas.paraEpochMs(o.dataFim());
+            p.codigoAcesso = o.codigoAcesso();
+            p.docenteId = o.docenteId();
+            p.dataCriacao = agora();
+            perguntas.guardar(p.id, p);
+            perguntasPorCodigo.put(p.codigoAcesso, p);
+            proximaPerguntaId = Math.max(proximaPerguntaId, p.id + 1);
+            desfazer.add(() -> {
+                perguntas.remover(p.id);
+                perguntasPorCodigo.remove(p.codigoAcesso);
+            });
+            for (OperacaoReplicada.Opcao x : o.opcoes()) {
+                adicionarOpcao(p.id, x.letra(), x.texto(), x.correta());
+            }
+        } else if (op instanceof OperacaoReplicada.AdicionarOpcao o) {
+            adicionarOpcao(o.perguntaId(), o.letra(), o.texto(), o.correta());
+            List<Opcao> opcoes = perguntas.obter(o.perguntaId()).opcoes;
+            desfazer.add(() -> opcoes.remove(opcoes.size() - 1));
+        } else if (op instanceof OperacaoReplicada.EditarPergunta o) {
+            Pergunta p = perguntas.obter(o.perguntaId());
+            if (p == null) return;
+            String enunciado = p.enunciado, inicio = p.dataInicio, fim = p.dataFim;
+            long inicioMs = p.inicioMs, fimMs = p.fimMs;
+            p.enunciado = o.enunciado();
+            p.dataInicio = o.dataInicio();
+            p.dataFim = o.dataFim();
+            p.inicioMs = Datas.paraEpochMs(o.dataInicio());
+            p.fimMs = Datas.paraEpochMs(o.dataFim());
+            desfazer.add(() -> {
+                p.enunciado = enunciado;
+                p.dataInicio = inicio;
+                p.dataFim = fim;
+                p.inicioMs = inicioMs;
+                p.fimMs = fimMs;
+            });
+        } else if (op instanceof OperacaoReplicada.EliminarPergunta o) {
+            Pergunta p = perguntas.remover(o.perguntaId());
+            if (p == null) return;
+            perguntasPorCodigo.remove(p.codigoAcesso);
+            desfazer.add(() -> {
+                perguntas.guardar(p.id, p);
+                perguntasPorCodigo.put(p.codigoAcesso, p);
+            });
+        } else if (op instanceof OperacaoReplicada.GuardarResposta o) {
+            guardarResposta(o.estudanteId(), o.perguntaId(), o.letra());
+            List<Resposta> daPergunta = perguntas.obter(o.perguntaId()).respostas;
+            List<Resposta> doEstudante = respostasPorEstudante.obter(o.estudanteId());
+            desfazer.add(() -> {
+                daPergunta.remove(daPergunta.size() - 1);
+                doEstudante.remove(doEstudante.size() - 1);
+            });
+        } else if (op instanceof OperacaoReplicada.CriarDocente o) {
+            if (docentes.contem(o.id())) throw new SQLException("UNIQUE constraint failed: Docente.id");
+            if (docentesPorEmail.containsKey(o.email())) throw new SQLException("UNIQUE constraint failed: Docente.email");
+            Utilizador d = new Utilizador();
+            d.id = o.id();
+            d.nome = o.nome();
+            d.email = o.email();
+            d.passwordHash = o.passwordHash();
+            docentes.guardar(d.id, d);
+            docentesPorEmail.put(d.email, d);
+            proximoDocenteId = Math.max(proximoDocenteId, d.id + 1);
+            desfazer.add(() -> {
+                docentes.remover(d.id);
+                docentesPorEmail.remove(d.email);
+            });
+        } else if (op instanceof OperacaoReplicada.AtualizarDocente o) {
+            Utilizador d = docentes.obter(o.id());
+            if (d == null) return;
+            atualizarPerfil(d, docentesPorEmail, "Docente", o.nome(), o.email(), o.passwordHash(), desfazer);
+        } else if (op instanceof OperacaoReplicada.CriarEstudante o) {
+            inserirEstudante(o.id(), o.numero(), o.nome(), o.email(), o.passwordHash(), desfazer);
+        } else if (op instanceof OperacaoReplicada.AtualizarEstudante o) {
+            Utilizador e = estudantes.obter(o.id());
+            if (e == null) return;
+            atualizarPerfil(e, estudantesPorEmail, "Estudante", o.nome(), o.email(), o.passwordHash(), desfazer);
+        } else if (op instanceof OperacaoReplicada.ImportarEstudantes o) {
+            for (OperacaoReplicada.Estudante e : o.estudantes()) {
+                inserirEstudante(e.id(), e.numero(), e.nome(), e.email(), e.passwordHash(), desfazer);
+            }
+        }
+    }
+
+    private void inserirEstudante(int id, int numero, String nome, String email, String passwordHash,
+                                  List<Runnable> desfazer) throws SQLException {
+        if (estudantes.contem(id)) throw new SQLException("UNIQUE constraint failed: Estudante.id");
+        if (estudantesPorEmail.containsKey(email)) throw new SQLException("UNIQUE constraint failed: Estudante.email");
+        if (estudantesPorNumero.contem(numero)) throw new SQLException("UNIQUE constraint failed: Estudante.numero");
+        Utilizador e = new Utilizador();
+        e.id = id;
+        e.numero = numero;
+        e.nome = nome;
+        e.email = email;
+        e.passwordHash = passwordHash;
+        estudantes.guardar(e.id, e);
+        estudantesPorEmail.put(e.email, e);
+        estudantesPorNumero.guardar(e.numero, e);
+        proximoEstudanteId = Math.max(proximoEstudanteId, e.id + 1);
+        desfazer.add(() -> {
+            estudantes.remover(e.id);
+            estudantesPorEmail.remove(e.email);
+            estudantesPorNumero.remover(e.numero);
+        });
+    }
+
+    /**
+     * Perfil replicado: a password já vem em hash.
+     */
+    private static void atualizarPerfil(Utilizador u, Map<String, Utilizador> porEmail, String tabela, String nome,
+                                        String email, String passwordHash, List<Runnable> desfazer) throws SQLException {
+        Utilizador outro = porEmail.get(email);
+        if (outro != null && outro != u) throw new SQLException("UNIQUE constraint failed: " + tabela + ".email");
+        String nomeAnterior = u.nome, emailAnterior = u.email, hashAnterior = u.passwordHash;
+        porEmail.remove(u.email);
+        u.nome = nome;
+        u.email = email;
+        u.passwordHash = passwordHash;
+        porEmail.put(email, u);
+        desfazer.add(() -> {
+            porEmail.remove(u.email);
+            u.nome = nomeAnterior;
+            u.email = emailAnterior;
+            u.passwordHash = hashAnterior;
+            porEmail.put(emailAnterior, u);
+        });
+    }
+
+    @Override
+    public void executarQuery(String sql) throws SQLException {
+        throw new SQLException("Armazenamento em memória não aplica SQL replicado");
+    }
+
+    @Override
+    public void executarLote(List<String> sqls) throws SQLException {
+        throw new SQLException("Armazenamento em memória não aplica SQL replicado");
+    }
+
+    private static PerguntaDetalhes cabecalho(Pergunta p) {
+        PerguntaDetalhes pd = new PerguntaDetalhes();
+        pd.id = p.id;
+        pd.enunciado = p.enunciado;
+        pd.dataInicio = p.dataInicio;
+        pd.dataFim = p.dataFim;
+        pd.inicioMs = p.inicioMs;
+        pd.fimMs = p.fimMs;
+        pd.codigoAcesso = p.codigoAcesso;
+        pd.docenteId = p.docenteId;
+        pd.dataCriacao = p.dataCriacao;
+        return pd;
+    }
+
+    private static List<Opcao> opcoesOrdenadas(Pergunta p) {
+        List<Opcao> ops = new ArrayList<>(p.opcoes);
+        ops.sort(Comparator.comparing(o -> o.letra));
+        return ops;
+    }
+
+    private static String calcularEstado(Pergunta p, long agora) {
+        return PerguntaDAO.calcularEstado(p.inicioMs, p.fimMs, p.opcoes.size(), agora);
+    }
+}
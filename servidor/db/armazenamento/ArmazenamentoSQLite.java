@@ -0,0 +1,324 @@
+package servidor.db.armazenamento;
+
+import servidor.db.CacheCredenciais;
+import servidor.db.DatabaseConnection;
+import servidor.db.DatabaseManager;
+import servidor.db.DicionarioEstudantes;
+import servidor.db.ImportacaoEstudantes;
+import servidor.db.OperacaoReplicada;
+import servidor.db.PerguntaDetalhes;
+import servidor.db.dao.*;
+import servidor.db.util.SchemaManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Motor SQLite (sistema.db) sobre os DAOs JDBC.
+ * A ligação é partilhada e mantida aberta entre chamadas.
+ */
+public class ArmazenamentoSQLite implements Armazenamento {
+    private final DatabaseConnection dbConnection;
+    private AplicadorOperacoes aplicador;
+
+    public ArmazenamentoSQLite(String dbPath) {
+        this(new DatabaseConnection(dbPath));
+    }
+
+    public ArmazenamentoSQLite(DatabaseConnection dbConnection) {
+        this.dbConnection = dbConnection;
+    }
+
+    public Connection getConnection() {
+        return dbConnection.getConnection();
+    }
+
+    public String getDbPath() {
+        return dbConnection.getDbPath();
+    }
+
+    @Override
+    public void connect() {
+        dbConnection.connect();
+    }
+
+    @Override
+    public void createTables() {
+        try {
+            SchemaManager.createTables(getConnection());
+        } catch (Exception e) {
+            System.err.println("[DB] Erro ao criar tabelas: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        dbConnection.close();
+    }
+
+    @Override
+    public int getVersao() throws SQLException {
+        return SchemaManager.getVersao(getConnection());
+    }
+
+    @Override
+    public int incrementarVersao() throws SQLException {
+        Connection conn = getConnection();
+        SchemaManager.incrementarVersao(conn);
+        return SchemaManager.getVersao(conn);
+    }
+
+    @Override
+    public void definirVersao(int versao) throws SQLException {
+        SchemaManager.definirVersao(getConnection(), versao);
+    }
+
+    @Override
+    public CacheCredenciais.Credencial obterCredencialDocente(String email) throws SQLException {
+        return new DocenteDAO(getConnection()).obterCredencial(email);
+    }
+
+    @Override
+    public CacheCredenciais.Credencial obterCredencialEstudante(String email) throws SQLException {
+        return new EstudanteDAO(getConnection()).obterCredencial(email);
+    }
+
+    @Override
+    public int getDocenteId(String email) throws SQLException {
+        return new DocenteDAO(getConnection()).getId(email);
+    }
+
+    @Override
+    public boolean validarCodigoDocente(String codigoClaro) throws SQLException {
+        return new DocenteDAO(getConnection()).validarCodigoRegistro(codigoClaro);
+    }
+
+    @Override
+    public int criarDocente(String nome, String email, String passwordClaro) throws SQLException {
+        return new DocenteDAO(getConnection()).criar(nome, email, passwordClaro);
+    }
+
+    @Override
+    public void atualizarDocentePerfil(int docenteId, String novoNome, String novoEmail, String novaPasswordClaro) throws SQLException {
+        new DocenteDAO(getConnection()).atualizarPerfil(docenteId, novoNome, novoEmail, novaPasswordClaro);
+    }
+
+    @Override
+    public int criarEstudante(int numero, String nome, String email, String passwordClaro) throws SQLException {
+        return new EstudanteDAO(getConnection()).criar(numero, nome, email, passwordClaro);
+    }
+
+    @Override
+    public void atualizarEstudantePerfil(int estudanteId, String novoNome, String novoEmail, String novaPass) throws SQLException {
+        new EstudanteDAO(getConnection()).atualizarPerfil(estudanteId, novoNome, novoEmail, novaPass);
+    }
+
+    @Override
+    public void importarEstudantes(ImportacaoEstudantes importacao) throws SQLException {
+        new EstudanteDAO(getConnection()).importar(importacao);
+    }
+
+    @Override
+    public DatabaseManager.PerguntaResult criarPerguntaCompleta(int docenteId, String enunciado, String dataInicio, String dataFim) throws SQLException {
+        PerguntaDAO.PerguntaResult r = new PerguntaDAO(getConnection()).criarCompleta(docenteId, enunciado, dataInicio, dataFim);
+        return new DatabaseManager.PerguntaResult(r.id, r.codigoAcesso);
+    }
+
+    @Override
+    public DatabaseManager.PerguntaResult criarPerguntaComOpcoes(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                                                 List<PerguntaDetalhes.OpcaoDetalhes> opcoes) throws SQLException {
+        PerguntaDAO.PerguntaResult r = new PerguntaDAO(getConnection()).criarComOpcoes(docenteId, enunciado, dataInicio, dataFim, opcoes);
+        return new DatabaseManager.PerguntaResult(r.id, r.codigoAcesso);
+    }
+
+    @Override
+    public boolean perguntaPertenceADocente(int perguntaId, int docenteId) throws SQLException {
+        return new PerguntaDAO(getConnection()).pertenceADocente(perguntaId, docenteId);
+    }
+
+    @Override
+    public boolean perguntaTemRespostas(int perguntaId) throws SQLException {
+        return new PerguntaDAO(getConnection()).temRespostas(perguntaId);
+    }
+
+    @Override
+    public void editarPergunta(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim) throws SQLException {
+        new PerguntaDAO(getConnection()).editar(perguntaId, novoEnunciado, novaDataInicio, novaDataFim);
+    }
+
+    @Override
+    public void eliminarPergunta(int perguntaId) throws SQLException {
+        new PerguntaDAO(getConnection()).eliminar(perguntaId);
+    }
+
+    @Override
+    public List<PerguntaDetalhes> listarPerguntas(int docenteId, String filtroEstado) throws SQLException {
+        Connection conn = getConnection();
+        List<PerguntaDetalhes> lista = new PerguntaDAO(conn).listar(docenteId, filtroEstado);
+
+        // O arquivo só tem perguntas expiradas.
+        if (filtroEstado == null || "EXPIRADA".equalsIgnoreCase(filtroEstado)) {
+            List<String> arquivos = dbConnection.getEsquemasArquivo();
+            for (String esq : arquivos) {
+                lista.addAll(new PerguntaDAO(conn, esq).listar(docenteId, filtroEstado));
+            }
+            if (!arquivos.isEmpty()) {
+                lista.sort((a, b) -> Long.compare(b.inicioMs, a.inicioMs));
+            }
+        }
+        return lista;
+    }
+
+    @Override
+    public List<PerguntaDetalhes> pesquisarPerguntas(int docenteId, String termos, int offset, int limite) throws SQLException {
+        List<String> esquemas = new ArrayList<>();
+        esquemas.add("main");
+        esquemas.addAll(dbConnection.getEsquemasArquivo());
+        return new PerguntaDAO(getConnection()).pesquisar(docenteId, termos, offset, limite, esquemas);
+    }
+
+    @Override
+    public PerguntaDetalhes obterPerguntaAtivaPorCodigo(String codigo) throws SQLException {
+        return new PerguntaDAO(getConnection()).obterPorCodigo(codigo);
+    }
+
+    @Override
+    public PerguntaDetalhes obterDetalhesPerguntaExpirada(int perguntaId, int docenteId, DicionarioEstudantes dic) throws SQLException {
+        Connection conn = getConnection();
+        return new PerguntaDAO(conn, esquemaDaPergunta(conn, perguntaId)).obterDetalhesExpirada(perguntaId, docenteId, dic);
+    }
+
+    @Override
+    public void adicionarOpcao(int perguntaId, String letra, String texto, boolean correta) throws SQLException {
+        new OpcaoDAO(getConnection()).adicionar(perguntaId, letra, texto, correta);
+    }
+
+    @Override
+    public void editarOpcao(int opcaoId, int perguntaId, String novoTexto, boolean novaCorreta) throws SQLException {
+        new OpcaoDAO(getConnection()).editar(opcaoId, perguntaId, novoTexto, novaCorreta);
+    }
+
+    @Override
+    public void guardarResposta(int estudanteId, int perguntaId, String letra) throws SQLException {
+        new RespostaDAO(getConnection()).guardar(estudanteId, perguntaId, letra);
+    }
+
+    @Override
+    public List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudante(int estudanteId) throws SQLException {
+        List<String> esquemas = new ArrayList<>();
+        esquemas.add("main");
+        esquemas.addAll(dbConnection.getEsquemasArquivo());
+        return new RespostaDAO(getConnection()).listarRespostasEstudante(estudanteId, esquemas);
+    }
+
+    /**
+     * "main" se a pergunta estiver na BD principal, senão o arquivo onde está.
+     */
+    private String esquemaDaPergunta(Connection conn, int perguntaId) throws SQLException {
+        if (new PerguntaDAO(conn).existe(perguntaId)) return "main";
+        for (String esq : dbConnection.getEsquemasArquivo()) {
+            if (new PerguntaDAO(conn, esq).existe(perguntaId)) return esq;
+        }
+        return "main";
+    }
+
+    @Override
+    public int arquivarPerguntas(String limite) throws SQLException {
+        Connection conn = getConnection();
+        ArquivoDAO dao = new ArquivoDAO(conn);
+        List<String> semestres = dao.semestresAArquivar(limite);
+        if (semestres.isEmpty()) return 0;
+
+        // ATTACH não pode correr dentro de uma transação.
+        List<String> esquemas = new ArrayList<>();
+        for (String semestre : semestres) {
+            String esq = dbConnection.anexarArquivo(semestre);
+            SchemaManager.createTablesArquivo(conn, esq);
+            esquemas.add(esq);
+        }
+
+        int movidas = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (int i = 0; i < semestres.size(); i++) {
+                movidas += dao.mover(esquemas.get(i), semestres.get(i), limite);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        System.out.println("[Arquivo] " + movidas + " pergunta(s) arquivada(s) em " + semestres);
+        return movidas;
+    }
+
+    @Override
+    public void percorrerRespostas(ConsumidorResposta consumidor) throws SQLException {
+        new RespostaDAO(getConnection()).percorrerPares(consumidor);
+    }
+
+    @Override
+    public void aplicarOperacoes(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        aplicador().aplicar(ops, versaoFinal);
+    }
+
+    /**
+     * Aplica sem commit: a transação fica aberta até confirmarOperacoes ou desfazerOperacoes
+     * (ver ArmazenamentoFragmentado.aplicarOperacoes).
+     */
+    public void aplicarSemConfirmar(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        aplicador().aplicarSemConfirmar(ops, versaoFinal);
+    }
+
+    public void confirmarOperacoes() throws SQLException {
+        if (aplicador != null) aplicador.confirmar();
+    }
+
+    public void desfazerOperacoes() {
+        if (aplicador != null) aplicador.desfazer();
+    }
+
+    /**
+     * O aplicador (e os seus statements) é refeito se a ligação mudar.
+     */
+    private AplicadorOperacoes aplicador() {
+        Connection conn = getConnection();
+        if (aplicador == null || aplicador.getConnection() != conn) {
+            if (aplicador != null) aplicador.close();
+            aplicador = new AplicadorOperacoes(conn);
+        }
+        return aplicador;
+    }
+
+    @Override
+    public void executarQuery(String sql) throws SQLException {
+        try (Statement stmt = getConnection().createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+
+    @Override
+    public void executarLote(List<String> sqls) throws SQLException {
+        Connection conn = getConnection();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : sqls) {
+                stmt.executeUpdate(sql);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package servidor.db.dao;
+
+import servidor.db.OperacaoReplicada;
+import servidor.db.OperacaoReplicada.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aplica operações replicadas numa ligação, com os mesmos INSERT/UPDATE/DELETE dos DAOs mas
+ * com os ids vindos do principal. Os statements preparados ficam em cache enquanto a ligação
+ * for a mesma; não é thread-safe (usa-se dentro do monitor do motor).
+ */
+public class AplicadorOperacoes {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private boolean emTransacao;
+    private boolean autoCommitAnterior;
+
+    public AplicadorOperacoes(Connection connection) {
+        this.connection = connection;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Aplica as operações numa só transação; com versaoFinal > 0 grava também essa versão.
+     */
+    public void aplicar(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        aplicarSemConfirmar(ops, versaoFinal);
+        confirmar();
+    }
+
+    /**
+     * Como aplicar, mas deixa a transação aberta até confirmar() ou desfazer(), para quem
+     * junta várias ligações num só commit. Chamadas seguidas continuam a mesma transação.
+     * Se falhar, a transação já vem desfeita.
+     */
+    public void aplicarSemConfirmar(List<OperacaoReplicada> ops, int versaoFinal) throws SQLException {
+        if (!emTransacao) {
+            autoCommitAnterior = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            emTransacao = true;
+        }
+        try {
+            for (OperacaoReplicada op : ops) {
+                aplicar(op);
+            }
+            if (versaoFinal > 0) {
+                PreparedStatement ps = preparar("UPDATE Configuracao SET versao = ? WHERE id = 1 AND versao < ?");
+                ps.setInt(1, versaoFinal);
+                ps.setInt(2, versaoFinal);
+                ps.executeUpdate();
+            }
+        } catch (SQLException | RuntimeException e) {
+            desfazer();
+            throw e;
+        }
+    }
+
+    public void confirmar() throws SQLException {
+        if (!emTransacao) return;
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            desfazer();
+            throw e;
+        }
+        terminarTransacao();
+    }
+
+    public void desfazer() {
+        if (!emTransacao) return;
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.err.println("[DB] Erro ao desfazer operações replicadas: " + e.getMessage());
+        }
+        terminarTransacao();
+    }
+
+    private void terminarTransacao() {
+        emTransacao = false;
+        try {
+            connection.setAutoCommit(autoCommitAnterior);
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void aplicar(OperacaoReplicada op) throws SQLException {
+        if (op instanceof CriarPergunta o) {
+            PreparedStatement ps = preparar("INSERT INTO Pergunta (id, enunciado, data_inicio, data_fim, codigo_acesso, docente_id) VALUES (?, ?, ?, ?, ?, ?)");
+            ps.setInt(1, o.id());
+            ps.setString(2, o.enunciado());
+            ps.setString(3, o.dataInicio());
+            ps.setString(4, o.dataFim());
+            ps.setString(5, o.codigoAcesso());
+            ps.setInt(6, o.docenteId());
+            ps.executeUpdate();
+            for (Opcao x : o.opcoes()) {
+                inserirOpcao(o.id(), x.letra(), x.texto(), x.correta());
+            }
+        } else if (op instanceof AdicionarOpcao o) {
+            inserirOpcao(o.perguntaId(), o.letra(), o.texto(), o.correta());
+        } else if (op instanceof EditarPergunta o) {
+            PreparedStatement ps = preparar("UPDATE Pergunta SET enunciado = ?, data_inicio = ?, data_fim = ? WHERE id = ?");
+            ps.setString(1, o.enunciado());
+            ps.setString(2, o.dataInicio());
+            ps.setString(3, o.dataFim());
+            ps.setInt(4, o.perguntaId());
+            ps.executeUpdate();
+        } else if (op instanceof EliminarPergunta o) {
+            PreparedStatement opcoes = preparar("DELETE FROM Opcao WHERE pergunta_id = ?");
+            opcoes.setInt(1, o.perguntaId());
+            opcoes.executeUpdate();
+            PreparedStatement ps = preparar("DELETE FROM Pergunta WHERE id = ?");
+            ps.setInt(1, o.perguntaId());
+            ps.executeUpdate();
+        } else if (op instanceof GuardarResposta o) {
+            PreparedStatement ps = preparar("INSERT INTO Resposta (estudante_id, pergunta_id, opcao_letra) VALUES (?, ?, ?)");
+            ps.setInt(1, o.estudanteId());
+            ps.setInt(2, o.perguntaId());
+            ps.setString(3, o.letra());
+            ps.executeUpdate();
+        } else if (op instanceof CriarDocente o) {
+            PreparedStatement ps = preparar("INSERT INTO Docente (id, nome, email, password_hash) VALUES (?, ?, ?, ?)");
+            ps.setInt(1, o.id());
+            ps.setString(2, o.nome());
+            ps.setString(3, o.email());
+            ps.setString(4, o.passwordHash());
+            ps.executeUpdate();
+        } else if (op instanceof AtualizarDocente o) {
+            PreparedStatement ps = preparar("UPDATE Docente SET nome = ?, email = ?, password_hash = ? WHERE id = ?");
+            ps.setString(1, o.nome());
+            ps.setString(2, o.email());
+            ps.setString(3, o.passwordHash());
+            ps.setInt(4, o.id());
+            ps.executeUpdate();
+        } else if (op instanceof CriarEstudante o) {
+            PreparedStatement ps = preparar("INSERT INTO Estudante (id, numero, nome, email, password_hash) VALUES (?, ?, ?, ?, ?)");
+            ps.setInt(1, o.id());
+            ps.setInt(2, o.numero());
+            ps.setString(3, o.nome());
+            ps.setString(4, o.email());
+            ps.setString(5, o.passwordHash());
+            ps.executeUpdate();
+        } else if (op instanceof AtualizarEstudante o) {
+            PreparedStatement ps = preparar("UPDATE Estudante SET nome = ?, email = ?, password_hash = ? WHERE id = ?");
+            ps.setString(1, o.nome());
+            ps.setString(2, o.email());
+            ps.setString(3, o.passwordHash());
+            ps.setInt(4, o.id());
+            ps.executeUpdate();
+        } else if (op instanceof ImportarEstudantes o) {
+            PreparedStatement ps = preparar("INSERT INTO Estudante (id, numero, nome, email, password_hash) VALUES (?, ?, ?, ?, ?)");
+            for (Estudante e : o.estudantes()) {
+                ps.setInt(1, e.id());
+                ps.setInt(2, e.numero());
+                ps.setString(3, e.nome());
+                ps.setString(4, e.email());
+                ps.setString(5, e.passwordHash());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private void inserirOpcao(int perguntaId, String letra, String texto, boolean correta) throws SQLException {
+        PreparedStatement ps = preparar("INSERT INTO Opcao (pergunta_id, letra, texto, is_correta) VALUES (?, ?, ?, ?)");
+        ps.setInt(1, perguntaId);
+        ps.setString(2, letra);
+        ps.setString(3, texto);
+        ps.setInt(4, correta ? 1 : 0);
+        ps.executeUpdate();
+    }
+
+    private PreparedStatement preparar(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    public void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,72 @@
+package servidor.db.dao;
+
+import servidor.db.util.Datas;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Move perguntas expiradas há muito tempo (com opções e respostas) da BD principal
+ * para BDs de arquivo por semestre ("2024S1" = janeiro a junho, "2024S2" = julho a dezembro).
+ */
+public class ArquivoDAO {
+    private static final String SEMESTRE_SQL =
+            "strftime('%Y', data_fim) || CASE WHEN CAST(strftime('%m', data_fim) AS INTEGER) <= 6 " +
+            "THEN 'S1' ELSE 'S2' END";
+
+    private static final String COLUNAS_PERGUNTA =
+            "id, enunciado, data_inicio, data_fim, codigo_acesso, docente_id, data_criacao, inicio_ms, fim_ms";
+    private static final String COLUNAS_OPCAO =
+            "id, pergunta_id, letra, texto, is_correta";
+    private static final String COLUNAS_RESPOSTA =
+            "id, estudante_id, pergunta_id, opcao_letra, data_hora, data_hora_ms";
+
+    private final Connection connection;
+
+    public ArquivoDAO(Connection connection) {
+        this.connection = connection;
+    }
+
+    public List<String> semestresAArquivar(String limite) throws SQLException {
+        List<String> semestres = new ArrayList<>();
+        String sql = "SELECT DISTINCT " + SEMESTRE_SQL + " AS semestre FROM main.Pergunta " +
+                "WHERE fim_ms < ? ORDER BY semestre";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, Datas.paraEpochMs(limite));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    semestres.add(rs.getString("semestre"));
+                }
+            }
+        }
+        return semestres;
+    }
+
+    /**
+     * Copia para o esquema de arquivo e apaga da BD principal. Deve correr dentro de
+     * uma transação aberta por quem chama. Devolve o número de perguntas movidas.
+     */
+    public int mover(String esquema, String semestre, String limite) throws SQLException {
+        String selIds = "SELECT id FROM main.Pergunta WHERE fim_ms < ? AND " + SEMESTRE_SQL + " = ?";
+
+        executar("INSERT INTO " + esquema + ".Resposta (" + COLUNAS_RESPOSTA + ") " +
+                "SELECT " + COLUNAS_RESPOSTA + " FROM main.Resposta WHERE pergunta_id IN (" + selIds + ")", limite, semestre);
+        executar("INSERT INTO " + esquema + ".Opcao (" + COLUNAS_OPCAO + ") " +
+                "SELECT " + COLUNAS_OPCAO + " FROM main.Opcao WHERE pergunta_id IN (" + selIds + ")", limite, semestre);
+        executar("INSERT INTO " + esquema + ".Pergunta (" + COLUNAS_PERGUNTA + ") " +
+                "SELECT " + COLUNAS_PERGUNTA + " FROM main.Pergunta WHERE id IN (" + selIds + ")", limite, semestre);
+
+        executar("DELETE FROM main.Resposta WHERE pergunta_id IN (" + selIds + ")", limite, semestre);
+        executar("DELETE FROM main.Opcao WHERE pergunta_id IN (" + selIds + ")", limite, semestre);
+        return executar("DELETE FROM main.Pergunta WHERE id IN (" + selIds + ")", limite, semestre);
+    }
+
+    private int executar(String sql, String limite, String semestre) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, Datas.paraEpochMs(limite));
+            ps.setString(2, semestre);
+            return ps.executeUpdate();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package servidor.db.dao;
 
+import servidor.db.CacheCredenciais;
 import servidor.db.util.SecurityUtil;
 import java.sql.*;
 
@@ -11,17 +12,22 @@ public class DocenteDAO {
     }
 
     public boolean autenticar(String email, String password) throws SQLException {
-        String sql = "SELECT password_hash FROM Docente WHERE email = ?";
+        CacheCredenciais.Credencial c = obterCredencial(email);
+        return c != null && SecurityUtil.verificarPassword(password, c.hash);
+    }
+
+    public CacheCredenciais.Credencial obterCredencial(String email) throws SQLException {
+        String sql = "SELECT id, password_hash FROM Docente WHERE email = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setString(1, email);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    String hash = rs.getString("password_hash");
-                    return hash.equals(SecurityUtil.hashPassword(password));
+                    byte[] hash = SecurityUtil.deHex(rs.getString("password_hash"));
+                    return hash != null ? new CacheCredenciais.Credencial(rs.getInt("id"), hash) : null;
                 }
             }
         }
-        return false;
+        return null;
     }
 
     public int getId(String email) throws SQLException {
@@ -1,5 +1,7 @@
 package servidor.db.dao;
 
+import servidor.db.CacheCredenciais;
+import servidor.db.ImportacaoEstudantes;
 import servidor.db.util.SecurityUtil;
 import java.sql.*;
 
@@ -11,17 +13,22 @@ public class EstudanteDAO {
     }
 
     public boolean autenticar(String email, String password) throws SQLException {
-        String sql = "SELECT password_hash FROM Estudante WHERE email = ?";
+        CacheCredenciais.Credencial c = obterCredencial(email);
+        return c != null && SecurityUtil.verificarPassword(password, c.hash);
+    }
+
+    public CacheCredenciais.Credencial obterCredencial(String email) throws SQLException {
+        String sql = "SELECT id, password_hash FROM Estudante WHERE email = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setString(1, email);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    String hash = rs.getString("password_hash");
-                    return hash.equals(SecurityUtil.hashPassword(password));
+                    byte[] hash = SecurityUtil.deHex(rs.getString("password_hash"));
+                    return hash != null ? new CacheCredenciais.Credencial(rs.getInt("id"), hash) : null;
                 }
             }
         }
-        return false;
+        return null;
     }
 
     public int getId(String email) throws SQLException {
@@ -58,4 +65,47 @@ public class EstudanteDAO {
             ps.executeUpdate();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Insere as linhas válidas numa única transação, guardando em cada linha o id gerado
+     * (é esse id que vai para os backups). Linhas cujo número ou email já existem são
+     * rejeitadas sem abortar a importação.
+     */
+    public void importar(ImportacaoEstudantes imp) throws SQLException {
+        String sqlExiste = "SELECT 1 FROM Estudante WHERE numero = ? OR email = ?";
+        String sqlInsert = "INSERT INTO Estudante (numero, nome, email, password_hash) VALUES (?, ?, ?, ?)";
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement existe = connection.prepareStatement(sqlExiste);
+             PreparedStatement insert = connection.prepareStatement(sqlInsert, Statement.RETURN_GENERATED_KEYS)) {
+            for (ImportacaoEstudantes.Linha l : imp.validas) {
+                existe.setInt(1, l.numero);
+                existe.setString(2, l.email);
+                try (ResultSet rs = existe.executeQuery()) {
+                    if (rs.next()) {
+                        imp.rejeitar(l, "EMAIL_OU_NUMERO_DUP");
+                        continue;
+                    }
+                }
+                insert.setInt(1, l.numero);
+                insert.setString(2, l.nome);
+                insert.setString(3, l.email);
+                insert.setString(4, l.passwordHash);
+                insert.executeUpdate();
+                try (ResultSet rs = insert.getGeneratedKeys()) {
+                    if (!rs.next()) throw new SQLException("Id do estudante " + l.numero + " não devolvido");
+                    l.id = rs.getInt(1);
+                }
+                imp.inseridas.add(l);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            imp.inseridas.clear();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
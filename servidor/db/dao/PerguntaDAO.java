@@ -1,5 +1,6 @@
 package servidor.db.dao;
 
+import servidor.db.DicionarioEstudantes;
 import servidor.db.PerguntaDetalhes;
 import servidor.db.util.SecurityUtil;
 import java.sql.*;
@@ -8,9 +9,22 @@ import java.util.List;
 
 public class PerguntaDAO {
     private final Connection connection;
+    private final String tPergunta;
+    private final String tOpcao;
+    private final String tResposta;
 
     public PerguntaDAO(Connection connection) {
+        this(connection, "main");
+    }
+
+    /**
+     * @param esquema "main" ou o alias de uma BD de arquivo anexada (ATTACH)
+     */
+    public PerguntaDAO(Connection connection, String esquema) {
         this.connection = connection;
+        this.tPergunta = esquema + ".Pergunta";
+        this.tOpcao = esquema + ".Opcao";
+        this.tResposta = esquema + ".Resposta";
     }
 
     public static class PerguntaResult {
@@ -25,7 +39,7 @@ public class PerguntaDAO {
 
     public PerguntaResult criarCompleta(int docenteId, String enunciado, String dataInicio, String dataFim) throws SQLException {
         String codigo = SecurityUtil.gerarCodigoAcesso();
-        String sql = "INSERT INTO Pergunta (enunciado, data_inicio, data_fim, codigo_acesso, docente_id) VALUES (?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO " + tPergunta + " (enunciado, data_inicio, data_fim, codigo_acesso, docente_id) VALUES (?, ?, ?, ?, ?)";
         try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, enunciado);
             ps.setString(2, dataInicio);
@@ -40,8 +54,40 @@ public class PerguntaDAO {
         }
     }
 
+    /**
+     * Cria a pergunta e as opções numa só transação: nunca fica visível sem opções.
+     */
+    public PerguntaResult criarComOpcoes(int docenteId, String enunciado, String dataInicio, String dataFim,
+                                         List<PerguntaDetalhes.OpcaoDetalhes> opcoes) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            PerguntaResult result = criarCompleta(docenteId, enunciado, dataInicio, dataFim);
+
+            String sql = "INSERT INTO " + tOpcao + " (pergunta_id, letra, texto, is_correta) VALUES (?, ?, ?, ?)";
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                for (PerguntaDetalhes.OpcaoDetalhes op : opcoes) {
+                    ps.setInt(1, result.id);
+                    ps.setString(2, op.letra);
+                    ps.setString(3, op.texto);
+                    ps.setInt(4, op.isCorreta ? 1 : 0);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+
+            connection.commit();
+            return result;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
     public boolean pertenceADocente(int perguntaId, int docenteId) throws SQLException {
-        String sql = "SELECT COUNT(*) as total FROM Pergunta WHERE id = ? AND docente_id = ?";
+        String sql = "SELECT COUNT(*) as total FROM " + tPergunta + " WHERE id = ? AND docente_id = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setInt(1, perguntaId);
             ps.setInt(2, docenteId);
@@ -51,8 +97,18 @@ public class PerguntaDAO {
         }
     }
 
+    public boolean existe(int perguntaId) throws SQLException {
+        String sql = "SELECT 1 FROM " + tPergunta + " WHERE id = ?";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, perguntaId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
     public boolean temRespostas(int perguntaId) throws SQLException {
-        String sql = "SELECT COUNT(*) as total FROM Resposta WHERE pergunta_id = ?";
+        String sql = "SELECT COUNT(*) as total FROM " + tResposta + " WHERE pergunta_id = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setInt(1, perguntaId);
             try (ResultSet rs = ps.executeQuery()) {
@@ -61,12 +117,11 @@ public class PerguntaDAO {
         }
     }
 
+    /**
+     * A verificação de respostas é feita antes, pelo DatabaseManager (IndiceRespostas).
+     */
     public void editar(int perguntaId, String novoEnunciado, String novaDataInicio, String novaDataFim) throws SQLException {
-        if (temRespostas(perguntaId)) {
-            throw new SQLException("Não é possível editar: pergunta já tem respostas");
-        }
-
-        String sql = "UPDATE Pergunta SET enunciado = ?, data_inicio = ?, data_fim = ? WHERE id = ?";
+        String sql = "UPDATE " + tPergunta + " SET enunciado = ?, data_inicio = ?, data_fim = ? WHERE id = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setString(1, novoEnunciado);
             ps.setString(2, novaDataInicio);
@@ -77,17 +132,13 @@ public class PerguntaDAO {
     }
 
     public void eliminar(int perguntaId) throws SQLException {
-        if (temRespostas(perguntaId)) {
-            throw new SQLException("Não é possível eliminar: pergunta já tem respostas");
-        }
-
-        String sqlOpcoes = "DELETE FROM Opcao WHERE pergunta_id = ?";
+        String sqlOpcoes = "DELETE FROM " + tOpcao + " WHERE pergunta_id = ?";
         try (PreparedStatement ps = connection.prepareStatement(sqlOpcoes)) {
             ps.setInt(1, perguntaId);
             ps.executeUpdate();
         }
 
-        String sql = "DELETE FROM Pergunta WHERE id = ?";
+        String sql = "DELETE FROM " + tPergunta + " WHERE id = ?";
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setInt(1, perguntaId);
             ps.executeUpdate();
@@ -99,30 +150,38 @@ public class PerguntaDAO {
 
         String sql =
                 "SELECT p.id, p.enunciado, p.data_inicio, p.data_fim, p.codigo_acesso, " +
-                        "       p.docente_id, p.data_criacao, " +
-                        "       (SELECT COUNT(*) FROM Resposta r WHERE r.pergunta_id = p.id) AS num_respostas, " +
-                        "       (SELECT COUNT(*) FROM Opcao   o WHERE o.pergunta_id = p.id) AS num_opcoes " +
-                        "FROM Pergunta p WHERE p.docente_id = ? ";
+                        "       p.docente_id, p.data_criacao, p.inicio_ms, p.fim_ms, " +
+                        "       (SELECT COUNT(*) FROM " + tResposta + " r WHERE r.pergunta_id = p.id) AS num_respostas, " +
+                        "       (SELECT COUNT(*) FROM " + tOpcao + " o WHERE o.pergunta_id = p.id) AS num_opcoes " +
+                        "FROM " + tPergunta + " p WHERE p.docente_id = ? ";
 
+        int parametrosAgora = 0;
         if (filtroEstado != null) {
             switch (filtroEstado.toUpperCase()) {
                 case "ATIVA":
-                    sql += "AND datetime('now') BETWEEN p.data_inicio AND p.data_fim " +
-                            "AND (SELECT COUNT(*) FROM Opcao o WHERE o.pergunta_id = p.id) >= 2 ";
+                    sql += "AND p.inicio_ms <= ? AND p.fim_ms >= ? " +
+                            "AND (SELECT COUNT(*) FROM " + tOpcao + " o WHERE o.pergunta_id = p.id) >= 2 ";
+                    parametrosAgora = 2;
                     break;
                 case "FUTURA":
-                    sql += "AND datetime('now') < p.data_inicio ";
+                    sql += "AND p.inicio_ms > ? ";
+                    parametrosAgora = 1;
                     break;
                 case "EXPIRADA":
-                    sql += "AND datetime('now') > p.data_fim ";
+                    sql += "AND p.fim_ms < ? ";
+                    parametrosAgora = 1;
                     break;
             }
         }
 
-        sql += "ORDER BY p.data_inicio DESC";
+        sql += "ORDER BY p.inicio_ms DESC";
 
+        long agora = System.currentTimeMillis();
         try (PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setInt(1, docenteId);
+            for (int i = 0; i < parametrosAgora; i++) {
+                ps.setLong(2 + i, agora);
+            }
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     PerguntaDetalhes pd = new PerguntaDetalhes();
@@ -133,10 +192,12 @@ public class PerguntaDAO {
                     pd.codigoAcesso = rs.getString("codigo_acesso");
                     pd.docenteId = rs.getInt("docente_id");
                     pd.dataCriacao = rs.getString("data_criacao");
+                    pd.inicioMs = rs.getLong("inicio_ms");
+                    pd.fimMs = rs.getLong("fim_ms");
                     pd.numRespostas = rs.getInt("num_respostas");
                     int numOpcoes = rs.getInt("num_opcoes");
 
-                    pd.estado = calcularEstado(pd.dataInicio, pd.dataFim, numOpcoes);
+                    pd.estado = calcularEstado(pd.inicioMs, pd.fimMs, numOpcoes, agora);
                     lista.add(pd);
                 }
             }
@@ -145,28 +206,85 @@ public class PerguntaDAO {
         return lista;
     }
 
-    private String calcularEstado(String dataInicio, String dataFim, int numOpcoes) throws SQLException {
-        String sqlEstado = "SELECT CASE " +
-                "WHEN datetime('now') < ? THEN 'FUTURA' " +
-                "WHEN datetime('now') > ? THEN 'EXPIRADA' " +
-                "ELSE 'ATIVA' END AS estado";
-        try (PreparedStatement psEstado = connection.prepareStatement(sqlEstado)) {
-            psEstado.setString(1, dataInicio);
-            psEstado.setString(2, dataFim);
-            try (ResultSet rsEstado = psEstado.executeQuery()) {
-                String estado = rsEstado.next() ? rsEstado.getString("estado") : "DESCONHECIDO";
-                if ("ATIVA".equals(estado) && numOpcoes < 2) {
-                    estado = "FUTURA";
+    /**
+     * Pesquisa de texto (FTS5) nas perguntas do docente, na BD principal e nos esquemas
+     * indicados, por relevância (bm25). Cada termo é procurado como prefixo e todos têm de ocorrer.
+     */
+    public List<PerguntaDetalhes> pesquisar(int docenteId, String termos, int offset, int limite,
+                                            List<String> esquemas) throws SQLException {
+        List<PerguntaDetalhes> lista = new ArrayList<>();
+        String consulta = consultaFTS(termos);
+        if (consulta == null) return lista;
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM (");
+        for (int k = 0; k < esquemas.size(); k++) {
+            String esq = esquemas.get(k);
+            if (k > 0) sql.append(" UNION ALL ");
+            sql.append("SELECT p.id, p.enunciado, p.data_inicio, p.data_fim, p.codigo_acesso, p.docente_id, " +
+                    "p.data_criacao, p.inicio_ms, p.fim_ms, f.rank AS rank, " +
+                    "(SELECT COUNT(*) FROM ").append(esq).append(".Opcao o WHERE o.pergunta_id = p.id) AS num_opcoes " +
+                    "FROM ").append(esq).append(".PerguntaFTS f JOIN ").append(esq).append(".Pergunta p ON p.id = f.rowid " +
+                    "WHERE f.PerguntaFTS MATCH ? AND p.docente_id = ?");
+        }
+        sql.append(") ORDER BY rank, inicio_ms DESC LIMIT ? OFFSET ?");
+
+        long agora = System.currentTimeMillis();
+        try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (int k = 0; k < esquemas.size(); k++) {
+                ps.setString(i++, consulta);
+                ps.setInt(i++, docenteId);
+            }
+            ps.setInt(i++, limite);
+            ps.setInt(i, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    PerguntaDetalhes pd = new PerguntaDetalhes();
+                    pd.id = rs.getInt("id");
+                    pd.enunciado = rs.getString("enunciado");
+                    pd.dataInicio = rs.getString("data_inicio");
+                    pd.dataFim = rs.getString("data_fim");
+                    pd.codigoAcesso = rs.getString("codigo_acesso");
+                    pd.docenteId = rs.getInt("docente_id");
+                    pd.dataCriacao = rs.getString("data_criacao");
+                    pd.inicioMs = rs.getLong("inicio_ms");
+                    pd.fimMs = rs.getLong("fim_ms");
+                    pd.estado = calcularEstado(pd.inicioMs, pd.fimMs, rs.getInt("num_opcoes"), agora);
+                    lista.add(pd);
                 }
-                return estado;
             }
         }
+        return lista;
+    }
+
+    /**
+     * Converte o texto do utilizador numa consulta FTS5 segura: cada palavra entre aspas e
+     * como prefixo ("capit"* encontra "capital"). Devolve null se não houver palavras.
+     */
+    public static String consultaFTS(String termos) {
+        if (termos == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String t : termos.split("[^\\p{L}\\p{N}]+")) {
+            if (t.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(t).append("\"*");
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * Estado a partir das colunas epoch: uma pergunta ativa com menos de 2 opções conta como futura.
+     */
+    public static String calcularEstado(long inicioMs, long fimMs, int numOpcoes, long agora) {
+        if (agora < inicioMs) return "FUTURA";
+        if (agora > fimMs) return "EXPIRADA";
+        return numOpcoes < 2 ? "FUTURA" : "ATIVA";
     }
 
     public PerguntaDetalhes obterPorCodigo(String codigo) throws SQLException {
         PerguntaDetalhes pd = null;
 
-        String sqlPergunta = "SELECT * FROM Pergunta WHERE codigo_acesso = ?";
+        String sqlPergunta = "SELECT * FROM " + tPergunta + " WHERE codigo_acesso = ?";
         try (PreparedStatement ps = connection.prepareStatement(sqlPergunta)) {
             ps.setString(1, codigo);
             try (ResultSet rs = ps.executeQuery()) {
@@ -181,10 +299,12 @@ public class PerguntaDAO {
                 pd.codigoAcesso = rs.getString("codigo_acesso");
                 pd.docenteId = rs.getInt("docente_id");
                 pd.dataCriacao = rs.getString("data_criacao");
+                pd.inicioMs = rs.getLong("inicio_ms");
+                pd.fimMs = rs.getLong("fim_ms");
             }
         }
 
-        String sqlOpcoes = "SELECT * FROM Opcao WHERE pergunta_id = ? ORDER BY letra";
+        String sqlOpcoes = "SELECT * FROM " + tOpcao + " WHERE pergunta_id = ? ORDER BY letra";
         try (PreparedStatement ps = connection.prepareStatement(sqlOpcoes)) {
             ps.setInt(1, pd.id);
             try (ResultSet rs = ps.executeQuery()) {
@@ -201,19 +321,23 @@ public class PerguntaDAO {
         }
 
         int numOpcoes = pd.opcoes.size();
-        pd.estado = calcularEstado(pd.dataInicio, pd.dataFim, numOpcoes);
+        pd.estado = calcularEstado(pd.inicioMs, pd.fimMs, numOpcoes, System.currentTimeMillis());
 
         return pd;
     }
 
-    public PerguntaDetalhes obterDetalhesExpirada(int perguntaId, int docenteId) throws SQLException {
+    /**
+     * Cabeçalho, opções e respostas de uma pergunta expirada. As respostas ficam em
+     * ResultadosCompactos; nome e email só são lidos para estudantes que ainda não estão em dic.
+     */
+    public PerguntaDetalhes obterDetalhesExpirada(int perguntaId, int docenteId, DicionarioEstudantes dic) throws SQLException {
         if (!pertenceADocente(perguntaId, docenteId)) {
             throw new SQLException("Pergunta não pertence ao docente");
         }
 
         PerguntaDetalhes pd = new PerguntaDetalhes();
 
-        String sqlPergunta = "SELECT * FROM Pergunta WHERE id = ?";
+        String sqlPergunta = "SELECT * FROM " + tPergunta + " WHERE id = ?";
         try (PreparedStatement ps = connection.prepareStatement(sqlPergunta)) {
             ps.setInt(1, perguntaId);
             try (ResultSet rs = ps.executeQuery()) {
@@ -228,21 +352,17 @@ public class PerguntaDAO {
                 pd.codigoAcesso = rs.getString("codigo_acesso");
                 pd.docenteId = rs.getInt("docente_id");
                 pd.dataCriacao = rs.getString("data_criacao");
+                pd.inicioMs = rs.getLong("inicio_ms");
+                pd.fimMs = rs.getLong("fim_ms");
 
-                String sqlEstado = "SELECT CASE WHEN datetime('now') > ? THEN 1 ELSE 0 END as expirada";
-                try (PreparedStatement psEstado = connection.prepareStatement(sqlEstado)) {
-                    psEstado.setString(1, pd.dataFim);
-                    try (ResultSet rsEstado = psEstado.executeQuery()) {
-                        if (rsEstado.next() && rsEstado.getInt("expirada") == 0) {
-                            throw new SQLException("Pergunta ainda não expirou");
-                        }
-                    }
+                if (System.currentTimeMillis() <= pd.fimMs) {
+                    throw new SQLException("Pergunta ainda não expirou");
                 }
                 pd.estado = "EXPIRADA";
             }
         }
 
-        String sqlOpcoes = "SELECT * FROM Opcao WHERE pergunta_id = ? ORDER BY letra";
+        String sqlOpcoes = "SELECT * FROM " + tOpcao + " WHERE pergunta_id = ? ORDER BY letra";
         try (PreparedStatement ps = connection.prepareStatement(sqlOpcoes)) {
             ps.setInt(1, perguntaId);
             try (ResultSet rs = ps.executeQuery()) {
@@ -253,58 +373,74 @@ public class PerguntaDAO {
                             rs.getString("texto"),
                             rs.getInt("is_correta") == 1
                     );
-
-                    String sqlCount = "SELECT COUNT(*) as total FROM Resposta WHERE pergunta_id = ? AND opcao_letra = ?";
-                    try (PreparedStatement psCount = connection.prepareStatement(sqlCount)) {
-                        psCount.setInt(1, perguntaId);
-                        psCount.setString(2, od.letra);
-                        try (ResultSet rsCount = psCount.executeQuery()) {
-                            if (rsCount.next()) {
-                                od.numRespostas = rsCount.getInt("total");
-                            }
-                        }
-                    }
-
                     pd.opcoes.add(od);
                 }
             }
         }
 
-        String sqlRespostas = "SELECT r.opcao_letra, r.data_hora, " +
-                "e.id as est_id, e.numero, e.nome, e.email, " +
+        String sqlRespostas = "SELECT r.opcao_letra, r.data_hora_ms, " +
+                "e.id as est_id, e.numero, " +
                 "o.is_correta " +
-                "FROM Resposta r " +
+                "FROM " + tResposta + " r " +
                 "JOIN Estudante e ON r.estudante_id = e.id " +
-                "LEFT JOIN Opcao o ON o.pergunta_id = r.pergunta_id AND o.letra = r.opcao_letra " +
+                "LEFT JOIN " + tOpcao + " o ON o.pergunta_id = r.pergunta_id AND o.letra = r.opcao_letra " +
                 "WHERE r.pergunta_id = ? " +
                 "ORDER BY e.numero";
 
+        List<Integer> emFalta = new ArrayList<>();
         try (PreparedStatement ps = connection.prepareStatement(sqlRespostas)) {
             ps.setInt(1, perguntaId);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    PerguntaDetalhes.RespostaDetalhes rd = new PerguntaDetalhes.RespostaDetalhes(
-                            rs.getInt("est_id"),
+                    int estudanteId = rs.getInt("est_id");
+                    String letra = rs.getString("opcao_letra");
+                    pd.respostas.adicionar(
+                            estudanteId,
                             rs.getInt("numero"),
-                            rs.getString("nome"),
-                            rs.getString("email"),
-                            rs.getString("opcao_letra"),
-                            rs.getString("data_hora"),
-                            rs.getInt("is_correta") == 1
+                            letra.isEmpty() ? '?' : letra.charAt(0),
+                            rs.getInt("is_correta") == 1,
+                            rs.getLong("data_hora_ms")
                     );
-                    pd.respostas.add(rd);
+                    if (!dic.contem(estudanteId)) emFalta.add(estudanteId);
                 }
             }
         }
+        carregarEstudantes(emFalta, dic);
 
-        pd.numRespostas = pd.respostas.size();
+        for (PerguntaDetalhes.OpcaoDetalhes od : pd.opcoes) {
+            od.numRespostas = od.letra.isEmpty() ? 0 : pd.respostas.contarLetra(od.letra.charAt(0));
+        }
+        pd.numRespostas = pd.respostas.tamanho();
 
         return pd;
     }
 
-    public String exportarParaCSV(int perguntaId, int docenteId) throws SQLException {
-        PerguntaDetalhes pd = obterDetalhesExpirada(perguntaId, docenteId);
+    private void carregarEstudantes(List<Integer> ids, DicionarioEstudantes dic) throws SQLException {
+        for (int inicio = 0; inicio < ids.size(); inicio += 500) {
+            List<Integer> bloco = ids.subList(inicio, Math.min(ids.size(), inicio + 500));
+            StringBuilder sql = new StringBuilder("SELECT id, nome, email FROM Estudante WHERE id IN (");
+            for (int i = 0; i < bloco.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(")");
+            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                for (int i = 0; i < bloco.size(); i++) {
+                    ps.setInt(i + 1, bloco.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        dic.registar(rs.getInt("id"), rs.getString("nome"), rs.getString("email"));
+                    }
+                }
+            }
+        }
+    }
+
+    public String exportarParaCSV(int perguntaId, int docenteId, DicionarioEstudantes dic) throws SQLException {
+        return gerarCSV(obterDetalhesExpirada(perguntaId, docenteId, dic), dic);
+    }
 
+    public static String gerarCSV(PerguntaDetalhes pd, DicionarioEstudantes dic) {
         StringBuilder csv = new StringBuilder();
 
         csv.append("\"dia\";\"hora inicial\";\"hora final\";\"enunciado da pergunta\";\"opção certa\"\n");
@@ -334,13 +470,7 @@ public class PerguntaDAO {
         }
 
         csv.append("\n\"número de estudante\";\"nome\";\"e-mail\";\"resposta\"\n");
-        for (PerguntaDetalhes.RespostaDetalhes resp : pd.respostas) {
-            csv.append(String.format("\"%d\";\"%s\";\"%s\";\"%s\"\n",
-                    resp.estudanteNumero,
-                    resp.estudanteNome.replace("\"", "\"\""),
-                    resp.estudanteEmail,
-                    resp.opcaoLetra));
-        }
+        pd.respostas.escreverCSV(csv, dic);
         return csv.toString();
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package servidor.db.dao;
 
 import servidor.db.DatabaseManager;
+import servidor.db.armazenamento.Armazenamento;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,31 +23,55 @@ public class RespostaDAO {
         }
     }
 
-    public List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudanteExpiradas(int estudanteId) throws SQLException {
+    public void percorrerPares(Armazenamento.ConsumidorResposta consumidor) throws SQLException {
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT pergunta_id, estudante_id FROM main.Resposta")) {
+            while (rs.next()) {
+                consumidor.aceitar(rs.getInt(1), rs.getInt(2));
+            }
+        }
+    }
+
+    public List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudante(int estudanteId) throws SQLException {
+        return listarRespostasEstudante(estudanteId, List.of("main"));
+    }
+
+    /**
+     * Todas as respostas do estudante (expiradas ou não), por data_fim e data_hora ascendentes,
+     * juntando a BD principal e as BDs de arquivo anexadas.
+     */
+    public List<DatabaseManager.RespostaEstudanteInfo> listarRespostasEstudante(int estudanteId, List<String> esquemas) throws SQLException {
         List<DatabaseManager.RespostaEstudanteInfo> lista = new ArrayList<>();
 
-        String sql =
-                "SELECT p.id            AS pergunta_id, " +
-                        "       p.enunciado     AS enunciado, " +
-                        "       p.data_fim      AS data_fim, " +
-                        "       r.data_hora     AS data_hora, " +
-                        "       r.opcao_letra   AS opcao_letra, " +
-                        "       COALESCE(o.is_correta,0) AS correta " +
-                        "FROM   Resposta r " +
-                        "JOIN   Pergunta p ON p.id = r.pergunta_id " +
-                        "LEFT JOIN Opcao o ON o.pergunta_id = r.pergunta_id AND o.letra = r.opcao_letra " +
-                        "WHERE  r.estudante_id = ? " +
-                        "  AND  p.data_fim < datetime('now') " +
-                        "ORDER BY p.data_fim DESC, r.data_hora DESC";
+        StringBuilder sql = new StringBuilder();
+        for (String esq : esquemas) {
+            if (sql.length() > 0) sql.append(" UNION ALL ");
+            sql.append("SELECT p.id            AS pergunta_id, " +
+                    "       p.enunciado     AS enunciado, " +
+                    "       p.data_fim      AS data_fim, " +
+                    "       p.fim_ms        AS fim_ms, " +
+                    "       r.data_hora     AS data_hora, " +
+                    "       r.data_hora_ms  AS data_hora_ms, " +
+                    "       r.opcao_letra   AS opcao_letra, " +
+                    "       COALESCE(o.is_correta,0) AS correta " +
+                    "FROM   ").append(esq).append(".Resposta r " +
+                    "JOIN   ").append(esq).append(".Pergunta p ON p.id = r.pergunta_id " +
+                    "LEFT JOIN ").append(esq).append(".Opcao o ON o.pergunta_id = r.pergunta_id AND o.letra = r.opcao_letra " +
+                    "WHERE  r.estudante_id = ?");
+        }
+        sql.append(" ORDER BY fim_ms ASC, data_hora_ms ASC");
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, estudanteId);
+        try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+            for (int i = 1; i <= esquemas.size(); i++) {
+                ps.setInt(i, estudanteId);
+            }
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     DatabaseManager.RespostaEstudanteInfo info = new DatabaseManager.RespostaEstudanteInfo();
                     info.perguntaId = rs.getInt("pergunta_id");
                     info.enunciado = rs.getString("enunciado");
                     info.dataFim = rs.getString("data_fim");
+                    info.fimMs = rs.getLong("fim_ms");
                     info.dataResposta = rs.getString("data_hora");
                     info.letra = rs.getString("opcao_letra");
                     info.correta = rs.getInt("correta") == 1;
@@ -57,4 +82,4 @@ public class RespostaDAO {
 
         return lista;
     }
-}
\ No newline at end of file
+}
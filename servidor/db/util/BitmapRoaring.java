@@ -0,0 +1,120 @@
+package servidor.db.util;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de inteiros não negativos comprimido ao estilo "roaring": os 16 bits altos
+ * escolhem um contentor e os 16 bits baixos são guardados nele. Cada contentor é um
+ * array ordenado de shorts enquanto tiver até 4096 elementos (menos de 8 KB) e passa
+ * a bitmap de 65536 bits (8 KB fixos) a partir daí.
+ *
+ * Não é thread-safe.
+ */
+public class BitmapRoaring {
+    private static final int LIMITE_ARRAY = 4096;
+
+    private char[] chaves = new char[0];
+    private Contentor[] contentores = new Contentor[0];
+    private int cardinalidade;
+
+    public boolean contem(int valor) {
+        int i = Arrays.binarySearch(chaves, (char) (valor >>> 16));
+        return i >= 0 && contentores[i].contem((char) valor);
+    }
+
+    /**
+     * @return true se o valor ainda não existia
+     */
+    public boolean adicionar(int valor) {
+        if (valor < 0) throw new IllegalArgumentException("valor negativo: " + valor);
+        char alta = (char) (valor >>> 16);
+        int i = Arrays.binarySearch(chaves, alta);
+        if (i < 0) {
+            i = -i - 1;
+            chaves = inserir(chaves, i, alta);
+            Contentor[] novos = new Contentor[contentores.length + 1];
+            System.arraycopy(contentores, 0, novos, 0, i);
+            System.arraycopy(contentores, i, novos, i + 1, contentores.length - i);
+            novos[i] = new ContentorArray();
+            contentores = novos;
+        }
+        Contentor c = contentores[i];
+        if (!c.adicionar((char) valor)) return false;
+        if (c instanceof ContentorArray a && a.tamanho > LIMITE_ARRAY) {
+            contentores[i] = a.paraBitmap();
+        }
+        cardinalidade++;
+        return true;
+    }
+
+    public int cardinalidade() {
+        return cardinalidade;
+    }
+
+    public boolean vazio() {
+        return cardinalidade == 0;
+    }
+
+    private static char[] inserir(char[] a, int pos, char v) {
+        char[] n = new char[a.length + 1];
+        System.arraycopy(a, 0, n, 0, pos);
+        n[pos] = v;
+        System.arraycopy(a, pos, n, pos + 1, a.length - pos);
+        return n;
+    }
+
+    private interface Contentor {
+        boolean contem(char v);
+
+        boolean adicionar(char v);
+    }
+
+    private static final class ContentorArray implements Contentor {
+        char[] valores = new char[4];
+        int tamanho;
+
+        @Override
+        public boolean contem(char v) {
+            return Arrays.binarySearch(valores, 0, tamanho, v) >= 0;
+        }
+
+        @Override
+        public boolean adicionar(char v) {
+            int i = Arrays.binarySearch(valores, 0, tamanho, v);
+            if (i >= 0) return false;
+            i = -i - 1;
+            if (tamanho == valores.length) {
+                valores = Arrays.copyOf(valores, tamanho * 2);
+            }
+            System.arraycopy(valores, i, valores, i + 1, tamanho - i);
+            valores[i] = v;
+            tamanho++;
+            return true;
+        }
+
+        ContentorBitmap paraBitmap() {
+            ContentorBitmap b = new ContentorBitmap();
+            for (int k = 0; k < tamanho; k++) {
+                b.adicionar(valores[k]);
+            }
+            return b;
+        }
+    }
+
+    private static final class ContentorBitmap implements Contentor {
+        final long[] palavras = new long[1024];
+
+        @Override
+        public boolean contem(char v) {
+            return (palavras[v >>> 6] & (1L << v)) != 0;
+        }
+
+        @Override
+        public boolean adicionar(char v) {
+            long antes = palavras[v >>> 6];
+            long depois = antes | (1L << v);
+            palavras[v >>> 6] = depois;
+            return antes != depois;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package servidor.db.util;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+public class Datas {
+
+    private static final DateTimeFormatter FMT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Instante atual no mesmo formato (e fuso, UTC) que o datetime('now') do SQLite,
+     * para que as comparações de texto deem o mesmo resultado que as feitas em SQL.
+     */
+    public static String agoraUTC() {
+        return LocalDateTime.now(ZoneOffset.UTC).format(FMT);
+    }
+
+    /**
+     * Converte uma data em texto (AAAA-MM-DD, AAAA-MM-DD HH:mm ou AAAA-MM-DD HH:mm:ss, com
+     * espaço ou 'T') para epoch em milissegundos, lida em UTC. Igual ao que os triggers do
+     * SchemaManager calculam com strftime('%s'): datas inválidas dão 0.
+     */
+    public static long paraEpochMs(String texto) {
+        if (texto == null) return 0;
+        String t = texto.trim().replace('T', ' ');
+        if (t.length() == 10) t += " 00:00:00";
+        else if (t.length() == 16) t += ":00";
+        else if (t.length() > 19) t = t.substring(0, 19);
+        try {
+            return LocalDateTime.parse(t, FMT).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Acrescenta epochSeg (UTC) como "AAAA-MM-DD HH:mm:ss", sem criar objetos intermédios.
+     */
+    public static void escrever(StringBuilder sb, long epochSeg) {
+        long dias = Math.floorDiv(epochSeg, 86400);
+        int seg = Math.floorMod(epochSeg, 86400);
+
+        // Conversão dias -> data civil (algoritmo de H. Hinnant).
+        long z = dias + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int dia = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int mes = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long ano = yoe + era * 400 + (mes <= 2 ? 1 : 0);
+
+        sb.append(ano).append('-');
+        doisDigitos(sb, mes).append('-');
+        doisDigitos(sb, dia).append(' ');
+        doisDigitos(sb, seg / 3600).append(':');
+        doisDigitos(sb, seg / 60 % 60).append(':');
+        doisDigitos(sb, seg % 60);
+    }
+
+    private static StringBuilder doisDigitos(StringBuilder sb, int v) {
+        return sb.append((char) ('0' + v / 10)).append((char) ('0' + v % 10));
+    }
+}
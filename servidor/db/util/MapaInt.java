@@ -0,0 +1,152 @@
+package servidor.db.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mapa int -> V com endereçamento aberto (sem boxing das chaves).
+ * Não é thread-safe: quem o usa tem de fazer a sincronização.
+ */
+public class MapaInt<V> {
+    private static final int VAZIO = 0;
+
+    private int[] chaves;
+    private Object[] valores;
+    private int tamanho;
+    private V valorZero;
+    private boolean temZero;
+
+    public MapaInt() {
+        this(16);
+    }
+
+    public MapaInt(int capacidadeInicial) {
+        int cap = Integer.highestOneBit(Math.max(4, capacidadeInicial) - 1) << 1;
+        chaves = new int[cap];
+        valores = new Object[cap];
+    }
+
+    public int tamanho() {
+        return tamanho + (temZero ? 1 : 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V obter(int chave) {
+        if (chave == VAZIO) return valorZero;
+        int mask = chaves.length - 1;
+        int i = misturar(chave) & mask;
+        while (true) {
+            int k = chaves[i];
+            if (k == VAZIO) return null;
+            if (k == chave) return (V) valores[i];
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean contem(int chave) {
+        return obter(chave) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V guardar(int chave, V valor) {
+        if (chave == VAZIO) {
+            V antigo = valorZero;
+            valorZero = valor;
+            temZero = true;
+            return antigo;
+        }
+        if ((tamanho + 1) * 4 > chaves.length * 3) {
+            redimensionar(chaves.length * 2);
+        }
+        int mask = chaves.length - 1;
+        int i = misturar(chave) & mask;
+        while (true) {
+            int k = chaves[i];
+            if (k == VAZIO) {
+                chaves[i] = chave;
+                valores[i] = valor;
+                tamanho++;
+                return null;
+            }
+            if (k == chave) {
+                V antigo = (V) valores[i];
+                valores[i] = valor;
+                return antigo;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remover(int chave) {
+        if (chave == VAZIO) {
+            V antigo = valorZero;
+            valorZero = null;
+            temZero = false;
+            return antigo;
+        }
+        int mask = chaves.length - 1;
+        int i = misturar(chave) & mask;
+        while (true) {
+            int k = chaves[i];
+            if (k == VAZIO) return null;
+            if (k == chave) break;
+            i = (i + 1) & mask;
+        }
+        V antigo = (V) valores[i];
+        chaves[i] = VAZIO;
+        valores[i] = null;
+        tamanho--;
+
+        // Reinsere o resto do cluster para não partir as sequências de sondagem.
+        int j = (i + 1) & mask;
+        while (chaves[j] != VAZIO) {
+            int k = chaves[j];
+            Object v = valores[j];
+            chaves[j] = VAZIO;
+            valores[j] = null;
+            tamanho--;
+            guardar(k, (V) v);
+            j = (j + 1) & mask;
+        }
+        return antigo;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> valores() {
+        List<V> lista = new ArrayList<>(tamanho());
+        if (temZero) lista.add(valorZero);
+        for (int i = 0; i < chaves.length; i++) {
+            if (chaves[i] != VAZIO) lista.add((V) valores[i]);
+        }
+        return lista;
+    }
+
+    public void limpar() {
+        Arrays.fill(chaves, VAZIO);
+        Arrays.fill(valores, null);
+        tamanho = 0;
+        valorZero = null;
+        temZero = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void redimensionar(int novaCapacidade) {
+        int[] velhasChaves = chaves;
+        Object[] velhosValores = valores;
+        chaves = new int[novaCapacidade];
+        valores = new Object[novaCapacidade];
+        tamanho = 0;
+        for (int i = 0; i < velhasChaves.length; i++) {
+            if (velhasChaves[i] != VAZIO) {
+                guardar(velhasChaves[i], (V) velhosValores[i]);
+            }
+        }
+    }
+
+    private static int misturar(int x) {
+        x *= 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+}
@@ -4,37 +4,7 @@ import java.sql.*;
 
 public class SchemaManager {
 
-    public static void createTables(Connection connection) throws SQLException {
-        String configuracao = """
-            CREATE TABLE IF NOT EXISTS Configuracao (
-                id INTEGER PRIMARY KEY CHECK (id = 1),
-                versao INTEGER NOT NULL DEFAULT 0,
-                codigo_registo_docentes TEXT NOT NULL
-            );
-            """;
-
-        String docentes = """
-            CREATE TABLE IF NOT EXISTS Docente (
-                id INTEGER PRIMARY KEY AUTOINCREMENT,
-                nome TEXT NOT NULL,
-                email TEXT UNIQUE NOT NULL,
-                password_hash TEXT NOT NULL,
-                data_criacao TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-            );
-            """;
-
-        String estudantes = """
-            CREATE TABLE IF NOT EXISTS Estudante (
-                id INTEGER PRIMARY KEY AUTOINCREMENT,
-                numero INTEGER UNIQUE NOT NULL,
-                nome TEXT NOT NULL,
-                email TEXT UNIQUE NOT NULL,
-                password_hash TEXT NOT NULL,
-                data_criacao TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-            );
-            """;
-
-        String perguntas = """
+    private static final String PERGUNTAS = """
             CREATE TABLE IF NOT EXISTS Pergunta (
                 id INTEGER PRIMARY KEY AUTOINCREMENT,
                 enunciado TEXT NOT NULL,
@@ -43,11 +13,13 @@ public class SchemaManager {
                 codigo_acesso TEXT UNIQUE NOT NULL,
                 docente_id INTEGER NOT NULL,
                 data_criacao TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                inicio_ms INTEGER,
+                fim_ms INTEGER,
                 FOREIGN KEY (docente_id) REFERENCES Docente(id)
             );
             """;
 
-        String opcoes = """
+    private static final String OPCOES = """
             CREATE TABLE IF NOT EXISTS Opcao (
                 id INTEGER PRIMARY KEY AUTOINCREMENT,
                 pergunta_id INTEGER NOT NULL,
@@ -59,26 +31,59 @@ public class SchemaManager {
             );
             """;
 
-        String respostas = """
+    private static final String RESPOSTAS = """
             CREATE TABLE IF NOT EXISTS Resposta (
                 id INTEGER PRIMARY KEY AUTOINCREMENT,
                 estudante_id INTEGER NOT NULL,
                 pergunta_id INTEGER NOT NULL,
                 opcao_letra TEXT NOT NULL,
                 data_hora TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                data_hora_ms INTEGER,
                 FOREIGN KEY (estudante_id) REFERENCES Estudante(id),
                 FOREIGN KEY (pergunta_id) REFERENCES Pergunta(id),
                 UNIQUE(estudante_id, pergunta_id)
             );
             """;
 
+    public static void createTables(Connection connection) throws SQLException {
+        String configuracao = """
+            CREATE TABLE IF NOT EXISTS Configuracao (
+                id INTEGER PRIMARY KEY CHECK (id = 1),
+                versao INTEGER NOT NULL DEFAULT 0,
+                codigo_registo_docentes TEXT NOT NULL
+            );
+            """;
+
+        String docentes = """
+            CREATE TABLE IF NOT EXISTS Docente (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                nome TEXT NOT NULL,
+                email TEXT UNIQUE NOT NULL,
+                password_hash TEXT NOT NULL,
+                data_criacao TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            );
+            """;
+
+        String estudantes = """
+            CREATE TABLE IF NOT EXISTS Estudante (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                numero INTEGER UNIQUE NOT NULL,
+                nome TEXT NOT NULL,
+                email TEXT UNIQUE NOT NULL,
+                password_hash TEXT NOT NULL,
+                data_criacao TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            );
+            """;
+
         Statement stmt = connection.createStatement();
         stmt.execute(configuracao);
         stmt.execute(docentes);
         stmt.execute(estudantes);
-        stmt.execute(perguntas);
-        stmt.execute(opcoes);
-        stmt.execute(respostas);
+        stmt.execute(PERGUNTAS);
+        stmt.execute(OPCOES);
+        stmt.execute(RESPOSTAS);
+        criarColunasEpoch(connection, "main");
+        criarPesquisa(connection, "main");
 
         String checkConfig = "SELECT COUNT(*) FROM Configuracao";
         ResultSet rs = stmt.executeQuery(checkConfig);
@@ -96,6 +101,156 @@ public class SchemaManager {
         System.out.println("[SchemaManager] Tabelas criadas/verificadas com sucesso!");
     }
 
+    /**
+     * Tabelas de um fragmento (ArmazenamentoFragmentado): só Pergunta, Opcao e Resposta. Docente
+     * e Estudante não existem no fragmento, por isso os nomes sem esquema resolvem para a BD
+     * partilhada anexada. Os ids de Pergunta do fragmento começam em baseIdPergunta + 1.
+     */
+    public static void createTablesFragmento(Connection connection, int baseIdPergunta) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(PERGUNTAS);
+            stmt.execute(OPCOES);
+            stmt.execute(RESPOSTAS);
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO sqlite_sequence(name, seq) SELECT 'Pergunta', ? " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = 'Pergunta')")) {
+            ps.setInt(1, baseIdPergunta);
+            ps.executeUpdate();
+        }
+        criarColunasEpoch(connection, "main");
+        criarPesquisa(connection, "main");
+    }
+
+    /**
+     * Tabelas de uma BD de arquivo anexada. Mesmas colunas que na BD principal, mas
+     * sem chaves estrangeiras (o SQLite não as suporta entre BDs anexadas).
+     */
+    public static void createTablesArquivo(Connection connection, String esquema) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + esquema + ".Pergunta (" +
+                    "id INTEGER PRIMARY KEY, enunciado TEXT NOT NULL, " +
+                    "data_inicio TIMESTAMP NOT NULL, data_fim TIMESTAMP NOT NULL, " +
+                    "codigo_acesso TEXT NOT NULL, docente_id INTEGER NOT NULL, data_criacao TIMESTAMP, " +
+                    "inicio_ms INTEGER, fim_ms INTEGER)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + esquema + ".Opcao (" +
+                    "id INTEGER PRIMARY KEY, pergunta_id INTEGER NOT NULL, letra TEXT NOT NULL, " +
+                    "texto TEXT NOT NULL, is_correta INTEGER NOT NULL DEFAULT 0)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + esquema + ".Resposta (" +
+                    "id INTEGER PRIMARY KEY, estudante_id INTEGER NOT NULL, pergunta_id INTEGER NOT NULL, " +
+                    "opcao_letra TEXT NOT NULL, data_hora TIMESTAMP, data_hora_ms INTEGER)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_arq_pergunta_docente ON Pergunta(docente_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_arq_opcao_pergunta ON Opcao(pergunta_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_arq_resposta_pergunta ON Resposta(pergunta_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_arq_resposta_estudante ON Resposta(estudante_id)");
+        }
+        criarColunasEpoch(connection, esquema);
+        criarPesquisa(connection, esquema);
+    }
+
+    /**
+     * Índice FTS5 sobre o enunciado e o texto das opções (rowid = id da pergunta).
+     * Mantido por triggers, por isso acompanha também o SQL replicado nos backups e as
+     * perguntas movidas para arquivo. Na primeira vez é preenchido com as perguntas existentes.
+     */
+    private static void criarPesquisa(Connection connection, String esquema) throws SQLException {
+        boolean existia;
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT 1 FROM " + esquema + ".sqlite_master WHERE type = 'table' AND name = 'PerguntaFTS'");
+             ResultSet rs = ps.executeQuery()) {
+            existia = rs.next();
+        }
+
+        String opcoes = "COALESCE((SELECT group_concat(texto, ' ') FROM Opcao WHERE pergunta_id = %s), '')";
+        try (Statement stmt = connection.createStatement()) {
+            if (!existia) {
+                stmt.execute("CREATE VIRTUAL TABLE " + esquema + ".PerguntaFTS USING fts5(" +
+                        "enunciado, opcoes, tokenize = 'unicode61 remove_diacritics 2')");
+                // O enunciado pesa o dobro das opções no ranking.
+                stmt.execute("INSERT INTO " + esquema + ".PerguntaFTS(PerguntaFTS, rank) VALUES ('rank', 'bm25(2.0, 1.0)')");
+                int n = stmt.executeUpdate("INSERT INTO " + esquema + ".PerguntaFTS(rowid, enunciado, opcoes) " +
+                        "SELECT id, enunciado, " + String.format(opcoes, "Pergunta.id") + " FROM " + esquema + ".Pergunta");
+                System.out.println("[SchemaManager] Índice de pesquisa de " + esquema + " criado (" + n + " perguntas)");
+            }
+
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_pergunta_fts_ins AFTER INSERT ON Pergunta " +
+                    "BEGIN INSERT INTO PerguntaFTS(rowid, enunciado, opcoes) VALUES (NEW.id, NEW.enunciado, " +
+                    String.format(opcoes, "NEW.id") + "); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_pergunta_fts_upd AFTER UPDATE OF enunciado ON Pergunta " +
+                    "BEGIN UPDATE PerguntaFTS SET enunciado = NEW.enunciado WHERE rowid = NEW.id; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_pergunta_fts_del AFTER DELETE ON Pergunta " +
+                    "BEGIN DELETE FROM PerguntaFTS WHERE rowid = OLD.id; END");
+
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_opcao_fts_ins AFTER INSERT ON Opcao " +
+                    "BEGIN UPDATE PerguntaFTS SET opcoes = " + String.format(opcoes, "NEW.pergunta_id") +
+                    " WHERE rowid = NEW.pergunta_id; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_opcao_fts_upd AFTER UPDATE OF texto ON Opcao " +
+                    "BEGIN UPDATE PerguntaFTS SET opcoes = " + String.format(opcoes, "NEW.pergunta_id") +
+                    " WHERE rowid = NEW.pergunta_id; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_opcao_fts_del AFTER DELETE ON Opcao " +
+                    "BEGIN UPDATE PerguntaFTS SET opcoes = " + String.format(opcoes, "OLD.pergunta_id") +
+                    " WHERE rowid = OLD.pergunta_id; END");
+        }
+    }
+
+    /**
+     * Colunas inicio_ms, fim_ms e data_hora_ms (epoch em milissegundos, UTC) ao lado das
+     * datas em texto, que ficam só para apresentação. Os triggers preenchem-nas a partir do
+     * texto em qualquer INSERT/UPDATE, incluindo o SQL replicado. Em BDs antigas as colunas
+     * são acrescentadas e preenchidas a partir dos dados existentes.
+     */
+    private static void criarColunasEpoch(Connection connection, String esquema) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            if (!temColuna(connection, esquema, "Pergunta", "inicio_ms")) {
+                stmt.execute("ALTER TABLE " + esquema + ".Pergunta ADD COLUMN inicio_ms INTEGER");
+                stmt.execute("ALTER TABLE " + esquema + ".Pergunta ADD COLUMN fim_ms INTEGER");
+                stmt.executeUpdate("UPDATE " + esquema + ".Pergunta SET inicio_ms = " + epochMs("data_inicio") +
+                        ", fim_ms = " + epochMs("data_fim"));
+                System.out.println("[SchemaManager] Colunas epoch de " + esquema + ".Pergunta migradas");
+            }
+            if (!temColuna(connection, esquema, "Resposta", "data_hora_ms")) {
+                stmt.execute("ALTER TABLE " + esquema + ".Resposta ADD COLUMN data_hora_ms INTEGER");
+                stmt.executeUpdate("UPDATE " + esquema + ".Resposta SET data_hora_ms = " + epochMs("data_hora"));
+                System.out.println("[SchemaManager] Colunas epoch de " + esquema + ".Resposta migradas");
+            }
+
+            // Os triggers de um esquema só podem referir tabelas desse esquema, sem qualificação.
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_pergunta_epoch_ins AFTER INSERT ON Pergunta " +
+                    "WHEN NEW.inicio_ms IS NULL OR NEW.fim_ms IS NULL " +
+                    "BEGIN UPDATE Pergunta SET inicio_ms = " + epochMs("NEW.data_inicio") +
+                    ", fim_ms = " + epochMs("NEW.data_fim") + " WHERE id = NEW.id; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_pergunta_epoch_upd " +
+                    "AFTER UPDATE OF data_inicio, data_fim ON Pergunta " +
+                    "BEGIN UPDATE Pergunta SET inicio_ms = " + epochMs("NEW.data_inicio") +
+                    ", fim_ms = " + epochMs("NEW.data_fim") + " WHERE id = NEW.id; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS " + esquema + ".trg_resposta_epoch_ins AFTER INSERT ON Resposta " +
+                    "WHEN NEW.data_hora_ms IS NULL " +
+                    "BEGIN UPDATE Resposta SET data_hora_ms = " + epochMs("NEW.data_hora") + " WHERE id = NEW.id; END");
+
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_pergunta_docente_inicio ON Pergunta(docente_id, inicio_ms)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_pergunta_docente_fim ON Pergunta(docente_id, fim_ms)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_pergunta_fim ON Pergunta(fim_ms)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + esquema + ".idx_resposta_estudante_hora ON Resposta(estudante_id, data_hora_ms)");
+        }
+    }
+
+    /**
+     * Mesma conversão que Datas.paraEpochMs: datas inválidas ficam a 0.
+     */
+    private static String epochMs(String coluna) {
+        return "COALESCE(CAST(strftime('%s', " + coluna + ") AS INTEGER), 0) * 1000";
+    }
+
+    private static boolean temColuna(Connection connection, String esquema, String tabela, String coluna) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + esquema + ".table_info(" + tabela + ")")) {
+            while (rs.next()) {
+                if (coluna.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+
     public static int getVersao(Connection connection) throws SQLException {
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery("SELECT versao FROM Configuracao WHERE id = 1")) {
@@ -111,4 +266,13 @@ public class SchemaManager {
             stmt.executeUpdate("UPDATE Configuracao SET versao = versao + 1 WHERE id = 1");
         }
     }
+
+    public static void definirVersao(Connection connection, int versao) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "UPDATE Configuracao SET versao = ? WHERE id = 1 AND versao < ?")) {
+            ps.setInt(1, versao);
+            ps.setInt(2, versao);
+            ps.executeUpdate();
+        }
+    }
 }
\ No newline at end of file
@@ -1,27 +1,71 @@
 package servidor.db.util;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
 
 public class SecurityUtil {
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponível", e);
+        }
+    });
+
     public static String hashPassword(String password) {
+        byte[] hash = hashPasswordBytes(password);
+        return hash != null ? paraHex(hash) : null;
+    }
+
+    /**
+     * SHA-256 da password em bytes, usando um MessageDigest por thread.
+     */
+    public static byte[] hashPasswordBytes(String password) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(password.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            MessageDigest md = SHA256.get();
+            md.reset();
+            return md.digest(password.getBytes(StandardCharsets.UTF_8));
         } catch (Exception e) {
             System.err.println("[SecurityUtil] Erro ao gerar hash: " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Compara a password com o hash guardado em tempo constante.
+     */
+    public static boolean verificarPassword(String password, byte[] hashGuardado) {
+        if (password == null || hashGuardado == null) return false;
+        byte[] hash = hashPasswordBytes(password);
+        return hash != null && MessageDigest.isEqual(hash, hashGuardado);
+    }
+
+    public static String paraHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    public static byte[] deHex(String hex) {
+        if (hex == null || (hex.length() & 1) != 0) return null;
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
     public static String gerarCodigoAcesso() {
         String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
         StringBuilder codigo = new StringBuilder();
@@ -31,4 +75,4 @@ public class SecurityUtil {
         }
         return codigo.toString();
     }
-}
\ No newline at end of file
+}
@@ -1,34 +1,196 @@
 package servidor.handlers;
 
 import servidor.ReplicationSender;
+import servidor.SequenciadorVersoes;
+import servidor.db.BaseDadosAssincrona;
 import servidor.db.DatabaseManager;
+import servidor.db.GestorLocks;
+import servidor.db.ImportacaoEstudantes;
+import servidor.db.OperacaoReplicada;
 import servidor.db.PerguntaDetalhes;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class ClienteHandler implements Runnable {
 
     private final Socket cliente;
     private final DatabaseManager db;
+    private final BaseDadosAssincrona bd;
     private final ReplicationSender replicator;
+    private final SequenciadorVersoes sequenciador;
+    private final PapelServidor papel;
+
+    private static final CompletableFuture<Void> FEITO = CompletableFuture.completedFuture(null);
+    private static final int MAX_PEDIDOS_EM_CURSO = 64;
+
+    /**
+     * Fim da cadeia de pedidos da sessão: cada mensagem é tratada quando a anterior já
+     * respondeu, sem a thread do cliente esperar por isso.
+     */
+    private CompletableFuture<Void> pendente = FEITO;
+    /** Resposta da mensagem a ser tratada (processarMensagem), FEITO se já foi escrita. */
+    private CompletableFuture<Void> resposta = FEITO;
+    /**
+     * Pedidos lidos e ainda sem resposta. Só um cliente que envia sem ler as respostas chega
+     * ao limite; aí a leitura da ligação pára até a cadeia andar.
+     */
+    private final Semaphore emCurso = new Semaphore(MAX_PEDIDOS_EM_CURSO);
+
+    private static final int RESULTADOS_POR_PAGINA = 20;
+
+    /** Pedidos que um backup atende; os restantes são recusados com ERRO:SO_LEITURA. */
+    private static final Set<String> PEDIDOS_BACKUP = Set.of(
+            "LOGIN_DOCENTE", "LOGIN_ESTUDANTE", "LOGOUT",
+            "LISTAR_PERGUNTAS", "OBTER_PERGUNTA_CODIGO", "VER_RESULTADOS", "EXPORTAR_CSV",
+            "LISTAR_RESPOSTAS_ESTUDANTE");
 
     private static final Set<PrintWriter> clientesNotificaveis =
             Collections.synchronizedSet(new HashSet<>());
 
-    public ClienteHandler(Socket cliente, DatabaseManager db, ReplicationSender replicator) {
+    /**
+     * Threads que escrevem as respostas no socket: um cliente que não lê não prende as
+     * threads de leitura nem o escritor de um fragmento.
+     */
+    private static final AtomicInteger numRespostas = new AtomicInteger();
+    private static final ExecutorService respostas = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Cliente-Respostas-" + numRespostas.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ClienteHandler(Socket cliente, DatabaseManager db, BaseDadosAssincrona bd,
+                          ReplicationSender replicator, SequenciadorVersoes sequenciador, PapelServidor papel) {
         this.cliente = cliente;
         this.db = db;
+        this.bd = bd;
         this.replicator = replicator;
+        this.sequenciador = sequenciador;
+        this.papel = papel;
+    }
+
+    /**
+     * Escrita que acrescenta ao diário as operações a replicar (ver DatabaseManager).
+     */
+    private interface Escrita<T> {
+        T executar(DatabaseManager d, List<OperacaoReplicada> diario) throws SQLException;
+    }
+
+    private record Commit<T>(T resultado, int versao, List<OperacaoReplicada> operacoes) {}
+
+    /**
+     * Lock do GestorLocks tomado antes do monitor do fragmento (ver commit).
+     */
+    private interface Faixa<T> {
+        T com(GestorLocks.Acao<T> acao) throws SQLException;
+    }
+
+    private <T> CompletableFuture<Commit<T>> commit(int fragmento, Escrita<T> escrita) {
+        return commit(fragmento, GestorLocks.Acao::executar, escrita);
+    }
+
+    /**
+     * Padrão das escritas: a escrita corre na thread de escrita do fragmento, com a faixa do
+     * GestorLocks e depois o monitor desse fragmento; as verificações "check-then-act" vão
+     * dentro da escrita. No monitor reserva uma versão por operação do diário, para a ordem
+     * das versões seguir a dos commits nesse ficheiro. Devolve o resultado, a primeira versão
+     * e as operações; o envio (replicar) é entregue ao sequenciador já fora do monitor.
+     */
+    private <T> CompletableFuture<Commit<T>> commit(int fragmento, Faixa<Commit<T>> faixa, Escrita<T> escrita) {
+        return bd.escrever(fragmento, d -> faixa.com(() -> {
+            synchronized (d.monitorFragmento(fragmento)) {
+                List<OperacaoReplicada> diario = new ArrayList<>(1);
+                T r = escrita.executar(d, diario);
+                int versao = diario.isEmpty() ? 0 : sequenciador.reservar(diario.size());
+                return new Commit<>(r, versao, diario);
+            }
+        }));
+    }
+
+    /**
+     * Padrão das leituras: a consulta corre nas threads de leitura da BD e a linha de resposta
+     * é escrita quando termina, sem a thread do cliente ficar à espera do SQLite.
+     * erroSQL traduz as SQLException para a resposta do protocolo.
+     *
+     * Antes da resposta vai a linha VERSAO_LIDA:v, com a versão lida antes de lançar a
+     * consulta: a resposta inclui pelo menos todas as escritas até v.
+     */
+    private <T> void responderQuando(PrintWriter out, BaseDadosAssincrona.Operacao<T> consulta,
+                                     Function<T, String> formatar, Function<SQLException, String> erroSQL) {
+        int versao = papel.versaoLida();
+        resposta = bd.ler(consulta).handleAsync((r, erro) -> {
+            // Numa só escrita: um NOTIF enviado por outra thread não pode ficar entre as duas.
+            out.println("VERSAO_LIDA:" + versao + System.lineSeparator() + linha(r, erro, formatar, erroSQL));
+            return null;
+        }, respostas);
+    }
+
+    /**
+     * Como responderQuando, sem VERSAO_LIDA, para um resultado já lançado: nas escritas,
+     * commit(...).thenApply(this::replicar). Depois da resposta, e só se não houve erro,
+     * envia a notificação devolvida por notificacao (null: nenhuma).
+     */
+    private <T> void responderResultado(PrintWriter out, CompletableFuture<T> resultado, Function<T, String> formatar,
+                                      Function<T, String> notificacao, Function<SQLException, String> erroSQL) {
+        resposta = resultado.handleAsync((r, erro) -> {
+            out.println(linha(r, erro, formatar, erroSQL));
+            if (erro == null) {
+                String n = notificacao.apply(r);
+                if (n != null) enviarNotificacaoATodos(n);
+            }
+            return null;
+        }, respostas);
+    }
+
+    private static <T> String linha(T r, Throwable erro, Function<T, String> formatar,
+                                    Function<SQLException, String> erroSQL) {
+        Throwable c = erro != null ? BaseDadosAssincrona.causa(erro) : null;
+        if (c == null) {
+            try {
+                return formatar.apply(r);
+            } catch (RuntimeException e) {
+                System.err.println("[Servidor] Erro ao processar mensagem: " + e.getMessage());
+                return "ERRO:INTERNO";
+            }
+        }
+        if (c instanceof SQLException sql) return erroSQL.apply(sql);
+        if (c instanceof TimeoutException) return "ERRO:TIMEOUT";
+        System.err.println("[Servidor] Erro ao processar mensagem: " + c.getMessage());
+        return "ERRO:INTERNO";
+    }
+
+    private static String erroInterno(SQLException e) {
+        System.err.println("[Servidor] Erro ao processar mensagem: " + e.getMessage());
+        return "ERRO:INTERNO";
+    }
+
+    private <T> T replicar(Commit<T> c) {
+        for (int i = 0; i < c.operacoes().size(); i++) {
+            int versao = c.versao() + i;
+            OperacaoReplicada op = c.operacoes().get(i);
+            sequenciador.publicar(versao, () -> replicator.sendOperacao(versao, op));
+        }
+        return c.resultado();
     }
 
     private static class Sessao {
@@ -60,10 +222,10 @@ public class ClienteHandler implements Runnable {
         Sessao sessao = new Sessao();
         PrintWriter out = null;
 
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(cliente.getInputStream()));
-             PrintWriter pw = new PrintWriter(cliente.getOutputStream(), true)) {
-
-            out = pw;
+        // Sem try-with-resources: o socket só fecha depois de escritas as respostas em curso.
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(cliente.getInputStream()));
+            out = new PrintWriter(cliente.getOutputStream(), true);
 
             cliente.setSoTimeout(30_000);
 
@@ -90,26 +252,30 @@ public class ClienteHandler implements Runnable {
                 return;
             }
 
-            processarMensagem(msgInicial, sessao, in, out);
-
-            if ((msgInicial.startsWith("LOGIN_DOCENTE") || msgInicial.startsWith("LOGIN_ESTUDANTE"))
-                    && !sessao.autenticado) {
-                return;
-            }
-
             cliente.setSoTimeout(0);
 
+            boolean login = msgInicial.startsWith("LOGIN_DOCENTE") || msgInicial.startsWith("LOGIN_ESTUDANTE");
+            encadear(msgInicial, in, sessao, out);
+            pendente = pendente.thenRun(() -> {
+                if (login && !sessao.autenticado) {
+                    System.out.println("[Servidor] Login falhou, a fechar ligação.");
+                    fechar();
+                }
+            });
+
             String msg;
             while ((msg = in.readLine()) != null) {
                 System.out.println("[Servidor] Recebido do cliente: " + msg);
-                processarMensagem(msg, sessao, in, out);
+                encadear(msg, in, sessao, out);
             }
 
             System.out.println("[Servidor] Cliente desligou.");
 
         } catch (java.net.SocketException e) {
-            System.out.println("[Servidor] Ligação terminada abruptamente pelo cliente: "
-                    + cliente.getInetAddress().getHostAddress());
+            if (!cliente.isClosed()) {
+                System.out.println("[Servidor] Ligação terminada abruptamente pelo cliente: "
+                        + cliente.getInetAddress().getHostAddress());
+            }
         } catch (Exception e) {
             System.err.println("[Servidor] Erro ao processar cliente: " + e.getMessage());
             e.printStackTrace();
@@ -117,40 +283,151 @@ public class ClienteHandler implements Runnable {
             if (out != null) {
                 removerClienteDeNotificacoes(out);
             }
-            try {
-                cliente.close();
-            } catch (Exception ignore) {
-            }
+            // As respostas ainda na cadeia são escritas antes de fechar.
+            pendente.thenRun(this::fechar);
         }
     }
 
-    private void processarMensagem(String msg, Sessao sessao, BufferedReader in, PrintWriter out) {
+    /**
+     * Junta a mensagem ao fim da cadeia da sessão: é tratada quando a anterior tiver
+     * respondido, na thread que escreveu essa resposta (ou já, se não houver nenhuma por
+     * escrever). Só as linhas de um lote em stream são lidas aqui, por virem no socket.
+     */
+    private void encadear(String msg, BufferedReader in, Sessao sessao, PrintWriter out)
+            throws IOException, InterruptedException {
+        String[] cabecalho = msg.split(";", 2);
+        List<String> linhasLote = null;
+        if ("REGISTAR_ESTUDANTES_LOTE".equals(cabecalho[0])
+                && (cabecalho.length < 2 || cabecalho[1].isBlank())) {
+            linhasLote = lerLinhasLote(in);
+        }
+        List<String> lote = linhasLote;
+        emCurso.acquire();
+        pendente = pendente.thenCompose(v -> {
+            if (cliente.isClosed()) return FEITO;
+            resposta = FEITO;
+            processarMensagem(msg, lote, sessao, out);
+            return resposta;
+        }).handle((v, erro) -> {
+            emCurso.release();
+            if (erro != null) System.err.println("[Servidor] Erro ao responder: " + erro.getMessage());
+            return null;
+        });
+    }
+
+    private void fechar() {
+        try {
+            cliente.close();
+        } catch (Exception ignore) {
+        }
+    }
+
+    /**
+     * Erros comuns a EDITAR_PERGUNTA e ELIMINAR_PERGUNTA.
+     */
+    private static String erroEdicao(SQLException e) {
+        String m = String.valueOf(e.getMessage());
+        if (m.contains("já tem respostas")) return "ERRO:TEM_RESPOSTAS";
+        return "ERRO:SQL:" + m;
+    }
+
+    /**
+     * Erros comuns a VER_RESULTADOS e EXPORTAR_CSV.
+     */
+    private static String erroResultados(SQLException e) {
+        String m = String.valueOf(e.getMessage());
+        if (m.contains("não pertence")) return "ERRO:NAO_PERTENCE";
+        if (m.contains("não expirou")) return "ERRO:NAO_EXPIRADA";
+        return "ERRO:SQL:" + m;
+    }
+
+    private static List<String> lerLinhasLote(BufferedReader in) throws IOException {
+        List<String> linhas = new ArrayList<>();
+        String linha;
+        while ((linha = in.readLine()) != null && !"FIM_LOTE".equals(linha)) {
+            linhas.add(linha);
+        }
+        return linhas;
+    }
+
+    /**
+     * Trata uma mensagem sem esperar pela BD: as respostas assíncronas ficam em resposta.
+     * linhasLote são as linhas de um REGISTAR_ESTUDANTES_LOTE em stream, já lidas mesmo que
+     * o pedido seja recusado, para não serem tratadas como comandos.
+     */
+    private void processarMensagem(String msg, List<String> linhasLote, Sessao sessao, PrintWriter out) {
         try {
+            // Num backup: só leituras, e só enquanto não estiver demasiado atrás do principal.
+            if (!papel.ehPrincipal() && !"LOGOUT".equals(msg)) {
+                String comando = msg.split(";", 2)[0];
+                if (!PEDIDOS_BACKUP.contains(comando)) {
+                    out.println("ERRO:SO_LEITURA");
+                    return;
+                }
+                if (!papel.podeLer()) {
+                    out.println("ERRO:REPLICA_ATRASADA");
+                    return;
+                }
+            }
+
             if (msg.startsWith("LOGIN_DOCENTE")) {
                 String[] p = msg.split(";");
                 String email = p[1], pass = p[2];
-                boolean ok = db.autenticarDocente(email, pass);
-                if (ok) {
+                // A sessão só muda quando a resposta chega; o pedido seguinte espera por ela.
+                responderResultado(out, bd.ler(d -> d.autenticarDocenteId(email, pass)), docenteId -> {
+                    if (docenteId <= 0) return "LOGIN_FAIL";
                     sessao.autenticado = true;
                     sessao.role = "DOCENTE";
-                    sessao.docenteId = db.getDocenteId(email);
+                    sessao.docenteId = docenteId;
                     registarClienteParaNotificacoes(out);
-                    out.println("LOGIN_OK");
-                } else out.println("LOGIN_FAIL");
+                    return "LOGIN_OK";
+                }, r -> null, ClienteHandler::erroInterno);
             }
             else if (msg.startsWith("LOGIN_ESTUDANTE")) {
                 String[] p = msg.split(";");
                 String email = p[1], pass = p[2];
-                boolean ok = db.autenticarEstudante(email, pass);
-                if (ok) {
+                responderResultado(out, bd.ler(d -> d.autenticarEstudanteId(email, pass)), estudanteId -> {
+                    if (estudanteId <= 0) return "LOGIN_FAIL";
                     sessao.autenticado = true;
                     sessao.role = "ESTUDANTE";
-                    sessao.estudanteId = getEstudanteId(db, email);
+                    sessao.estudanteId = estudanteId;
                     registarClienteParaNotificacoes(out);
-                    out.println("LOGIN_OK");
-                } else out.println("LOGIN_FAIL");
+                    return "LOGIN_OK";
+                }, r -> null, ClienteHandler::erroInterno);
             }
 
+            else if (msg.startsWith("CRIAR_PERGUNTA_COMPLETA")) {
+                if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
+                    out.println("ERRO: PERMISSAO_NEGADA");
+                    return;
+                }
+                // CRIAR_PERGUNTA_COMPLETA;enunciado;inicio;fim|a;texto;1|b;texto;0...
+                String[] blocos = msg.split("\\|");
+                String[] cab = blocos[0].split(";", 4);
+                if (cab.length < 4 || blocos.length < 3) {
+                    out.println("ERRO:ARGS");
+                    return;
+                }
+                String enunciado = cab[1], inicio = cab[2], fim = cab[3];
+
+                List<PerguntaDetalhes.OpcaoDetalhes> opcoes = new ArrayList<>();
+                Set<String> letras = new HashSet<>();
+                for (int i = 1; i < blocos.length; i++) {
+                    String[] o = blocos[i].split(";", 3);
+                    if (o.length < 3 || o[0].isEmpty() || !letras.add(o[0])) {
+                        out.println("ERRO:OPCAO_INVALIDA:" + i);
+                        return;
+                    }
+                    opcoes.add(new PerguntaDetalhes.OpcaoDetalhes(0, o[0], o[1], "1".equals(o[2].trim())));
+                }
+
+                int docenteId = sessao.docenteId;
+                responderResultado(out, commit(db.fragmentoDeDocente(docenteId), a -> db.getLocks().comDocente(docenteId, a),
+                                (d, diario) -> d.criarPerguntaComOpcoes(docenteId, enunciado, inicio, fim, opcoes, diario))
+                                .thenApply(this::replicar),
+                        res -> "PERGUNTA_CRIADA:" + res.id + ":" + res.codigoAcesso,
+                        res -> "PERGUNTAS_ATUALIZADAS", e -> "ERRO:SQL:" + e.getMessage());
+            }
             else if (msg.startsWith("CRIAR_PERGUNTA")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
                     out.println("ERRO: PERMISSAO_NEGADA");
@@ -158,30 +435,23 @@ public class ClienteHandler implements Runnable {
                 }
                 String[] p = msg.split(";");
 
-                synchronized (db) {
-                    String enunciado, inicio, fim;
-                    if (p.length == 5) {
-                        enunciado = p[2];
-                        inicio = p[3];
-                        fim = p[4];
-                    } else {
-                        enunciado = p[1];
-                        inicio = p[2];
-                        fim = p[3];
-                    }
-
-                    var res = db.criarPerguntaCompleta(sessao.docenteId, enunciado, inicio, fim);
-                    int versao = db.incrementarVersao();
-                    out.println("PERGUNTA_CRIADA:" + res.id + ":" + res.codigoAcesso);
-
-                    String querySql = String.format(
-                            "INSERT INTO Pergunta (enunciado,data_inicio,data_fim,codigo_acesso,docente_id) " +
-                                    "VALUES ('%s','%s','%s','%s',%d)",
-                            enunciado.replace("'", "''"), inicio, fim, res.codigoAcesso, sessao.docenteId
-                    );
-                    replicator.sendUpdate(versao, querySql);
-                    enviarNotificacaoATodos("PERGUNTAS_ATUALIZADAS");
+                String enunciado, inicio, fim;
+                if (p.length == 5) {
+                    enunciado = p[2];
+                    inicio = p[3];
+                    fim = p[4];
+                } else {
+                    enunciado = p[1];
+                    inicio = p[2];
+                    fim = p[3];
                 }
+
+                int docenteId = sessao.docenteId;
+                responderResultado(out, commit(db.fragmentoDeDocente(docenteId), a -> db.getLocks().comDocente(docenteId, a),
+                                (d, diario) -> d.criarPerguntaCompleta(docenteId, enunciado, inicio, fim, diario))
+                                .thenApply(this::replicar),
+                        res -> "PERGUNTA_CRIADA:" + res.id + ":" + res.codigoAcesso,
+                        res -> "PERGUNTAS_ATUALIZADAS", ClienteHandler::erroInterno);
             }
             else if (msg.startsWith("ADICIONAR_OPCAO")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
@@ -190,23 +460,15 @@ public class ClienteHandler implements Runnable {
                 }
                 String[] p = msg.split(";");
 
-                synchronized (db) {
-                    int perguntaId = Integer.parseInt(p[1]);
-                    String letra = p[2];
-                    String texto = p[3];
-                    boolean correta = p[4].equals("1");
-
-                    db.adicionarOpcao(perguntaId, letra, texto, correta);
-                    int versao = db.incrementarVersao();
-                    out.println("OPCAO_ADICIONADA");
-
-                    String querySql = String.format(
-                            "INSERT INTO Opcao (pergunta_id,letra,texto,is_correta) VALUES (%d,'%s','%s',%d)",
-                            perguntaId, letra, texto.replace("'", "''"), correta ? 1 : 0
-                    );
-                    replicator.sendUpdate(versao, querySql);
-                    enviarNotificacaoATodos("PERGUNTAS_ATUALIZADAS");
-                }
+                int perguntaId = Integer.parseInt(p[1]);
+                String letra = p[2];
+                String texto = p[3];
+                boolean correta = p[4].equals("1");
+
+                responderResultado(out, commit(db.fragmentoDePergunta(perguntaId), a -> db.getLocks().comPergunta(perguntaId, a),
+                                (d, diario) -> { d.adicionarOpcao(perguntaId, letra, texto, correta, diario); return null; })
+                                .thenApply(this::replicar),
+                        r -> "OPCAO_ADICIONADA", r -> "PERGUNTAS_ATUALIZADAS", ClienteHandler::erroInterno);
             }
 
             else if (msg.startsWith("RESPONDER")) {
@@ -229,24 +491,19 @@ public class ClienteHandler implements Runnable {
                 }
 
                 String letra = p[2];
-                try {
-                    synchronized (db) {
-                        db.guardarResposta(sessao.estudanteId, perguntaId, letra);
-                        int versao = db.incrementarVersao();
-                        out.println("RESPOSTA_GUARDADA");
-
-                        String querySql = String.format(
-                                "INSERT INTO Resposta (estudante_id,pergunta_id,opcao_letra) VALUES (%d,%d,'%s')",
-                                sessao.estudanteId, perguntaId, letra
-                        );
-                        replicator.sendUpdate(versao, querySql);
-                        enviarNotificacaoATodos("RESPOSTAS_ATUALIZADAS");
-                    }
-                } catch (SQLException e) {
-                    String m = e.getMessage() != null ? e.getMessage() : "";
-                    if (m.contains("UNIQUE")) out.println("ERRO:JA_RESPONDEU");
-                    else out.println("ERRO:SQL");
+                // Repetições recusadas pelo índice de respostas, sem lock nem BD.
+                if (db.jaRespondeu(sessao.estudanteId, perguntaId)) {
+                    out.println("ERRO:JA_RESPONDEU");
+                    return;
                 }
+                int estudanteId = sessao.estudanteId;
+                responderResultado(out, commit(db.fragmentoDePergunta(perguntaId), a -> db.getLocks().comPergunta(perguntaId, a),
+                                (d, diario) -> { d.guardarResposta(estudanteId, perguntaId, letra, diario); return null; })
+                                .thenApply(this::replicar),
+                        r -> "RESPOSTA_GUARDADA", r -> "RESPOSTAS_ATUALIZADAS", e -> {
+                            String m = e.getMessage() != null ? e.getMessage() : "";
+                            return m.contains("UNIQUE") ? "ERRO:JA_RESPONDEU" : "ERRO:SQL";
+                        });
             }
             else if (msg.startsWith("OBTER_PERGUNTA_CODIGO")) {
                 if (!sessao.autenticado || !"ESTUDANTE".equals(sessao.role)) { out.println("ERRO: PERMISSAO_NEGADA"); return; }
@@ -254,11 +511,10 @@ public class ClienteHandler implements Runnable {
                 if (p.length < 2) { out.println("ERRO:ARGS"); return; }
                 String codigo = p[1];
 
-                try {
-                    PerguntaDetalhes pd = db.obterPerguntaAtivaPorCodigo(codigo);
-                    if (pd == null) { out.println("ERRO:CODIGO_INVALIDO"); return; }
-                    if (!"ATIVA".equals(pd.estado)) { out.println("ERRO:PERGUNTA_NAO_ATIVA"); return; }
-                    if (pd.opcoes.size() < 2) { out.println("ERRO:PERGUNTA_INCOMPLETA"); return; }
+                responderQuando(out, d -> d.obterPerguntaAtivaPorCodigo(codigo), pd -> {
+                    if (pd == null) return "ERRO:CODIGO_INVALIDO";
+                    if (!"ATIVA".equals(pd.estado)) return "ERRO:PERGUNTA_NAO_ATIVA";
+                    if (pd.opcoes.size() < 2) return "ERRO:PERGUNTA_INCOMPLETA";
 
                     StringBuilder sb = new StringBuilder("PERGUNTA_PARA_RESPONDER:");
                     sb.append(pd.id).append(";")
@@ -271,10 +527,8 @@ public class ClienteHandler implements Runnable {
                     for (var op : pd.opcoes) {
                         sb.append("|").append(op.letra).append(";").append(op.texto);
                     }
-                    out.println(sb.toString());
-                } catch (SQLException e) {
-                    out.println("ERRO:SQL:" + e.getMessage());
-                }
+                    return sb.toString();
+                }, e -> "ERRO:SQL:" + e.getMessage());
             }
 
             else if (msg.startsWith("REGISTAR_DOCENTE")) {
@@ -282,58 +536,66 @@ public class ClienteHandler implements Runnable {
                 if (p.length < 5) { out.println("ERRO:ARGS"); return; }
                 String nome = p[1], email = p[2], pass = p[3], codigo = p[4].trim();
 
-                try {
-                    if (!db.validarCodigoDocente(codigo)) {
-                        out.println("ERRO:CODIGO_DOCENTE_INVALIDO");
-                        return;
-                    }
+                // id -1: código inválido, sem escrita.
+                CompletableFuture<Integer> criado = bd.ler(d -> d.validarCodigoDocente(codigo)).thenCompose(valido -> valido
+                        ? commit(DatabaseManager.PARTILHADO, (d, diario) -> d.criarDocente(nome, email, pass, diario))
+                                .thenApply(this::replicar)
+                        : CompletableFuture.completedFuture(-1));
+                responderResultado(out, criado,
+                        id -> id < 0 ? "ERRO:CODIGO_DOCENTE_INVALIDO" : "DOCENTE_CRIADO:" + id,
+                        id -> id < 0 ? null : "UTILIZADORES_ATUALIZADOS", e -> {
+                            String m = String.valueOf(e.getMessage());
+                            return m.contains("UNIQUE") ? "ERRO:EMAIL_DUPLICADO" : "ERRO:SQL";
+                        });
+            }
+            else if (msg.startsWith("REGISTAR_ESTUDANTES_LOTE")) {
+                if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
+                    out.println("ERRO: PERMISSAO_NEGADA");
+                    return;
+                }
 
-                    synchronized (db) {
-                        int id = db.criarDocente(nome, email, pass);
-                        int versao = db.incrementarVersao();
-                        out.println("DOCENTE_CRIADO:" + id);
-
-                        String passHash = DatabaseManager.hashPassword(pass);
-                        String q = String.format(
-                                "INSERT INTO Docente (nome,email,password_hash) VALUES ('%s','%s','%s')",
-                                nome.replace("'", "''"), email.replace("'", "''"), passHash
-                        );
-                        replicator.sendUpdate(versao, q);
-                        enviarNotificacaoATodos("UTILIZADORES_ATUALIZADOS");
+                // Com payload: CSV em base64 numa só linha. Sem payload: as linhas
+                // seguintes são as do CSV, até FIM_LOTE (já lidas em linhasLote).
+                List<String> linhas = new ArrayList<>();
+                if (linhasLote != null) {
+                    linhas.addAll(linhasLote);
+                } else {
+                    try {
+                        String csv = new String(Base64.getDecoder().decode(msg.split(";", 2)[1].trim()),
+                                StandardCharsets.UTF_8);
+                        linhas.addAll(Arrays.asList(csv.split("\\r?\\n")));
+                    } catch (IllegalArgumentException iae) {
+                        out.println("ERRO:CSV_INVALIDO");
+                        return;
                     }
-                } catch (SQLException e) {
-                    String m = String.valueOf(e.getMessage());
-                    if (m.contains("UNIQUE")) out.println("ERRO:EMAIL_DUPLICADO");
-                    else out.println("ERRO:SQL");
                 }
+
+                ImportacaoEstudantes validada = ImportacaoEstudantes.validar(linhas);
+                // Um bloco por versão, todas reservadas seguidas, antes de outra escrita.
+                responderResultado(out, commit(DatabaseManager.PARTILHADO,
+                                (d, diario) -> d.importarEstudantes(validada, diario)).thenApply(this::replicar),
+                        ImportacaoEstudantes::relatorio,
+                        imp -> imp.inseridas.isEmpty() ? null : "UTILIZADORES_ATUALIZADOS",
+                        e -> "ERRO:SQL:" + e.getMessage());
             }
             else if (msg.startsWith("REGISTAR_ESTUDANTE")) {
                 String[] p = msg.split(";", 5);
                 if (p.length < 5) { out.println("ERRO:ARGS"); return; }
+                int numero;
                 try {
-                    int numero = Integer.parseInt(p[1]);
-                    String nome = p[2], email = p[3], pass = p[4];
-
-                    synchronized (db) {
-                        int id = db.criarEstudante(numero, nome, email, pass);
-                        int versao = db.incrementarVersao();
-                        out.println("ESTUDANTE_CRIADO:" + id);
-
-                        String passHash = DatabaseManager.hashPassword(pass);
-                        String q = String.format(
-                                "INSERT INTO Estudante (numero,nome,email,password_hash) VALUES (%d,'%s','%s','%s')",
-                                numero, nome.replace("'", "''"), email.replace("'", "''"), passHash
-                        );
-                        replicator.sendUpdate(versao, q);
-                        enviarNotificacaoATodos("UTILIZADORES_ATUALIZADOS");
-                    }
+                    numero = Integer.parseInt(p[1]);
                 } catch (NumberFormatException nfe) {
                     out.println("ERRO:NUMERO_INVALIDO");
-                } catch (SQLException e) {
-                    String m = String.valueOf(e.getMessage());
-                    if (m.contains("UNIQUE")) out.println("ERRO:EMAIL_OU_NUMERO_DUP");
-                    else out.println("ERRO:SQL");
+                    return;
                 }
+                String nome = p[2], email = p[3], pass = p[4];
+
+                responderResultado(out, commit(DatabaseManager.PARTILHADO,
+                                (d, diario) -> d.criarEstudante(numero, nome, email, pass, diario)).thenApply(this::replicar),
+                        id -> "ESTUDANTE_CRIADO:" + id, id -> "UTILIZADORES_ATUALIZADOS", e -> {
+                            String m = String.valueOf(e.getMessage());
+                            return m.contains("UNIQUE") ? "ERRO:EMAIL_OU_NUMERO_DUP" : "ERRO:SQL";
+                        });
             }
             else if (msg.startsWith("EDITAR_DOCENTE")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
@@ -347,25 +609,14 @@ public class ClienteHandler implements Runnable {
                 String novoEmail = p[2];
                 String novaPass  = p[3];
 
-                try {
-                    synchronized (db) {
-                        db.atualizarDocentePerfil(sessao.docenteId, novoNome, novoEmail, novaPass);
-                        int versao = db.incrementarVersao();
-                        out.println("DOCENTE_ATUALIZADO");
-
-                        String passHash = DatabaseManager.hashPassword(novaPass);
-                        String q = String.format(
-                                "UPDATE Docente SET nome='%s', email='%s', password_hash='%s' WHERE id=%d",
-                                novoNome.replace("'", "''"), novoEmail.replace("'", "''"), passHash, sessao.docenteId
-                        );
-                        replicator.sendUpdate(versao, q);
-                        enviarNotificacaoATodos("UTILIZADORES_ATUALIZADOS");
-                    }
-                } catch (SQLException e) {
-                    String m = String.valueOf(e.getMessage());
-                    if (m.contains("UNIQUE")) out.println("ERRO:EMAIL_DUPLICADO");
-                    else out.println("ERRO:SQL");
-                }
+                int docenteId = sessao.docenteId;
+                responderResultado(out, commit(DatabaseManager.PARTILHADO, a -> db.getLocks().comDocente(docenteId, a),
+                                (d, diario) -> { d.atualizarDocentePerfil(docenteId, novoNome, novoEmail, novaPass, diario); return null; })
+                                .thenApply(this::replicar),
+                        r -> "DOCENTE_ATUALIZADO", r -> "UTILIZADORES_ATUALIZADOS", e -> {
+                            String m = String.valueOf(e.getMessage());
+                            return m.contains("UNIQUE") ? "ERRO:EMAIL_DUPLICADO" : "ERRO:SQL";
+                        });
             }
             else if (msg.startsWith("EDITAR_ESTUDANTE")) {
                 if (!sessao.autenticado || !"ESTUDANTE".equals(sessao.role)) {
@@ -379,25 +630,44 @@ public class ClienteHandler implements Runnable {
                 String novoEmail = p[2];
                 String novaPass  = p[3];
 
+                int estudanteId = sessao.estudanteId;
+                responderResultado(out, commit(DatabaseManager.PARTILHADO, a -> db.getLocks().comEstudante(estudanteId, a),
+                                (d, diario) -> { d.atualizarEstudantePerfil(estudanteId, novoNome, novoEmail, novaPass, diario); return null; })
+                                .thenApply(this::replicar),
+                        r -> "ESTUDANTE_ATUALIZADO", r -> "UTILIZADORES_ATUALIZADOS", e -> {
+                            String m = e.getMessage() != null ? e.getMessage() : "";
+                            return m.contains("UNIQUE") ? "ERRO:EMAIL_DUPLICADO" : "ERRO:SQL";
+                        });
+            }
+
+            else if (msg.startsWith("SEARCH_PERGUNTAS")) {
+                if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) { out.println("ERRO: PERMISSAO_NEGADA"); return; }
+                String[] p = msg.split(";", 3);
+                if (p.length < 2 || p[1].trim().isEmpty()) { out.println("ERRO:ARGS"); return; }
+
+                int pagina;
                 try {
-                    synchronized (db) {
-                        db.atualizarEstudantePerfil(sessao.estudanteId, novoNome, novoEmail, novaPass);
-                        int versao = db.incrementarVersao();
-                        out.println("ESTUDANTE_ATUALIZADO");
-
-                        String passHash = DatabaseManager.hashPassword(novaPass);
-                        String q = String.format(
-                                "UPDATE Estudante SET nome='%s', email='%s', password_hash='%s' WHERE id=%d",
-                                novoNome.replace("'", "''"), novoEmail.replace("'", "''"), passHash, sessao.estudanteId
-                        );
-                        replicator.sendUpdate(versao, q);
-                        enviarNotificacaoATodos("UTILIZADORES_ATUALIZADOS");
+                    pagina = p.length > 2 && !p[2].trim().isEmpty() ? Integer.parseInt(p[2].trim()) : 1;
+                } catch (NumberFormatException e) { out.println("ERRO:ARGS"); return; }
+                if (pagina < 1) { out.println("ERRO:ARGS"); return; }
+
+                int docenteId = sessao.docenteId;
+                String termos = p[1];
+                responderQuando(out, d -> d.pesquisarPerguntas(docenteId, termos,
+                        (pagina - 1) * RESULTADOS_POR_PAGINA, RESULTADOS_POR_PAGINA), resultados -> {
+                    if (resultados.isEmpty()) return "INFO:NENHUMA_PERGUNTA_ENCONTRADA";
+
+                    StringBuilder sb = new StringBuilder("PESQUISA_RESULTADOS:" + resultados.size() + ":" + pagina);
+                    for (var pg : resultados) {
+                        sb.append("|").append(pg.id)
+                                .append(";").append(pg.enunciado)
+                                .append(";").append(pg.dataInicio)
+                                .append(";").append(pg.dataFim)
+                                .append(";").append(pg.codigoAcesso)
+                                .append(";").append(pg.estado);
                     }
-                } catch (SQLException e) {
-                    String m = e.getMessage() != null ? e.getMessage() : "";
-                    if (m.contains("UNIQUE")) out.println("ERRO:EMAIL_DUPLICADO");
-                    else out.println("ERRO:SQL");
-                }
+                    return sb.toString();
+                }, e -> "ERRO:SQL:" + e.getMessage());
             }
 
             else if (msg.startsWith("LISTAR_PERGUNTAS")) {
@@ -405,26 +675,22 @@ public class ClienteHandler implements Runnable {
                 String[] p = msg.split(";", 2);
                 String filtro = (p.length > 1 && !p[1].trim().isEmpty() && !"TODAS".equalsIgnoreCase(p[1])) ? p[1] : null;
 
-                try {
-                    var perguntas = db.listarPerguntas(sessao.docenteId, filtro);
-                    if (perguntas.isEmpty()) {
-                        out.println("INFO:NENHUMA_PERGUNTA_ENCONTRADA");
-                    } else {
-                        StringBuilder sb = new StringBuilder("PERGUNTAS_LISTA:" + perguntas.size());
-                        for (var pg : perguntas) {
-                            sb.append("|").append(pg.id)
-                                    .append(";").append(pg.enunciado)
-                                    .append(";").append(pg.dataInicio)
-                                    .append(";").append(pg.dataFim)
-                                    .append(";").append(pg.codigoAcesso)
-                                    .append(";").append(pg.estado)
-                                    .append(";").append(pg.numRespostas);
-                        }
-                        out.println(sb.toString());
+                int docenteId = sessao.docenteId;
+                responderQuando(out, d -> d.listarPerguntas(docenteId, filtro), perguntas -> {
+                    if (perguntas.isEmpty()) return "INFO:NENHUMA_PERGUNTA_ENCONTRADA";
+
+                    StringBuilder sb = new StringBuilder("PERGUNTAS_LISTA:" + perguntas.size());
+                    for (var pg : perguntas) {
+                        sb.append("|").append(pg.id)
+                                .append(";").append(pg.enunciado)
+                                .append(";").append(pg.dataInicio)
+                                .append(";").append(pg.dataFim)
+                                .append(";").append(pg.codigoAcesso)
+                                .append(";").append(pg.estado)
+                                .append(";").append(pg.numRespostas);
                     }
-                } catch (SQLException e) {
-                    out.println("ERRO:SQL:" + e.getMessage());
-                }
+                    return sb.toString();
+                }, e -> "ERRO:SQL:" + e.getMessage());
             }
             else if (msg.startsWith("EDITAR_PERGUNTA")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
@@ -434,35 +700,26 @@ public class ClienteHandler implements Runnable {
                 String[] p = msg.split(";", 5);
                 if (p.length < 5) { out.println("ERRO:ARGS"); return; }
 
+                int perguntaId;
                 try {
-                    int perguntaId = Integer.parseInt(p[1]);
-                    String novoEnunciado = p[2];
-                    String novoInicio = p[3];
-                    String novoFim = p[4];
-
-                    if (!db.perguntaPertenceADocente(perguntaId, sessao.docenteId)) {
-                        out.println("ERRO:NAO_PERTENCE");
-                        return;
-                    }
-
-                    synchronized (db) {
-                        db.editarPergunta(perguntaId, novoEnunciado, novoInicio, novoFim);
-                        int versao = db.incrementarVersao();
-                        out.println("PERGUNTA_EDITADA");
-
-                        String querySql = String.format(
-                                "UPDATE Pergunta SET enunciado='%s', data_inicio='%s', data_fim='%s' WHERE id=%d",
-                                novoEnunciado.replace("'", "''"), novoInicio, novoFim, perguntaId
-                        );
-                        replicator.sendUpdate(versao, querySql);
-                        enviarNotificacaoATodos("PERGUNTAS_ATUALIZADAS");
-                    }
+                    perguntaId = Integer.parseInt(p[1]);
                 } catch (NumberFormatException nfe) {
                     out.println("ERRO:ID_INVALIDO");
-                } catch (SQLException e) {
-                    if (e.getMessage().contains("já tem respostas")) out.println("ERRO:TEM_RESPOSTAS");
-                    else out.println("ERRO:SQL:" + e.getMessage());
+                    return;
                 }
+                String novoEnunciado = p[2];
+                String novoInicio = p[3];
+                String novoFim = p[4];
+
+                int docenteId = sessao.docenteId;
+                responderResultado(out, commit(db.fragmentoDePergunta(perguntaId), a -> db.getLocks().comPergunta(perguntaId, a),
+                                (d, diario) -> {
+                                    if (!d.perguntaPertenceADocente(perguntaId, docenteId)) return false;
+                                    d.editarPergunta(perguntaId, novoEnunciado, novoInicio, novoFim, diario);
+                                    return true;
+                                }).thenApply(this::replicar),
+                        editada -> editada ? "PERGUNTA_EDITADA" : "ERRO:NAO_PERTENCE",
+                        editada -> editada ? "PERGUNTAS_ATUALIZADAS" : null, ClienteHandler::erroEdicao);
             }
             else if (msg.startsWith("ELIMINAR_PERGUNTA")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) {
@@ -472,44 +729,38 @@ public class ClienteHandler implements Runnable {
                 String[] p = msg.split(";", 2);
                 if (p.length < 2) { out.println("ERRO:ARGS"); return; }
 
+                int perguntaId;
                 try {
-                    int perguntaId = Integer.parseInt(p[1]);
-                    if (!db.perguntaPertenceADocente(perguntaId, sessao.docenteId)) {
-                        out.println("ERRO:NAO_PERTENCE");
-                        return;
-                    }
-
-                    synchronized (db) {
-                        db.eliminarPergunta(perguntaId);
-                        out.println("PERGUNTA_ELIMINADA");
-
-                        String q1 = String.format("DELETE FROM Opcao WHERE pergunta_id=%d", perguntaId);
-                        int v1 = db.incrementarVersao();
-                        replicator.sendUpdate(v1, q1);
-
-                        String q2 = String.format("DELETE FROM Pergunta WHERE id=%d", perguntaId);
-                        int v2 = db.incrementarVersao();
-                        replicator.sendUpdate(v2, q2);
-
-                        enviarNotificacaoATodos("PERGUNTAS_ATUALIZADAS");
-                    }
-
+                    perguntaId = Integer.parseInt(p[1]);
                 } catch (NumberFormatException nfe) {
                     out.println("ERRO:ID_INVALIDO");
-                } catch (SQLException e) {
-                    if (e.getMessage().contains("já tem respostas")) out.println("ERRO:TEM_RESPOSTAS");
-                    else out.println("ERRO:SQL:" + e.getMessage());
+                    return;
                 }
+
+                int docenteId = sessao.docenteId;
+                responderResultado(out, commit(db.fragmentoDePergunta(perguntaId), a -> db.getLocks().comPergunta(perguntaId, a),
+                                (d, diario) -> {
+                                    if (!d.perguntaPertenceADocente(perguntaId, docenteId)) return false;
+                                    d.eliminarPergunta(perguntaId, diario);
+                                    return true;
+                                }).thenApply(this::replicar),
+                        eliminada -> eliminada ? "PERGUNTA_ELIMINADA" : "ERRO:NAO_PERTENCE",
+                        eliminada -> eliminada ? "PERGUNTAS_ATUALIZADAS" : null, ClienteHandler::erroEdicao);
             }
             else if (msg.startsWith("VER_RESULTADOS")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) { out.println("ERRO: PERMISSAO_NEGADA"); return; }
                 String[] p = msg.split(";", 2);
                 if (p.length < 2) { out.println("ERRO:ARGS"); return; }
 
+                int perguntaId;
                 try {
-                    int perguntaId = Integer.parseInt(p[1]);
-                    PerguntaDetalhes pd = db.obterDetalhesPerguntaExpirada(perguntaId, sessao.docenteId);
-
+                    perguntaId = Integer.parseInt(p[1]);
+                } catch (NumberFormatException nfe) {
+                    out.println("ERRO:ID_INVALIDO");
+                    return;
+                }
+                int docenteId = sessao.docenteId;
+                responderQuando(out, d -> d.obterDetalhesPerguntaExpirada(perguntaId, docenteId), pd -> {
                     StringBuilder sb = new StringBuilder("RESULTADOS:");
                     sb.append(pd.id).append(";")
                             .append(pd.enunciado).append(";")
@@ -526,65 +777,47 @@ public class ClienteHandler implements Runnable {
                                 .append(";").append(op.numRespostas);
                     }
 
-                    sb.append("|RESPOSTAS:").append(pd.respostas.size());
-                    for (var resp : pd.respostas) {
-                        sb.append("|").append(resp.estudanteNumero)
-                                .append(";").append(resp.estudanteNome)
-                                .append(";").append(resp.estudanteEmail)
-                                .append(";").append(resp.opcaoLetra)
-                                .append(";").append(resp.estaCorreta ? "CERTA" : "ERRADA")
-                                .append(";").append(resp.dataHora);
-                    }
-
-                    out.println(sb.toString());
-                } catch (NumberFormatException nfe) {
-                    out.println("ERRO:ID_INVALIDO");
-                } catch (SQLException e) {
-                    if (e.getMessage().contains("não pertence")) out.println("ERRO:NAO_PERTENCE");
-                    else if (e.getMessage().contains("não expirou")) out.println("ERRO:NAO_EXPIRADA");
-                    else out.println("ERRO:SQL:" + e.getMessage());
-                }
+                    sb.append("|RESPOSTAS:").append(pd.respostas.tamanho());
+                    pd.respostas.escreverProtocolo(sb, db.getDicionarioEstudantes());
+                    return sb.toString();
+                }, ClienteHandler::erroResultados);
             }
             else if (msg.startsWith("EXPORTAR_CSV")) {
                 if (!sessao.autenticado || !"DOCENTE".equals(sessao.role)) { out.println("ERRO: PERMISSAO_NEGADA"); return; }
                 String[] p = msg.split(";", 2);
                 if (p.length < 2) { out.println("ERRO:ARGS"); return; }
 
+                int perguntaId;
                 try {
-                    int perguntaId = Integer.parseInt(p[1]);
-                    String csv = db.exportarParaCSV(perguntaId, sessao.docenteId);
-                    String csvBase64 = java.util.Base64.getEncoder().encodeToString(csv.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                    out.println("CSV_EXPORTADO:" + csvBase64);
+                    perguntaId = Integer.parseInt(p[1]);
                 } catch (NumberFormatException nfe) {
                     out.println("ERRO:ID_INVALIDO");
-                } catch (SQLException e) {
-                    if (e.getMessage().contains("não pertence")) out.println("ERRO:NAO_PERTENCE");
-                    else if (e.getMessage().contains("não expirou")) out.println("ERRO:NAO_EXPIRADA");
-                    else out.println("ERRO:SQL:" + e.getMessage());
+                    return;
                 }
+                int docenteId = sessao.docenteId;
+                responderQuando(out, d -> d.exportarParaCSV(perguntaId, docenteId), csv ->
+                        "CSV_EXPORTADO:" + Base64.getEncoder().encodeToString(csv.getBytes(StandardCharsets.UTF_8)),
+                        ClienteHandler::erroResultados);
             }
 
             else if (msg.startsWith("LISTAR_RESPOSTAS_ESTUDANTE")) {
                 if (!sessao.autenticado || !"ESTUDANTE".equals(sessao.role)) { out.println("ERRO: PERMISSAO_NEGADA"); return; }
-                try {
-                    var lista = db.listarRespostasEstudanteExpiradas(sessao.estudanteId);
-                    if (lista.isEmpty()) out.println("INFO:NENHUMA_RESPOSTA");
-                    else {
-                        StringBuilder sb = new StringBuilder("RESPOSTAS_ESTUDANTE:" + lista.size());
-                        for (var rInfo : lista) {
-                            sb.append("|")
-                                    .append(rInfo.perguntaId).append(";")
-                                    .append(rInfo.enunciado).append(";")
-                                    .append(rInfo.dataFim).append(";")
-                                    .append(rInfo.dataResposta).append(";")
-                                    .append(rInfo.letra).append(";")
-                                    .append(rInfo.correta ? "CERTA" : "ERRADA");
-                        }
-                        out.println(sb.toString());
+                int estudanteId = sessao.estudanteId;
+                responderQuando(out, d -> d.listarRespostasEstudanteExpiradas(estudanteId), lista -> {
+                    if (lista.isEmpty()) return "INFO:NENHUMA_RESPOSTA";
+
+                    StringBuilder sb = new StringBuilder("RESPOSTAS_ESTUDANTE:" + lista.size());
+                    for (var rInfo : lista) {
+                        sb.append("|")
+                                .append(rInfo.perguntaId).append(";")
+                                .append(rInfo.enunciado).append(";")
+                                .append(rInfo.dataFim).append(";")
+                                .append(rInfo.dataResposta).append(";")
+                                .append(rInfo.letra).append(";")
+                                .append(rInfo.correta ? "CERTA" : "ERRADA");
                     }
-                } catch (SQLException e) {
-                    out.println("ERRO:SQL:" + e.getMessage());
-                }
+                    return sb.toString();
+                }, e -> "ERRO:SQL:" + e.getMessage());
             }
 
             else if ("LOGOUT".equals(msg)) {
@@ -603,13 +836,4 @@ public class ClienteHandler implements Runnable {
             out.println("ERRO:INTERNO");
         }
     }
-
-    private static int getEstudanteId(DatabaseManager db, String email) throws SQLException {
-        try (PreparedStatement ps = db.getConnection().prepareStatement("SELECT id FROM Estudante WHERE email=?")) {
-            ps.setString(1, email);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next() ? rs.getInt(1) : -1;
-            }
-        }
-    }
 }
\ No newline at end of file
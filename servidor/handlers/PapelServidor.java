@@ -0,0 +1,20 @@
+package servidor.handlers;
+
+/**
+ * O que o ClienteHandler precisa de saber do papel do servidor. Um backup atende só
+ * leituras, e só enquanto não estiver demasiado atrás do principal (ver Main).
+ */
+public interface PapelServidor {
+
+    boolean ehPrincipal();
+
+    /**
+     * Versão cujas escritas uma leitura começada agora vê de certeza.
+     */
+    int versaoLida();
+
+    /**
+     * Num backup: false se estiver atrasado em relação ao principal para além do limite.
+     */
+    boolean podeLer();
+}